@@ -22,6 +22,7 @@
 import java.sql.*;
 import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Pattern;
 
 import org.jitsi.service.configuration.*;
@@ -34,6 +35,16 @@
 
 /**
  * Implementation of the {@link ConfigurationService} based on JDBC.
+ * <p>
+ * All the properties are read from the database once, when the service is
+ * created, and kept in memory. Reads never access the database nor lock.
+ * Changes are applied to memory immediately and written back to the
+ * database by a background thread, which groups the changes made in a short
+ * period in a single transaction. {@link #storeConfiguration()} writes the
+ * pending changes before closing the database.
+ * <p>
+ * The property names are indexed by their dot separated segments, so the
+ * prefix and suffix queries only visit the names they return.
  * 
  * @author Ingo Bauersachs
  */
@@ -90,14 +101,58 @@
     private SetMultimap<String, PropertyChangeListener> listeners
         = HashMultimap.create();
 
+    /**
+     * The time in milliseconds the writer thread waits for more changes
+     * before writing them in a single transaction.
+     */
+    private static final long WRITE_DELAY = 200;
+
+    /**
+     * The time in milliseconds the writer thread waits before trying again
+     * to write changes which failed to be written.
+     */
+    private static final long RETRY_DELAY = 5000;
+
+    /**
+     * The properties stored in the database, as they are after all the
+     * changes made so far, including those which are not written yet.
+     */
+    private final Map<String, String> properties
+        = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The names of {@link #properties}, indexed for the prefix and suffix
+     * queries.
+     */
+    private final PropertyNameIndex propertyNames = new PropertyNameIndex();
+
+    /**
+     * The changes which are not written to the database yet, in the order
+     * they were made. A <tt>null</tt> value removes the property.
+     */
+    private final Map<String, String> pendingWrites
+        = new LinkedHashMap<String, String>();
+
+    /**
+     * The changes made by the current call to
+     * {@link #setProperties(Map)}, queued together when it completes so they
+     * are written in the same transaction, or <tt>null</tt>. Guarded by
+     * <tt>this</tt>.
+     */
+    private Map<String, String> batch;
+
+    /**
+     * Guards the connection and the prepared statements, only one thread
+     * writes to the database at a time.
+     */
+    private final Object connectionLock = new Object();
+
     /**
      * Connection to the JDBC database.
      */
     private Connection connection;
 
     // SQL statements for queries against the database
-    private PreparedStatement selectExact;
-    private PreparedStatement selectLike;
     private PreparedStatement selectAll;
     private PreparedStatement insertOrUpdate;
     private PreparedStatement delete;
@@ -130,9 +185,18 @@ public JdbcConfigService(FileAccessService fas) throws Exception
             migrate = true;
         }
 
-        // open the connection
+        // open the connection and load all the properties
         Class.forName("org.hsqldb.jdbc.JDBCDriver");
-        checkConnection();
+        synchronized (connectionLock)
+        {
+            checkConnection();
+            ResultSet q = this.selectAll.executeQuery();
+            while (q.next())
+            {
+                properties.put(q.getString(1), q.getString(2));
+                propertyNames.add(q.getString(1));
+            }
+        }
 
         // then do the actual migration
         if (migrate)
@@ -140,16 +204,30 @@ public JdbcConfigService(FileAccessService fas) throws Exception
             Properties p = new Properties();
             p.load(new FileInputStream(oldProps));
 
-            this.connection.setAutoCommit(false);
+            Map<String, Object> migrated = new HashMap<String, Object>();
             for (Map.Entry<Object, Object> e : p.entrySet())
             {
-                this.setProperty(e.getKey().toString(), e.getValue(), false);
+                migrated.put(e.getKey().toString(), e.getValue());
             }
 
-            this.connection.commit();
-            this.connection.setAutoCommit(true);
+            this.setProperties(migrated);
+            if (!writePendingChanges())
+            {
+                throw new SQLException("Cannot migrate " + oldProps);
+            }
         }
 
+        Thread writer = new Thread("JdbcConfigService writer")
+        {
+            @Override
+            public void run()
+            {
+                runInWriterThread();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+
         // and finally load the (mandatory) system properties
         loadDefaultProperties(DEFAULT_PROPS_FILE_NAME);
         loadDefaultProperties(DEFAULT_OVERRIDES_PROPS_FILE_NAME);
@@ -157,7 +235,7 @@ public JdbcConfigService(FileAccessService fas) throws Exception
 
     /**
      * Verifies that the connection to the database and all prepared statement
-     * are valid.
+     * are valid. Must be called with <tt>connectionLock</tt> held.
      * 
      * @throws SQLException
      */
@@ -205,10 +283,6 @@ private void checkConnection() throws SQLException
             + "k LONGVARCHAR UNIQUE, v LONGVARCHAR"
             + ")");
 
-        this.selectExact = this.connection.prepareStatement(
-            "SELECT v FROM Props WHERE k=?");
-        this.selectLike = this.connection.prepareStatement(
-            "SELECT k, v FROM Props WHERE k LIKE ?");
         this.selectAll = this.connection.prepareStatement(
             "SELECT k, v FROM Props");
         this.insertOrUpdate = this.connection.prepareStatement(
@@ -268,29 +342,32 @@ public synchronized void setProperty(String propertyName, Object property,
                 return;
             }
 
-            try
+            Object oldValue = this.getProperty(propertyName);
+            this.fireVetoableChange(propertyName, oldValue, property);
+            if (property == null)
             {
-                this.checkConnection();
-                Object oldValue = this.getProperty(propertyName);
-                this.fireVetoableChange(propertyName, oldValue, property);
-                if (property == null)
+                if (properties.remove(propertyName) != null)
                 {
-                    this.delete.setString(1, propertyName);
-                    this.delete.execute();
+                    propertyNames.remove(propertyName);
+                    queueWrite(propertyName, null);
                 }
-                else
+            }
+            else
+            {
+                String value = property.toString();
+                String oldStoredValue = properties.put(propertyName, value);
+                if (oldStoredValue == null)
                 {
-                    this.insertOrUpdate.setString(1, propertyName);
-                    this.insertOrUpdate.setString(2, property.toString());
-                    this.insertOrUpdate.execute();
+                    propertyNames.add(propertyName);
                 }
 
-                this.fireChange(propertyName, oldValue, property);
-            }
-            catch (SQLException e)
-            {
-                throw new RuntimeException(e);
+                if (!value.equals(oldStoredValue))
+                {
+                    queueWrite(propertyName, value);
+                }
             }
+
+            this.fireChange(propertyName, oldValue, property);
         }
     }
 
@@ -304,21 +381,27 @@ public synchronized void setProperty(String propertyName, Object property,
     @Override
     public synchronized void setProperties(Map<String, Object> properties)
     {
+        boolean outer = (batch == null);
+        if (outer)
+        {
+            batch = new LinkedHashMap<String, String>();
+        }
+
         try
         {
-            checkConnection();
-            this.connection.setAutoCommit(false);
             for (Map.Entry<String, Object> e : properties.entrySet())
             {
                 this.setProperty(e.getKey(), e.getValue(), false);
             }
-
-            this.connection.commit();
-            this.connection.setAutoCommit(true);
         }
-        catch (SQLException e1)
+        finally
         {
-            throw new RuntimeException(e1);
+            if (outer)
+            {
+                Map<String, String> changes = batch;
+                batch = null;
+                queueWrites(changes);
+            }
         }
     }
 
@@ -330,7 +413,7 @@ public synchronized void setProperties(Map<String, Object> properties)
      * .lang.String)
      */
     @Override
-    public synchronized Object getProperty(String propertyName)
+    public Object getProperty(String propertyName)
     {
         Object value = immutableDefaultProperties.get(propertyName);
         if (value != null)
@@ -338,22 +421,7 @@ public synchronized Object getProperty(String propertyName)
             return value;
         }
 
-        try
-        {
-            this.checkConnection();
-            this.selectExact.setString(1, propertyName);
-            ResultSet q = this.selectExact.executeQuery();
-            if (q.next())
-            {
-                value = q.getString(1);
-            }
-        }
-        catch (SQLException e)
-        {
-            logger.error(e);
-            throw new RuntimeException(e);
-        }
-
+        value = properties.get(propertyName);
         if (value != null)
         {
             return value;
@@ -378,13 +446,15 @@ public synchronized Object getProperty(String propertyName)
     @Override
     public synchronized void removeProperty(String propertyName)
     {
-        //remove all properties
+        //remove all properties, written in the same transaction
+        Map<String, Object> removed = new LinkedHashMap<String, Object>();
         for (String child : this.getPropertyNamesByPrefix(propertyName, false))
         {
-            this.setProperty(child, null, false);
+            removed.put(child, null);
         }
 
-        this.setProperty(propertyName, null, false);
+        removed.put(propertyName, null);
+        this.setProperties(removed);
     }
 
     /*
@@ -400,21 +470,7 @@ public List<String> getAllPropertyNames()
         List<String> data = new ArrayList<String>(
             immutableDefaultProperties.keySet());
         data.addAll(defaultProperties.keySet());
-        try
-        {
-            this.checkConnection();
-            ResultSet q = this.selectAll.executeQuery();
-            while (q.next())
-            {
-                data.add(q.getString(1));
-            }
-        }
-        catch (SQLException e)
-        {
-            logger.error(e);
-            throw new RuntimeException(e);
-        }
-
+        data.addAll(properties.keySet());
         return data;
     }
 
@@ -429,45 +485,13 @@ public List<String> getAllPropertyNames()
     public List<String> getPropertyNamesByPrefix(String prefix,
         boolean exactPrefixMatch)
     {
-        try
+        if(exactPrefixMatch)
         {
-            List<String> resultSet = new ArrayList<String>(50);
-            this.checkConnection();
-            this.selectLike.setString(1, prefix + "%");
-            ResultSet q = this.selectLike.executeQuery();
-            while (q.next())
-            {
-                String key = q.getString(1);
-
-                if(exactPrefixMatch)
-                {
-                    int ix = key.lastIndexOf('.');
-                    if(ix == -1)
-                    {
-                        continue;
-                    }
-
-                    String keyPrefix = key.substring(0, ix);
-
-                    if(prefix.equals(keyPrefix))
-                    {
-                        resultSet.add(key);
-                    }
-                }
-                else
-                {
-                    if(key.startsWith(prefix))
-                    {
-                        resultSet.add(key);
-                    }
-                }
-            }
-
-            return resultSet;
+            return propertyNames.getChildren(prefix);
         }
-        catch (SQLException e)
+        else
         {
-            throw new RuntimeException(e);
+            return propertyNames.getByPrefix(prefix);
         }
     }
 
@@ -481,26 +505,7 @@ public List<String> getPropertyNamesByPrefix(String prefix,
     @Override
     public List<String> getPropertyNamesBySuffix(String suffix)
     {
-        try
-        {
-            List<String> resultKeySet = new ArrayList<String>(20);
-            this.checkConnection();
-            this.selectLike.setString(1, "%" + suffix);
-            ResultSet q = this.selectLike.executeQuery();
-            while (q.next())
-            {
-                String key = q.getString(1);
-                int ix = key.lastIndexOf('.');
-                if (ix != -1 && suffix.equals(key.substring(ix + 1)))
-                    resultKeySet.add(key);
-            }
-
-            return resultKeySet;
-        }
-        catch (SQLException e)
-        {
-            throw new RuntimeException(e);
-        }
+        return propertyNames.getBySuffix(suffix);
     }
 
     /*
@@ -767,17 +772,30 @@ public void removeVetoableChangeListener(String propertyName,
     @Override
     public void storeConfiguration() throws IOException
     {
-        try
-        {
-            this.connection.close();
-        }
-        catch (SQLException e)
-        {
-            logger.error(e);
-        }
-        finally
+        synchronized (connectionLock)
         {
-            this.connection = null;
+            boolean written = writePendingChanges();
+
+            try
+            {
+                if (this.connection != null)
+                {
+                    this.connection.close();
+                }
+            }
+            catch (SQLException e)
+            {
+                logger.error(e);
+            }
+            finally
+            {
+                this.connection = null;
+            }
+
+            if (!written)
+            {
+                throw new IOException("Cannot write the configuration");
+            }
         }
     }
 
@@ -798,18 +816,28 @@ public void reloadConfiguration() throws IOException
      * ()
      */
     @Override
-    public void purgeStoredConfiguration()
+    public synchronized void purgeStoredConfiguration()
     {
-        try
+        synchronized (connectionLock)
         {
-            this.checkConnection();
-            Statement st = this.connection.createStatement();
-            st.executeUpdate("TRUNCATE TABLE Props");
-        }
-        catch (SQLException e)
-        {
-            logger.error(e);
-            throw new RuntimeException(e);
+            properties.clear();
+            propertyNames.clear();
+            synchronized (pendingWrites)
+            {
+                pendingWrites.clear();
+            }
+
+            try
+            {
+                this.checkConnection();
+                Statement st = this.connection.createStatement();
+                st.executeUpdate("TRUNCATE TABLE Props");
+            }
+            catch (SQLException e)
+            {
+                logger.error(e);
+                throw new RuntimeException(e);
+            }
         }
     }
 
@@ -851,6 +879,163 @@ public String getConfigurationFilename()
         return "props.hsql.script";
     }
 
+    /**
+     * Queues a change to be written to the database, or adds it to the
+     * current batch. Must be called with <tt>this</tt> held.
+     *
+     * @param propertyName the name of the changed property
+     * @param value the new value or <tt>null</tt> if the property was removed
+     */
+    private void queueWrite(String propertyName, String value)
+    {
+        if (batch != null)
+        {
+            batch.put(propertyName, value);
+        }
+        else
+        {
+            queueWrites(Collections.singletonMap(propertyName, value));
+        }
+    }
+
+    /**
+     * Queues changes to be written to the database and wakes up the writer
+     * thread.
+     *
+     * @param changes the new values by property name, <tt>null</tt> for the
+     * removed properties
+     */
+    private void queueWrites(Map<String, String> changes)
+    {
+        if (changes.isEmpty())
+        {
+            return;
+        }
+
+        synchronized (pendingWrites)
+        {
+            for (Map.Entry<String, String> e : changes.entrySet())
+            {
+                // keep the order of the changes, a key changed again is
+                // moved to the end
+                pendingWrites.remove(e.getKey());
+                pendingWrites.put(e.getKey(), e.getValue());
+            }
+
+            pendingWrites.notifyAll();
+        }
+    }
+
+    /**
+     * Writes the queued changes to the database in a single transaction. The
+     * changes are queued again if they cannot be written, unless they were
+     * changed again meanwhile.
+     *
+     * @return <tt>true</tt> if all the queued changes were written
+     */
+    private boolean writePendingChanges()
+    {
+        synchronized (connectionLock)
+        {
+            Map<String, String> changes;
+            synchronized (pendingWrites)
+            {
+                if (pendingWrites.isEmpty())
+                {
+                    return true;
+                }
+
+                changes = new LinkedHashMap<String, String>(pendingWrites);
+                pendingWrites.clear();
+            }
+
+            try
+            {
+                this.checkConnection();
+                this.connection.setAutoCommit(false);
+                try
+                {
+                    for (Map.Entry<String, String> e : changes.entrySet())
+                    {
+                        if (e.getValue() == null)
+                        {
+                            this.delete.setString(1, e.getKey());
+                            this.delete.execute();
+                        }
+                        else
+                        {
+                            this.insertOrUpdate.setString(1, e.getKey());
+                            this.insertOrUpdate.setString(2, e.getValue());
+                            this.insertOrUpdate.execute();
+                        }
+                    }
+
+                    this.connection.commit();
+                }
+                catch (SQLException e)
+                {
+                    this.connection.rollback();
+                    throw e;
+                }
+                finally
+                {
+                    this.connection.setAutoCommit(true);
+                }
+
+                return true;
+            }
+            catch (SQLException e)
+            {
+                logger.error("Cannot write " + changes.size()
+                    + " configuration changes, will retry", e);
+
+                synchronized (pendingWrites)
+                {
+                    for (Map.Entry<String, String> e1 : changes.entrySet())
+                    {
+                        if (!pendingWrites.containsKey(e1.getKey()))
+                        {
+                            pendingWrites.put(e1.getKey(), e1.getValue());
+                        }
+                    }
+                }
+
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Runs in the writer thread. Waits for changes, then for the changes
+     * made shortly after them, and writes them together.
+     */
+    private void runInWriterThread()
+    {
+        try
+        {
+            while (true)
+            {
+                synchronized (pendingWrites)
+                {
+                    while (pendingWrites.isEmpty())
+                    {
+                        pendingWrites.wait();
+                    }
+                }
+
+                Thread.sleep(WRITE_DELAY);
+                if (!writePendingChanges())
+                {
+                    Thread.sleep(RETRY_DELAY);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Loads the specified default properties maps from the Jitsi installation
      * directory. Typically this file is to be called for the default properties
@@ -0,0 +1,315 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.configuration;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * An index of property names split in their dot separated segments. The
+ * names are kept in a tree where each node is a segment, so the names with
+ * a given prefix are found by walking down the segments of the prefix and
+ * collecting the subtree below it. The names are also indexed by their last
+ * segment for the suffix queries. All the queries take a time proportional
+ * to the number of names they return and not to the number of properties.
+ * <p>
+ * The queries may run concurrently with the changes and never lock, the
+ * changes are serialized.
+ */
+class PropertyNameIndex
+{
+    /**
+     * The node of the empty prefix.
+     */
+    private final Node root = new Node();
+
+    /**
+     * The names which have at least two segments, by their last segment.
+     */
+    private final Map<String, Set<String>> namesByLastSegment
+        = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * Adds a name to the index.
+     *
+     * @param name the property name
+     */
+    synchronized void add(String name)
+    {
+        Node node = root;
+        int start = 0;
+
+        while (true)
+        {
+            int end = name.indexOf('.', start);
+            String segment
+                = name.substring(start, end == -1 ? name.length() : end);
+            Node child = node.children.get(segment);
+
+            if (child == null)
+            {
+                child = new Node();
+                node.children.put(segment, child);
+            }
+            node = child;
+
+            if (end == -1)
+                break;
+            start = end + 1;
+        }
+
+        node.property = true;
+
+        int ix = name.lastIndexOf('.');
+        if (ix != -1)
+        {
+            String suffix = name.substring(ix + 1);
+            Set<String> names = namesByLastSegment.get(suffix);
+
+            if (names == null)
+            {
+                names = Collections.newSetFromMap(
+                    new ConcurrentHashMap<String, Boolean>());
+                namesByLastSegment.put(suffix, names);
+            }
+            names.add(name);
+        }
+    }
+
+    /**
+     * Removes a name from the index. The nodes which are left without names
+     * below them are removed as well.
+     *
+     * @param name the property name
+     */
+    synchronized void remove(String name)
+    {
+        List<Node> path = new ArrayList<Node>();
+        List<String> segments = split(name);
+        Node node = root;
+
+        for (String segment : segments)
+        {
+            path.add(node);
+            node = node.children.get(segment);
+            if (node == null)
+                return;
+        }
+
+        node.property = false;
+        for (int i = segments.size() - 1;
+                i >= 0 && !node.property && node.children.isEmpty();
+                i--)
+        {
+            Node parent = path.get(i);
+
+            parent.children.remove(segments.get(i));
+            node = parent;
+        }
+
+        int ix = name.lastIndexOf('.');
+        if (ix != -1)
+        {
+            String suffix = name.substring(ix + 1);
+            Set<String> names = namesByLastSegment.get(suffix);
+
+            if (names != null)
+            {
+                names.remove(name);
+                if (names.isEmpty())
+                    namesByLastSegment.remove(suffix);
+            }
+        }
+    }
+
+    /**
+     * Removes all the names.
+     */
+    synchronized void clear()
+    {
+        root.children.clear();
+        root.property = false;
+        namesByLastSegment.clear();
+    }
+
+    /**
+     * Returns the names which are directly below <tt>prefix</tt>, that is
+     * the names whose part before their last dot is <tt>prefix</tt>.
+     *
+     * @param prefix the prefix
+     * @return the names directly below <tt>prefix</tt>, sorted
+     */
+    List<String> getChildren(String prefix)
+    {
+        List<String> result = new ArrayList<String>();
+        Node node = find(root, split(prefix));
+
+        if (node != null)
+        {
+            for (Map.Entry<String, Node> e : node.children.entrySet())
+            {
+                if (e.getValue().property)
+                    result.add(prefix + '.' + e.getKey());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the names which start with <tt>prefix</tt>. The prefix does not
+     * need to end on a segment boundary.
+     *
+     * @param prefix the prefix
+     * @return the names starting with <tt>prefix</tt>, sorted
+     */
+    List<String> getByPrefix(String prefix)
+    {
+        List<String> result = new ArrayList<String>();
+        int ix = prefix.lastIndexOf('.');
+        Node node;
+        StringBuilder name;
+
+        if (ix == -1)
+        {
+            node = root;
+            name = new StringBuilder();
+        }
+        else
+        {
+            node = find(root, split(prefix.substring(0, ix)));
+            name = new StringBuilder(prefix.substring(0, ix + 1));
+        }
+
+        if (node == null)
+            return result;
+
+        // the children of the node whose segment starts with the last,
+        // possibly partial, segment of the prefix
+        String partial = prefix.substring(ix + 1);
+        int length = name.length();
+
+        for (Map.Entry<String, Node> e
+                : node.children.tailMap(partial).entrySet())
+        {
+            if (!e.getKey().startsWith(partial))
+                break;
+
+            name.setLength(length);
+            name.append(e.getKey());
+            collect(e.getValue(), name, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the names whose last segment is <tt>suffix</tt>.
+     *
+     * @param suffix the last segment
+     * @return the names with at least two segments ending with
+     * <tt>suffix</tt>
+     */
+    List<String> getBySuffix(String suffix)
+    {
+        Set<String> names = namesByLastSegment.get(suffix);
+
+        if (names == null)
+            return new ArrayList<String>();
+        return new ArrayList<String>(names);
+    }
+
+    /**
+     * Walks down the tree along <tt>segments</tt>.
+     *
+     * @param node the node to start from
+     * @param segments the segments to follow
+     * @return the node of the last segment or <tt>null</tt> if there is
+     * none
+     */
+    private static Node find(Node node, List<String> segments)
+    {
+        for (int i = 0; node != null && i < segments.size(); i++)
+            node = node.children.get(segments.get(i));
+
+        return node;
+    }
+
+    /**
+     * Adds the names of a node and of the nodes below it to a list.
+     *
+     * @param node the node
+     * @param name the name of the node, restored before returning
+     * @param result the list to add the names to
+     */
+    private static void collect(Node node, StringBuilder name,
+        List<String> result)
+    {
+        if (node.property)
+            result.add(name.toString());
+
+        int length = name.length();
+
+        for (Map.Entry<String, Node> e : node.children.entrySet())
+        {
+            name.append('.').append(e.getKey());
+            collect(e.getValue(), name, result);
+            name.setLength(length);
+        }
+    }
+
+    /**
+     * Splits a name in its dot separated segments, keeping the empty ones.
+     *
+     * @param name the name
+     * @return the segments of the name
+     */
+    private static List<String> split(String name)
+    {
+        List<String> segments = new ArrayList<String>();
+        int start = 0;
+        int end;
+
+        while ((end = name.indexOf('.', start)) != -1)
+        {
+            segments.add(name.substring(start, end));
+            start = end + 1;
+        }
+        segments.add(name.substring(start));
+
+        return segments;
+    }
+
+    /**
+     * A segment of the names.
+     */
+    private static class Node
+    {
+        /**
+         * The segments following this one, sorted so the segments starting
+         * with a partial segment are found with a range query.
+         */
+        final ConcurrentNavigableMap<String, Node> children
+            = new ConcurrentSkipListMap<String, Node>();
+
+        /**
+         * Whether the name ending with this segment is a property.
+         */
+        volatile boolean property;
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * The append-only journal of the changes made to the contact list since its
+ * file was last written. Each record holds the current state of a meta
+ * contact or a meta contact group, as the XML of its node and the UID of its
+ * parent group, or its removal. Applying a record twice has the same effect
+ * as applying it once, so the journal may be replayed over a snapshot which
+ * already contains some of its records.
+ * <p>
+ * Every record carries a checksum and reading stops at the first record that
+ * was not completely written.
+ */
+class MclJournal
+{
+    /**
+     * Our logger.
+     */
+    private static final Logger logger = Logger.getLogger(MclJournal.class);
+
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The type of the records holding the node of a meta contact group.
+     */
+    static final byte PUT_GROUP = 1;
+
+    /**
+     * The type of the records holding the node of a meta contact.
+     */
+    static final byte PUT_META_CONTACT = 2;
+
+    /**
+     * The type of the records removing a meta contact group.
+     */
+    static final byte REMOVE_GROUP = 3;
+
+    /**
+     * The type of the records removing a meta contact.
+     */
+    static final byte REMOVE_META_CONTACT = 4;
+
+    /**
+     * The journal file.
+     */
+    private final File file;
+
+    /**
+     * Creates a journal stored in <tt>file</tt>.
+     *
+     * @param file the journal file
+     */
+    MclJournal(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Returns the size of the journal file.
+     *
+     * @return the size of the journal file in bytes, <tt>0</tt> if there is
+     * none
+     */
+    long length()
+    {
+        return file.length();
+    }
+
+    /**
+     * Deletes the journal file, once its records are in the contact list
+     * file.
+     */
+    void delete()
+    {
+        if (file.exists() && !file.delete())
+            logger.warn("Cannot delete contact list journal " + file);
+    }
+
+    /**
+     * Appends records to the journal and waits until they are on the disk.
+     *
+     * @param records the records to append
+     * @throws IOException if the records cannot be written
+     */
+    void append(List<Record> records)
+        throws IOException
+    {
+        boolean newFile = (file.length() == 0);
+        FileOutputStream fos = new FileOutputStream(file, true);
+
+        try
+        {
+            DataOutputStream out
+                = new DataOutputStream(new BufferedOutputStream(fos));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            CRC32 crc = new CRC32();
+
+            if (newFile)
+                out.writeInt(VERSION);
+
+            for (Record record : records)
+            {
+                bytes.reset();
+                record.write(new DataOutputStream(bytes));
+
+                crc.reset();
+                crc.update(bytes.toByteArray());
+
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+                out.writeLong(crc.getValue());
+            }
+
+            out.flush();
+            fos.getFD().sync();
+        }
+        finally
+        {
+            fos.close();
+        }
+    }
+
+    /**
+     * Reads the records of the journal in the order they were appended. A
+     * record which was not completely written, and the records after it,
+     * are ignored.
+     *
+     * @return the records of the journal, empty if there is no journal or it
+     * cannot be read
+     */
+    List<Record> read()
+    {
+        List<Record> records = new ArrayList<Record>();
+
+        if (file.length() == 0)
+            return records;
+
+        try
+        {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+
+            try
+            {
+                if (in.readInt() != VERSION)
+                {
+                    logger.warn("Unknown contact list journal version " + file);
+                    return records;
+                }
+
+                CRC32 crc = new CRC32();
+
+                while (true)
+                {
+                    int length;
+
+                    try
+                    {
+                        length = in.readInt();
+                    }
+                    catch (EOFException e)
+                    {
+                        break;
+                    }
+
+                    if (length < 0 || length > file.length())
+                    {
+                        logger.warn("Corrupt record in contact list journal "
+                            + file);
+                        break;
+                    }
+
+                    byte[] bytes = new byte[length];
+
+                    in.readFully(bytes);
+                    crc.reset();
+                    crc.update(bytes);
+                    if (in.readLong() != crc.getValue())
+                    {
+                        logger.warn("Corrupt record in contact list journal "
+                            + file);
+                        break;
+                    }
+
+                    records.add(Record.read(
+                        new DataInputStream(new ByteArrayInputStream(bytes))));
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (EOFException e)
+        {
+            logger.warn("Incomplete record in contact list journal " + file);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot read contact list journal " + file, e);
+        }
+
+        return records;
+    }
+
+    /**
+     * A change of the contact list.
+     */
+    static class Record
+    {
+        /**
+         * One of {@link #PUT_GROUP}, {@link #PUT_META_CONTACT},
+         * {@link #REMOVE_GROUP} and {@link #REMOVE_META_CONTACT}.
+         */
+        final byte type;
+
+        /**
+         * The UID of the meta contact or group.
+         */
+        final String uid;
+
+        /**
+         * The UID of the parent group of the meta contact or group or
+         * <tt>null</tt> for a removal.
+         */
+        final String parentUID;
+
+        /**
+         * The XML of the node of the meta contact or group or <tt>null</tt>
+         * for a removal.
+         */
+        final String xml;
+
+        /**
+         * Creates a record.
+         *
+         * @param type the type of the record
+         * @param uid the UID of the meta contact or group
+         * @param parentUID the UID of the parent group or <tt>null</tt> for
+         * a removal
+         * @param xml the XML of the node or <tt>null</tt> for a removal
+         */
+        Record(byte type, String uid, String parentUID, String xml)
+        {
+            this.type = type;
+            this.uid = uid;
+            this.parentUID = parentUID;
+            this.xml = xml;
+        }
+
+        /**
+         * Determines whether this record removes its meta contact or group.
+         *
+         * @return <tt>true</tt> if this is a removal
+         */
+        boolean isRemoval()
+        {
+            return type == REMOVE_GROUP || type == REMOVE_META_CONTACT;
+        }
+
+        /**
+         * Writes this record.
+         *
+         * @param out the stream to write to
+         * @throws IOException if writing fails
+         */
+        private void write(DataOutputStream out)
+            throws IOException
+        {
+            out.writeByte(type);
+            out.writeUTF(uid);
+            if (!isRemoval())
+            {
+                out.writeUTF(parentUID);
+
+                // the node of a group may be longer than writeUTF allows
+                byte[] bytes = xml.getBytes("UTF-8");
+
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        /**
+         * Reads a record.
+         *
+         * @param in the stream to read from
+         * @return the record
+         * @throws IOException if reading fails
+         */
+        private static Record read(DataInputStream in)
+            throws IOException
+        {
+            byte type = in.readByte();
+            String uid = in.readUTF();
+
+            if (type == REMOVE_GROUP || type == REMOVE_META_CONTACT)
+                return new Record(type, uid, null, null);
+            if (type != PUT_GROUP && type != PUT_META_CONTACT)
+                throw new IOException("Unknown record type " + type);
+
+            String parentUID = in.readUTF();
+            byte[] bytes = new byte[in.readInt()];
+
+            in.readFully(bytes);
+            return new Record(type, uid, parentUID, new String(bytes, "UTF-8"));
+        }
+    }
+}
@@ -19,8 +19,12 @@
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import javax.xml.parsers.*;
+import javax.xml.transform.*;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.stream.*;
 
 import net.java.sip.communicator.service.contactlist.*;
 import net.java.sip.communicator.service.contactlist.event.*;
@@ -33,6 +37,7 @@
 import org.jitsi.util.xml.XMLUtils;
 import org.osgi.framework.*;
 import org.w3c.dom.*;
+import org.xml.sax.*;
 
 /**
  * The class handles read / write operations over the file where a persistent
@@ -49,11 +54,18 @@
  * belonging to this new provider. Unresolved proto groups and contacts will be
  * created for every one of them.
  * <p>
+ * Changes are not written by rewriting the whole file. The nodes of the meta
+ * contacts and groups that changed are appended to a journal next to the
+ * file, see {@link MclJournal}, and the journal is replayed over the file when
+ * the storage manager starts. The storage thread compacts the journal into
+ * the file once it grows past {@link #MAX_JOURNAL_LENGTH}, after a replay and
+ * when the storage manager stops.
+ * <p>
  *
  * @author Emil Ivov
  */
 public class MclStorageManager
-    implements MetaContactListListener
+    implements MetaContactListBatchListener
 {
     /**
      * Our logger.
@@ -83,10 +95,53 @@
     private boolean started = false;
 
     /**
-     * Indicates whether there has been a change since the last time we stored
-     * this contact list. Used by the storage methods.
+     * Indicates whether the whole contact list file has to be written again
+     * instead of appending the changes to the journal.
+     */
+    private boolean isSnapshotRequired = false;
+
+    /**
+     * The UIDs of the meta contacts which changed since the last time we
+     * stored this contact list. Guarded by {@link #contactListRWLock}.
      */
-    private boolean isModified = false;
+    private final Set<String> modifiedMetaContacts
+        = new LinkedHashSet<String>();
+
+    /**
+     * The UIDs of the meta contact groups which changed since the last time
+     * we stored this contact list. Guarded by {@link #contactListRWLock}.
+     */
+    private final Set<String> modifiedGroups = new LinkedHashSet<String>();
+
+    /**
+     * The nodes of the meta contacts in {@link #contactListDocument} by UID.
+     */
+    private final Map<String, Element> metaContactNodes
+        = new ConcurrentHashMap<String, Element>();
+
+    /**
+     * The nodes of the meta contact groups in {@link #contactListDocument} by
+     * UID.
+     */
+    private final Map<String, Element> groupNodes
+        = new ConcurrentHashMap<String, Element>();
+
+    /**
+     * The journal of the changes which are not in the contact list file yet.
+     */
+    private MclJournal journal = null;
+
+    /**
+     * The size in bytes past which the journal is compacted into the contact
+     * list file.
+     */
+    private static final long MAX_JOURNAL_LENGTH = 256 * 1024;
+
+    /**
+     * The extension of the journal file, appended to the name of the contact
+     * list file.
+     */
+    private static final String JOURNAL_FILE_EXTENSION = ".journal";
 
     /**
      * A currently valid reference to the OSGI bundle context,
@@ -338,6 +393,9 @@ void start(BundleContext bc, MetaContactListServiceImpl mclServImpl)
         multiTenantMode = configurationService.getBoolean(
             MULTI_TENANT_MODE_PROP, multiTenantMode);
 
+        journal = new MclJournal(new File(
+            contactlistFile.getPath() + JOURNAL_FILE_EXTENSION));
+
         // create the failsafe transaction and restore the file if needed
         try
         {
@@ -365,14 +423,20 @@ void start(BundleContext bc, MetaContactListServiceImpl mclServImpl)
                 contactListDocument = builder.newDocument();
                 initVirginDocument(mclServImpl, contactListDocument);
 
-                // write the contact list so that it is there for the parser
-                storeContactList0();
+                // a journal without its contact list cannot be replayed
+                journal.delete();
+
+                // have the storage thread write the contact list so that it
+                // is there for the parser
+                isSnapshotRequired = true;
             }
             else
             {
                 try
                 {
                     contactListDocument = builder.parse(contactlistFile);
+                    indexNodes(contactListDocument.getDocumentElement());
+                    replayJournal(builder);
                 }
                 catch (Throwable ex)
                 {
@@ -382,11 +446,13 @@ void start(BundleContext bc, MetaContactListServiceImpl mclServImpl)
                     // re-create and re-init the new document
                     contactlistFile.delete();
                     contactlistFile.createNewFile();
+                    journal.delete();
                     contactListDocument = builder.newDocument();
                     initVirginDocument(mclServImpl, contactListDocument);
 
-                    // write the contact list so that it is there for the parser
-                    storeContactList0();
+                    // have the storage thread write the contact list so that
+                    // it is there for the parser
+                    isSnapshotRequired = true;
                 }
             }
         }
@@ -404,7 +470,8 @@ void start(BundleContext bc, MetaContactListServiceImpl mclServImpl)
     }
 
     /**
-     * Stores the contact list in its current state.
+     * Wakes up the storage thread so that it stores the changes made to the
+     * contact list.
      *
      * @throws IOException if writing fails.
      */
@@ -415,11 +482,40 @@ private void scheduleContactListStorage() throws IOException
             if (!isStarted())
                 return;
 
-            this.isModified = true;
             contactListRWLock.notifyAll();
         }
     }
 
+    /**
+     * Records that the node of a meta contact changed, so that the storage
+     * thread stores its current state, or its removal if it is no longer in
+     * the document.
+     *
+     * @param metaUID the UID of the meta contact
+     */
+    private void markMetaContactModified(String metaUID)
+    {
+        synchronized (contactListRWLock)
+        {
+            modifiedMetaContacts.add(metaUID);
+        }
+    }
+
+    /**
+     * Records that the node of a meta contact group changed, so that the
+     * storage thread stores its current state, or its removal if it is no
+     * longer in the document.
+     *
+     * @param metaUID the UID of the meta contact group
+     */
+    private void markGroupModified(String metaUID)
+    {
+        synchronized (contactListRWLock)
+        {
+            modifiedGroups.add(metaUID);
+        }
+    }
+
     /**
      * Writes the contact list on the hard disk.
      *
@@ -430,9 +526,6 @@ private void storeContactList0() throws IOException
         if (logger.isTraceEnabled())
             logger.trace("storing contact list. because is started =="
             + isStarted());
-        if (logger.isTraceEnabled())
-            logger.trace("storing contact list. because is modified =="
-            + isModified);
         if (isStarted())
         {
             // begin a new transaction
@@ -462,6 +555,355 @@ private void storeContactList0() throws IOException
         }
     }
 
+    /**
+     * Stores the changes made to the contact list since the last call. The
+     * modified nodes are appended to the journal, unless the whole contact
+     * list has to be written or the journal has grown too long. Must be
+     * called with {@link #contactListRWLock} held.
+     *
+     * @throws IOException in case writing the contact list fails.
+     */
+    private void storeChanges() throws IOException
+    {
+        if (!isSnapshotRequired
+            && (!modifiedMetaContacts.isEmpty() || !modifiedGroups.isEmpty()))
+        {
+            try
+            {
+                List<MclJournal.Record> records = createJournalRecords();
+
+                if (!isSnapshotRequired && !records.isEmpty())
+                    journal.append(records);
+            }
+            catch (Exception ex)
+            {
+                logger.error("Appending to the contact list journal failed, "
+                    + "writing the whole contact list", ex);
+                isSnapshotRequired = true;
+            }
+            modifiedMetaContacts.clear();
+            modifiedGroups.clear();
+        }
+
+        if (isSnapshotRequired || journal.length() > MAX_JOURNAL_LENGTH)
+            storeSnapshot();
+    }
+
+    /**
+     * Writes the whole contact list on the hard disk and deletes the journal
+     * whose changes it now contains.
+     *
+     * @throws IOException in case writing fails.
+     */
+    private void storeSnapshot() throws IOException
+    {
+        if (!isStarted())
+            return;
+
+        storeContactList0();
+        journal.delete();
+        isSnapshotRequired = false;
+        modifiedMetaContacts.clear();
+        modifiedGroups.clear();
+    }
+
+    /**
+     * Creates the journal records of the modified meta contacts and groups.
+     * Groups come first, parents before their subgroups, then the meta
+     * contacts and the removals last. The nodes which are inside a modified
+     * group are not recorded on their own. Sets {@link #isSnapshotRequired}
+     * instead if the root group was modified.
+     *
+     * @return the journal records of the modified nodes
+     * @throws TransformerException if a node cannot be serialized
+     */
+    private List<MclJournal.Record> createJournalRecords()
+        throws TransformerException
+    {
+        List<MclJournal.Record> records = new ArrayList<MclJournal.Record>();
+        List<MclJournal.Record> removals = new ArrayList<MclJournal.Record>();
+        final Map<Element, Integer> depths = new HashMap<Element, Integer>();
+
+        for (String uid : modifiedGroups)
+        {
+            Element node = groupNodes.get(uid);
+
+            if (node == null)
+            {
+                removals.add(new MclJournal.Record(
+                    MclJournal.REMOVE_GROUP, uid, null, null));
+            }
+            else if (getParentGroupNode(node) == null)
+            {
+                // the root group is the whole contact list
+                isSnapshotRequired = true;
+                return records;
+            }
+            else if (!isInModifiedGroup(node))
+            {
+                int depth = 0;
+
+                for (Element parent = getParentGroupNode(node);
+                        parent != null;
+                        parent = getParentGroupNode(parent))
+                    depth++;
+                depths.put(node, depth);
+            }
+        }
+
+        List<Element> groups = new ArrayList<Element>(depths.keySet());
+
+        Collections.sort(groups, new Comparator<Element>()
+        {
+            public int compare(Element e1, Element e2)
+            {
+                return depths.get(e1) - depths.get(e2);
+            }
+        });
+        for (Element node : groups)
+            records.add(createPutRecord(MclJournal.PUT_GROUP, node));
+
+        for (String uid : modifiedMetaContacts)
+        {
+            Element node = metaContactNodes.get(uid);
+
+            if (node == null)
+            {
+                removals.add(new MclJournal.Record(
+                    MclJournal.REMOVE_META_CONTACT, uid, null, null));
+            }
+            else if (!isInModifiedGroup(node))
+            {
+                records.add(
+                    createPutRecord(MclJournal.PUT_META_CONTACT, node));
+            }
+        }
+
+        records.addAll(removals);
+        return records;
+    }
+
+    /**
+     * Creates the journal record holding the current state of a node.
+     *
+     * @param type the type of the record
+     * @param node the node of a meta contact or group
+     * @return the journal record of <tt>node</tt>
+     * @throws TransformerException if the node cannot be serialized
+     */
+    private MclJournal.Record createPutRecord(byte type, Element node)
+        throws TransformerException
+    {
+        Transformer transformer
+            = TransformerFactory.newInstance().newTransformer();
+        StringWriter writer = new StringWriter();
+
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        transformer.transform(new DOMSource(node), new StreamResult(writer));
+
+        return new MclJournal.Record(
+            type,
+            node.getAttribute(UID_ATTR_NAME),
+            getParentGroupNode(node).getAttribute(UID_ATTR_NAME),
+            writer.toString());
+    }
+
+    /**
+     * Determines whether one of the groups containing a node was modified,
+     * in which case the node is stored with the group.
+     *
+     * @param node the node of a meta contact or group
+     * @return <tt>true</tt> if a parent group of <tt>node</tt> was modified
+     */
+    private boolean isInModifiedGroup(Element node)
+    {
+        for (Element parent = getParentGroupNode(node);
+                parent != null;
+                parent = getParentGroupNode(parent))
+        {
+            if (modifiedGroups.contains(parent.getAttribute(UID_ATTR_NAME)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the node of the group containing the node of a meta contact or
+     * group.
+     *
+     * @param node the node of a meta contact or group
+     * @return the node of the parent group or <tt>null</tt> for the root
+     * group
+     */
+    private static Element getParentGroupNode(Element node)
+    {
+        Node container = node.getParentNode();
+        Node parent = (container == null) ? null : container.getParentNode();
+
+        if (parent instanceof Element
+            && GROUP_NODE_NAME.equals(parent.getNodeName()))
+            return (Element) parent;
+        return null;
+    }
+
+    /**
+     * Applies the records of the journal to the contact list document read
+     * from the file, and has the storage thread write the result back to the
+     * file.
+     *
+     * @param builder the builder to parse the nodes of the records with
+     */
+    private void replayJournal(DocumentBuilder builder)
+    {
+        if (journal.length() == 0)
+            return;
+
+        List<MclJournal.Record> records = journal.read();
+
+        if (logger.isInfoEnabled())
+            logger.info("Replaying " + records.size()
+                + " contact list journal records");
+
+        for (MclJournal.Record record : records)
+        {
+            try
+            {
+                applyJournalRecord(builder, record);
+            }
+            catch (Exception ex)
+            {
+                logger.warn("Failed to apply contact list journal record for "
+                    + record.uid, ex);
+            }
+        }
+
+        isSnapshotRequired = true;
+    }
+
+    /**
+     * Applies a journal record to the contact list document.
+     *
+     * @param builder the builder to parse the node of the record with
+     * @param record the journal record
+     * @throws IOException if the node of the record cannot be read
+     * @throws SAXException if the node of the record cannot be parsed
+     */
+    private void applyJournalRecord(
+            DocumentBuilder builder,
+            MclJournal.Record record)
+        throws IOException,
+               SAXException
+    {
+        boolean isGroup = (record.type == MclJournal.PUT_GROUP
+            || record.type == MclJournal.REMOVE_GROUP);
+        Element oldNode = isGroup
+            ? groupNodes.get(record.uid)
+            : metaContactNodes.get(record.uid);
+
+        if (record.isRemoval())
+        {
+            if (oldNode != null)
+                removeNode(oldNode);
+            return;
+        }
+
+        Element parentNode = groupNodes.get(record.parentUID);
+
+        if (parentNode == null)
+        {
+            logger.warn("Parent group " + record.parentUID + " of journal "
+                + "record for " + record.uid + " not found");
+            return;
+        }
+
+        Element node = (Element) contactListDocument.importNode(
+            builder.parse(new InputSource(new StringReader(record.xml)))
+                .getDocumentElement(),
+            true);
+
+        if (oldNode != null)
+            removeNode(oldNode);
+        XMLUtils.findChild(
+                parentNode,
+                isGroup ? SUBGROUPS_NODE_NAME : CHILD_CONTACTS_NODE_NAME)
+            .appendChild(node);
+        indexNodes(node);
+    }
+
+    /**
+     * Adds the nodes of the meta contacts and groups in the subtree of
+     * <tt>node</tt> to {@link #metaContactNodes} and {@link #groupNodes}.
+     *
+     * @param node the node of the document, a group or a meta contact
+     */
+    private void indexNodes(Element node)
+    {
+        updateNodeIndex(node, true);
+    }
+
+    /**
+     * Removes a node from the document together with the nodes of the meta
+     * contacts and groups in its subtree from {@link #metaContactNodes} and
+     * {@link #groupNodes}.
+     *
+     * @param node the node of a group or a meta contact
+     */
+    private void removeNode(Element node)
+    {
+        updateNodeIndex(node, false);
+        node.getParentNode().removeChild(node);
+    }
+
+    /**
+     * Adds or removes the nodes of the meta contacts and groups in the
+     * subtree of <tt>node</tt> to or from the UID maps. A UID is only
+     * removed while it maps to the removed node.
+     *
+     * @param node a node of the document
+     * @param add <tt>true</tt> to add the nodes, <tt>false</tt> to remove
+     * them
+     */
+    private void updateNodeIndex(Element node, boolean add)
+    {
+        String name = node.getNodeName();
+        Map<String, Element> nodes;
+
+        if (META_CONTACT_NODE_NAME.equals(name))
+            nodes = metaContactNodes;
+        else if (GROUP_NODE_NAME.equals(name))
+            nodes = groupNodes;
+        else if (DOCUMENT_ROOT_NAME.equals(name)
+                || SUBGROUPS_NODE_NAME.equals(name)
+                || CHILD_CONTACTS_NODE_NAME.equals(name))
+            nodes = null;
+        else
+            return;
+
+        if (nodes != null)
+        {
+            String uid = node.getAttribute(UID_ATTR_NAME);
+
+            if (add)
+                nodes.put(uid, node);
+            else
+                nodes.remove(uid, node);
+
+            // meta contacts contain no other meta contacts or groups
+            if (nodes == metaContactNodes)
+                return;
+        }
+
+        NodeList children = node.getChildNodes();
+
+        for (int i = 0; i < children.getLength(); i++)
+        {
+            Node child = children.item(i);
+
+            if (child.getNodeType() == Node.ELEMENT_NODE)
+                updateNodeIndex((Element) child, add);
+        }
+    }
+
     /**
      * Launches a separate thread that waits on the contact list rw lock and
      * when notified stores the contact list in case there have been
@@ -481,11 +923,8 @@ public void run()
                         while (isStarted())
                         {
                             contactListRWLock.wait(5000);
-                            if (isModified)
-                            {
-                                storeContactList0();
-                                isModified = false;
-                            }
+                            if (isStarted())
+                                storeChanges();
                         }
                     }
                 }
@@ -514,21 +953,21 @@ public void storeContactListAndStopStorageManager()
             if (!isStarted())
                 return;
 
-            started = false;
-
-            // make sure everyone gets released after we finish.
-            contactListRWLock.notifyAll();
-
             // write the contact list ourselves before we go out..
             try
             {
-                storeContactList0();
+                storeSnapshot();
             }
             catch (IOException ex)
             {
                 logger
                     .debug("Failed to store contact list before stopping", ex);
             }
+
+            started = false;
+
+            // make sure everyone gets released after we finish.
+            contactListRWLock.notifyAll();
         }
     }
 
@@ -598,6 +1037,10 @@ private void initVirginDocument(MetaContactListServiceImpl mclServImpl,
             createMetaContactGroupNode(mclServImpl.getRoot());
 
         root.appendChild(rootGroup);
+
+        metaContactNodes.clear();
+        groupNodes.clear();
+        indexNodes(root);
     }
 
     /**
@@ -643,7 +1086,10 @@ void extractContactsForAccount(String accountID) throws XMLException
                 initVirginDocument(mclServiceImpl, contactListDocument);
 
                 // write the contact list so that it is there for the parser
-                storeContactList0();
+                synchronized (contactListRWLock)
+                {
+                    storeSnapshot();
+                }
             }
             else
             {
@@ -901,8 +1347,9 @@ private void processGroupXmlNode(MetaContactListServiceImpl mclServImpl,
                 {
                     try
                     {
-                        currentMetaContactNode.getParentNode().removeChild(
-                            currentMetaContactNode);
+                        removeNode((Element) currentMetaContactNode);
+                        markMetaContactModified(XMLUtils.getAttribute(
+                            currentMetaContactNode, UID_ATTR_NAME));
                     }
                     catch (Throwable throwable)
                     {
@@ -952,8 +1399,9 @@ private void processGroupXmlNode(MetaContactListServiceImpl mclServImpl,
                 {
                     try
                     {
-                        currentGroupNode.getParentNode().removeChild(
-                            currentGroupNode);
+                        removeNode((Element) currentGroupNode);
+                        markGroupModified(XMLUtils.getAttribute(
+                            currentGroupNode, UID_ATTR_NAME));
                     }
                     catch (Throwable thr)
                     {
@@ -1051,6 +1499,11 @@ private void processGroupXmlNode(MetaContactListServiceImpl mclServImpl,
         {
             metaContactNode.removeChild(node);
         }
+        if (!duplicates.isEmpty())
+        {
+            markMetaContactModified(
+                XMLUtils.getAttribute(metaContactNode, UID_ATTR_NAME));
+        }
         return protoContacts;
     }
 
@@ -1271,6 +1724,20 @@ private Element createMetaContactGroupNode(MetaContactGroup metaGroup)
         return metaGroupElement;
     }
 
+    /**
+     * Applies all the events of a batch to the document before the storage
+     * thread stores them, so that they end up in a single journal append.
+     *
+     * @param evt the <tt>MetaContactListBatchEvent</tt> containing the events
+     */
+    public void metaContactListChanged(MetaContactListBatchEvent evt)
+    {
+        synchronized (contactListRWLock)
+        {
+            evt.dispatchTo(this);
+        }
+    }
+
     /**
      * Indicates that a MetaContact has been successfully added to the
      * MetaContact list.
@@ -1307,6 +1774,8 @@ public void metaContactAdded(MetaContactEvent evt)
             createMetaContactNode(evt.getSourceMetaContact());
 
         parentGroupNode.appendChild(metaContactElement);
+        indexNodes(metaContactElement);
+        markMetaContactModified(evt.getSourceMetaContact().getMetaUID());
 
         try
         {
@@ -1361,6 +1830,8 @@ public void metaContactGroupAdded(MetaContactGroupEvent evt)
             XMLUtils.findChild(parentGroupNode, SUBGROUPS_NODE_NAME);
 
         subgroupsNode.appendChild(newGroupElement);
+        indexNodes(newGroupElement);
+        markGroupModified(evt.getSourceMetaContactGroup().getMetaUID());
 
         try
         {
@@ -1399,7 +1870,8 @@ public void metaContactGroupRemoved(MetaContactGroupEvent evt)
         }
 
         // remove the meta contact node.
-        metaContactGroupNode.getParentNode().removeChild(metaContactGroupNode);
+        removeNode(metaContactGroupNode);
+        markGroupModified(evt.getSourceMetaContactGroup().getMetaUID());
 
         try
         {
@@ -1459,6 +1931,8 @@ public void metaContactMoved(MetaContactMovedEvent evt)
             XMLUtils.findChild(newParentNode, CHILD_CONTACTS_NODE_NAME);
 
         childContacts.appendChild(metaContactNode);
+        indexNodes(metaContactNode);
+        markMetaContactModified(evt.getSourceMetaContact().getMetaUID());
 
         try
         {
@@ -1544,7 +2018,8 @@ public void metaContactRemoved(MetaContactEvent evt)
         }
 
         // remove the meta contact node.
-        metaContactNode.getParentNode().removeChild(metaContactNode);
+        removeNode(metaContactNode);
+        markMetaContactModified(evt.getSourceMetaContact().getMetaUID());
 
         try
         {
@@ -1600,6 +2075,7 @@ public void metaContactRenamed(MetaContactRenamedEvent evt)
         XMLUtils.setText(displayNameNode, evt.getNewDisplayName());
 
         updatePersistentDataForMetaContact(evt.getSourceMetaContact());
+        markMetaContactModified(evt.getSourceMetaContact().getMetaUID());
 
         try
         {
@@ -1640,6 +2116,7 @@ public void protoContactModified(ProtoContactEvent evt)
 
         // i don't think we could do anything else in addition to updating the
         // persistent data.
+        markMetaContactModified(evt.getParent().getMetaUID());
 
         try
         {
@@ -1787,6 +2264,8 @@ else if (oldValue != null && newValue != null)
         if (!isChanged)
             return;
 
+        markMetaContactModified(evt.getSourceMetaContact().getMetaUID());
+
         try
         {
             scheduleContactListStorage();
@@ -1828,6 +2307,7 @@ public void protoContactRemoved(ProtoContactEvent evt)
                     .getAddress());
 
         protoNode.getParentNode().removeChild(protoNode);
+        markMetaContactModified(evt.getOldParent().getMetaUID());
 
         try
         {
@@ -1891,11 +2371,12 @@ public void metaContactGroupModified(MetaContactGroupEvent evt)
             // group node and re-create it according to its current state.
             Node parentNode = mcGroupNode.getParentNode();
 
-            parentNode.removeChild(mcGroupNode);
+            removeNode(mcGroupNode);
 
             Element newGroupElement = createMetaContactGroupNode(mcGroup);
 
             parentNode.appendChild(newGroupElement);
+            indexNodes(newGroupElement);
 
             try
             {
@@ -1920,6 +2401,8 @@ public void metaContactGroupModified(MetaContactGroupEvent evt)
             break;
         }
 
+        markGroupModified(mcGroup.getMetaUID());
+
         try
         {
             scheduleContactListStorage();
@@ -1958,6 +2441,19 @@ public void protoContactAdded(ProtoContactEvent evt)
             return;
         }
 
+        // the node of a meta contact added in the same batch already contains
+        // its proto contacts
+        String accountID = evt.getProtoContact().getProtocolProvider()
+            .getAccountID().getAccountUniqueID();
+
+        for (Element e : XMLUtils.locateElements(mcNode,
+                PROTO_CONTACT_NODE_NAME, PROTO_CONTACT_ADDRESS_ATTR_NAME,
+                evt.getProtoContact().getAddress()))
+        {
+            if (accountID.equals(e.getAttribute(ACCOUNT_ID_ATTR_NAME)))
+                return;
+        }
+
         Element protoNode = createProtoContactNode(evt.getProtoContact());
 
         if(protoNode == null)
@@ -1968,6 +2464,7 @@ public void protoContactAdded(ProtoContactEvent evt)
         }
 
         mcNode.appendChild(protoNode);
+        markMetaContactModified(evt.getParent().getMetaUID());
 
         try
         {
@@ -2026,6 +2523,8 @@ public void protoContactMoved(ProtoContactEvent evt)
         protoNode.setAttribute(PARENT_PROTO_GROUP_UID_ATTR_NAME, evt
             .getProtoContact().getParentContactGroup().getUID());
         newMcNode.appendChild(protoNode);
+        markMetaContactModified(evt.getOldParent().getMetaUID());
+        markMetaContactModified(evt.getNewParent().getMetaUID());
 
         try
         {
@@ -2055,10 +2554,7 @@ public void protoContactMoved(ProtoContactEvent evt)
      */
     private Element findMetaContactNode(String metaContactUID)
     {
-        Element root = (Element) contactListDocument.getFirstChild();
-
-        return XMLUtils.locateElement(root, META_CONTACT_NODE_NAME,
-            UID_ATTR_NAME, metaContactUID);
+        return metaContactNodes.get(metaContactUID);
     }
 
     /**
@@ -2073,10 +2569,7 @@ private Element findMetaContactNode(String metaContactUID)
      */
     private Element findMetaContactGroupNode(String metaContactGroupUID)
     {
-        Element root = (Element) contactListDocument.getFirstChild();
-
-        return XMLUtils.locateElement(root, GROUP_NODE_NAME, UID_ATTR_NAME,
-            metaContactGroupUID);
+        return groupNodes.get(metaContactGroupUID);
     }
 
     /**
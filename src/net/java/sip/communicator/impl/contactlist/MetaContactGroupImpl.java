@@ -710,6 +710,9 @@ void addMetaContact(MetaContactImpl metaContact)
         metaContact.setParentGroup(this);
 
         lightAddMetaContact(metaContact);
+
+        if (isInContactList())
+            mclServiceImpl.getIndex().addMetaContact(metaContact);
     }
 
     /**
@@ -767,6 +770,10 @@ void removeMetaContact(MetaContactImpl metaContact)
     {
         metaContact.unsetParentGroup(this);
         lightRemoveMetaContact(metaContact);
+
+        // unless it has already been added to another group
+        if (metaContact.getParentGroup() == null)
+            mclServiceImpl.getIndex().removeMetaContact(metaContact);
     }
 
     /**
@@ -949,6 +956,9 @@ public String toString()
     void addProtoGroup( ContactGroup protoGroup)
     {
         protoGroups.add(protoGroup);
+
+        if (isInContactList())
+            mclServiceImpl.getIndex().addProtoGroup(this, protoGroup);
     }
 
     /**
@@ -960,6 +970,7 @@ void addProtoGroup( ContactGroup protoGroup)
     void removeProtoGroup( ContactGroup protoGroup)
     {
         protoGroups.remove(protoGroup);
+        mclServiceImpl.getIndex().removeProtoGroup(this, protoGroup);
     }
 
     /**
@@ -977,6 +988,9 @@ void addSubgroup(MetaContactGroup subgroup)
 
         this.subgroupsOrderedCopy =
             new LinkedList<MetaContactGroup>(subgroups);
+
+        if (isInContactList())
+            mclServiceImpl.getIndex().addGroup((MetaContactGroupImpl)subgroup);
     }
 
     /**
@@ -990,7 +1004,10 @@ MetaContactGroupImpl removeSubgroup(int index)
             (MetaContactGroupImpl)subgroupsOrderedCopy.get(index);
 
         if (subgroups.remove(subgroup))
+        {
             subgroup.parentMetaContactGroup = null;
+            mclServiceImpl.getIndex().removeGroup(subgroup);
+        }
 
         subgroupsOrderedCopy = new LinkedList<MetaContactGroup>(subgroups);
 
@@ -1016,6 +1033,24 @@ boolean removeSubgroup(MetaContactGroup group)
         }
     }
 
+    /**
+     * Determines whether this group is the root group of the contact list or
+     * one of its descendants, i.e. whether it is indexed.
+     *
+     * @return <tt>true</tt> if this group is in the tree of the root group
+     */
+    boolean isInContactList()
+    {
+        for (MetaContactGroupImpl group = this;
+                group != null;
+                group = group.parentMetaContactGroup)
+        {
+            if (group == mclServiceImpl.rootMetaGroup)
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Returns the implementation of the <tt>MetaContactListService</tt>, to
      * which this group belongs.
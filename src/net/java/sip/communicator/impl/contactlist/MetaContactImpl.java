@@ -714,6 +714,10 @@ void addProtoContact(Contact contact)
             if (parentGroup != null)
                 parentGroup.lightAddMetaContact(this);
 
+            MetaContactListIndex index = getIndex();
+            if (index != null)
+                index.addContact(this, contact);
+
             ProtocolProviderService contactProvider
                 = contact.getProtocolProvider();
 
@@ -807,6 +811,10 @@ void removeProtoContact(Contact contact)
             if (parentGroup != null)
                 parentGroup.lightAddMetaContact(this);
 
+            MetaContactListIndex index = getIndex();
+            if (index != null)
+                index.removeContact(this, contact);
+
             ProtocolProviderService contactProvider
                 = contact.getProtocolProvider();
 
@@ -836,6 +844,7 @@ void removeProtoContact(Contact contact)
     boolean removeContactsForProvider(ProtocolProviderService provider)
     {
         boolean modified = false;
+        MetaContactListIndex index = getIndex();
         Iterator<Contact> contactsIter = protoContacts.iterator();
 
         while(contactsIter.hasNext())
@@ -846,6 +855,9 @@ boolean removeContactsForProvider(ProtocolProviderService provider)
             {
                 contactsIter.remove();
                 modified = true;
+
+                if (index != null)
+                    index.removeContact(this, contact);
             }
         }
 
@@ -869,6 +881,7 @@ boolean removeContactsForProvider(ProtocolProviderService provider)
     boolean removeContactsForGroup(ContactGroup protoGroup)
     {
         boolean modified = false;
+        MetaContactListIndex index = getIndex();
         Iterator<Contact> contactsIter = protoContacts.iterator();
 
         while(contactsIter.hasNext())
@@ -879,6 +892,9 @@ boolean removeContactsForGroup(ContactGroup protoGroup)
             {
                 contactsIter.remove();
                 modified = true;
+
+                if (index != null)
+                    index.removeContact(this, contact);
             }
         }
 
@@ -1167,6 +1183,21 @@ private void addCapabilities(   Contact contact,
         }
     }
 
+    /**
+     * Returns the index of the contact list containing this meta contact.
+     *
+     * @return the index of the contact list or <tt>null</tt> if this meta
+     * contact is not in the contact list
+     */
+    private MetaContactListIndex getIndex()
+    {
+        MetaContactGroupImpl parentGroup = this.parentGroup;
+
+        if (parentGroup == null || !parentGroup.isInContactList())
+            return null;
+        return parentGroup.getMclServiceImpl().getIndex();
+    }
+
     /**
      * Gets the sync lock for use when modifying {@link #parentGroup}.
      *
@@ -0,0 +1,263 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.contactlist.event.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Delivers the events of the meta contact list to its listeners, queueing
+ * the events fired inside a batch until the batch ends.
+ * <p>
+ * Batches belong to the thread which opens them, such as the thread loading
+ * the contact list of an account. The events fired by the other threads in
+ * the meantime are delivered right away, so loading the contact list of one
+ * account does not hold back the events of the others.
+ */
+class MetaContactListEventBatcher
+{
+    /**
+     * Our logger.
+     */
+    private static final Logger logger
+        = Logger.getLogger(MetaContactListEventBatcher.class);
+
+    /**
+     * The source of the <tt>MetaContactListBatchEvent</tt>s.
+     */
+    private final MetaContactListService source;
+
+    /**
+     * The batch opened by each thread, if any.
+     */
+    private final ThreadLocal<Batch> batches = new ThreadLocal<Batch>();
+
+    /**
+     * Creates a batcher delivering the batches of <tt>source</tt>.
+     *
+     * @param source the meta contact list firing the events
+     */
+    MetaContactListEventBatcher(MetaContactListService source)
+    {
+        this.source = source;
+    }
+
+    /**
+     * Delivers an event to <tt>listeners</tt>, or queues it if the current
+     * thread has opened a batch. A queued event replaces the queued event it
+     * supersedes, if any.
+     *
+     * @param evt the event to deliver
+     * @param listeners the listeners to deliver the event to
+     */
+    void fireEvent(EventObject evt, MetaContactListListener[] listeners)
+    {
+        Batch batch = batches.get();
+
+        if (batch == null)
+        {
+            for (MetaContactListListener listener : listeners)
+                MetaContactListBatchEvent.dispatch(evt, listener);
+            return;
+        }
+
+        List<Object> key = getCoalescingKey(evt);
+
+        if (key != null)
+        {
+            Integer index = batch.coalescedEvents.get(key);
+
+            if (index != null
+                && Arrays.equals(
+                    batch.events.get(index).listeners, listeners))
+            {
+                batch.events.set(index, null);
+            }
+            batch.coalescedEvents.put(key, batch.events.size());
+        }
+        batch.events.add(new BatchedEvent(evt, listeners));
+    }
+
+    /**
+     * Opens a batch on the current thread. The events the thread fires until
+     * the matching {@link #endBatch()} are delivered together, as a
+     * <tt>MetaContactListBatchEvent</tt> to the
+     * <tt>MetaContactListBatchListener</tt>s and one by one to the other
+     * listeners. Batches may be nested.
+     */
+    void beginBatch()
+    {
+        Batch batch = batches.get();
+
+        if (batch == null)
+        {
+            batch = new Batch();
+            batches.set(batch);
+        }
+        batch.depth++;
+    }
+
+    /**
+     * Closes a batch opened with {@link #beginBatch()} on the current thread
+     * and delivers its events if it was the outermost one.
+     */
+    void endBatch()
+    {
+        Batch batch = batches.get();
+
+        if (batch == null || --batch.depth > 0)
+            return;
+
+        batches.remove();
+
+        Map<MetaContactListListener, List<EventObject>> eventsByListener
+            = new LinkedHashMap<MetaContactListListener, List<EventObject>>();
+
+        for (BatchedEvent batchedEvent : batch.events)
+        {
+            if (batchedEvent == null)
+                continue;
+
+            for (MetaContactListListener listener : batchedEvent.listeners)
+            {
+                List<EventObject> events = eventsByListener.get(listener);
+
+                if (events == null)
+                {
+                    events = new ArrayList<EventObject>();
+                    eventsByListener.put(listener, events);
+                }
+                events.add(batchedEvent.evt);
+            }
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("Dispatching a batch of mcl events to "
+                + eventsByListener.size() + " listeners");
+
+        for (Map.Entry<MetaContactListListener, List<EventObject>> e
+                : eventsByListener.entrySet())
+        {
+            MetaContactListListener listener = e.getKey();
+            MetaContactListBatchEvent batchEvent
+                = new MetaContactListBatchEvent(source, e.getValue());
+
+            if (listener instanceof MetaContactListBatchListener)
+            {
+                ((MetaContactListBatchListener) listener)
+                    .metaContactListChanged(batchEvent);
+            }
+            else
+                batchEvent.dispatchTo(listener);
+        }
+    }
+
+    /**
+     * Returns the key of the events which supersede each other within a
+     * batch: the changes of a protocol contact, the renames and the avatar
+     * updates of a meta contact and the reorderings of a group.
+     *
+     * @param evt the event
+     * @return the coalescing key of <tt>evt</tt> or <tt>null</tt> if it is
+     * never superseded
+     */
+    private static List<Object> getCoalescingKey(EventObject evt)
+    {
+        if (evt instanceof ProtoContactEvent)
+        {
+            ProtoContactEvent protoEvt = (ProtoContactEvent) evt;
+
+            if (ProtoContactEvent.PROTO_CONTACT_MODIFIED.equals(
+                    protoEvt.getPropertyName()))
+            {
+                return Arrays.<Object>asList(
+                    ProtoContactEvent.PROTO_CONTACT_MODIFIED,
+                    protoEvt.getProtoContact(),
+                    protoEvt.getParent());
+            }
+        }
+        else if (evt instanceof MetaContactRenamedEvent
+            || evt instanceof MetaContactAvatarUpdateEvent)
+        {
+            MetaContactPropertyChangeEvent mcEvt
+                = (MetaContactPropertyChangeEvent) evt;
+
+            return Arrays.<Object>asList(
+                mcEvt.getPropertyName(), mcEvt.getSourceMetaContact());
+        }
+        else if (evt instanceof MetaContactGroupEvent
+            && ((MetaContactGroupEvent) evt).getEventID()
+                == MetaContactGroupEvent.CHILD_CONTACTS_REORDERED)
+        {
+            return Arrays.<Object>asList(
+                MetaContactGroupEvent.CHILD_CONTACTS_REORDERED,
+                ((MetaContactGroupEvent) evt).getSourceMetaContactGroup());
+        }
+        return null;
+    }
+
+    /**
+     * The batch opened by a thread.
+     */
+    private static class Batch
+    {
+        /**
+         * The number of nested batches the thread has opened.
+         */
+        int depth;
+
+        /**
+         * The events fired during the batch, <tt>null</tt> for events
+         * superseded by a later one.
+         */
+        final List<BatchedEvent> events = new ArrayList<BatchedEvent>();
+
+        /**
+         * The indexes in {@link #events} of the last event with each
+         * coalescing key.
+         */
+        final Map<List<Object>, Integer> coalescedEvents
+            = new HashMap<List<Object>, Integer>();
+    }
+
+    /**
+     * An event fired during a batch together with the listeners which were
+     * registered when it was fired.
+     */
+    private static class BatchedEvent
+    {
+        /**
+         * The event.
+         */
+        final EventObject evt;
+
+        /**
+         * The listeners to deliver the event to.
+         */
+        final MetaContactListListener[] listeners;
+
+        BatchedEvent(EventObject evt, MetaContactListListener[] listeners)
+        {
+            this.evt = evt;
+            this.listeners = listeners;
+        }
+    }
+}
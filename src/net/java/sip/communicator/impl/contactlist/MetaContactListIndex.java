@@ -0,0 +1,318 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Indexes the meta contacts and the meta contact groups of the contact list
+ * so that they are found without walking the whole tree. The meta contacts
+ * are indexed by their UID and by the account and the address of their
+ * protocol contacts, the meta contact groups by their UID and by their
+ * protocol groups.
+ * <p>
+ * Only the meta contacts and groups which are in the tree of the root group
+ * are indexed. <tt>MetaContactGroupImpl</tt> and <tt>MetaContactImpl</tt>
+ * update the index whenever they are added to or removed from that tree or
+ * their protocol contacts and groups change. Entries are only removed when
+ * they still point to the removed meta contact or group, so adding to the
+ * new parent before removing from the old one keeps the entry of a moved
+ * contact.
+ * <p>
+ * Lookups never lock.
+ */
+class MetaContactListIndex
+{
+    /**
+     * The meta contacts by account and address of their protocol contacts.
+     */
+    private final Map<String, MetaContactImpl> metaContactsByContact
+        = new ConcurrentHashMap<String, MetaContactImpl>();
+
+    /**
+     * The meta contacts by UID.
+     */
+    private final Map<String, MetaContactImpl> metaContactsByUID
+        = new ConcurrentHashMap<String, MetaContactImpl>();
+
+    /**
+     * The meta contact groups by UID.
+     */
+    private final Map<String, MetaContactGroupImpl> groupsByUID
+        = new ConcurrentHashMap<String, MetaContactGroupImpl>();
+
+    /**
+     * The meta contact groups by protocol group. Protocol groups are compared
+     * by identity, as the <tt>hashCode()</tt> of some of them depends on
+     * their contacts.
+     */
+    private final Map<GroupKey, MetaContactGroupImpl> groupsByProtoGroup
+        = new ConcurrentHashMap<GroupKey, MetaContactGroupImpl>();
+
+    /**
+     * Indexes a meta contact and its protocol contacts.
+     *
+     * @param metaContact the meta contact which was added to the list
+     */
+    void addMetaContact(MetaContactImpl metaContact)
+    {
+        metaContactsByUID.put(metaContact.getMetaUID(), metaContact);
+
+        Iterator<Contact> contacts = metaContact.getContacts();
+        while (contacts.hasNext())
+            addContact(metaContact, contacts.next());
+    }
+
+    /**
+     * Removes a meta contact and its protocol contacts from the index.
+     *
+     * @param metaContact the meta contact which was removed from the list
+     */
+    void removeMetaContact(MetaContactImpl metaContact)
+    {
+        metaContactsByUID.remove(metaContact.getMetaUID(), metaContact);
+
+        Iterator<Contact> contacts = metaContact.getContacts();
+        while (contacts.hasNext())
+            removeContact(metaContact, contacts.next());
+    }
+
+    /**
+     * Indexes a protocol contact of a meta contact.
+     *
+     * @param metaContact the meta contact
+     * @param contact the protocol contact added to <tt>metaContact</tt>
+     */
+    void addContact(MetaContactImpl metaContact, Contact contact)
+    {
+        metaContactsByContact.put(getKey(contact), metaContact);
+    }
+
+    /**
+     * Removes a protocol contact of a meta contact from the index.
+     *
+     * @param metaContact the meta contact
+     * @param contact the protocol contact removed from <tt>metaContact</tt>
+     */
+    void removeContact(MetaContactImpl metaContact, Contact contact)
+    {
+        metaContactsByContact.remove(getKey(contact), metaContact);
+    }
+
+    /**
+     * Indexes a meta contact group with its protocol groups, meta contacts
+     * and subgroups.
+     *
+     * @param group the meta contact group which was added to the list
+     */
+    void addGroup(MetaContactGroupImpl group)
+    {
+        groupsByUID.put(group.getMetaUID(), group);
+
+        Iterator<ContactGroup> protoGroups = group.getContactGroups();
+        while (protoGroups.hasNext())
+            addProtoGroup(group, protoGroups.next());
+
+        Iterator<MetaContact> metaContacts = group.getChildContacts();
+        while (metaContacts.hasNext())
+            addMetaContact((MetaContactImpl) metaContacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+        while (subgroups.hasNext())
+            addGroup((MetaContactGroupImpl) subgroups.next());
+    }
+
+    /**
+     * Removes a meta contact group with its protocol groups, meta contacts
+     * and subgroups from the index.
+     *
+     * @param group the meta contact group which was removed from the list
+     */
+    void removeGroup(MetaContactGroupImpl group)
+    {
+        groupsByUID.remove(group.getMetaUID(), group);
+
+        Iterator<ContactGroup> protoGroups = group.getContactGroups();
+        while (protoGroups.hasNext())
+            removeProtoGroup(group, protoGroups.next());
+
+        Iterator<MetaContact> metaContacts = group.getChildContacts();
+        while (metaContacts.hasNext())
+            removeMetaContact((MetaContactImpl) metaContacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+        while (subgroups.hasNext())
+            removeGroup((MetaContactGroupImpl) subgroups.next());
+    }
+
+    /**
+     * Indexes a protocol group of a meta contact group.
+     *
+     * @param group the meta contact group
+     * @param protoGroup the protocol group added to <tt>group</tt>
+     */
+    void addProtoGroup(MetaContactGroupImpl group, ContactGroup protoGroup)
+    {
+        groupsByProtoGroup.put(new GroupKey(protoGroup), group);
+    }
+
+    /**
+     * Removes a protocol group of a meta contact group from the index.
+     *
+     * @param group the meta contact group
+     * @param protoGroup the protocol group removed from <tt>group</tt>
+     */
+    void removeProtoGroup(MetaContactGroupImpl group, ContactGroup protoGroup)
+    {
+        groupsByProtoGroup.remove(new GroupKey(protoGroup), group);
+    }
+
+    /**
+     * Returns the meta contact containing a protocol contact.
+     *
+     * @param contact the protocol contact
+     * @return the meta contact containing a contact with the address and the
+     * provider of <tt>contact</tt> or <tt>null</tt>
+     */
+    MetaContactImpl findMetaContactByContact(Contact contact)
+    {
+        MetaContactImpl metaContact = metaContactsByContact.get(getKey(contact));
+
+        if (metaContact == null
+            || metaContact.getContact(
+                    contact.getAddress(), contact.getProtocolProvider())
+                == null)
+            return null;
+        return metaContact;
+    }
+
+    /**
+     * Returns the meta contact containing the protocol contact with an
+     * address and an account.
+     *
+     * @param contactAddress the address of the protocol contact
+     * @param accountID the unique ID of the account of the protocol contact
+     * @return the meta contact or <tt>null</tt>
+     */
+    MetaContactImpl findMetaContactByContact(
+        String contactAddress, String accountID)
+    {
+        MetaContactImpl metaContact
+            = metaContactsByContact.get(getKey(accountID, contactAddress));
+
+        if (metaContact == null
+            || metaContact.getContact(contactAddress, accountID) == null)
+            return null;
+        return metaContact;
+    }
+
+    /**
+     * Returns the meta contact with a UID.
+     *
+     * @param metaUID the UID of the meta contact
+     * @return the meta contact or <tt>null</tt>
+     */
+    MetaContactImpl findMetaContactByMetaUID(String metaUID)
+    {
+        return metaContactsByUID.get(metaUID);
+    }
+
+    /**
+     * Returns the meta contact group with a UID.
+     *
+     * @param metaUID the UID of the meta contact group
+     * @return the meta contact group or <tt>null</tt>
+     */
+    MetaContactGroupImpl findMetaContactGroupByMetaUID(String metaUID)
+    {
+        return groupsByUID.get(metaUID);
+    }
+
+    /**
+     * Returns the meta contact group containing a protocol group.
+     *
+     * @param protoGroup the protocol group
+     * @return the meta contact group or <tt>null</tt> if no meta contact
+     * group contains this instance of the protocol group
+     */
+    MetaContactGroupImpl findMetaContactGroupByContactGroup(
+        ContactGroup protoGroup)
+    {
+        return groupsByProtoGroup.get(new GroupKey(protoGroup));
+    }
+
+    /**
+     * Returns the key of a protocol contact in
+     * {@link #metaContactsByContact}.
+     *
+     * @param contact the protocol contact
+     * @return the key of the contact
+     */
+    private static String getKey(Contact contact)
+    {
+        return getKey(
+            contact.getProtocolProvider().getAccountID().getAccountUniqueID(),
+            contact.getAddress());
+    }
+
+    /**
+     * Returns the key of the protocol contact with an address and an account
+     * in {@link #metaContactsByContact}.
+     *
+     * @param accountID the unique ID of the account of the contact
+     * @param contactAddress the address of the contact
+     * @return the key of the contact
+     */
+    private static String getKey(String accountID, String contactAddress)
+    {
+        return accountID + '\n' + contactAddress;
+    }
+
+    /**
+     * Wraps a protocol group to compare it by identity.
+     */
+    private static class GroupKey
+    {
+        /**
+         * The protocol group.
+         */
+        private final ContactGroup protoGroup;
+
+        GroupKey(ContactGroup protoGroup)
+        {
+            this.protoGroup = protoGroup;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return (obj instanceof GroupKey)
+                && ((GroupKey) obj).protoGroup == protoGroup;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(protoGroup);
+        }
+    }
+}
@@ -91,6 +91,13 @@
     private final List<MetaContactListListener> metaContactListListeners
         = new Vector<MetaContactListListener>();
 
+    /**
+     * Delivers the events to the <tt>MetaContactListListener</tt>s, together
+     * for the events fired inside a batch.
+     */
+    private final MetaContactListEventBatcher eventBatcher
+        = new MetaContactListEventBatcher(this);
+
     /**
      * Contains (as keys) <tt>MetaContactGroup</tt> names that are currently
      * being resolved against a given protocol and that this class's
@@ -125,6 +132,12 @@
      */
     private final MclStorageManager storageManager = new MclStorageManager();
 
+    /**
+     * The index of the meta contacts and groups in the tree of
+     * {@link #rootMetaGroup}, used by the find methods.
+     */
+    private final MetaContactListIndex index = new MetaContactListIndex();
+
     /**
      * Creates an instance of this class.
      */
@@ -134,6 +147,17 @@ public MetaContactListServiceImpl()
             = new MetaContactGroupImpl(
                     this, ContactlistActivator.getResources().getI18NString(
                         "service.gui.CONTACTS"), "RootMetaContactGroup");
+        index.addGroup(rootMetaGroup);
+    }
+
+    /**
+     * Returns the index of the meta contacts and groups of this contact list.
+     *
+     * @return the index of the meta contacts and groups of this contact list
+     */
+    MetaContactListIndex getIndex()
+    {
+        return index;
     }
 
     /**
@@ -1626,7 +1650,18 @@ private void locallyRemoveAllContactsForProvider(
     public MetaContactGroup findMetaContactGroupByContactGroup
         (ContactGroup contactGroup)
     {
-        return rootMetaGroup.findMetaContactGroupByContactGroup(contactGroup);
+        MetaContactGroup metaGroup
+            = index.findMetaContactGroupByContactGroup(contactGroup);
+
+        // the index compares protocol groups by identity, groups are few so
+        // fall back to a search for a group equal to another instance
+        if (metaGroup == null)
+        {
+            metaGroup
+                = rootMetaGroup.findMetaContactGroupByContactGroup(
+                        contactGroup);
+        }
+        return metaGroup;
     }
 
     /**
@@ -1644,7 +1679,7 @@ private void locallyRemoveAllContactsForProvider(
      */
     public MetaContact findMetaContactByContact(Contact contact)
     {
-        return rootMetaGroup.findMetaContactByContact(contact);
+        return index.findMetaContactByContact(contact);
     }
 
     /**
@@ -1667,8 +1702,7 @@ public MetaContact findMetaContactByContact(Contact contact)
     public MetaContact findMetaContactByContact(String contactAddress,
                                                 String accountID)
     {
-        return rootMetaGroup.findMetaContactByContact(contactAddress
-                                                      , accountID);
+        return index.findMetaContactByContact(contactAddress, accountID);
     }
 
     /**
@@ -1681,8 +1715,7 @@ public MetaContact findMetaContactByContact(String contactAddress,
      */
     public MetaContact findMetaContactByMetaUID(String metaContactID)
     {
-
-        return rootMetaGroup.findMetaContactByMetaUID(metaContactID);
+        return index.findMetaContactByMetaUID(metaContactID);
     }
 
     /**
@@ -1696,7 +1729,7 @@ public MetaContact findMetaContactByMetaUID(String metaContactID)
      */
     public MetaContactGroup findMetaContactGroupByMetaUID(String metaGroupID)
     {
-        return rootMetaGroup.findMetaContactGroupByMetaUID(metaGroupID);
+        return index.findMetaContactGroupByMetaUID(metaGroupID);
     }
 
     /**
@@ -2008,22 +2041,31 @@ private synchronized void handleProviderAdded(
         //list and merge it with the local one.
         if (opSetPersPresence != null)
         {
-            //load contacts, stored in the local contact list and corresponding to
-            //this provider.
+            // the stored contacts of the account are delivered as one batch
+            beginBatch();
             try
             {
-                storageManager.extractContactsForAccount(
-                    provider.getAccountID().getAccountUniqueID());
-                if (logger.isDebugEnabled())
-                    logger.debug("All contacts loaded for account "
-                                + provider.getAccountID().getAccountUniqueID());
+                //load contacts, stored in the local contact list and
+                //corresponding to this provider.
+                try
+                {
+                    storageManager.extractContactsForAccount(
+                        provider.getAccountID().getAccountUniqueID());
+                    if (logger.isDebugEnabled())
+                        logger.debug("All contacts loaded for account "
+                            + provider.getAccountID().getAccountUniqueID());
+                }
+                catch (XMLException exc)
+                {
+                    logger.error("Failed to load contacts for account "
+                        + provider.getAccountID().getAccountUniqueID(), exc);
+                }
+                synchronizeOpSetWithLocalContactList(opSetPersPresence);
             }
-            catch (XMLException exc)
+            finally
             {
-                logger.error("Failed to load contacts for account "
-                             + provider.getAccountID().getAccountUniqueID(), exc);
+                endBatch();
             }
-            synchronizeOpSetWithLocalContactList(opSetPersPresence);
         }
         else
         {
@@ -2459,8 +2501,29 @@ else if (event.getType() == ServiceEvent.UNREGISTERING)
      * <tt>SubscriptionListener</tt>s.
      */
     private class ContactListSubscriptionListener
-        implements SubscriptionListener
+        implements SubscriptionBatchListener
     {
+        /**
+         * Opens a batch of meta contact list events while the server stored
+         * contact list of <tt>provider</tt> is loaded.
+         *
+         * @param provider the provider whose contact list is loaded
+         */
+        public void subscriptionBatchStarted(ProtocolProviderService provider)
+        {
+            beginBatch();
+        }
+
+        /**
+         * Delivers the meta contact list events fired while the server stored
+         * contact list of <tt>provider</tt> was loaded.
+         *
+         * @param provider the provider whose contact list was loaded
+         */
+        public void subscriptionBatchEnded(ProtocolProviderService provider)
+        {
+            endBatch();
+        }
 
         /**
          * Creates a meta contact for the source contact indicated by the
@@ -3015,20 +3078,7 @@ private synchronized void fireMetaContactEvent(MetaContact sourceContact,
             logger.trace("Will dispatch the following mcl event: "
                      + evt);
 
-        for (MetaContactListListener listener : getMetaContactListListeners())
-        {
-            switch (evt.getEventID())
-            {
-                case MetaContactEvent.META_CONTACT_ADDED:
-                    listener.metaContactAdded(evt);
-                    break;
-                case MetaContactEvent.META_CONTACT_REMOVED:
-                    listener.metaContactRemoved(evt);
-                    break;
-                default:
-                    logger.error("Unknown event type " + evt.getEventID());
-            }
-        }
+        fireEvent(evt);
     }
 
     /**
@@ -3054,6 +3104,39 @@ private MetaContactListListener[] getMetaContactListListeners()
         return listeners;
     }
 
+    /**
+     * Delivers an event to the <tt>MetaContactListListener</tt>s, or queues it
+     * if the current thread has opened a batch. A queued event is delivered to
+     * the listeners which were registered when it was fired.
+     *
+     * @param evt the event to deliver
+     */
+    private synchronized void fireEvent(EventObject evt)
+    {
+        eventBatcher.fireEvent(evt, getMetaContactListListeners());
+    }
+
+    /**
+     * Opens a batch on the current thread. The events the thread fires until
+     * the matching {@link #endBatch()} are delivered together, as a
+     * <tt>MetaContactListBatchEvent</tt> to the
+     * <tt>MetaContactListBatchListener</tt>s and one by one to the other
+     * listeners. Batches may be nested.
+     */
+    void beginBatch()
+    {
+        eventBatcher.beginBatch();
+    }
+
+    /**
+     * Closes a batch opened with {@link #beginBatch()} on the current thread
+     * and delivers the queued events if it was the outermost one.
+     */
+    synchronized void endBatch()
+    {
+        eventBatcher.endBatch();
+    }
+
     /**
      * Creates the corresponding <tt>MetaContactPropertyChangeEvent</tt>
      * instance and notifies all <tt>MetaContactListListener</tt>s that a
@@ -3069,26 +3152,7 @@ synchronized void fireMetaContactEvent(MetaContactPropertyChangeEvent event)
             logger.trace("Will dispatch the following mcl property change event: "
                      + event);
 
-        for (MetaContactListListener listener : getMetaContactListListeners())
-        {
-            if (event instanceof MetaContactMovedEvent)
-            {
-                listener.metaContactMoved( (MetaContactMovedEvent) event);
-            }
-            else if (event instanceof MetaContactRenamedEvent)
-            {
-                listener.metaContactRenamed( (MetaContactRenamedEvent) event);
-            }
-            else if (event instanceof MetaContactModifiedEvent)
-            {
-                listener.metaContactModified( (MetaContactModifiedEvent) event);
-            }
-            else if (event instanceof MetaContactAvatarUpdateEvent)
-            {
-                listener.metaContactAvatarUpdated(
-                    (MetaContactAvatarUpdateEvent) event);
-            }
-        }
+        fireEvent(event);
     }
 
     /**
@@ -3121,25 +3185,7 @@ private synchronized void fireProtoContactEvent(Contact     source,
             logger.trace("Will dispatch the following mcl property change event: "
                      + event);
 
-        for (MetaContactListListener listener : getMetaContactListListeners())
-        {
-            if (eventName.equals(ProtoContactEvent.PROTO_CONTACT_ADDED))
-            {
-                listener.protoContactAdded(event);
-            }
-            else if (eventName.equals(ProtoContactEvent.PROTO_CONTACT_MOVED))
-            {
-                listener.protoContactMoved(event);
-            }
-            else if (eventName.equals(ProtoContactEvent.PROTO_CONTACT_REMOVED))
-            {
-                listener.protoContactRemoved(event);
-            }
-            else if (eventName.equals(ProtoContactEvent.PROTO_CONTACT_MODIFIED))
-            {
-                listener.protoContactModified(event);
-            }
-        }
+        fireEvent(event);
     }
 
     /**
@@ -3375,34 +3421,7 @@ private synchronized void fireMetaContactGroupEvent( MetaContactGroup source,
             logger.trace("Will dispatch the following mcl event: "
                      + evt);
 
-        for (MetaContactListListener listener : getMetaContactListListeners())
-        {
-            switch (eventID)
-            {
-                case MetaContactGroupEvent.META_CONTACT_GROUP_ADDED:
-                    listener.metaContactGroupAdded(evt);
-                    break;
-                case MetaContactGroupEvent.META_CONTACT_GROUP_REMOVED:
-                    listener.metaContactGroupRemoved(evt);
-                    break;
-                case MetaContactGroupEvent.CHILD_CONTACTS_REORDERED:
-                    listener.childContactsReordered(evt);
-                    break;
-                case MetaContactGroupEvent
-                    .META_CONTACT_GROUP_RENAMED:
-                case MetaContactGroupEvent
-                    .CONTACT_GROUP_RENAMED_IN_META_GROUP:
-                case MetaContactGroupEvent
-                    .CONTACT_GROUP_REMOVED_FROM_META_GROUP:
-                case MetaContactGroupEvent
-                    .CONTACT_GROUP_ADDED_TO_META_GROUP:
-                    listener.metaContactGroupModified(evt);
-                    break;
-                default:
-                    logger.error("Unknown event type (" + eventID
-                                 + ") for event: " + evt);
-            }
-        }
+        fireEvent(evt);
     }
 
     /**
@@ -22,6 +22,7 @@
 import javax.swing.*;
 
 import net.java.sip.communicator.impl.gui.main.chat.*;
+import net.java.sip.communicator.plugin.desktoputil.*;
 import net.java.sip.communicator.service.muc.*;
 import net.java.sip.communicator.service.protocol.event.*;
 
@@ -30,6 +31,12 @@
  * <tt>ChatContact</tt>s. The primary purpose of the implementation is to sort
  * the <tt>ChatContact</tt>s according to their member roles and in alphabetical
  * order according to their names.
+ * <p>
+ * Additions and removals are queued and applied together in the event
+ * dispatch thread, with a single change notification, so that the members
+ * received when joining a large chat room are sorted once instead of being
+ * inserted and painted one by one. The backing list is kept sorted, so the
+ * position of a member is found with a binary search.
  *
  * @author Lyubomir Marinov
  */
@@ -40,11 +47,47 @@
 
     /**
      * The backing store of this <tt>AbstractListModel</tt> listing the
-     * <tt>ChatContact</tt>s.
+     * <tt>ChatContact</tt>s. Only modified in the event dispatch thread.
      */
     private final List<ChatContact<?>> chatContacts
         = new ArrayList<ChatContact<?>>();
 
+    /**
+     * The <tt>ChatContact</tt>s of {@link #chatContacts}, to find duplicates
+     * without walking the list. Only modified in the event dispatch thread.
+     */
+    private final Set<ChatContact<?>> chatContactSet
+        = new HashSet<ChatContact<?>>();
+
+    /**
+     * The additions (<tt>true</tt>) and the removals (<tt>false</tt>) of
+     * <tt>ChatContact</tt>s waiting to be applied to {@link #chatContacts}.
+     * The last change of a <tt>ChatContact</tt> replaces the previous ones.
+     * Guarded by itself.
+     */
+    private final Map<ChatContact<?>, Boolean> pendingChanges
+        = new LinkedHashMap<ChatContact<?>, Boolean>();
+
+    /**
+     * Whether all the <tt>ChatContact</tt>s are to be removed before the
+     * {@link #pendingChanges} are applied. Guarded by
+     * <tt>pendingChanges</tt>.
+     */
+    private boolean pendingRemoveAll = false;
+
+    /**
+     * Applies the {@link #pendingChanges} in the event dispatch thread, once
+     * for all the changes made until it runs.
+     */
+    private final Runnable applyPendingChanges
+        = LowPriorityEventQueue.createRepetitiveInvokeLater(new Runnable()
+        {
+            public void run()
+            {
+                applyPendingChanges();
+            }
+        });
+
     /**
      * Current chat session.
      */
@@ -152,32 +195,11 @@ public void addElement(ChatContact<?> chatContact)
         if (chatContact == null)
             throw new IllegalArgumentException("chatContact");
 
-        int index = -1;
-
-        synchronized(chatContacts)
+        synchronized (pendingChanges)
         {
-            int chatContactCount = chatContacts.size();
-
-            for (int i = 0; i < chatContactCount; i++)
-            {
-                ChatContact<?> containedChatContact = chatContacts.get(i);
-
-                // We don't want duplicates.
-                if (chatContact.equals(containedChatContact))
-                    return;
-                if ((index == -1)
-                        && (sorter.compare(containedChatContact, chatContact) > 0))
-                {
-                    index = i;
-                    // Continue in order to prevent duplicates.
-                }
-            }
-            if (index == -1)
-                index = chatContactCount;
-
-            chatContacts.add(index, chatContact);
+            pendingChanges.put(chatContact, Boolean.TRUE);
         }
-        fireIntervalAdded(this, index, index);
+        applyPendingChanges.run();
     }
 
     /* Implements ListModel#getElementAt(int). */
@@ -207,13 +229,11 @@ public int getSize()
      */
     public void removeElement(ChatContact<?> chatContact)
     {
-        synchronized(chatContacts)
+        synchronized (pendingChanges)
         {
-            int index = chatContacts.indexOf(chatContact);
-
-            if ((index >= 0) && chatContacts.remove(chatContact))
-                fireIntervalRemoved(this, index, index);
+            pendingChanges.put(chatContact, Boolean.FALSE);
         }
+        applyPendingChanges.run();
     }
 
     /**
@@ -221,16 +241,185 @@ public void removeElement(ChatContact<?> chatContact)
      */
     public void removeAllElements()
     {
-        if (chatContacts == null || chatContacts.size() <= 0)
+        synchronized (pendingChanges)
+        {
+            pendingChanges.clear();
+            pendingRemoveAll = true;
+        }
+        applyPendingChanges.run();
+    }
+
+    /**
+     * Applies the queued additions and removals to the list and notifies the
+     * list data listeners. A single change is notified as such, several ones
+     * as one change of the whole list.
+     */
+    private void applyPendingChanges()
+    {
+        List<Map.Entry<ChatContact<?>, Boolean>> changes;
+        boolean removeAll;
+
+        synchronized (pendingChanges)
+        {
+            changes = new ArrayList<Map.Entry<ChatContact<?>, Boolean>>(
+                pendingChanges.entrySet());
+            pendingChanges.clear();
+            removeAll = pendingRemoveAll;
+            pendingRemoveAll = false;
+        }
+
+        if (!removeAll && changes.size() == 1)
+        {
+            Map.Entry<ChatContact<?>, Boolean> change = changes.get(0);
+
+            if (change.getValue())
+                add(change.getKey());
+            else
+                remove(change.getKey());
             return;
+        }
 
-        synchronized(chatContacts)
+        int oldSize;
+        int newSize;
+
+        synchronized (chatContacts)
+        {
+            oldSize = chatContacts.size();
+
+            if (removeAll)
+            {
+                chatContacts.clear();
+                chatContactSet.clear();
+            }
+
+            Set<ChatContact<?>> removed = new HashSet<ChatContact<?>>();
+            boolean added = false;
+
+            for (Map.Entry<ChatContact<?>, Boolean> change : changes)
+            {
+                ChatContact<?> chatContact = change.getKey();
+
+                if (!change.getValue())
+                {
+                    if (chatContactSet.remove(chatContact))
+                        removed.add(chatContact);
+                }
+                else if (chatContactSet.add(chatContact))
+                {
+                    chatContacts.add(chatContact);
+                    added = true;
+                }
+            }
+
+            if (!removed.isEmpty())
+            {
+                for (Iterator<ChatContact<?>> i = chatContacts.iterator();
+                        i.hasNext();)
+                {
+                    if (removed.contains(i.next()))
+                        i.remove();
+                }
+            }
+
+            // the list is made of two sorted runs, which the sort merges
+            if (added)
+                Collections.sort(chatContacts, sorter);
+
+            newSize = chatContacts.size();
+        }
+
+        if (newSize > oldSize)
+            fireIntervalAdded(this, oldSize, newSize - 1);
+        else if (newSize < oldSize)
+            fireIntervalRemoved(this, newSize, oldSize - 1);
+        if (Math.min(oldSize, newSize) > 0)
+            fireContentsChanged(this, 0, Math.min(oldSize, newSize) - 1);
+    }
+
+    /**
+     * Inserts a <tt>ChatContact</tt> at its sorted position and notifies the
+     * list data listeners.
+     *
+     * @param chatContact the <tt>ChatContact</tt> to add
+     */
+    private void add(ChatContact<?> chatContact)
+    {
+        int index;
+
+        synchronized (chatContacts)
+        {
+            // We don't want duplicates.
+            if (!chatContactSet.add(chatContact))
+                return;
+
+            index = Collections.binarySearch(chatContacts, chatContact, sorter);
+            if (index < 0)
+                index = -index - 1;
+
+            // after the ChatContacts which sort the same
+            while (index < chatContacts.size()
+                    && sorter.compare(chatContacts.get(index), chatContact)
+                        <= 0)
+                index++;
+
+            chatContacts.add(index, chatContact);
+        }
+        fireIntervalAdded(this, index, index);
+    }
+
+    /**
+     * Removes a <tt>ChatContact</tt> and notifies the list data listeners.
+     *
+     * @param chatContact the <tt>ChatContact</tt> to remove
+     */
+    private void remove(ChatContact<?> chatContact)
+    {
+        int index;
+
+        synchronized (chatContacts)
         {
-            int contactsSize = chatContacts.size();
-            chatContacts.clear();
+            if (!chatContactSet.remove(chatContact))
+                return;
 
-            fireIntervalRemoved(this, 0, contactsSize - 1);
+            index = indexOf(chatContact);
+            chatContacts.remove(index);
         }
+        fireIntervalRemoved(this, index, index);
+    }
+
+    /**
+     * Returns the index of a <tt>ChatContact</tt> of the list.
+     *
+     * @param chatContact a <tt>ChatContact</tt> of the list
+     * @return the index of <tt>chatContact</tt>
+     */
+    private int indexOf(ChatContact<?> chatContact)
+    {
+        int index = Collections.binarySearch(chatContacts, chatContact, sorter);
+
+        if (index >= 0)
+        {
+            // among the ChatContacts which sort the same
+            int first = index;
+
+            while (first > 0
+                    && sorter.compare(chatContacts.get(first - 1), chatContact)
+                        == 0)
+                first--;
+            for (int i = first;
+                    i < chatContacts.size()
+                        && sorter.compare(chatContacts.get(i), chatContact)
+                            == 0;
+                    i++)
+            {
+                if (chatContacts.get(i).equals(chatContact))
+                    return i;
+            }
+        }
+
+        // the role or the name of the ChatContact has changed since it was
+        // sorted
+        return chatContacts.indexOf(chatContact);
     }
 
     /**
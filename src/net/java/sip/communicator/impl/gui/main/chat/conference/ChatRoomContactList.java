@@ -62,6 +62,7 @@ public ChatRoomContactList()
         this.setDragEnabled(true);
         this.setTransferHandler(new ChatRoomContactListTransferHandler(this));
         this.setCellRenderer(renderer);
+        AvatarImageCache.addRepaintComponent(this);
     }
 
     /**
@@ -82,6 +82,7 @@ public ChatRoomMemberListPanel(ChatPanel chatPanel)
         this.memberList.setModel(memberListModel);
         this.memberList.addKeyListener(new CListKeySearchListener(memberList));
         this.memberList.setCellRenderer(new ChatContactCellRenderer());
+        AvatarImageCache.addRepaintComponent(memberList);
 
         // It's pertinent to add the ChatContactRightButtonMenu only we aren't
         // in an ad-hoc multi user chat (which support roles)
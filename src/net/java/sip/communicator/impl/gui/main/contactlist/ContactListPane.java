@@ -119,6 +119,9 @@ public void initList(MetaContactListService contactListService)
 
         this.setViewportView(transparentPanel);
 
+        new VisibleContactsNotifier(
+                contactList, getViewport(), chatWindowManager);
+
         transparentPanel.setBorder(BorderFactory.createEmptyBorder(1, 1, 1, 1));
         this.contactList.setBorder(BorderFactory.createEmptyBorder(0, 0, 0, 0));
 
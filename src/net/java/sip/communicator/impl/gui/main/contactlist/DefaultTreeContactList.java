@@ -79,6 +79,7 @@ public DefaultTreeContactList()
 
         renderer = new ContactListTreeCellRenderer();
         this.setCellRenderer(renderer);
+        AvatarImageCache.addRepaintComponent(this);
 
         ToolTipManager.sharedInstance().registerComponent(this);
     }
@@ -25,6 +25,7 @@
 import net.java.sip.communicator.service.contactsource.*;
 import net.java.sip.communicator.service.gui.*;
 import net.java.sip.communicator.service.gui.event.*;
+import net.java.sip.communicator.service.protocol.*;
 
 /**
  * The <tt>SearchFilter</tt> is a <tt>ContactListFilter</tt> that filters the
@@ -91,6 +92,29 @@ public SearchFilter(ContactList sourceContactList)
      * @param filterQuery the query that tracks this filter.
      */
     public void applyFilter(FilterQuery filterQuery)
+    {
+        applyFilter(filterQuery, true);
+    }
+
+    /**
+     * Applies this filter to the contact sources other than the meta contact
+     * list, whose contacts shown for a previous search are refined instead.
+     * @param filterQuery the query that tracks this filter.
+     */
+    public void applyFilterToContactSources(FilterQuery filterQuery)
+    {
+        applyFilter(filterQuery, false);
+    }
+
+    /**
+     * Applies this filter to the contact sources and, if
+     * <tt>queryMetaContactList</tt> is <tt>true</tt>, to the meta contact
+     * list.
+     * @param filterQuery the query that tracks this filter.
+     * @param queryMetaContactList whether to query the meta contact list
+     */
+    private void applyFilter(
+        FilterQuery filterQuery, boolean queryMetaContactList)
     {
         if (sourceContactList == null)
             sourceContactList = GuiActivator.getContactList();
@@ -99,7 +123,8 @@ public void applyFilter(FilterQuery filterQuery)
             = sourceContactList.getContactSources().iterator();
 
         if (sourceContactList.getDefaultFilter()
-                .equals(TreeContactList.presenceFilter))
+                .equals(TreeContactList.presenceFilter)
+            && queryMetaContactList)
         {
             final MetaContactQuery defaultQuery = new MetaContactQuery();
 
@@ -108,7 +133,7 @@ public void applyFilter(FilterQuery filterQuery)
             // First add the MetaContactListSource
             filterQuery.addContactQuery(defaultQuery);
 
-            mclSource.startQuery(defaultQuery, filterPattern);
+            mclSource.startQuery(defaultQuery, filterString);
         }
         else if (sourceContactList.getDefaultFilter()
                     .equals(TreeContactList.historyFilter))
@@ -217,7 +242,32 @@ public boolean isMatching(UIContact uiContact)
         {
             while (searchStrings.hasNext())
             {
-                if (isMatching(searchStrings.next()))
+                if (isMatching(searchStrings.next(), true))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indicates if one of the search strings of the given <tt>uiContact</tt>
+     * contains the string this filter searches for, or matches it as a phone
+     * number. Unlike {@link #isMatching(UIContact)}, which accepts the
+     * contacts the sources returned for the search, it is used to refine the
+     * results of a previous search.
+     * @param uiContact the <tt>UIContact</tt> to check
+     * @return <tt>true</tt> if the given <tt>uiContact</tt> matches the search
+     * string, <tt>false</tt> - otherwise
+     */
+    public boolean isMatchingSearchString(UIContact uiContact)
+    {
+        Iterator<String> searchStrings = uiContact.getSearchStrings();
+
+        if (searchStrings != null)
+        {
+            while (searchStrings.hasNext())
+            {
+                if (isMatching(searchStrings.next(), false))
                     return true;
             }
         }
@@ -258,17 +308,54 @@ public void setFilterString(String filter)
                             | Pattern.CASE_INSENSITIVE
                             | Pattern.UNICODE_CASE);
 
+        PhoneNumberI18nService phoneNumberService
+            = GuiActivator.getPhoneNumberI18nService();
+
         this.isSearchingPhoneNumber
-            = GuiActivator.getPhoneNumberI18nService().isPhoneNumber(filter);
+            = phoneNumberService != null
+                && phoneNumberService.isPhoneNumber(filter);
+    }
+
+    /**
+     * Indicates if the results of a search can be refined, instead of
+     * searching again, when searching for another string: the other string
+     * has to start with the previous one, ignoring case.
+     *
+     * @param previousSearchString the string of the previous search
+     * @param searchString the string to search for
+     * @return <tt>true</tt> if the results of the search for
+     * <tt>previousSearchString</tt> can be refined, <tt>false</tt> -
+     * otherwise
+     */
+    static boolean isRefinement(
+        String previousSearchString, String searchString)
+    {
+        return previousSearchString != null
+            && previousSearchString.length() > 0
+            && searchString != null
+            && searchString.regionMatches(true, 0,
+                previousSearchString, 0, previousSearchString.length());
+    }
+
+    /**
+     * Returns the string this filter searches for.
+     *
+     * @return the string this filter searches for
+     */
+    public String getFilterString()
+    {
+        return filterString;
     }
 
     /**
      * Indicates if the given string matches this filter.
      * @param text the text to check
+     * @param acceptByDefault the result for a text which neither contains the
+     * search string nor matches it as a phone number
      * @return <tt>true</tt> to indicate that the given <tt>text</tt> matches
      * this filter, <tt>false</tt> - otherwise
      */
-    private boolean isMatching(String text)
+    private boolean isMatching(String text, boolean acceptByDefault)
     {
         if (filterPattern != null && filterPattern.matcher(text).find())
             return true;
@@ -277,6 +364,6 @@ private boolean isMatching(String text)
             return GuiActivator.getPhoneNumberI18nService()
                 .phoneNumbersMatch(this.filterString, text);
 
-        return true;
+        return acceptByDefault;
     }
 }
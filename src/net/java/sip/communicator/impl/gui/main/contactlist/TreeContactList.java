@@ -19,6 +19,7 @@
 
 import java.awt.*;
 import java.awt.event.*;
+import java.lang.reflect.*;
 import java.util.*;
 import java.util.List;
 
@@ -68,6 +69,26 @@
     private static final Logger logger
         = Logger.getLogger(TreeContactList.class);
 
+    /**
+     * The name of the property giving the time in milliseconds a search
+     * filter waits for the next keystroke before it is run.
+     */
+    private static final String FILTER_DELAY_PROP
+        = "net.java.sip.communicator.impl.gui.main.contactlist.FILTER_DELAY";
+
+    /**
+     * The default time in milliseconds a search filter waits for the next
+     * keystroke before it is run.
+     */
+    private static final int DEFAULT_FILTER_DELAY = 100;
+
+    /**
+     * The time in milliseconds the pending query results are added to the
+     * tree for, before the event dispatch thread is left to paint them and
+     * process user input. About a frame.
+     */
+    private static final long ADD_PENDING_CONTACTS_DURATION = 16;
+
     /**
      * The default tree model.
      */
@@ -159,6 +180,51 @@
      */
     private FilterThread filterThread;
 
+    /**
+     * The filter query the filter thread has run last.
+     * Guarded by {@link #filterLock}.
+     */
+    private UIFilterQuery appliedFilterQuery;
+
+    /**
+     * The search string of {@link #appliedFilterQuery}, <tt>null</tt> if it
+     * was not a search. Guarded by {@link #filterLock}.
+     */
+    private String appliedSearchString;
+
+    /**
+     * The search string whose complete results are in the tree, so that a
+     * search for a string starting with it only needs to remove the contacts
+     * which no longer match. Guarded by {@link #filterLock}.
+     */
+    private String refinableSearchString;
+
+    /**
+     * The lock of the state of the filters which is shared with the filter
+     * thread.
+     */
+    private final Object filterLock = new Object();
+
+    /**
+     * The query results waiting to be added to the tree by
+     * {@link #addPendingContacts}.
+     */
+    private final List<PendingContact> pendingContacts
+        = new LinkedList<PendingContact>();
+
+    /**
+     * Adds the query results waiting in {@link #pendingContacts} to the tree,
+     * in a single low priority event whatever their number.
+     */
+    private final Runnable addPendingContacts
+        = LowPriorityEventQueue.createRepetitiveInvokeLater(new Runnable()
+        {
+            public void run()
+            {
+                addPendingContacts();
+            }
+        });
+
     /**
      * Indicates that the received call image search has been canceled.
      */
@@ -826,13 +892,8 @@ private void addContact(final MetaContactQuery query,
     {
         if (!SwingUtilities.isEventDispatchThread())
         {
-            LowPriorityEventQueue.invokeLater(new Runnable()
-            {
-                public void run()
-                {
-                    addContact(query, contact, group, isSorted);
-                }
-            });
+            addPendingContact(
+                new PendingContact(query, contact, group, isSorted));
             return;
         }
 
@@ -857,13 +918,8 @@ public void addContact(final ContactQuery query,
     {
         if (!SwingUtilities.isEventDispatchThread())
         {
-            LowPriorityEventQueue.invokeLater(new Runnable()
-            {
-                public void run()
-                {
-                    addContact(query, contact, group, isSorted);
-                }
-            });
+            addPendingContact(
+                new PendingContact(query, contact, group, isSorted));
             return;
         }
 
@@ -876,6 +932,56 @@ public void run()
         }
     }
 
+    /**
+     * Queues a query result to be added to the tree in the event dispatch
+     * thread together with the other results received until then.
+     *
+     * @param pendingContact the query result to add
+     */
+    private void addPendingContact(PendingContact pendingContact)
+    {
+        synchronized (pendingContacts)
+        {
+            pendingContacts.add(pendingContact);
+        }
+        addPendingContacts.run();
+    }
+
+    /**
+     * Adds the queued query results to the tree, for about a frame, and
+     * schedules the addition of the remaining ones. Results of canceled
+     * queries are dropped.
+     */
+    private void addPendingContacts()
+    {
+        long end = System.currentTimeMillis() + ADD_PENDING_CONTACTS_DURATION;
+
+        while (true)
+        {
+            PendingContact pendingContact;
+
+            synchronized (pendingContacts)
+            {
+                if (pendingContacts.isEmpty())
+                    return;
+                if (System.currentTimeMillis() > end)
+                    break;
+                pendingContact = pendingContacts.remove(0);
+            }
+
+            Object query = pendingContact.query;
+
+            if (query instanceof MetaContactQuery)
+                addContact((MetaContactQuery) query, pendingContact.contact,
+                    pendingContact.group, pendingContact.isSorted);
+            else
+                addContact((ContactQuery) query, pendingContact.contact,
+                    pendingContact.group, pendingContact.isSorted);
+        }
+
+        addPendingContacts.run();
+    }
+
     /**
      * Removes the node corresponding to the given <tt>MetaContact</tt> from
      * this list.
@@ -1230,6 +1336,24 @@ public FilterQuery applyFilter(ContactListFilter filter)
         if (logger.isDebugEnabled())
             logger.debug("Contact list filter applied: " + filter);
 
+        synchronized (filterLock)
+        {
+            // If the filter thread did not run the current query, the tree
+            // still shows the results of the one before it.
+            if (currentFilterQuery != null
+                && currentFilterQuery == appliedFilterQuery)
+            {
+                boolean isComplete = currentFilterQuery.isCompleted();
+
+                synchronized (pendingContacts)
+                {
+                    isComplete &= pendingContacts.isEmpty();
+                }
+                refinableSearchString
+                    = isComplete ? appliedSearchString : null;
+            }
+        }
+
         if (currentFilterQuery != null && !currentFilterQuery.isCanceled())
             currentFilterQuery.cancel();
         rootUIGroup = null;
@@ -1254,6 +1378,98 @@ public FilterQuery applyFilter(ContactListFilter filter)
         return currentFilterQuery;
     }
 
+    /**
+     * Refines the results of the previous search, when the current filter is
+     * a search for a string which starts with the previous one. The meta
+     * contact list contacts shown for the previous search are all its
+     * matches, so the ones which no longer match are removed instead of
+     * querying the meta contact list again. The other contact sources may
+     * have returned only part of their matches, or matched them on a server,
+     * so their contacts are removed and they are queried again.
+     *
+     * @param filterQuery the filter query
+     * @param filter the search filter
+     */
+    private void refineFilter(
+        final UIFilterQuery filterQuery, final SearchFilter filter)
+    {
+        Runnable refineMetaContacts = new Runnable()
+        {
+            public void run()
+            {
+                if (filterQuery.isCanceled())
+                    return;
+
+                List<UIContact> removedContacts = new ArrayList<UIContact>();
+
+                collectRefinedContacts(
+                    treeModel.getRoot(), filter, removedContacts);
+                for (UIContact contact : removedContacts)
+                    removeContact(contact);
+
+                if (!isEmpty())
+                {
+                    selectFirstContact();
+                    filterQuery.setSucceeded(true);
+                }
+            }
+        };
+
+        if (SwingUtilities.isEventDispatchThread())
+            refineMetaContacts.run();
+        else
+        {
+            try
+            {
+                SwingUtilities.invokeAndWait(refineMetaContacts);
+            }
+            catch (InterruptedException e)
+            {
+                logger.error("Interrupted while refining the contacts", e);
+            }
+            catch (InvocationTargetException e)
+            {
+                logger.error("Failed to refine the contacts", e);
+            }
+        }
+
+        if (!filterQuery.isCanceled())
+            filter.applyFilterToContactSources(filterQuery);
+    }
+
+    /**
+     * Collects the contacts of a group node and its subgroup nodes which are
+     * removed when refining a search: the meta contacts which do not match
+     * the search string any more and the contacts of the other sources.
+     *
+     * @param groupNode the group node
+     * @param filter the search filter
+     * @param contacts the list to add the contacts to
+     */
+    private void collectRefinedContacts(
+        GroupNode groupNode, SearchFilter filter, List<UIContact> contacts)
+    {
+        for (int i = 0; i < groupNode.getChildCount(); i++)
+        {
+            TreeNode node = groupNode.getChildAt(i);
+
+            if (node instanceof GroupNode)
+            {
+                collectRefinedContacts((GroupNode) node, filter, contacts);
+            }
+            else if (node instanceof ContactNode)
+            {
+                UIContact contact = ((ContactNode) node).getContactDescriptor();
+
+                if (!(contact instanceof MetaUIContact)
+                    || !filter.isMatchingSearchString(contact))
+                {
+                    contacts.add(contact);
+                }
+            }
+        }
+    }
+
     /**
      * The <tt>SearchThread</tt> is meant to launch the search in a separate
      * thread.
@@ -1267,15 +1483,68 @@ public void setFilter(ContactListFilter filter)
             this.filter = filter;
         }
 
+        /**
+         * Waits until no other filter has been applied for the configured
+         * delay, so that a search runs once the user stops typing instead of
+         * on every keystroke.
+         */
+        private void waitForFilterDelay()
+        {
+            int delay = GuiActivator.getConfigurationService().getInt(
+                FILTER_DELAY_PROP, DEFAULT_FILTER_DELAY);
+
+            if (delay <= 0)
+                return;
+
+            synchronized (this)
+            {
+                UIFilterQuery filterQuery;
+
+                do
+                {
+                    filterQuery = currentFilterQuery;
+                    try
+                    {
+                        this.wait(delay);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        break;
+                    }
+                }
+                while (filterQuery != currentFilterQuery);
+            }
+        }
+
         @Override
         public void run()
         {
             while (true)
             {
+                if (this.filter instanceof ContactListSearchFilter)
+                    waitForFilterDelay();
+
                 UIFilterQuery filterQuery = currentFilterQuery;
                 ContactListFilter filter = this.filter;
+                String searchString = (filter instanceof SearchFilter)
+                    ? ((SearchFilter) filter).getFilterString()
+                    : null;
+                String refinableSearchString;
+
+                synchronized (filterLock)
+                {
+                    refinableSearchString
+                        = TreeContactList.this.refinableSearchString;
+                    TreeContactList.this.refinableSearchString = null;
+                    appliedFilterQuery = filterQuery;
+                    appliedSearchString = searchString;
+                }
+
+                boolean refine = SearchFilter.isRefinement(
+                    refinableSearchString, searchString);
 
-                treeModel.clear();
+                if (!refine)
+                    treeModel.clear();
 
                 if (!filterQuery.isCanceled())
                 {
@@ -1287,7 +1556,10 @@ public void run()
                     // whole gui to crash.
                     try
                     {
-                        currentFilter.applyFilter(filterQuery);
+                        if (refine)
+                            refineFilter(filterQuery, (SearchFilter) filter);
+                        else
+                            currentFilter.applyFilter(filterQuery);
                     }
                     catch (Throwable t)
                     {
@@ -1317,6 +1589,42 @@ public void run()
         }
     }
 
+    /**
+     * A query result waiting to be added to the tree.
+     */
+    private static class PendingContact
+    {
+        /**
+         * The <tt>ContactQuery</tt> or <tt>MetaContactQuery</tt> which
+         * returned the contact.
+         */
+        final Object query;
+
+        /**
+         * The contact to add.
+         */
+        final UIContact contact;
+
+        /**
+         * The group to add the contact to.
+         */
+        final UIGroup group;
+
+        /**
+         * Whether the contact is sorted in its group.
+         */
+        final boolean isSorted;
+
+        PendingContact(
+            Object query, UIContact contact, UIGroup group, boolean isSorted)
+        {
+            this.query = query;
+            this.contact = contact;
+            this.group = group;
+            this.isSorted = isSorted;
+        }
+    }
+
     /**
      * Sets the default filter to the given <tt>filter</tt>.
      * @param filter the <tt>ContactListFilter</tt> to set as default
@@ -55,6 +55,12 @@
      */
     private boolean isRunning = false;
 
+    /**
+     * Indicates if all the queries of this filter query have completed
+     * before it was canceled.
+     */
+    private boolean isCompleted = false;
+
     /**
      * Indicates if this query is closed, means no more queries could be added
      * to it. A <tt>FilterQuery</tt>, which is closed knows that it has to wait
@@ -184,6 +190,21 @@ public boolean isRunning()
         }
     }
 
+    /**
+     * Indicates if all the queries of this filter query have completed
+     * before it was canceled, so that all its results have been received.
+     *
+     * @return <tt>true</tt> if this query has completed, <tt>false</tt>
+     * otherwise
+     */
+    public boolean isCompleted()
+    {
+        synchronized (filterQueries)
+        {
+            return isCompleted;
+        }
+    }
+
     /**
      * Cancels this filter query.
      */
@@ -231,6 +252,8 @@ public void setQueryListener(FilterQueryListener l)
     private void fireFilterQueryEvent()
     {
         isRunning = false;
+        if (!isCanceled && isClosed && runningQueries == 0)
+            isCompleted = true;
 
         if (filterQueryListener == null)
             return;
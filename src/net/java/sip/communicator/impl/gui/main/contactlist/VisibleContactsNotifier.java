@@ -0,0 +1,306 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.contactlist;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.util.*;
+
+import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.event.*;
+import javax.swing.tree.*;
+
+import net.java.sip.communicator.impl.gui.main.chat.*;
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.gui.*;
+import net.java.sip.communicator.service.gui.event.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Tells the protocol providers which of their contacts the user is looking
+ * at: the contacts in the visible rows of the contact list and those of the
+ * open chats. The providers which retrieve the capabilities of the contacts
+ * in the background retrieve theirs first, so that the call buttons of these
+ * contacts are shown sooner.
+ * <p>
+ * The contacts are collected {@link #UPDATE_DELAY} milliseconds after the
+ * contact list is scrolled or changed, or a chat is opened or closed, and
+ * the changes made meanwhile are collected together, so that scrolling the
+ * list or loading the contacts does not collect them for every change.
+ */
+public class VisibleContactsNotifier
+    implements ActionListener,
+               ChangeListener,
+               ChatListener,
+               TreeModelListener
+{
+    /**
+     * The delay after a change before the contacts are collected, in
+     * milliseconds.
+     */
+    private static final int UPDATE_DELAY = 300;
+
+    /**
+     * The contact list.
+     */
+    private final TreeContactList contactList;
+
+    /**
+     * The manager of the open chats.
+     */
+    private final ChatWindowManager chatWindowManager;
+
+    /**
+     * Collects the contacts once the changes are done.
+     */
+    private final Timer timer = new Timer(UPDATE_DELAY, this);
+
+    /**
+     * The providers which were told about visible contacts, so that they are
+     * told when none of their contacts is visible anymore.
+     */
+    private final Set<ProtocolProviderService> notifiedProviders
+        = new HashSet<ProtocolProviderService>();
+
+    /**
+     * Creates a notifier and starts listening to the contact list and to the
+     * chats.
+     *
+     * @param contactList the contact list
+     * @param viewport the viewport showing <tt>contactList</tt>
+     * @param chatWindowManager the manager of the open chats
+     */
+    public VisibleContactsNotifier(
+            TreeContactList contactList,
+            JViewport viewport,
+            ChatWindowManager chatWindowManager)
+    {
+        this.contactList = contactList;
+        this.chatWindowManager = chatWindowManager;
+
+        timer.setRepeats(false);
+
+        viewport.addChangeListener(this);
+        contactList.getModel().addTreeModelListener(this);
+        chatWindowManager.addChatListener(this);
+    }
+
+    /**
+     * Collects the contacts the user is looking at once the changes are
+     * done.
+     *
+     * @param e the event of the timer
+     */
+    public void actionPerformed(ActionEvent e)
+    {
+        Map<ProtocolProviderService, Collection<Contact>> contacts
+            = new HashMap<ProtocolProviderService, Collection<Contact>>();
+
+        addVisibleContacts(contacts);
+        addChatContacts(contacts);
+
+        // the providers none of whose contacts is visible anymore
+        for (ProtocolProviderService provider : notifiedProviders)
+        {
+            if (!contacts.containsKey(provider))
+                contacts.put(provider, Collections.<Contact>emptySet());
+        }
+        notifiedProviders.clear();
+
+        for (Map.Entry<ProtocolProviderService, Collection<Contact>> entry
+                : contacts.entrySet())
+        {
+            OperationSetContactCapabilities capabilities
+                = entry.getKey().getOperationSet(
+                        OperationSetContactCapabilities.class);
+
+            if (capabilities != null)
+                capabilities.setVisibleContacts(entry.getValue());
+            if (!entry.getValue().isEmpty())
+                notifiedProviders.add(entry.getKey());
+        }
+    }
+
+    /**
+     * Adds the contacts of the visible rows of the contact list.
+     *
+     * @param contacts the contacts by provider
+     */
+    private void addVisibleContacts(
+            Map<ProtocolProviderService, Collection<Contact>> contacts)
+    {
+        Rectangle visible = contactList.getVisibleRect();
+
+        if (visible.isEmpty() || contactList.getRowCount() == 0)
+            return;
+
+        int first = contactList.getClosestRowForLocation(visible.x, visible.y);
+        int last
+            = contactList.getClosestRowForLocation(
+                    visible.x, visible.y + visible.height - 1);
+
+        for (int row = first; row <= last; row++)
+        {
+            TreePath path = contactList.getPathForRow(row);
+
+            if (path == null)
+                continue;
+
+            Object node = path.getLastPathComponent();
+
+            if (node instanceof ContactNode)
+            {
+                UIContact uiContact
+                    = ((ContactNode) node).getContactDescriptor();
+
+                if (uiContact != null)
+                    addContacts(uiContact.getDescriptor(), contacts);
+            }
+        }
+    }
+
+    /**
+     * Adds the contacts of the open chats.
+     *
+     * @param contacts the contacts by provider
+     */
+    private void addChatContacts(
+            Map<ProtocolProviderService, Collection<Contact>> contacts)
+    {
+        for (ChatPanel chatPanel
+                : new ArrayList<ChatPanel>(chatWindowManager.getAllChats()))
+        {
+            ChatSession chatSession = chatPanel.getChatSession();
+
+            if (chatSession != null)
+                addContacts(chatSession.getDescriptor(), contacts);
+        }
+    }
+
+    /**
+     * Adds the contacts of a <tt>MetaContact</tt>.
+     *
+     * @param descriptor the descriptor of a row of the contact list or of a
+     * chat, contacts are added only if it is a <tt>MetaContact</tt>
+     * @param contacts the contacts by provider
+     */
+    private static void addContacts(
+            Object descriptor,
+            Map<ProtocolProviderService, Collection<Contact>> contacts)
+    {
+        if (!(descriptor instanceof MetaContact))
+            return;
+
+        Iterator<Contact> iter = ((MetaContact) descriptor).getContacts();
+
+        while (iter.hasNext())
+        {
+            Contact contact = iter.next();
+            ProtocolProviderService provider = contact.getProtocolProvider();
+            Collection<Contact> providerContacts = contacts.get(provider);
+
+            if (providerContacts == null)
+            {
+                providerContacts = new HashSet<Contact>();
+                contacts.put(provider, providerContacts);
+            }
+            providerContacts.add(contact);
+        }
+    }
+
+    /**
+     * Collects the contacts after {@link #UPDATE_DELAY} milliseconds, unless
+     * they are already to be collected.
+     */
+    private void scheduleUpdate()
+    {
+        if (!timer.isRunning())
+            timer.start();
+    }
+
+    /**
+     * Collects the contacts once the contact list is scrolled.
+     *
+     * @param e the event of the viewport
+     */
+    public void stateChanged(ChangeEvent e)
+    {
+        scheduleUpdate();
+    }
+
+    /**
+     * Collects the contacts once a chat is closed.
+     *
+     * @param chat the closed chat
+     */
+    public void chatClosed(Chat chat)
+    {
+        scheduleUpdate();
+    }
+
+    /**
+     * Collects the contacts once a chat is opened.
+     *
+     * @param chat the opened chat
+     */
+    public void chatCreated(Chat chat)
+    {
+        scheduleUpdate();
+    }
+
+    /**
+     * Collects the contacts once the rows of the contact list change.
+     *
+     * @param e the event of the model
+     */
+    public void treeNodesChanged(TreeModelEvent e)
+    {
+        scheduleUpdate();
+    }
+
+    /**
+     * Collects the contacts once the rows of the contact list change.
+     *
+     * @param e the event of the model
+     */
+    public void treeNodesInserted(TreeModelEvent e)
+    {
+        scheduleUpdate();
+    }
+
+    /**
+     * Collects the contacts once the rows of the contact list change.
+     *
+     * @param e the event of the model
+     */
+    public void treeNodesRemoved(TreeModelEvent e)
+    {
+        scheduleUpdate();
+    }
+
+    /**
+     * Collects the contacts once the rows of the contact list change.
+     *
+     * @param e the event of the model
+     */
+    public void treeStructureChanged(TreeModelEvent e)
+    {
+        scheduleUpdate();
+    }
+}
@@ -32,6 +32,7 @@
 import net.java.sip.communicator.plugin.desktoputil.*;
 import net.java.sip.communicator.service.contactlist.*;
 import net.java.sip.communicator.service.contactlist.event.*;
+import net.java.sip.communicator.service.contactsource.*;
 import net.java.sip.communicator.service.customcontactactions.*;
 import net.java.sip.communicator.service.gui.*;
 import net.java.sip.communicator.service.gui.event.*;
@@ -50,7 +51,7 @@
  */
 public class MetaContactListSource
     implements  ContactPresenceStatusListener,
-                MetaContactListListener
+                MetaContactListBatchListener
 {
     /**
      * The data key of the MetaContactDescriptor object used to store a
@@ -95,6 +96,21 @@
      */
     private int index = 0;
 
+    /**
+     * The index of the display names and the addresses of the meta contacts
+     * searched by {@link #startQuery(MetaContactQuery, String)}. Built on the
+     * first search and then kept up to date from the events of the meta
+     * contact list.
+     */
+    private final ContactSearchIndex<MetaContact> searchIndex
+        = new ContactSearchIndex<MetaContact>();
+
+    /**
+     * Whether {@link #searchIndex} has been built. Guarded by
+     * <tt>searchIndex</tt>.
+     */
+    private boolean searchIndexBuilt = false;
+
     /**
      * The logger.
      */
@@ -202,22 +218,18 @@ public static boolean isRootGroup(MetaContactGroup group)
     /**
      * Starts the query.
      * 
-     * @param filterPattern the pattern to filter through
+     * @param filterString the string to filter through
      * @param query the query to be started
      */
     public void startQuery(final MetaContactQuery query,
-        final Pattern filterPattern)
+        final String filterString)
     {
         new Thread()
         {
             @Override
             public void run()
             {
-                int resultCount = 0;
-                queryMetaContactSource( filterPattern,
-                        GuiActivator.getContactListService().getRoot(),
-                        query,
-                        resultCount);
+                queryMetaContactSource(filterString, query);
 
                 if (!query.isCanceled())
                     query.fireQueryEvent(
@@ -230,85 +242,234 @@ public void run()
     }
 
     /**
-     * Filters the children in the given <tt>MetaContactGroup</tt> to match the
-     * given <tt>filterPattern</tt> and stores the result in the given
-     * <tt>treeModel</tt>.
-     * @param filterPattern the pattern to filter through
-     * @param parentGroup the <tt>MetaContactGroup</tt> to filter
+     * Looks up the meta contacts matching the given <tt>filterString</tt> in
+     * the search index and adds them to the contact list, the first ones
+     * directly and the others through the given <tt>query</tt>.
+     * A <tt>MetaContact</tt> is matching the filter if its display name or
+     * the display name or the address of one of its protocol contacts
+     * contains the filter string or, when the filter string is a phone
+     * number, is a matching phone number.
+     *
+     * @param filterString the string to filter through
      * @param query the object that tracks the query
-     * @param resultCount the initial result count we would insert directly to
-     * the contact list without firing events
      */
-    public void queryMetaContactSource(Pattern filterPattern,
-                                        MetaContactGroup parentGroup,
-                                        MetaContactQuery query,
-                                        int resultCount)
+    public void queryMetaContactSource(String filterString,
+                                       MetaContactQuery query)
     {
-        Iterator<MetaContact> childContacts = parentGroup.getChildContacts();
+        ContactSearchIndex<MetaContact> searchIndex = getSearchIndex();
+        Collection<MetaContact> metaContacts = searchIndex.find(filterString);
 
-        while (childContacts.hasNext() && !query.isCanceled())
-        {
-            MetaContact metaContact = childContacts.next();
+        PhoneNumberI18nService phoneNumberService
+            = GuiActivator.getPhoneNumberI18nService();
 
-            if (isMatching(filterPattern, metaContact))
+        if (phoneNumberService.isPhoneNumber(filterString))
+        {
+            metaContacts = new LinkedHashSet<MetaContact>(metaContacts);
+            for (MetaContact metaContact
+                    : searchIndex.findPhoneNumber(filterString))
             {
-                resultCount++;
+                if (!query.isCanceled()
+                    && isMatchingPhoneNumber(
+                            phoneNumberService, filterString, metaContact))
+                    metaContacts.add(metaContact);
+            }
+        }
+
+        int resultCount = 0;
+
+        for (MetaContact metaContact : metaContacts)
+        {
+            if (query.isCanceled())
+                return;
 
-                if (resultCount <= INITIAL_CONTACT_COUNT)
+            MetaContactGroup parentGroup
+                = metaContact.getParentMetaContactGroup();
+
+            // removed since it was found
+            if (parentGroup == null)
+                continue;
+
+            resultCount++;
+
+            if (resultCount <= INITIAL_CONTACT_COUNT)
+            {
+                UIGroup uiGroup = null;
+                if (!MetaContactListSource.isRootGroup(parentGroup))
                 {
-                    UIGroup uiGroup = null;
-                    if (!MetaContactListSource.isRootGroup(parentGroup))
+                    synchronized (parentGroup)
                     {
-                        synchronized (parentGroup)
-                        {
+                        uiGroup = MetaContactListSource
+                            .getUIGroup(parentGroup);
+                        if (uiGroup == null)
                             uiGroup = MetaContactListSource
-                                .getUIGroup(parentGroup);
-                            if (uiGroup == null)
-                                uiGroup = MetaContactListSource
-                                    .createUIGroup(parentGroup);
-                        }
+                                .createUIGroup(parentGroup);
                     }
+                }
+
+                UIContact newUIContact;
+                synchronized (metaContact)
+                {
+                    newUIContact 
+                        = MetaContactListSource.getUIContact(metaContact);
 
-                    UIContact newUIContact;
-                    synchronized (metaContact)
+                    if (newUIContact == null)
                     {
-                        newUIContact 
-                            = MetaContactListSource.getUIContact(metaContact);
-    
-                        if (newUIContact == null)
-                        {
-                            newUIContact
-                                = MetaContactListSource
-                                    .createUIContact(metaContact);
-                        }
-                        
-                        GuiActivator.getContactList().addContact(
-                            newUIContact,
-                            uiGroup,
-                            true,
-                            true);
+                        newUIContact
+                            = MetaContactListSource
+                                .createUIContact(metaContact);
                     }
-                    
-                    query.setInitialResultCount(resultCount);
-                }
-                else
-                {
-                    query.fireQueryEvent(metaContact);
+
+                    GuiActivator.getContactList().addContact(
+                        newUIContact,
+                        uiGroup,
+                        true,
+                        true);
                 }
+
+                query.setInitialResultCount(resultCount);
             }
+            else
+            {
+                query.fireQueryEvent(metaContact);
+            }
+        }
+    }
+
+    /**
+     * Checks if the display name or the address of one of the protocol
+     * contacts of the given <tt>metaContact</tt> is a phone number matching
+     * the given one.
+     *
+     * @param phoneNumberService the service comparing phone numbers
+     * @param phoneNumber the phone number to match
+     * @param metaContact the <tt>MetaContact</tt> to check
+     * @return <tt>true</tt> if one of the numbers of <tt>metaContact</tt>
+     * matches <tt>phoneNumber</tt>
+     */
+    private static boolean isMatchingPhoneNumber(
+        PhoneNumberI18nService phoneNumberService,
+        String phoneNumber,
+        MetaContact metaContact)
+    {
+        Iterator<Contact> contacts = metaContact.getContacts();
+        while (contacts.hasNext())
+        {
+            Contact contact = contacts.next();
+
+            if (phoneNumberService.phoneNumbersMatch(
+                        phoneNumber, contact.getDisplayName())
+                || phoneNumberService.phoneNumbersMatch(
+                        phoneNumber, contact.getAddress()))
+                return true;
         }
+        return false;
+    }
 
-        // If in the meantime the query is canceled we return here.
-        if(query.isCanceled())
+    /**
+     * Returns the index of the meta contacts, building it from the meta
+     * contact list on the first call.
+     *
+     * @return the index of the meta contacts
+     */
+    private ContactSearchIndex<MetaContact> getSearchIndex()
+    {
+        synchronized (searchIndex)
+        {
+            if (!searchIndexBuilt)
+            {
+                indexMetaContactGroup(
+                    GuiActivator.getContactListService().getRoot(), true);
+                searchIndexBuilt = true;
+            }
+        }
+        return searchIndex;
+    }
+
+    /**
+     * Updates the search strings of a meta contact in the search index, if
+     * it has already been built.
+     *
+     * @param metaContact the meta contact which was added, changed or
+     * removed
+     */
+    private void updateSearchIndex(MetaContact metaContact)
+    {
+        synchronized (searchIndex)
+        {
+            if (searchIndexBuilt)
+                indexMetaContact(metaContact);
+        }
+    }
+
+    /**
+     * Adds the meta contacts of a group and its subgroups to the search
+     * index or removes them from it, if the index has already been built.
+     *
+     * @param metaGroup the group which was added or removed
+     * @param add <tt>true</tt> if the group was added
+     */
+    private void updateSearchIndex(MetaContactGroup metaGroup, boolean add)
+    {
+        synchronized (searchIndex)
+        {
+            if (searchIndexBuilt)
+                indexMetaContactGroup(metaGroup, add);
+        }
+    }
+
+    /**
+     * Indexes the current display names and addresses of a meta contact, or
+     * removes it from the search index if it is no longer in the list.
+     *
+     * @param metaContact the meta contact to index
+     */
+    private void indexMetaContact(MetaContact metaContact)
+    {
+        if (metaContact.getParentMetaContactGroup() == null)
+        {
+            searchIndex.remove(metaContact);
             return;
+        }
+
+        List<String> searchStrings = new ArrayList<String>();
+
+        searchStrings.add(metaContact.getDisplayName());
 
-        Iterator<MetaContactGroup> subgroups = parentGroup.getSubgroups();
-        while (subgroups.hasNext() && !query.isCanceled())
+        Iterator<Contact> contacts = metaContact.getContacts();
+        while (contacts.hasNext())
         {
-            MetaContactGroup subgroup = subgroups.next();
+            Contact contact = contacts.next();
 
-            queryMetaContactSource(filterPattern, subgroup, query, resultCount);
+            searchStrings.add(contact.getDisplayName());
+            searchStrings.add(contact.getAddress());
         }
+        searchIndex.put(metaContact, searchStrings);
+    }
+
+    /**
+     * Indexes the meta contacts of a group and its subgroups, or removes
+     * them from the search index.
+     *
+     * @param metaGroup the group
+     * @param add <tt>true</tt> to index the meta contacts, <tt>false</tt> to
+     * remove them
+     */
+    private void indexMetaContactGroup(MetaContactGroup metaGroup, boolean add)
+    {
+        Iterator<MetaContact> childContacts = metaGroup.getChildContacts();
+        while (childContacts.hasNext())
+        {
+            MetaContact metaContact = childContacts.next();
+
+            if (add)
+                indexMetaContact(metaContact);
+            else
+                searchIndex.remove(metaContact);
+        }
+
+        Iterator<MetaContactGroup> subgroups = metaGroup.getSubgroups();
+        while (subgroups.hasNext())
+            indexMetaContactGroup(subgroups.next(), add);
     }
 
     /**
@@ -461,6 +622,30 @@ public void contactPresenceStatusChanged(
         }
     }
 
+    /**
+     * Updates the contact list with all the events of a batch, such as the
+     * loading of the contact list of an account, in a single task of the
+     * event dispatch thread instead of one task per added contact.
+     *
+     * @param evt the <tt>MetaContactListBatchEvent</tt> that notified us
+     */
+    public void metaContactListChanged(final MetaContactListBatchEvent evt)
+    {
+        if (!SwingUtilities.isEventDispatchThread())
+        {
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    metaContactListChanged(evt);
+                }
+            });
+            return;
+        }
+
+        evt.dispatchTo(this);
+    }
+
     /**
      * Reorders contact list nodes, when <tt>MetaContact</tt>-s in a
      * <tt>MetaContactGroup</tt> has been reordered.
@@ -501,6 +686,8 @@ public void childContactsReordered(MetaContactGroupEvent evt)
      */
     public void metaContactAdded(final MetaContactEvent evt)
     {
+        updateSearchIndex(evt.getSourceMetaContact());
+
         metaContactAdded(evt.getSourceMetaContact(),
                         evt.getParentGroup());
     }
@@ -562,6 +749,8 @@ public void metaContactGroupAdded(MetaContactGroupEvent evt)
     {
         final MetaContactGroup metaGroup = evt.getSourceMetaContactGroup();
 
+        updateSearchIndex(metaGroup, true);
+
         UIGroup uiGroup;
 
         synchronized (metaGroup)
@@ -639,6 +828,8 @@ public void metaContactGroupRemoved(final MetaContactGroupEvent evt)
     {
         MetaContactGroup metaGroup = evt.getSourceMetaContactGroup();
 
+        updateSearchIndex(metaGroup, false);
+
         UIGroup uiGroup;
         synchronized (metaGroup)
         {
@@ -768,6 +959,8 @@ public void metaContactRemoved(final MetaContactEvent evt)
     {
         MetaContact metaContact = evt.getSourceMetaContact();
 
+        updateSearchIndex(metaContact);
+
         UIContact uiContact;
         synchronized (metaContact)
         {
@@ -788,6 +981,8 @@ public void metaContactRenamed(final MetaContactRenamedEvent evt)
     {
         MetaContact metaContact = evt.getSourceMetaContact();
 
+        updateSearchIndex(metaContact);
+
         UIContactImpl uiContact;
         synchronized (metaContact)
         {
@@ -843,6 +1038,8 @@ public void protoContactAdded(ProtoContactEvent evt)
     {
         final MetaContact metaContact = evt.getNewParent();
 
+        updateSearchIndex(metaContact);
+
         UIContact parentUIContact;
         boolean parentUIContactCreated = false;
         synchronized (metaContact)
@@ -900,6 +1097,8 @@ public void protoContactModified(ProtoContactEvent evt)
     {
         MetaContact metaContact = evt.getNewParent();
 
+        updateSearchIndex(metaContact);
+
         UIContactImpl uiContact;
         synchronized (metaContact)
         {
@@ -928,6 +1127,9 @@ public void protoContactMoved(ProtoContactEvent evt)
         final MetaContact oldParent = evt.getOldParent();
         final MetaContact newParent = evt.getNewParent();
 
+        updateSearchIndex(oldParent);
+        updateSearchIndex(newParent);
+
         UIContact oldUIContact;
         synchronized (oldParent)
         {
@@ -1000,6 +1202,8 @@ public void protoContactRemoved(ProtoContactEvent evt)
     {
         final MetaContact oldParent = evt.getOldParent();
 
+        updateSearchIndex(oldParent);
+
         UIContactImpl oldUIContact;
         synchronized (oldParent)
         {
@@ -44,13 +44,6 @@
 public class MetaUIContact
     extends UIContactImpl
 {
-    /**
-     * The key of the user data in <tt>MetaContact</tt> which specifies
-     * the avatar cached from previous invocations.
-     */
-    private static final String AVATAR_DATA_KEY
-        = MetaUIContact.class.getName() + ".avatar";
-
     /**
      * A list of all search strings available for the underlying
      * <tt>MetaContact</tt>.
@@ -332,6 +325,23 @@ public byte[] getAvatar()
     @Override
     public ImageIcon getScaledAvatar(
         boolean isSelected, int width, int height)
+    {
+        // The icon is created in the background the first time it is asked
+        // for and the contact list is repainted once it is available.
+        return getScaledAvatar(width, height, false);
+    }
+
+    /**
+     * Gets the avatar of the <tt>MetaContact</tt> scaled within a size.
+     *
+     * @param width the desired icon width
+     * @param height the desired icon height
+     * @param now <tt>true</tt> to create a missing icon on the calling thread,
+     * <tt>false</tt> to create it in the background and return <tt>null</tt>
+     * @return an <tt>ImageIcon</tt> which represents the avatar of the
+     * <tt>MetaContact</tt>
+     */
+    private ImageIcon getScaledAvatar(int width, int height, boolean now)
     {
         byte[] avatarBytes = metaContact.getAvatar(true);
 
@@ -348,40 +358,11 @@ public ImageIcon getScaledAvatar(
             return null;
         }
 
-        // If the cell is selected we return a zoomed version of the avatar
-        // image.
-        if (isSelected)
-            return ImageUtils.getScaledRoundedIcon(avatarBytes, width, height);
-
-        // In any other case try to get the avatar from the cache.
-        Object[] avatarCache
-            = (Object[]) metaContact.getData(AVATAR_DATA_KEY);
-        ImageIcon avatar = null;
-
-        if ((avatarCache != null) && (avatarCache[0] == avatarBytes))
-            avatar = (ImageIcon) avatarCache[1];
-
-        // If the avatar isn't available or it's not up-to-date, create it.
-        if (avatar == null)
-        {
-            avatar = ImageUtils.getScaledRoundedIcon(avatarBytes, width, height);
-        }
-
-        // Cache the avatar in case it has changed.
-        if (avatarCache == null)
-        {
-            if (avatar != null)
-                metaContact.setData(
-                    AVATAR_DATA_KEY,
-                    new Object[] { avatarBytes, avatar });
-        }
-        else
-        {
-            avatarCache[0] = avatarBytes;
-            avatarCache[1] = avatar;
-        }
-
-        return avatar;
+        return now
+            ? AvatarImageCache.getScaledRoundedIconNow(
+                avatarBytes, width, height)
+            : AvatarImageCache.getScaledRoundedIcon(
+                avatarBytes, width, height);
     }
 
     /**
@@ -452,7 +433,8 @@ public ExtendedTooltip getToolTip()
     {
         ExtendedTooltip tip = new ExtendedTooltip(true);
 
-        tip.setImage(getScaledAvatar(false, 30, 30));
+        // the tooltip is not repainted when the icon is created
+        tip.setImage(getScaledAvatar(30, 30, true));
 
         tip.setTitle(metaContact.getDisplayName());
 
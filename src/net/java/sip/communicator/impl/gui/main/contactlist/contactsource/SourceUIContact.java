@@ -181,23 +181,8 @@ public byte[] getAvatar()
     @Override
     public ImageIcon getScaledAvatar(boolean isSelected, int width, int height)
     {
-        byte[] image = sourceContact.getImage();
-
-        if ((image != null) && (image.length > 0))
-        {
-            ImageIcon icon = new ImageIcon(image);
-
-            if (icon.getIconWidth() > width || icon.getIconHeight() > height)
-            {
-                icon
-                    = ImageUtils.getScaledRoundedIcon(
-                            icon.getImage(),
-                            width, height);
-            }
-            return icon;
-        }
-        else
-            return null;
+        return AvatarImageCache.getScaledRoundedIcon(
+            sourceContact.getImage(), width, height);
     }
 
     /**
@@ -459,7 +444,10 @@ public ExtendedTooltip getToolTip()
     {
         ExtendedTooltip tip = new ExtendedTooltip(true);
 
-        tip.setImage(getScaledAvatar(false, 30, 30));
+        // the tooltip is not repainted when the icon is created
+        tip.setImage(
+            AvatarImageCache.getScaledRoundedIconNow(
+                sourceContact.getImage(), 30, 30));
 
         tip.setTitle(sourceContact.getDisplayName());
 
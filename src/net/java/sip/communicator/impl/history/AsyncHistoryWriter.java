@@ -0,0 +1,435 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Writes the records added to the histories in a background thread. Records
+ * are queued by <tt>HistoryWriterImpl</tt> and the thread waits at most the
+ * configured latency after the first queued record before writing all the
+ * queued records, so records which arrive close together are written with a
+ * single write per history (group commit).
+ * <p>
+ * The queue is bounded, threads adding records wait when it is full. Records
+ * still queued when the writer is stopped are written before
+ * <tt>stop()</tt> returns. The failures to write the records of a history are
+ * reported to the next thread waiting for the records of that history.
+ */
+public class AsyncHistoryWriter
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(AsyncHistoryWriter.class);
+
+    /**
+     * The maximum number of queued records.
+     */
+    static final int QUEUE_CAPACITY = 1000;
+
+    /**
+     * The records waiting to be written.
+     */
+    private final LinkedList<QueuedRecord> queue
+        = new LinkedList<QueuedRecord>();
+
+    /**
+     * The maximum time in milliseconds a record waits in the queue.
+     */
+    private final long maxLatency;
+
+    /**
+     * The thread writing the queued records.
+     */
+    private final Thread thread;
+
+    /**
+     * The number of records of every history which are queued or being
+     * written.
+     */
+    private final Map<RecordsWriter, Integer> pendingCounts
+        = new HashMap<RecordsWriter, Integer>();
+
+    /**
+     * The first failure to write the records of every history since the
+     * records of that history were last waited for.
+     */
+    private final Map<RecordsWriter, IOException> failures
+        = new HashMap<RecordsWriter, IOException>();
+
+    /**
+     * The number of threads waiting for the queued records to be written. The
+     * records are written without waiting for the latency to expire while
+     * there are any.
+     */
+    private int flushRequests = 0;
+
+    /**
+     * Whether this writer was stopped.
+     */
+    private boolean stopped = false;
+
+    /**
+     * Creates and starts a writer.
+     *
+     * @param maxLatency the maximum time in milliseconds a record waits in the
+     * queue
+     */
+    public AsyncHistoryWriter(long maxLatency)
+    {
+        this.maxLatency = maxLatency;
+
+        thread = new Thread("AsyncHistoryWriter")
+        {
+            @Override
+            public void run()
+            {
+                runInWriterThread();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a record to be written by <tt>writer</tt>.
+     *
+     * @param writer the writer of the history of the record
+     * @param record the record
+     * @param maxNumberOfRecords the maximum number of records to keep or
+     * value of -1 to ignore this param.
+     * @return <tt>false</tt> if this writer is stopped and the record must
+     * be written by the caller
+     */
+    public synchronized boolean enqueue(
+            RecordsWriter writer,
+            HistoryRecord record,
+            int maxNumberOfRecords)
+    {
+        boolean interrupted = false;
+
+        while (!stopped && queue.size() >= QUEUE_CAPACITY)
+        {
+            flushRequests++;
+            notifyAll();
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+            finally
+            {
+                flushRequests--;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        if (stopped)
+            return false;
+
+        queue.add(new QueuedRecord(writer, record, maxNumberOfRecords));
+        Integer count = pendingCounts.get(writer);
+        pendingCounts.put(writer, (count == null) ? 1 : count + 1);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Waits until all the records queued by <tt>writer</tt> are written. The
+     * records of the other histories are not waited for.
+     *
+     * @param writer the writer of the history which records are waited for
+     * @throws IOException if some of these records could not be written since
+     * the records of <tt>writer</tt> were last waited for
+     */
+    public synchronized void awaitFlush(RecordsWriter writer)
+        throws IOException
+    {
+        boolean interrupted = false;
+
+        flushRequests++;
+        try
+        {
+            notifyAll();
+            while (pendingCounts.containsKey(writer) && thread.isAlive())
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        finally
+        {
+            flushRequests--;
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        IOException failure = failures.remove(writer);
+
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Stops this writer once all the queued records are written. Records added
+     * after this call are written by the threads adding them.
+     */
+    public void stop()
+    {
+        synchronized (this)
+        {
+            stopped = true;
+            notifyAll();
+        }
+
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the queued records until this writer is stopped.
+     */
+    private void runInWriterThread()
+    {
+        while (true)
+        {
+            List<QueuedRecord> batch;
+
+            synchronized (this)
+            {
+                while (queue.isEmpty() && !stopped)
+                    waitQuietly(0);
+
+                if (queue.isEmpty())
+                    break;
+
+                // wait for more records, unless someone waits for them
+                long deadline = System.currentTimeMillis() + maxLatency;
+                long now;
+                while (!stopped
+                        && flushRequests == 0
+                        && queue.size() < QUEUE_CAPACITY
+                        && (now = System.currentTimeMillis()) < deadline)
+                    waitQuietly(deadline - now);
+
+                batch = new ArrayList<QueuedRecord>(queue);
+                queue.clear();
+                // wake up the threads waiting for room in the queue
+                notifyAll();
+            }
+
+            write(batch);
+        }
+    }
+
+    /**
+     * Writes a batch of records. The records of every history are written
+     * together, in the order they were queued, and the threads waiting for
+     * them are woken up as soon as they are written.
+     *
+     * @param batch the records to write
+     */
+    private void write(List<QueuedRecord> batch)
+    {
+        Map<RecordsWriter, List<QueuedRecord>> byWriter
+            = new LinkedHashMap<RecordsWriter, List<QueuedRecord>>();
+
+        for (QueuedRecord queued : batch)
+        {
+            List<QueuedRecord> records = byWriter.get(queued.writer);
+
+            if (records == null)
+            {
+                records = new ArrayList<QueuedRecord>();
+                byWriter.put(queued.writer, records);
+            }
+            records.add(queued);
+        }
+
+        for (Map.Entry<RecordsWriter, List<QueuedRecord>> e
+                : byWriter.entrySet())
+        {
+            List<QueuedRecord> queued = e.getValue();
+            IOException failure = null;
+            int start = 0;
+
+            // records with a different maximum number of records are written
+            // separately
+            while (start < queued.size())
+            {
+                int maxNumberOfRecords = queued.get(start).maxNumberOfRecords;
+                List<HistoryRecord> records = new ArrayList<HistoryRecord>();
+                int end = start;
+
+                while (end < queued.size()
+                        && queued.get(end).maxNumberOfRecords
+                            == maxNumberOfRecords)
+                {
+                    records.add(queued.get(end).record);
+                    end++;
+                }
+
+                try
+                {
+                    e.getKey().writeRecords(records, maxNumberOfRecords);
+                }
+                catch (Throwable t)
+                {
+                    logger.error(
+                        "Could not write " + records.size()
+                            + " history records",
+                        t);
+
+                    if (failure == null)
+                    {
+                        failure = (t instanceof IOException)
+                            ? (IOException) t
+                            : new IOException(t);
+                    }
+                }
+
+                start = end;
+            }
+
+            written(e.getKey(), queued.size(), failure);
+        }
+    }
+
+    /**
+     * Accounts for written records of a history and wakes up the threads
+     * waiting for them.
+     *
+     * @param writer the writer of the history of the records
+     * @param count the number of written records
+     * @param failure the failure to write some of the records or
+     * <tt>null</tt>
+     */
+    private synchronized void written(
+            RecordsWriter writer, int count, IOException failure)
+    {
+        int pending = pendingCounts.get(writer) - count;
+
+        if (pending > 0)
+            pendingCounts.put(writer, pending);
+        else
+            pendingCounts.remove(writer);
+
+        if (failure != null && !failures.containsKey(writer))
+            failures.put(writer, failure);
+
+        notifyAll();
+    }
+
+    /**
+     * Waits on this writer, ignoring interruptions.
+     *
+     * @param timeout the maximum time to wait in milliseconds or <tt>0</tt>
+     * to wait until notified
+     */
+    private void waitQuietly(long timeout)
+    {
+        try
+        {
+            wait(timeout);
+        }
+        catch (InterruptedException e)
+        {
+            // the queue is checked again by the caller
+        }
+    }
+
+    /**
+     * Writes the records of a history to its store.
+     */
+    public interface RecordsWriter
+    {
+        /**
+         * Appends records to the store of the history.
+         *
+         * @param records the records to append, in the order they were queued
+         * @param maxNumberOfRecords the maximum number of records to keep or
+         * value of -1 to ignore this param.
+         * @throws IOException if the records cannot be stored
+         */
+        public void writeRecords(
+                List<HistoryRecord> records, int maxNumberOfRecords)
+            throws IOException;
+    }
+
+    /**
+     * A record waiting to be written.
+     */
+    private static class QueuedRecord
+    {
+        /**
+         * The writer of the history of the record.
+         */
+        final RecordsWriter writer;
+
+        /**
+         * The record.
+         */
+        final HistoryRecord record;
+
+        /**
+         * The maximum number of records to keep or -1.
+         */
+        final int maxNumberOfRecords;
+
+        /**
+         * Creates a queued record.
+         *
+         * @param writer the writer of the history of the record
+         * @param record the record
+         * @param maxNumberOfRecords the maximum number of records to keep or
+         * -1.
+         */
+        QueuedRecord(
+                RecordsWriter writer,
+                HistoryRecord record,
+                int maxNumberOfRecords)
+        {
+            this.writer = writer;
+            this.record = record;
+            this.maxNumberOfRecords = maxNumberOfRecords;
+        }
+    }
+}
@@ -18,16 +18,11 @@
 package net.java.sip.communicator.impl.history;
 
 import java.io.*;
-import java.security.*;
-import java.util.*;
 
 import net.java.sip.communicator.service.history.*;
 import net.java.sip.communicator.service.history.records.*;
 import net.java.sip.communicator.util.*;
 
-import org.jitsi.util.xml.XMLUtils;
-import org.w3c.dom.*;
-
 /**
  * @author Alexander Pelov
  * @author Yana Stamcheva
@@ -37,11 +32,6 @@
 {
     private static Logger log = Logger.getLogger(HistoryImpl.class);
 
-    /**
-     * The supported filetype.
-     */
-    public static final String SUPPORTED_FILETYPE = "xml";
-
     private HistoryID id;
 
     private HistoryRecordStructure historyRecordStructure;
@@ -59,8 +49,23 @@
 
     private HistoryWriter writer;
 
-    private SortedMap<String, Object> historyDocuments
-        = new TreeMap<String, Object>();
+    private final HistoryStore store;
+
+    /**
+     * Whether the legacy XML files of this history, if any, were converted
+     * to segments of its store.
+     */
+    private volatile boolean migrated;
+
+    /**
+     * The lock serializing the conversion of the legacy XML files.
+     */
+    private final Object migrationLock = new Object();
+
+    /**
+     * The index of the words in the records of this history.
+     */
+    private final HistoryKeywordIndex keywordIndex;
 
     /**
      * Creates an instance of <tt>HistoryImpl</tt> by specifying the history
@@ -92,7 +97,13 @@ protected HistoryImpl(HistoryID id, File directory,
             this.reader = null;
             this.writer = null;
 
-            this.reloadDocumentList();
+            this.store = createStore();
+            // the postings of the legacy XML files are only kept in memory
+            this.keywordIndex = new HistoryKeywordIndex(
+                store,
+                directory,
+                store instanceof SegmentHistoryStore,
+                historyServiceImpl.getSegmentCache());
         } finally {
             log.logExit();
         }
@@ -161,7 +172,7 @@ public InteractiveHistoryReader getInteractiveReader()
         return interactiveReader;
     }
 
-    public HistoryWriter getWriter()
+    public synchronized HistoryWriter getWriter()
     {
         if (writer == null)
             writer = new HistoryWriterImpl(this);
@@ -173,268 +184,100 @@ protected HistoryServiceImpl getHistoryServiceImpl()
         return this.historyServiceImpl;
     }
 
-    void reloadDocumentList()
-    {
-        synchronized (this.historyDocuments)
-        {
-            this.historyDocuments.clear();
-
-            File[] files = this.directory.listFiles();
-            // TODO: Assert: Assert.assertNonNull(files, "The list of files
-            // should be non-null.");
-
-            for (int i = 0; i < files.length; i++)
-            {
-                if (!files[i].isDirectory())
-                {
-                    String filename = files[i].getName();
-
-                    if (filename.endsWith(SUPPORTED_FILETYPE))
-                    {
-                        this.historyDocuments.put(filename, files[i]);
-                    }
-                }
-            }
-        }
-    }
-
-    protected Document createDocument(String filename)
+    /**
+     * Returns the store keeping the records of this history. The legacy XML
+     * files of the history are converted the first time its store is used,
+     * rather than when the history is loaded, so that loading histories does
+     * not wait for a long conversion.
+     * @return the store keeping the records of this history.
+     */
+    HistoryStore getStore()
     {
-        Document retVal = null;
-
-        synchronized (this.historyDocuments)
-        {
-            if (this.historyDocuments.containsKey(filename))
-            {
-                retVal = getDocumentForFile(filename);
-            } else {
-                retVal = this.historyServiceImpl.getDocumentBuilder()
-                        .newDocument();
-                retVal.appendChild(retVal.createElement("history"));
-
-                this.historyDocuments.put(filename, retVal);
-            }
-        }
-
-        return retVal;
-    }
-
-    protected void writeFile(String filename) throws InvalidParameterException,
-            IOException {
-        File file = new File(this.directory, filename);
-
-        synchronized (this.historyDocuments)
+        if (!migrated)
         {
-            if (!this.historyDocuments.containsKey(filename))
-            {
-                throw new InvalidParameterException("The requested "
-                        + "filename does not exist in the document list.");
-            }
-
-            Object obj = this.historyDocuments.get(filename);
-
-            if (obj instanceof Document)
+            synchronized (migrationLock)
             {
-                Document doc = (Document) obj;
-
-                synchronized (doc)
+                if (!migrated)
                 {
-                    XMLUtils.writeXML(doc, file);
+                    XmlHistoryMigrator.migrate(
+                        directory,
+                        historyServiceImpl,
+                        (SegmentHistoryStore) store);
+                    migrated = true;
                 }
             }
         }
+        return this.store;
     }
 
-    protected void writeFile(String filename, Document doc)
-        throws InvalidParameterException, IOException
+    /**
+     * Waits until the records added to this history are written to its store,
+     * so the readers find all of them. The failures to write them were
+     * already logged.
+     */
+    void awaitPendingRecords()
     {
-        File file = new File(this.directory, filename);
-
-        synchronized (this.historyDocuments)
+        try
         {
-            if (!this.historyDocuments.containsKey(filename))
-            {
-                throw new InvalidParameterException("The requested "
-                        + "filename does not exist in the document list.");
-            }
-
-            synchronized (doc)
-            {
-                XMLUtils.writeXML(doc, file);
-            }
+            flushPendingRecords();
         }
-    }
-
-    protected Iterator<String> getFileList()
-    {
-        return this.historyDocuments.keySet().iterator();
-    }
-
-    protected Document getDocumentForFile(String filename)
-            throws InvalidParameterException, RuntimeException {
-        Document retVal = null;
-
-        synchronized (this.historyDocuments)
+        catch (IOException e)
         {
-            if (!this.historyDocuments.containsKey(filename))
-            {
-                throw new InvalidParameterException("The requested "
-                        + "filename does not exist in the document list.");
-            }
-
-            Object obj = this.historyDocuments.get(filename);
-            if (obj instanceof Document)
-            {
-                // Document already loaded. Use it directly
-                retVal = (Document) obj;
-            } else if (obj instanceof File)
-            {
-                File file = (File) obj;
-
-                try {
-                    retVal = this.historyServiceImpl.parse(file);
-                } catch (Exception e)
-                {
-//                    throw new RuntimeException("Error occured while "
-//                            + "parsing XML document.", e);
-//                    log.error("Error occured while parsing XML document.", e);
-                    log.error("Error occured while parsing XML document.", e);
-
-                    // will try to fix the xml file
-                    retVal = getFixedDocument(file);
-
-                    // if is not fixed return
-                    if(retVal == null)
-                        return null;
-                }
-
-                // Cache the loaded document for reuse if configured
-                if(historyServiceImpl.isCacheEnabled())
-                    this.historyDocuments.put(filename, retVal);
-            } else {
-                // TODO: Assert: Assert.fail("Internal error - the data type " +
-                // "should be either Document or File.");
-            }
+            // logged by the writer of the records
         }
-
-        return retVal;
     }
 
     /**
-     * Methods trying to fix histry xml files if corrupted
-     */
-    /**
-     * Returns the fixed document as xml Document
-     * if file cannot be fixed return null
+     * Waits until the records added to this history are written to its store.
+     * The records of the other histories are not waited for.
      *
-     * @param file File the file trying to fix
-     * @return Document the fixed doc
+     * @throws IOException if some of the records could not be written
      */
-    public Document getFixedDocument(File file)
+    void flushPendingRecords()
+        throws IOException
     {
-        log.info("Will try to fix file : " + file);
-        StringBuffer resultDocStr = new StringBuffer("<history>");
-
-        try
-        {
-            BufferedReader inReader = new BufferedReader(new FileReader(file));
-            String line = null;
-            while ( (line = inReader.readLine()) != null)
-            {
-                // find the next start of record node
-                if (line.indexOf("<record") == -1)
-                {
-                    continue;
-                }
-
-                String record = getRecordNodeString(line, inReader).toString();
+        AsyncHistoryWriter asyncWriter = historyServiceImpl.getAsyncWriter();
+        HistoryWriter writer;
 
-                if (record != null && isValidXML(record))
-                {
-                    resultDocStr.append(record);
-                }
-            }
-        }
-        catch (Exception ex1)
+        synchronized (this)
         {
-            log.error("File cannot be fixed. Erro reading! " +
-                      ex1.getLocalizedMessage());
+            writer = this.writer;
         }
 
-        resultDocStr.append("</history>");
-
-        try
-        {
-            Document result =
-                this.historyServiceImpl.parse(new ByteArrayInputStream(
-                    resultDocStr.toString().getBytes("UTF-8")));
-
-            // parsing is ok . lets overwrite with correct values
-            log.trace("File fixed will write to disk!");
-            XMLUtils.writeXML(result, file);
-
-            return result;
-        }
-        catch (Exception ex)
-        {
-            System.out.println("again cannot parse " + ex.getMessage());
-            return null;
-        }
+        if (asyncWriter != null && writer instanceof HistoryWriterImpl)
+            asyncWriter.awaitFlush((HistoryWriterImpl) writer);
     }
 
     /**
-     * Returns the string containing the record node from the xml -
-     * the supplied Reader
-     * @param startingLine String
-     * @param inReader BufferedReader
-     * @return StringBuffer
+     * Returns the index of the words in the records of this history.
+     * @return the index of the words in the records of this history.
      */
-    private StringBuffer getRecordNodeString(
-        String startingLine, BufferedReader inReader)
+    HistoryKeywordIndex getKeywordIndex()
     {
-        try
-        {
-            StringBuffer result = new StringBuffer(startingLine);
-
-            String line = null;
-            while ( (line = inReader.readLine()) != null)
-            {
-                // find the next start of record node
-                if (line.indexOf("</record>") != -1)
-                {
-                    result.append(line);
-                    break;
-                }
-                result.append(line);
-            }
-
-            return result;
-        }
-        catch (IOException ex)
-        {
-            log.info("Error reading record " + ex.getLocalizedMessage());
-            return null;
-        }
+        return this.keywordIndex;
     }
 
     /**
-     * Checks whether the given xml is valid
-     * @param str String
-     * @return boolean
+     * Creates the store of this history. Histories still kept in the legacy
+     * XML files are migrated to the segment store the first time the store
+     * is used, unless the legacy storage is configured.
+     *
+     * @return the store keeping the records of this history.
      */
-    private boolean isValidXML(String str)
+    private HistoryStore createStore()
     {
-        try
-        {
-            this.historyServiceImpl.parse(
-                new ByteArrayInputStream(str.getBytes("UTF-8")));
-        }
-        catch (Exception ex)
+        if (historyServiceImpl.isXmlStorageEnabled())
         {
-            log.error("not valid xml " + str + " " + ex.getMessage());
-            return false;
+            migrated = true;
+            return new XmlHistoryStore(directory, historyServiceImpl);
         }
 
-        return true;
+        return new SegmentHistoryStore(
+            directory, historyServiceImpl.getSegmentCache());
+    }
+
+    void reloadDocumentList()
+    {
+        getStore().reload();
     }
 }
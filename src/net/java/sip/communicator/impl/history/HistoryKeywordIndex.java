@@ -0,0 +1,736 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * An inverted index of the words found in a field of the records of a
+ * history. For every segment of the history and every searched field the
+ * index keeps the postings of each word: the ordinals of the records of the
+ * segment which field contains the word.
+ * <p>
+ * Keyword searches match substrings, so a keyword is split in words the same
+ * way as the values and every word of the keyword must be contained in a
+ * word of the value. The words containing a part of a keyword are found
+ * through an index of the n-grams of the indexed words, and the postings of
+ * the parts of all the keywords are intersected. The records found this way
+ * are only candidates which are checked again by the reader, the index never
+ * changes the results of a search, only the number of records which are
+ * read.
+ * <p>
+ * The postings of a field are built the first time the field is searched
+ * and kept in the <tt>HistorySegmentCache</tt> of the history service. The
+ * postings of the newest segment are updated when records are added, the
+ * postings of the older segments are also saved in
+ * <tt>&lt;timestamp&gt;.&lt;field&gt;.kw</tt> files next to the segments
+ * when the store is a <tt>SegmentHistoryStore</tt>.
+ */
+public class HistoryKeywordIndex
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HistoryKeywordIndex.class);
+
+    /**
+     * The extension of the files keeping the postings of a segment.
+     */
+    public static final String INDEX_FILETYPE = "kw";
+
+    /**
+     * The version of the format of the postings files.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * The maximum length of an indexed word. The records with longer words
+     * are returned as candidates of all searches.
+     */
+    private static final int MAX_WORD_LENGTH = 256;
+
+    /**
+     * The word under which the records which cannot be indexed are kept.
+     * Words are never empty, so it does not collide with a real word.
+     */
+    private static final String UNINDEXED = "";
+
+    /**
+     * The estimated heap size of the posting of a word, without the word and
+     * the ordinals.
+     */
+    private static final int POSTING_OVERHEAD = 80;
+
+    /**
+     * The length of the longest n-grams of the words. The n-grams of all the
+     * lengths up to this one are indexed, so the words containing a part of
+     * a keyword shorter than this are found with a single lookup.
+     */
+    private static final int GRAM_LENGTH = 3;
+
+    /**
+     * The store which records are indexed.
+     */
+    private final HistoryStore store;
+
+    /**
+     * The directory of the history.
+     */
+    private final File directory;
+
+    /**
+     * Whether the postings of the segments are saved in files.
+     */
+    private final boolean persistent;
+
+    /**
+     * The cache keeping the postings in memory.
+     */
+    private final HistorySegmentCache cache;
+
+    /**
+     * The fields which were searched.
+     */
+    private final Set<String> fields = new HashSet<String>();
+
+    /**
+     * Creates the index of the records of <tt>store</tt>.
+     *
+     * @param store the store which records are indexed
+     * @param directory the directory of the history
+     * @param persistent whether the postings are saved in files in
+     * <tt>directory</tt> or kept only in memory
+     * @param cache the cache keeping the postings in memory
+     */
+    public HistoryKeywordIndex(
+            HistoryStore store,
+            File directory,
+            boolean persistent,
+            HistorySegmentCache cache)
+    {
+        this.store = store;
+        this.directory = directory;
+        this.persistent = persistent;
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the ordinals of the records of <tt>segment</tt> which may have
+     * a <tt>field</tt> property containing all the <tt>keywords</tt>.
+     *
+     * @param segment the segment to search
+     * @param field the name of the searched property
+     * @param keywords the keywords to search for
+     * @return the ordinals of the candidate records or <tt>null</tt> if the
+     * index cannot restrict the search and all records must be read.
+     */
+    public synchronized BitSet findCandidates(
+            HistorySegment segment, String field, String[] keywords)
+    {
+        Postings postings = getPostings(segment, field);
+
+        if (postings == null)
+            return null;
+
+        BitSet result = null;
+
+        for (String keyword : keywords)
+        {
+            for (String word : tokenize(keyword))
+            {
+                BitSet matches = postings.match(word);
+
+                if (result == null)
+                    result = matches;
+                else
+                    result.and(matches);
+
+                if (result.isEmpty())
+                    return result;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Updates the index after a record was appended to <tt>segment</tt>.
+     *
+     * @param segment the segment the record was appended to
+     * @param record the appended record
+     */
+    public synchronized void recordAppended(
+            HistorySegment segment, HistoryRecord record)
+    {
+        for (String field : fields)
+        {
+            File file = getPostingsFile(segment, field);
+            Postings postings = (Postings) cache.get(file);
+
+            if (postings != null)
+            {
+                postings.add(record, field);
+                cache.put(file, postings, postings.estimateSize());
+            }
+        }
+    }
+
+    /**
+     * Drops the postings of <tt>segment</tt> after its records were changed.
+     * They are built again the next time the segment is searched.
+     *
+     * @param segment the changed segment
+     */
+    public synchronized void segmentChanged(HistorySegment segment)
+    {
+        for (String field : fields)
+            cache.remove(getPostingsFile(segment, field));
+
+        if (!persistent)
+            return;
+
+        // also delete the postings of the fields which were not searched yet
+        String prefix = segment.getStartTimestamp() + ".";
+        String[] names = directory.list();
+
+        if (names == null)
+            return;
+
+        for (String name : names)
+        {
+            if (name.startsWith(prefix)
+                && name.endsWith("." + INDEX_FILETYPE))
+                new File(directory, name).delete();
+        }
+    }
+
+    /**
+     * Returns the postings of <tt>field</tt> in <tt>segment</tt>, loading or
+     * building them if needed.
+     *
+     * @param segment the segment
+     * @param field the field
+     * @return the postings or <tt>null</tt> if the segment cannot be read.
+     */
+    private Postings getPostings(HistorySegment segment, String field)
+    {
+        fields.add(field);
+
+        File file = getPostingsFile(segment, field);
+        Postings postings = (Postings) cache.get(file);
+        boolean sealed = isSealed(segment);
+
+        if (postings == null)
+        {
+            postings = sealed ? readPostings(segment, field) : null;
+
+            if (postings == null)
+            {
+                List<HistoryRecord> records
+                    = store.readRecords(segment, null, null);
+
+                if (records == null)
+                    return null;
+
+                postings = new Postings();
+                for (HistoryRecord record : records)
+                    postings.add(record, field);
+            }
+
+            cache.put(file, postings, postings.estimateSize());
+        }
+
+        if (sealed && !postings.saved)
+            writePostings(segment, field, postings);
+
+        return postings;
+    }
+
+    /**
+     * Checks whether records may still be appended to <tt>segment</tt>. Only
+     * the postings of the segments which will not grow any more are saved.
+     *
+     * @param segment the segment
+     * @return <tt>true</tt> if <tt>segment</tt> is not the newest segment of
+     * the store.
+     */
+    private boolean isSealed(HistorySegment segment)
+    {
+        if (!persistent)
+            return false;
+
+        List<HistorySegment> segments = store.getSegments(null, null);
+
+        return !segments.isEmpty()
+            && !segments.get(segments.size() - 1).getName().equals(
+                    segment.getName());
+    }
+
+    /**
+     * Returns the file keeping the postings of <tt>field</tt> in
+     * <tt>segment</tt>, which is also the key of the postings in the cache.
+     *
+     * @param segment the segment
+     * @param field the field
+     * @return the file keeping the postings.
+     */
+    private File getPostingsFile(HistorySegment segment, String field)
+    {
+        return new File(
+            directory,
+            segment.getStartTimestamp() + "." + field + "." + INDEX_FILETYPE);
+    }
+
+    /**
+     * Reads the saved postings of <tt>field</tt> in <tt>segment</tt>. The
+     * postings are ignored if they do not cover all records of the segment.
+     *
+     * @param segment the segment
+     * @param field the field
+     * @return the postings or <tt>null</tt> if there are no valid saved
+     * postings.
+     */
+    private Postings readPostings(HistorySegment segment, String field)
+    {
+        File file = getPostingsFile(segment, field);
+
+        if (!file.exists())
+            return null;
+
+        try
+        {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+            try
+            {
+                if (in.readInt() != VERSION)
+                    return null;
+
+                Postings postings = new Postings();
+                postings.count = in.readInt();
+
+                if (postings.count != store.countRecords(segment))
+                    return null;
+
+                int words = in.readInt();
+                for (int i = 0; i < words; i++)
+                {
+                    String word = in.readUTF();
+                    int[] ordinals = new int[in.readInt()];
+
+                    for (int j = 0; j < ordinals.length; j++)
+                        ordinals[j] = in.readInt();
+
+                    postings.put(word, new Posting(ordinals));
+                }
+
+                postings.saved = true;
+                return postings;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot read history keyword index " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves the postings of <tt>field</tt> in <tt>segment</tt>. The postings
+     * are written to a temporary file first so a failure never leaves a
+     * partial file behind.
+     *
+     * @param segment the segment
+     * @param field the field
+     * @param postings the postings to save
+     */
+    private void writePostings(
+            HistorySegment segment, String field, Postings postings)
+    {
+        File file = getPostingsFile(segment, field);
+        File tmpFile = new File(directory, file.getName() + ".tmp");
+
+        try
+        {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try
+            {
+                out.writeInt(VERSION);
+                out.writeInt(postings.count);
+                out.writeInt(postings.words.size());
+                for (Map.Entry<String, Posting> e : postings.words.entrySet())
+                {
+                    Posting posting = e.getValue();
+
+                    out.writeUTF(e.getKey());
+                    out.writeInt(posting.size);
+                    for (int i = 0; i < posting.size; i++)
+                        out.writeInt(posting.ordinals[i]);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            file.delete();
+            if (!tmpFile.renameTo(file))
+                throw new IOException("Cannot rename " + tmpFile);
+
+            postings.saved = true;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot write history keyword index " + file, e);
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Splits <tt>value</tt> in words. The case of the value is folded
+     * character by character, so the folding never changes its length, and
+     * every sequence of letters and digits is a word. A character is folded
+     * to the lower case of its upper case, as
+     * {@link String#regionMatches(boolean, int, String, int, int)} compares
+     * them, so the characters a case insensitive search matches, such as
+     * the final and the medial sigma, are the same word.
+     *
+     * @param value the value to split
+     * @return the words of <tt>value</tt> in the order they appear
+     */
+    static List<String> tokenize(String value)
+    {
+        List<String> words = new ArrayList<String>();
+        StringBuilder word = new StringBuilder();
+
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c
+                = Character.toLowerCase(
+                        Character.toUpperCase(value.charAt(i)));
+
+            if (Character.isLetterOrDigit(c))
+            {
+                word.append(c);
+            }
+            else if (word.length() != 0)
+            {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+
+        if (word.length() != 0)
+            words.add(word.toString());
+
+        return words;
+    }
+
+    /**
+     * The postings of a field in a segment.
+     */
+    private static class Postings
+    {
+        /**
+         * The number of records of the segment which were indexed.
+         */
+        int count;
+
+        /**
+         * Whether these postings are saved.
+         */
+        boolean saved;
+
+        /**
+         * The posting of every word.
+         */
+        final Map<String, Posting> words = new HashMap<String, Posting>();
+
+        /**
+         * The indexed words, the position of a word is its id.
+         */
+        private final List<String> terms = new ArrayList<String>();
+
+        /**
+         * The postings of the words, in the order of <tt>terms</tt>.
+         */
+        private final List<Posting> termPostings = new ArrayList<Posting>();
+
+        /**
+         * The ids of the words containing every n-gram.
+         */
+        private final Map<String, Posting> grams
+            = new HashMap<String, Posting>();
+
+        /**
+         * The estimated heap size of these postings.
+         */
+        long size = 0;
+
+        /**
+         * Indexes the next record of the segment.
+         *
+         * @param record the record
+         * @param field the indexed field
+         */
+        void add(HistoryRecord record, String field)
+        {
+            int ordinal = count++;
+            String[] names = record.getPropertyNames();
+            String[] values = record.getPropertyValues();
+            Set<String> recordWords = new HashSet<String>();
+
+            for (int i = 0; i < names.length; i++)
+            {
+                if (!field.equals(names[i]) || values[i] == null)
+                    continue;
+
+                for (String word : tokenize(values[i]))
+                {
+                    recordWords.add(
+                        (word.length() > MAX_WORD_LENGTH) ? UNINDEXED : word);
+                }
+            }
+
+            for (String word : recordWords)
+            {
+                Posting posting = words.get(word);
+
+                if (posting == null)
+                {
+                    posting = new Posting(new int[0]);
+                    put(word, posting);
+                }
+                posting.add(ordinal);
+                size += 4;
+            }
+
+            saved = false;
+        }
+
+        /**
+         * Estimates the heap size of these postings.
+         *
+         * @return the estimated size in bytes
+         */
+        long estimateSize()
+        {
+            return size;
+        }
+
+        /**
+         * Adds the posting of a word and indexes the n-grams of the word.
+         *
+         * @param word the word
+         * @param posting the posting of the word
+         */
+        void put(String word, Posting posting)
+        {
+            words.put(word, posting);
+            size += HistorySegmentCache.estimateSize(word)
+                + POSTING_OVERHEAD + 4L * posting.ordinals.length;
+
+            if (word.equals(UNINDEXED))
+                return;
+
+            int id = terms.size();
+            Set<String> wordGrams = new HashSet<String>();
+
+            terms.add(word);
+            termPostings.add(posting);
+
+            for (int n = 1; n <= GRAM_LENGTH; n++)
+            {
+                for (int i = 0; i + n <= word.length(); i++)
+                    wordGrams.add(word.substring(i, i + n));
+            }
+
+            for (String gram : wordGrams)
+            {
+                Posting ids = grams.get(gram);
+
+                if (ids == null)
+                {
+                    ids = new Posting(new int[0]);
+                    grams.put(gram, ids);
+                    size += HistorySegmentCache.estimateSize(gram)
+                        + POSTING_OVERHEAD;
+                }
+                ids.add(id);
+                size += 4;
+            }
+        }
+
+        /**
+         * Returns the ordinals of the records with a word containing
+         * <tt>part</tt> or which could not be indexed.
+         *
+         * @param part a word of a keyword
+         * @return the ordinals of the matching records
+         */
+        BitSet match(String part)
+        {
+            BitSet result = new BitSet(count);
+            Posting unindexed = words.get(UNINDEXED);
+
+            if (unindexed != null)
+                unindexed.addTo(result);
+
+            int[] ids = findTerms(part);
+
+            for (int id : ids)
+            {
+                // the n-grams of longer parts may be in a word in another
+                // order
+                if (terms.get(id).contains(part))
+                    termPostings.get(id).addTo(result);
+            }
+
+            return result;
+        }
+
+        /**
+         * Returns the ids of the words which may contain <tt>part</tt>: the
+         * words containing all its n-grams of <tt>GRAM_LENGTH</tt>, or the
+         * part itself when it is not longer.
+         *
+         * @param part a word of a keyword
+         * @return the ids of the words in ascending order
+         */
+        private int[] findTerms(String part)
+        {
+            if (part.length() <= GRAM_LENGTH)
+            {
+                Posting ids = grams.get(part);
+
+                return (ids == null)
+                    ? new int[0] : Arrays.copyOf(ids.ordinals, ids.size);
+            }
+
+            int[] result = null;
+
+            for (int i = 0; i + GRAM_LENGTH <= part.length(); i++)
+            {
+                Posting ids = grams.get(part.substring(i, i + GRAM_LENGTH));
+
+                if (ids == null)
+                    return new int[0];
+
+                result = (result == null)
+                    ? Arrays.copyOf(ids.ordinals, ids.size)
+                    : ids.intersect(result);
+                if (result.length == 0)
+                    break;
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * The ordinals of the records containing a word, or the ids of the words
+     * containing an n-gram, in ascending order.
+     */
+    private static class Posting
+    {
+        /**
+         * The ordinals, only the first <tt>size</tt> are used.
+         */
+        int[] ordinals;
+
+        /**
+         * The number of ordinals.
+         */
+        int size;
+
+        /**
+         * Creates a posting with the given ordinals.
+         *
+         * @param ordinals the ordinals
+         */
+        Posting(int[] ordinals)
+        {
+            this.ordinals = ordinals;
+            this.size = ordinals.length;
+        }
+
+        /**
+         * Adds an ordinal greater than all the ordinals of this posting.
+         *
+         * @param ordinal the ordinal to add
+         */
+        void add(int ordinal)
+        {
+            if (size == ordinals.length)
+                ordinals = Arrays.copyOf(ordinals, Math.max(1, size * 2));
+            ordinals[size++] = ordinal;
+        }
+
+        /**
+         * Sets the bits of the ordinals of this posting.
+         *
+         * @param bits the bits to set
+         */
+        void addTo(BitSet bits)
+        {
+            for (int i = 0; i < size; i++)
+                bits.set(ordinals[i]);
+        }
+
+        /**
+         * Returns the ordinals of this posting which are also in
+         * <tt>other</tt>.
+         *
+         * @param other ordinals in ascending order
+         * @return the common ordinals in ascending order
+         */
+        int[] intersect(int[] other)
+        {
+            int[] result = new int[Math.min(size, other.length)];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+
+            while (i < size && j < other.length)
+            {
+                if (ordinals[i] < other[j])
+                    i++;
+                else if (ordinals[i] > other[j])
+                    j++;
+                else
+                {
+                    result[count++] = ordinals[i];
+                    i++;
+                    j++;
+                }
+            }
+
+            return Arrays.copyOf(result, count);
+        }
+    }
+}
@@ -17,20 +17,12 @@
  */
 package net.java.sip.communicator.impl.history;
 
-import static
-    net.java.sip.communicator.service.history.HistoryService.DATE_FORMAT;
-
-import java.text.*;
 import java.util.*;
-import java.util.regex.*;
 
 import net.java.sip.communicator.service.history.*;
 import net.java.sip.communicator.service.history.event.*;
 import net.java.sip.communicator.service.history.records.*;
 
-import org.apache.commons.lang3.*;
-import org.w3c.dom.*;
-
 /**
  * @author Alexander Pelov
  * @author Damian Minkov
@@ -43,10 +35,10 @@
     private Vector<HistorySearchProgressListener> progressListeners
         = new Vector<HistorySearchProgressListener>();
 
-    // regexp used for index of case(in)sensitive impl
-    private static String REGEXP_END = ".*$";
-    private static String REGEXP_SENSITIVE_START = "(?s)^.*";
-    private static String REGEXP_INSENSITIVE_START = "(?si)^.*";
+    /**
+     * The minimum number of records a search reads at once.
+     */
+    private static final int PAGE_SIZE = 100;
 
     /**
      * Creates an instance of <tt>HistoryReaderImpl</tt>.
@@ -198,79 +190,35 @@ public synchronized QueryResultSet<HistoryRecord> findLast(
         boolean caseSensitive)
         throws RuntimeException
     {
-        // the files are supposed to be ordered from oldest to newest
-        Vector<String> filelist =
-            filterFilesByDate(this.historyImpl.getFileList(), null, null);
+        this.historyImpl.awaitPendingRecords();
+
+        HistoryStore store = this.historyImpl.getStore();
+        // the segments are ordered from oldest to newest
+        List<HistorySegment> segments = store.getSegments(null, null);
 
         TreeSet<HistoryRecord> result
             = new TreeSet<HistoryRecord>(new HistoryRecordComparator());
         int leftCount = count;
-        int currentFile = filelist.size() - 1;
+        int currentSegment = segments.size() - 1;
 
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-        while(leftCount > 0 && currentFile >= 0)
+        while(leftCount > 0 && currentSegment >= 0)
         {
-            Document doc = this.historyImpl.
-                getDocumentForFile(filelist.get(currentFile));
-
-            if(doc == null)
-            {
-                currentFile--;
-                continue;
-            }
+            // only the tail of the segment holding the last records is read
+            List<HistoryRecord> records = store.readLastRecords(
+                segments.get(currentSegment), leftCount);
 
-            // will get nodes and construct a List of nodes
-            // so we can easily get sublist of it
-            List<Node> nodes = new ArrayList<Node>();
-            NodeList nodesList = doc.getElementsByTagName("record");
-            for (int i = 0; i < nodesList.getLength(); i++)
-            {
-                nodes.add(nodesList.item(i));
-            }
+            currentSegment--;
 
-            List<Node> lNodes = null;
+            if(records == null)
+                continue;
 
-            if (nodes.size() > leftCount)
-            {
-                lNodes = nodes.subList(nodes.size() - leftCount , nodes.size());
-                leftCount = 0;
-            }
-            else
-            {
-                lNodes = nodes;
-                leftCount -= nodes.size();
-            }
+            leftCount -= records.size();
 
-            Iterator<Node> i = lNodes.iterator();
-            while (i.hasNext())
+            for (HistoryRecord record : records)
             {
-                Node node = i.next();
-
-                NodeList propertyNodes = node.getChildNodes();
-
-                Date timestamp;
-                String ts = node.getAttributes().getNamedItem("timestamp")
-                    .getNodeValue();
-                try
-                {
-                    timestamp = sdf.parse(ts);
-                }
-                catch (ParseException e)
-                {
-                    timestamp = new Date(Long.parseLong(ts));
-                }
-
-                HistoryRecord record =
-                    filterByKeyword(propertyNodes, timestamp,
-                        keywords, field, caseSensitive);
-
-                if(record != null)
-                {
+                if(matchRecord(record, keywords, field, caseSensitive))
                     result.add(record);
-                }
             }
-
-            currentFile--;
         }
 
         return new OrderedQueryResultSet<HistoryRecord>(result);
@@ -352,90 +300,29 @@ public synchronized QueryResultSet<HistoryRecord> findLast(
         TreeSet<HistoryRecord> result
             = new TreeSet<HistoryRecord>(new HistoryRecordComparator());
 
-        Vector<String> filelist =
-            filterFilesByDate(this.historyImpl.getFileList(), date, null);
+        this.historyImpl.awaitPendingRecords();
+
+        HistoryStore store = this.historyImpl.getStore();
+        List<HistorySegment> segments = store.getSegments(date, null);
 
         int leftCount = count;
-        int currentFile = 0;
+        int currentSegment = 0;
 
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-        while(leftCount > 0 && currentFile < filelist.size())
+        while(leftCount > 0 && currentSegment < segments.size())
         {
-            Document doc = this.historyImpl.
-                getDocumentForFile(filelist.get(currentFile));
+            List<HistoryRecord> records = store.readRecords(
+                segments.get(currentSegment), date, null);
 
-            if(doc == null)
-            {
-                currentFile++;
-                continue;
-            }
+            currentSegment++;
 
-            NodeList nodes = doc.getElementsByTagName("record");
+            if(records == null)
+                continue;
 
-            Node node;
-            for (int i = 0; i < nodes.getLength() && leftCount > 0; i++)
+            for (int i = 0; i < records.size() && leftCount > 0; i++)
             {
-                node = nodes.item(i);
-
-                NodeList propertyNodes = node.getChildNodes();
-
-                Date timestamp;
-                String ts = node.getAttributes().getNamedItem("timestamp")
-                    .getNodeValue();
-                try
-                {
-                    timestamp = sdf.parse(ts);
-                }
-                catch (ParseException e)
-                {
-                    timestamp = new Date(Long.parseLong(ts));
-                }
-
-                if(!isInPeriod(timestamp, date, null))
-                    continue;
-
-                ArrayList<String> nameVals = new ArrayList<String>();
-
-                boolean isRecordOK = true;
-                int len = propertyNodes.getLength();
-                for (int j = 0; j < len; j++)
-                {
-                    Node propertyNode = propertyNodes.item(j);
-                    if (propertyNode.getNodeType() == Node.ELEMENT_NODE)
-                    {
-                        // Get nested TEXT node's value
-                        Node nodeValue = propertyNode.getFirstChild();
-
-                        if(nodeValue != null)
-                        {
-                            nameVals.add(propertyNode.getNodeName());
-                            nameVals.add(nodeValue.getNodeValue());
-                        }
-                        else
-                            isRecordOK = false;
-                    }
-                }
-
-                // if we found a broken record - just skip it
-                if(!isRecordOK)
-                    continue;
-
-                String[] propertyNames = new String[nameVals.size() / 2];
-                String[] propertyValues = new String[propertyNames.length];
-                for (int j = 0; j < propertyNames.length; j++)
-                {
-                    propertyNames[j] = nameVals.get(j * 2);
-                    propertyValues[j] = nameVals.get(j * 2 + 1);
-                }
-
-                HistoryRecord record = new HistoryRecord(propertyNames,
-                    propertyValues, timestamp);
-
-                result.add(record);
+                result.add(records.get(i));
                 leftCount--;
             }
-
-            currentFile++;
         }
 
         return new OrderedQueryResultSet<HistoryRecord>(result);
@@ -453,188 +340,201 @@ public synchronized QueryResultSet<HistoryRecord> findLast(
         findLastRecordsBefore(Date date, int count)
             throws RuntimeException
     {
-        // the files are supposed to be ordered from oldest to newest
-        Vector<String> filelist =
-            filterFilesByDate(this.historyImpl.getFileList(), null, date);
+        this.historyImpl.awaitPendingRecords();
+
+        HistoryStore store = this.historyImpl.getStore();
+        // the segments are ordered from oldest to newest
+        List<HistorySegment> segments = store.getSegments(null, date);
 
         TreeSet<HistoryRecord> result
             = new TreeSet<HistoryRecord>(new HistoryRecordComparator());
         int leftCount = count;
 
-        int currentFile = filelist.size() - 1;
+        int currentSegment = segments.size() - 1;
 
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-        while(leftCount > 0 && currentFile >= 0)
+        while(leftCount > 0 && currentSegment >= 0)
         {
-            Document doc = this.historyImpl.
-                getDocumentForFile(filelist.get(currentFile));
+            List<HistoryRecord> records = store.readRecords(
+                segments.get(currentSegment), null, date);
 
-            if(doc == null)
-            {
-                currentFile--;
-                continue;
-            }
+            currentSegment--;
 
-            NodeList nodes = doc.getElementsByTagName("record");
+            if(records == null)
+                continue;
 
-            Node node;
-            for (int i = nodes.getLength() - 1; i >= 0 && leftCount > 0; i--)
+            for (int i = records.size() - 1; i >= 0 && leftCount > 0; i--)
             {
-                node = nodes.item(i);
-                NodeList propertyNodes = node.getChildNodes();
-
-                Date timestamp;
-                String ts = node.getAttributes().getNamedItem("timestamp")
-                    .getNodeValue();
-                try
-                {
-                    timestamp = sdf.parse(ts);
-                }
-                catch (ParseException e)
-                {
-                    timestamp = new Date(Long.parseLong(ts));
-                }
-
-                if(!isInPeriod(timestamp, null, date))
-                    continue;
-
-                ArrayList<String> nameVals = new ArrayList<String>();
-
-                boolean isRecordOK = true;
-                int len = propertyNodes.getLength();
-                for (int j = 0; j < len; j++)
-                {
-                    Node propertyNode = propertyNodes.item(j);
-                    if (propertyNode.getNodeType() == Node.ELEMENT_NODE)
-                    {
-                        // Get nested TEXT node's value
-                        Node nodeValue = propertyNode.getFirstChild();
-
-                        if(nodeValue != null)
-                        {
-                            nameVals.add(propertyNode.getNodeName());
-                            nameVals.add(nodeValue.getNodeValue());
-                        }
-                        else
-                            isRecordOK = false;
-                    }
-                }
-
-                // if we found a broken record - just skip it
-                if(!isRecordOK)
-                    continue;
-
-                String[] propertyNames = new String[nameVals.size() / 2];
-                String[] propertyValues = new String[propertyNames.length];
-                for (int j = 0; j < propertyNames.length; j++)
-                {
-                    propertyNames[j] = nameVals.get(j * 2);
-                    propertyValues[j] = nameVals.get(j * 2 + 1);
-                }
-
-                HistoryRecord record = new HistoryRecord(propertyNames,
-                    propertyValues, timestamp);
-
-                result.add(record);
+                result.add(records.get(i));
                 leftCount--;
             }
-
-            currentFile--;
         }
 
         return new OrderedQueryResultSet<HistoryRecord>(result);
     }
 
+    /**
+     * Searches the history lazily: the segments of the history are read while
+     * the returned result set is iterated, <tt>PAGE_SIZE</tt> records at a
+     * time. The segments which periods overlap are read together, so the
+     * records are ordered by timestamp across the whole history.
+     */
     private QueryResultSet<HistoryRecord> find(
-        Date startDate, Date endDate,
-        String[] keywords, String field, boolean caseSensitive)
+        final Date startDate, final Date endDate,
+        final String[] keywords, final String field,
+        final boolean caseSensitive)
     {
-        TreeSet<HistoryRecord> result
-            = new TreeSet<HistoryRecord>(new HistoryRecordComparator());
-
-        Vector<String> filelist
-            = filterFilesByDate(this.historyImpl.getFileList(),
-                                startDate, endDate);
-
-        double currentProgress
-            = HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE;
-        double fileProgressStep
-            = HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE;
+        this.historyImpl.awaitPendingRecords();
 
-        if(filelist.size() != 0)
-            fileProgressStep
-                = HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE
-                    / filelist.size();
+        final HistoryStore store = this.historyImpl.getStore();
+        final List<List<HistorySegment>> parts = groupOverlappingSegments(
+            store, store.getSegments(startDate, endDate));
+        final HistoryKeywordIndex index = useKeywordIndex(keywords, field)
+            ? this.historyImpl.getKeywordIndex() : null;
 
         // start progress - minimum value
         fireProgressStateChanged(startDate, endDate,
             keywords, HistorySearchProgressListener.PROGRESS_MINIMUM_VALUE);
 
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-        Iterator<String> fileIterator = filelist.iterator();
-        while (fileIterator.hasNext())
+        return new PagedQueryResultSet<HistoryRecord>(
+                parts.size(), PAGE_SIZE)
         {
-            String filename = fileIterator.next();
+            /**
+             * The index of the last part for which progress was reported.
+             */
+            private int lastProgressPart = -1;
 
-            Document doc = this.historyImpl.getDocumentForFile(filename);
-
-            if(doc == null)
-                continue;
-
-            NodeList nodes = doc.getElementsByTagName("record");
-
-            double nodesProgressStep = fileProgressStep;
-
-            if(nodes.getLength() != 0)
-                nodesProgressStep = fileProgressStep / nodes.getLength();
-
-            Node node;
-            for (int i = 0; i < nodes.getLength(); i++)
+            @Override
+            protected List<HistoryRecord> loadPart(int part)
             {
-                node = nodes.item(i);
-
-                Date timestamp;
-                String ts = node.getAttributes().getNamedItem("timestamp")
-                        .getNodeValue();
-                try
-                {
-                    timestamp = sdf.parse(ts);
-                }
-                catch (ParseException e)
-                {
-                    timestamp = new Date(Long.parseLong(ts));
-                }
+                List<HistoryRecord> result = new ArrayList<HistoryRecord>();
 
-                if(isInPeriod(timestamp, startDate, endDate))
+                for (HistorySegment segment : parts.get(part))
                 {
-                    NodeList propertyNodes = node.getChildNodes();
+                    List<HistoryRecord> records
+                        = readRecords(store, index, segment,
+                            startDate, endDate, keywords, field);
 
-                    HistoryRecord record =
-                        filterByKeyword(propertyNodes, timestamp,
-                                        keywords, field, caseSensitive);
+                    if(records == null)
+                        continue;
 
-                    if(record != null)
+                    for (HistoryRecord record : records)
                     {
-                        result.add(record);
+                        if(isInPeriod(record.getTimestamp(), startDate, endDate)
+                            && matchRecord(
+                                record, keywords, field, caseSensitive))
+                            result.add(record);
                     }
                 }
+                Collections.sort(result, new HistoryRecordComparator());
+
+                if(part > lastProgressPart)
+                {
+                    lastProgressPart = part;
+                    fireProgressStateChanged(startDate, endDate, keywords,
+                        HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE
+                            * (part + 1) / parts.size());
+                }
 
-                currentProgress += nodesProgressStep;
-                fireProgressStateChanged(
-                    startDate, endDate, keywords, (int)currentProgress);
+                return result;
             }
+
+            @Override
+            protected void loadCompleted()
+            {
+                // if maximum value is not reached fire an event
+                if(parts.isEmpty())
+                    fireProgressStateChanged(startDate, endDate, keywords,
+                        HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE);
+            }
+        };
+    }
+
+    /**
+     * Groups the segments which periods overlap. The groups hold the records
+     * of disjoint periods and are ordered by time, so sorting the records of
+     * each group orders the records of all the segments. Segments which are
+     * empty or cannot be read are left out.
+     *
+     * @param store the store of the segments
+     * @param segments the segments to group, ordered from oldest to newest
+     * @return the groups of segments, ordered by time
+     */
+    static List<List<HistorySegment>> groupOverlappingSegments(
+        HistoryStore store, List<HistorySegment> segments)
+    {
+        List<SegmentRange> ranges = new ArrayList<SegmentRange>();
+
+        for (HistorySegment segment : segments)
+        {
+            long[] range = store.getTimeRange(segment);
+
+            if(range != null)
+                ranges.add(new SegmentRange(segment, range[0], range[1]));
         }
+        Collections.sort(ranges);
+
+        List<List<HistorySegment>> result
+            = new ArrayList<List<HistorySegment>>();
+        List<HistorySegment> group = null;
+        long groupEnd = Long.MIN_VALUE;
 
-        // if maximum value is not reached fire an event
-        if((int)currentProgress
-                < HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE)
+        for (SegmentRange range : ranges)
         {
-            fireProgressStateChanged(startDate, endDate, keywords,
-                                     HistorySearchProgressListener.
-                                     PROGRESS_MAXIMUM_VALUE);
+            if(group == null || range.start > groupEnd)
+            {
+                group = new ArrayList<HistorySegment>();
+                result.add(group);
+            }
+            group.add(range.segment);
+            groupEnd = Math.max(groupEnd, range.end);
         }
 
-        return new OrderedQueryResultSet<HistoryRecord>(result);
+        return result;
+    }
+
+    /**
+     * Checks whether a search for <tt>keywords</tt> in <tt>field</tt> can use
+     * the keyword index of the history.
+     *
+     * @param keywords the keywords to search for
+     * @param field the field where to look for the keywords
+     * @return <tt>true</tt> if there are keywords to look for in a field
+     */
+    static boolean useKeywordIndex(String[] keywords, String field)
+    {
+        return keywords != null && keywords.length != 0 && field != null;
+    }
+
+    /**
+     * Reads the records of <tt>segment</tt> which may match a search. When a
+     * keyword index is given only the records it finds are read, these are
+     * not filtered by period. Otherwise all the records of the segment in the
+     * period are read.
+     *
+     * @param store the store of the history
+     * @param index the keyword index of the history or <tt>null</tt>
+     * @param segment the segment to read
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @param keywords the keywords to search for
+     * @param field the field where to look for the keywords
+     * @return the records to check or <tt>null</tt> if the segment cannot be
+     * read.
+     */
+    static List<HistoryRecord> readRecords(
+            HistoryStore store, HistoryKeywordIndex index,
+            HistorySegment segment, Date startDate, Date endDate,
+            String[] keywords, String field)
+    {
+        BitSet candidates = (index == null)
+            ? null : index.findCandidates(segment, field, keywords);
+
+        if(candidates == null)
+            return store.readRecords(segment, startDate, endDate);
+        else if(candidates.isEmpty())
+            return new ArrayList<HistoryRecord>();
+        else
+            return store.readRecords(segment, candidates);
     }
 
     /**
@@ -665,76 +565,39 @@ static boolean isInPeriod(Date timestamp, Date startDate, Date endDate)
     }
 
     /**
-     * If there is keyword restriction and doesn't match the conditions
-     * return null. Otherwise return the HistoryRecord corresponding the
-     * given nodes.
+     * Checks whether a record matches the keyword restriction. If there are
+     * keywords, the record must have a <tt>field</tt> property and its value
+     * must contain all the keywords.
      *
-     * @param propertyNodes NodeList
-     * @param timestamp Date
+     * @param record HistoryRecord
      * @param keywords String[]
      * @param field String
      * @param caseSensitive boolean
-     * @return HistoryRecord
+     * @return <tt>true</tt> if the record matches
      */
-    static HistoryRecord filterByKeyword(   NodeList propertyNodes,
-                                            Date timestamp,
-                                            String[] keywords,
-                                            String field,
-                                            boolean caseSensitive)
+    static boolean matchRecord( HistoryRecord record,
+                                String[] keywords,
+                                String field,
+                                boolean caseSensitive)
     {
-        ArrayList<String> nameVals = new ArrayList<String>();
-        int len = propertyNodes.getLength();
+        String[] propertyNames = record.getPropertyNames();
+        String[] propertyValues = record.getPropertyValues();
         boolean targetNodeFound = false;
-        for (int j = 0; j < len; j++)
+
+        for (int j = 0; j < propertyNames.length; j++)
         {
-            Node propertyNode = propertyNodes.item(j);
-            if (propertyNode.getNodeType() == Node.ELEMENT_NODE)
+            if(field != null && field.equals(propertyNames[j]))
             {
-                String nodeName = propertyNode.getNodeName();
-
-                Node nestedNode = propertyNode.getFirstChild();
-
-                if(nestedNode == null)
-                    continue;
-
-                // Get nested TEXT node's value
-                String nodeValue = nestedNode.getNodeValue();
-
-                // unescape xml chars, we have escaped when writing values
-                nodeValue = StringEscapeUtils.unescapeXml(nodeValue);
-
-                if(field != null && field.equals(nodeName))
-                {
-                    targetNodeFound = true;
-
-                    if(!matchKeyword(nodeValue, keywords, caseSensitive))
-                        return null; // doesn't match the given keyword(s)
-                                    // so return nothing
-                }
-
-                nameVals.add(nodeName);
-                // Get nested TEXT node's value
-                nameVals.add(nodeValue);
+                targetNodeFound = true;
 
+                if(!matchKeyword(propertyValues[j], keywords, caseSensitive))
+                    return false; // doesn't match the given keyword(s)
             }
         }
 
         // if we need to find a particular record but the target node is not
         // present skip this record
-        if(keywords != null && keywords.length > 0 && !targetNodeFound)
-        {
-            return null;
-        }
-
-        String[] propertyNames = new String[nameVals.size() / 2];
-        String[] propertyValues = new String[propertyNames.length];
-        for (int j = 0; j < propertyNames.length; j++)
-        {
-            propertyNames[j] = nameVals.get(j * 2);
-            propertyValues[j] = nameVals.get(j * 2 + 1);
-        }
-
-        return new HistoryRecord(propertyNames, propertyValues, timestamp);
+        return keywords == null || keywords.length == 0 || targetNodeFound;
     }
 
     /**
@@ -751,16 +614,9 @@ static boolean matchKeyword(String value, String[] keywords,
     {
         if(keywords != null)
         {
-            String regexpStart = null;
-            if(caseSensitive)
-                regexpStart = REGEXP_SENSITIVE_START;
-            else
-                regexpStart = REGEXP_INSENSITIVE_START;
-
             for (int i = 0; i < keywords.length; i++)
             {
-                if(!value.matches(
-                    regexpStart + Pattern.quote(keywords[i]) + REGEXP_END))
+                if(!contains(value, keywords[i], caseSensitive))
                     return false;
             }
 
@@ -774,128 +630,28 @@ static boolean matchKeyword(String value, String[] keywords,
     }
 
     /**
-     * Used to limit the files if any starting or ending date exist
-     * So only few files to be searched.
+     * Checks whether <tt>value</tt> contains <tt>keyword</tt>.
      *
-     * @param filelist Iterator
-     * @param startDate Date
-     * @param endDate Date
-     * @return Iterator
-     */
-    static Vector<String> filterFilesByDate(
-        Iterator<String> filelist, Date startDate, Date endDate)
-    {
-        return filterFilesByDate(filelist, startDate, endDate, false);
-    }
-
-    /**
-     * Used to limit the files if any starting or ending date exist
-     * So only few files to be searched.
-     *
-     * @param filelist Iterator
-     * @param startDate Date
-     * @param endDate Date
-     * @param reverseOrder reverse order of files
-     * @return Vector
+     * @param value the value to search in
+     * @param keyword the keyword to search for
+     * @param caseSensitive whether the case of the characters must match
+     * @return <tt>true</tt> if <tt>keyword</tt> is found in <tt>value</tt>
      */
-    static Vector<String> filterFilesByDate(
-        Iterator<String> filelist, Date startDate, Date endDate,
-        final boolean reverseOrder)
+    static boolean contains(String value, String keyword,
+                            boolean caseSensitive)
     {
-        if(startDate == null && endDate == null)
-        {
-            // no filtering needed then just return the same list
-            Vector<String> result = new Vector<String>();
-            while (filelist.hasNext())
-            {
-                result.add(filelist.next());
-            }
+        if(caseSensitive)
+            return value.indexOf(keyword) != -1;
 
-            Collections.sort(result, new Comparator<String>() {
+        int length = keyword.length();
+        int last = value.length() - length;
 
-                public int compare(String o1, String o2)
-                {
-                    if(reverseOrder)
-                        return o2.compareTo(o1);
-                    else
-                        return o1.compareTo(o2);
-                }
-            });
-
-            return result;
-        }
-        // first convert all files to long
-        TreeSet<Long> files = new TreeSet<Long>();
-        while (filelist.hasNext())
+        for (int i = 0; i <= last; i++)
         {
-            String filename = filelist.next();
-
-            files.add(
-                Long.parseLong(filename.substring(0, filename.length() - 4)));
+            if(value.regionMatches(true, i, keyword, 0, length))
+                return true;
         }
-
-        TreeSet<Long> resultAsLong = new TreeSet<Long>();
-
-        // Temporary fix of a NoSuchElementException
-        if(files.size() == 0)
-        {
-            return new Vector<String>();
-        }
-
-        Long startLong;
-        Long endLong;
-
-        if(startDate == null)
-            startLong = Long.MIN_VALUE;
-        else
-            startLong = startDate.getTime();
-
-        if(endDate == null)
-            endLong = Long.MAX_VALUE;
-        else
-            endLong = endDate.getTime();
-
-        // get all records inclusive the one before the startdate
-        for(Long f : files)
-        {
-            if(startLong <= f
-               && f <= endLong)
-            {
-                resultAsLong.add(f);
-            }
-        }
-
-        // get the subset before the start date, to get its last element
-        // if exists
-        if(!files.isEmpty() && files.first() <= startLong)
-        {
-            SortedSet<Long> setBeforeTheInterval =
-                files.subSet(files.first(), true, startLong, true);
-            if(!setBeforeTheInterval.isEmpty())
-                resultAsLong.add(setBeforeTheInterval.last());
-        }
-
-        Vector<String> result = new Vector<String>();
-
-        Iterator<Long> iter = resultAsLong.iterator();
-        while (iter.hasNext())
-        {
-            Long item = iter.next();
-            result.add(item.toString() + ".xml");
-        }
-
-        Collections.sort(result, new Comparator<String>() {
-
-            public int compare(String o1, String o2)
-            {
-                if(reverseOrder)
-                    return o2.compareTo(o1);
-                else
-                    return o1.compareTo(o2);
-            }
-        });
-
-        return result;
+        return false;
     }
 
     private void fireProgressStateChanged(Date startDate, Date endDate,
@@ -925,7 +681,9 @@ public void addSearchProgressListener(HistorySearchProgressListener
                                           listener)
     {
         synchronized(progressListeners){
-            progressListeners.add(listener);
+            // a search which was not iterated to its end keeps its listeners
+            if(!progressListeners.contains(listener))
+                progressListeners.add(listener);
         }
     }
 
@@ -943,11 +701,8 @@ public void removeSearchProgressListener(HistorySearchProgressListener
     }
 
     /**
-     * Count the number of messages that a search will return
-     * Actually only the last file is parsed and its nodes are counted.
-     * We accept that the other files are full with max records,
-     * this way we escape parsing all files which will significantly
-     * slow the process and for one search will parse the files twice.
+     * Count the number of messages that a search will return. Stores for
+     * which counting is expensive return an estimate.
      *
      * @return the number of searched messages
      * @throws UnsupportedOperationException
@@ -957,28 +712,9 @@ public void removeSearchProgressListener(HistorySearchProgressListener
     public int countRecords()
         throws UnsupportedOperationException
     {
-        int result = 0;
-        String lastFile = null;
-        Iterator<String> filelistIter = this.historyImpl.getFileList();
-        while (filelistIter.hasNext())
-        {
-            lastFile = filelistIter.next();
-            result += HistoryWriterImpl.MAX_RECORDS_PER_FILE;
-        }
-
-        if(lastFile == null)
-            return result;
-
-        Document doc = this.historyImpl.getDocumentForFile(lastFile);
-
-        if(doc == null)
-            return result;
+        this.historyImpl.awaitPendingRecords();
 
-        NodeList nodes = doc.getElementsByTagName("record");
-
-        result += nodes.getLength();
-
-        return result;
+        return this.historyImpl.getStore().countRecords();
     }
 
     /**
@@ -993,4 +729,30 @@ public int compare(HistoryRecord h1, HistoryRecord h2)
             return h1.getTimestamp().compareTo(h2.getTimestamp());
         }
     }
+
+    /**
+     * A segment with the timestamps of its oldest and newest records, ordered
+     * by the oldest one.
+     */
+    private static class SegmentRange
+        implements Comparable<SegmentRange>
+    {
+        final HistorySegment segment;
+
+        final long start;
+
+        final long end;
+
+        SegmentRange(HistorySegment segment, long start, long end)
+        {
+            this.segment = segment;
+            this.start = start;
+            this.end = end;
+        }
+
+        public int compareTo(SegmentRange o)
+        {
+            return (start < o.start) ? -1 : ((start == o.start) ? 0 : 1);
+        }
+    }
 }
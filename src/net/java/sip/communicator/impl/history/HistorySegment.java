@@ -0,0 +1,155 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.util.*;
+
+/**
+ * A segment is a unit of storage of a <tt>HistoryStore</tt> holding records
+ * with consecutive timestamps. Segments are named after the timestamp of the
+ * first record they were created for, so the name of a segment is the lower
+ * bound of the timestamps it contains and the name of the next segment is
+ * the upper bound.
+ */
+public class HistorySegment
+    implements Comparable<HistorySegment>
+{
+    /**
+     * The name of this segment, which is the name of the file holding it.
+     */
+    private final String name;
+
+    /**
+     * The timestamp the segment was created for.
+     */
+    private final long startTimestamp;
+
+    /**
+     * Creates a segment.
+     *
+     * @param name the name of the file holding the segment
+     * @param startTimestamp the timestamp the segment was created for
+     */
+    public HistorySegment(String name, long startTimestamp)
+    {
+        this.name = name;
+        this.startTimestamp = startTimestamp;
+    }
+
+    /**
+     * Returns the name of the file holding this segment.
+     * @return the name of the file holding this segment.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the timestamp the segment was created for.
+     * @return the timestamp the segment was created for.
+     */
+    public long getStartTimestamp()
+    {
+        return startTimestamp;
+    }
+
+    /**
+     * Orders segments from oldest to newest.
+     *
+     * @param o the segment to compare to
+     * @return a negative value, zero or a positive value if this segment is
+     * older, the same or newer than <tt>o</tt>.
+     */
+    public int compareTo(HistorySegment o)
+    {
+        if (startTimestamp != o.startTimestamp)
+            return (startTimestamp < o.startTimestamp) ? -1 : 1;
+        return name.compareTo(o.name);
+    }
+
+    /**
+     * Returns the name of this segment.
+     * @return the name of this segment.
+     */
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+    /**
+     * Used to limit the segments if any starting or ending date exist, so
+     * only few segments need to be searched. A segment is kept if it was
+     * created before the end of the period and the next segment was created
+     * after the start of the period.
+     *
+     * @param segments the segments ordered from oldest to newest
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @return the segments which may contain records in the period, ordered
+     * from oldest to newest.
+     */
+    static List<HistorySegment> filterByDate(
+        List<? extends HistorySegment> segments, Date startDate, Date endDate)
+    {
+        List<HistorySegment> result = new ArrayList<HistorySegment>();
+
+        long startLong = (startDate == null)
+            ? Long.MIN_VALUE : startDate.getTime();
+        long endLong = (endDate == null) ? Long.MAX_VALUE : endDate.getTime();
+
+        for (int i = 0; i < segments.size(); i++)
+        {
+            HistorySegment segment = segments.get(i);
+
+            if (segment.getStartTimestamp() > endLong)
+                break;
+
+            if (i + 1 == segments.size()
+                || segments.get(i + 1).getStartTimestamp() > startLong)
+            {
+                result.add(segment);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses the start timestamp from the name of a segment file, which is
+     * the timestamp followed by an extension.
+     *
+     * @param filename the name of the segment file
+     * @return the timestamp the segment was created for or <tt>-1</tt> if
+     * <tt>filename</tt> is not a valid segment file name.
+     */
+    static long parseStartTimestamp(String filename)
+    {
+        int dot = filename.indexOf('.');
+        try
+        {
+            return Long.parseLong(
+                (dot == -1) ? filename : filename.substring(0, dot));
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.records.*;
+
+/**
+ * A least recently used cache of the parsed segments of all histories,
+ * bounded by the estimated heap size of the cached values. Values are keyed
+ * by the file they were read from, which may be a segment file, a legacy XML
+ * file or the postings of a keyword index, so a single budget covers all the
+ * data the histories keep in memory.
+ * <p>
+ * Sizes are estimates given by the callers, <tt>estimateSize</tt> gives the
+ * estimate used for a list of records.
+ */
+public class HistorySegmentCache
+{
+    /**
+     * The estimated heap size of a record without its properties.
+     */
+    private static final int RECORD_OVERHEAD = 64;
+
+    /**
+     * The estimated heap size of a string without its characters.
+     */
+    private static final int STRING_OVERHEAD = 40;
+
+    /**
+     * The cached values in access order, the least recently used first.
+     */
+    private final LinkedHashMap<File, Entry> entries
+        = new LinkedHashMap<File, Entry>(16, 0.75f, true);
+
+    /**
+     * The maximum estimated size of the cached values in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * The estimated size of the cached values in bytes.
+     */
+    private long size = 0;
+
+    /**
+     * The number of lookups which found a value.
+     */
+    private long hits = 0;
+
+    /**
+     * The number of lookups which did not find a value.
+     */
+    private long misses = 0;
+
+    /**
+     * The number of values removed to keep the cache within its budget.
+     */
+    private long evictions = 0;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize the maximum estimated size of the cached values in bytes
+     */
+    public HistorySegmentCache(long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the value cached for <tt>file</tt> and marks it as the most
+     * recently used.
+     *
+     * @param file the file the value was read from
+     * @return the cached value or <tt>null</tt> if there is none
+     */
+    public synchronized Object get(File file)
+    {
+        Entry entry = entries.get(file);
+
+        if (entry == null)
+        {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Caches a value, replacing the value cached for the same file, and
+     * evicts the least recently used values if the cache is over its budget.
+     * Values larger than the budget are not cached. A value which was changed
+     * after it was cached is put again to account for its new size.
+     *
+     * @param file the file the value was read from
+     * @param value the value
+     * @param valueSize the estimated heap size of the value in bytes
+     */
+    public synchronized void put(File file, Object value, long valueSize)
+    {
+        remove(file);
+
+        if (valueSize > maxSize)
+            return;
+
+        entries.put(file, new Entry(value, valueSize));
+        size += valueSize;
+
+        Iterator<Entry> iter = entries.values().iterator();
+        while (size > maxSize && iter.hasNext())
+        {
+            size -= iter.next().size;
+            iter.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes the value cached for <tt>file</tt>.
+     *
+     * @param file the file the value was read from
+     */
+    public synchronized void remove(File file)
+    {
+        Entry entry = entries.remove(file);
+
+        if (entry != null)
+            size -= entry.size;
+    }
+
+    /**
+     * Removes the values read from files in <tt>directory</tt> and its
+     * subdirectories.
+     *
+     * @param directory the directory
+     */
+    public synchronized void removeAll(File directory)
+    {
+        String prefix = directory.getPath() + File.separator;
+        Iterator<Map.Entry<File, Entry>> iter = entries.entrySet().iterator();
+
+        while (iter.hasNext())
+        {
+            Map.Entry<File, Entry> e = iter.next();
+
+            if (e.getKey().getPath().startsWith(prefix))
+            {
+                size -= e.getValue().size;
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached values.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the maximum estimated size of the cached values.
+     * @return the maximum estimated size of the cached values in bytes.
+     */
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Returns the estimated size of the cached values.
+     * @return the estimated size of the cached values in bytes.
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of lookups which found a value.
+     * @return the number of lookups which found a value.
+     */
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups which did not find a value.
+     * @return the number of lookups which did not find a value.
+     */
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the number of values removed to keep the cache within its
+     * budget.
+     * @return the number of evicted values.
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictions;
+    }
+
+    /**
+     * Returns a description of the state of this cache.
+     * @return a description of the state of this cache.
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "HistorySegmentCache[entries=" + entries.size()
+            + ", size=" + size + "/" + maxSize
+            + ", hits=" + hits
+            + ", misses=" + misses
+            + ", evictions=" + evictions + "]";
+    }
+
+    /**
+     * Estimates the heap size of a list of records.
+     *
+     * @param records the records
+     * @return the estimated size in bytes
+     */
+    static long estimateSize(List<HistoryRecord> records)
+    {
+        long result = 0;
+
+        for (HistoryRecord record : records)
+            result += estimateSize(record);
+
+        return result;
+    }
+
+    /**
+     * Estimates the heap size of a record.
+     *
+     * @param record the record
+     * @return the estimated size in bytes
+     */
+    static long estimateSize(HistoryRecord record)
+    {
+        long result = RECORD_OVERHEAD;
+        String[] names = record.getPropertyNames();
+        String[] values = record.getPropertyValues();
+
+        for (int i = 0; i < names.length; i++)
+        {
+            // property names are usually shared by the records
+            result += 8 + estimateSize(values[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Estimates the heap size of a string.
+     *
+     * @param s the string
+     * @return the estimated size in bytes
+     */
+    static long estimateSize(String s)
+    {
+        return (s == null) ? 0 : STRING_OVERHEAD + 2L * s.length();
+    }
+
+    /**
+     * A cached value and its estimated size.
+     */
+    private static class Entry
+    {
+        /**
+         * The cached value.
+         */
+        final Object value;
+
+        /**
+         * The estimated size of the value in bytes.
+         */
+        final long size;
+
+        /**
+         * Creates an entry.
+         *
+         * @param value the cached value
+         * @param size the estimated size of the value in bytes
+         */
+        Entry(Object value, long size)
+        {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -50,6 +50,50 @@
      */
     public static final String DATA_FILE = "dbstruct.dat";
 
+    /**
+     * The property selecting how history records are stored. The default is
+     * an indexed binary segment log, the legacy XML files are used only if
+     * the property is set to <tt>XML_STORAGE</tt>.
+     */
+    public static final String STORAGE_PROPERTY
+        = "net.java.sip.communicator.impl.history.STORAGE";
+
+    /**
+     * The value of <tt>STORAGE_PROPERTY</tt> selecting the legacy XML files.
+     */
+    public static final String XML_STORAGE = "xml";
+
+    /**
+     * The property enabling the asynchronous writing of history records. When
+     * enabled, added records are written in batches by a background thread.
+     */
+    public static final String ASYNC_WRITE_PROPERTY
+        = "net.java.sip.communicator.impl.history.ASYNC_WRITE";
+
+    /**
+     * The property holding the maximum time in milliseconds a record waits
+     * before it is written when the asynchronous writing is enabled.
+     */
+    public static final String ASYNC_WRITE_MAX_LATENCY_PROPERTY
+        = "net.java.sip.communicator.impl.history.ASYNC_WRITE_MAX_LATENCY";
+
+    /**
+     * The default value of <tt>ASYNC_WRITE_MAX_LATENCY_PROPERTY</tt>.
+     */
+    private static final int DEFAULT_ASYNC_WRITE_MAX_LATENCY = 200;
+
+    /**
+     * The property holding the maximum estimated heap size in kilobytes of
+     * the parsed history segments kept in memory.
+     */
+    public static final String CACHE_MEMORY_LIMIT_PROPERTY
+        = "net.java.sip.communicator.impl.history.CACHE_MEMORY_LIMIT";
+
+    /**
+     * The default value of <tt>CACHE_MEMORY_LIMIT_PROPERTY</tt>.
+     */
+    private static final int DEFAULT_CACHE_MEMORY_LIMIT = 16 * 1024;
+
     /**
      * The logger for this class.
      */
@@ -66,6 +110,19 @@
 
     private final boolean cacheEnabled;
 
+    private final boolean xmlStorage;
+
+    /**
+     * The writer of the records added to the histories or <tt>null</tt> if
+     * records are written by the threads adding them.
+     */
+    private final AsyncHistoryWriter asyncWriter;
+
+    /**
+     * The cache of parsed segments shared by all histories.
+     */
+    private final HistorySegmentCache segmentCache;
+
     /**
      *  Characters and their replacement in created folder names
      */
@@ -94,10 +151,59 @@ public HistoryServiceImpl(BundleContext bundleContext)
     {
         this.builder =
             DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        ConfigurationService configurationService
+            = getConfigurationService(bundleContext);
+
         this.cacheEnabled =
-            getConfigurationService(bundleContext).getBoolean(
-                CACHE_ENABLED_PROPERTY, false);
+            configurationService.getBoolean(CACHE_ENABLED_PROPERTY, false);
+        this.xmlStorage = XML_STORAGE.equals(
+            configurationService.getString(STORAGE_PROPERTY));
         this.fileAccessService = getFileAccessService(bundleContext);
+        this.segmentCache = new HistorySegmentCache(
+            1024L * configurationService.getInt(
+                CACHE_MEMORY_LIMIT_PROPERTY, DEFAULT_CACHE_MEMORY_LIMIT));
+
+        if (configurationService.getBoolean(ASYNC_WRITE_PROPERTY, false))
+        {
+            this.asyncWriter = new AsyncHistoryWriter(
+                configurationService.getInt(
+                    ASYNC_WRITE_MAX_LATENCY_PROPERTY,
+                    DEFAULT_ASYNC_WRITE_MAX_LATENCY));
+        }
+        else
+            this.asyncWriter = null;
+    }
+
+    /**
+     * Stops this service. The records still waiting to be written are written
+     * before this method returns.
+     */
+    void stop()
+    {
+        if (asyncWriter != null)
+            asyncWriter.stop();
+
+        if (logger.isDebugEnabled())
+            logger.debug("Stopped history service, " + segmentCache);
+    }
+
+    /**
+     * Returns the writer of the records added to the histories.
+     * @return the writer of the records added to the histories or
+     * <tt>null</tt> if records are written by the threads adding them.
+     */
+    AsyncHistoryWriter getAsyncWriter()
+    {
+        return asyncWriter;
+    }
+
+    /**
+     * Returns the cache of parsed segments shared by all histories.
+     * @return the cache of parsed segments shared by all histories.
+     */
+    HistorySegmentCache getSegmentCache()
+    {
+        return segmentCache;
     }
 
     public Iterator<HistoryID> getExistingIDs()
@@ -318,6 +424,16 @@ protected boolean isCacheEnabled()
         return cacheEnabled;
     }
 
+    /**
+     * Returns whether histories are stored in the legacy XML files instead of
+     * the indexed segment log.
+     * @return <tt>true</tt> if the legacy XML files are used.
+     */
+    protected boolean isXmlStorageEnabled()
+    {
+        return xmlStorage;
+    }
+
     /**
      * Permamently removes local stored History
      *
@@ -332,6 +448,7 @@ public void purgeLocallyStoredHistory(HistoryID id)
         if (logger.isTraceEnabled())
             logger.trace("Removing history directory " + dir);
         deleteDirAndContent(dir);
+        segmentCache.removeAll(dir);
 
         History history = histories.remove(id);
         if(history == null)
@@ -359,6 +476,7 @@ public void purgeLocallyStoredHistory(HistoryID id)
     public void purgeLocallyCachedHistories()
     {
         histories.clear();
+        segmentCache.clear();
     }
 
     /**
@@ -477,6 +595,7 @@ public void moveHistory(HistoryID oldId, HistoryID newId)
         }
 
         histories.remove(oldId);
+        segmentCache.removeAll(oldDir);
     }
 
     /**
@@ -0,0 +1,190 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.records.*;
+
+/**
+ * The storage backend of a <tt>HistoryImpl</tt>. A store keeps the records of
+ * a single history in segments ordered from oldest to newest. The readers and
+ * the writer of a history only work with records and segments, so they do not
+ * depend on the way records are kept on disk.
+ * <p>
+ * Records returned by a store carry property names without the
+ * <tt>_CDATA</tt> suffix and do not contain properties with <tt>null</tt>
+ * values, exactly as they were read from the legacy XML files.
+ */
+public interface HistoryStore
+{
+    /**
+     * Reloads the list of segments from disk.
+     */
+    public void reload();
+
+    /**
+     * Returns the segments which may contain records with timestamp between
+     * <tt>startDate</tt> and <tt>endDate</tt>, ordered from oldest to newest.
+     *
+     * @param startDate the start of the period or <tt>null</tt> for no lower
+     * bound
+     * @param endDate the end of the period or <tt>null</tt> for no upper
+     * bound
+     * @return the segments to search for records in the given period.
+     */
+    public List<HistorySegment> getSegments(Date startDate, Date endDate);
+
+    /**
+     * Reads the records of a segment in the order they are stored, keeping
+     * only the ones with timestamp in the given period.
+     *
+     * @param segment the segment to read
+     * @param startDate the start of the period (inclusive) or <tt>null</tt>
+     * @param endDate the end of the period (exclusive) or <tt>null</tt>
+     * @return the records of the segment in the given period or <tt>null</tt>
+     * if the segment cannot be read.
+     */
+    public List<HistoryRecord> readRecords(
+            HistorySegment segment, Date startDate, Date endDate);
+
+    /**
+     * Reads the records of a segment with the given ordinals, which are the
+     * positions of the records in the segment.
+     *
+     * @param segment the segment to read
+     * @param ordinals the positions of the records to read
+     * @return the records in the order they are stored or <tt>null</tt> if
+     * the segment cannot be read.
+     */
+    public List<HistoryRecord> readRecords(
+            HistorySegment segment, BitSet ordinals);
+
+    /**
+     * Reads the last <tt>count</tt> records of a segment in the order they
+     * are stored.
+     *
+     * @param segment the segment to read
+     * @param count the maximum number of records to read
+     * @return the last records of the segment or <tt>null</tt> if the segment
+     * cannot be read.
+     */
+    public List<HistoryRecord> readLastRecords(
+            HistorySegment segment, int count);
+
+    /**
+     * Appends a record to the newest segment of the store, creating a new
+     * segment if needed.
+     *
+     * @param record the record to append. Property names may end with
+     * <tt>_CDATA</tt> and property values may be <tt>null</tt>.
+     * @param maxNumberOfRecords the maximum number of records to keep in the
+     * newest segment or <tt>-1</tt> to ignore this param.
+     * @return the segment the record was appended to
+     * @throws IOException if the record cannot be stored
+     */
+    public HistorySegment appendRecord(
+            HistoryRecord record, int maxNumberOfRecords)
+        throws IOException;
+
+    /**
+     * Appends records to the store as one write per segment, creating new
+     * segments if needed.
+     *
+     * @param records the records to append, in the order they must be stored
+     * @param maxNumberOfRecords the maximum number of records to keep in the
+     * newest segment or <tt>-1</tt> to ignore this param.
+     * @return the segments the records were appended to, one for every record
+     * @throws IOException if the records cannot be stored
+     */
+    public List<HistorySegment> appendRecords(
+            List<HistoryRecord> records, int maxNumberOfRecords)
+        throws IOException;
+
+    /**
+     * Replaces the content of a segment with the given records.
+     *
+     * @param segment the segment to rewrite
+     * @param records the new content of the segment
+     * @throws IOException if the segment cannot be written
+     */
+    public void rewriteSegment(
+            HistorySegment segment, List<HistoryRecord> records)
+        throws IOException;
+
+    /**
+     * Passes the records of the segments which may contain records newer than
+     * <tt>startDate</tt>, from oldest to newest, to <tt>updater</tt> until it
+     * changes them, and then rewrites the changed segment. Reading, changing
+     * and rewriting the segment is atomic with respect to the records
+     * appended to this store, so none of them is lost.
+     *
+     * @param startDate the start of the period or <tt>null</tt> for no lower
+     * bound
+     * @param updater the changes to make to the records
+     * @return the rewritten segment or <tt>null</tt> if <tt>updater</tt> did
+     * not change any record.
+     * @throws IOException if the segment cannot be written
+     */
+    public HistorySegment updateRecords(Date startDate, RecordUpdater updater)
+        throws IOException;
+
+    /**
+     * Returns the number of records in this store or an estimate of it if
+     * the exact value is expensive to compute.
+     *
+     * @return the number of records in this store.
+     */
+    public int countRecords();
+
+    /**
+     * Returns the number of records in a segment.
+     *
+     * @param segment the segment
+     * @return the number of records in <tt>segment</tt>.
+     */
+    public int countRecords(HistorySegment segment);
+
+    /**
+     * Returns the timestamps of the oldest and the newest records of a
+     * segment. Records appended with an old timestamp make the periods of
+     * segments overlap.
+     *
+     * @param segment the segment
+     * @return the timestamps of the oldest and the newest records of
+     * <tt>segment</tt> or <tt>null</tt> if it is empty or cannot be read.
+     */
+    public long[] getTimeRange(HistorySegment segment);
+
+    /**
+     * Changes the records of a segment of a <tt>HistoryStore</tt>.
+     */
+    public interface RecordUpdater
+    {
+        /**
+         * Changes the records of a segment in place.
+         *
+         * @param records the records of the segment in the order they are
+         * stored
+         * @return <tt>true</tt> if <tt>records</tt> were changed and the
+         * segment must be rewritten.
+         */
+        public boolean update(List<HistoryRecord> records);
+    }
+}
@@ -28,38 +28,17 @@
 import net.java.sip.communicator.service.history.*;
 import net.java.sip.communicator.service.history.records.*;
 
-import org.jitsi.util.xml.XMLUtils;
-import org.w3c.dom.*;
-
-import com.google.common.xml.*;
-
 /**
  * @author Alexander Pelov
  */
 public class HistoryWriterImpl
-    implements HistoryWriter
+    implements HistoryWriter,
+               AsyncHistoryWriter.RecordsWriter
 {
-    /**
-     * Maximum records per file.
-     */
-    public static final int MAX_RECORDS_PER_FILE = 150;
-
-    private static final String CDATA_SUFFIX = "_CDATA";
-
-    private Object docCreateLock = new Object();
-
-    private Object docWriteLock = new Object();
-
     private HistoryImpl historyImpl;
 
     private String[] structPropertyNames;
 
-    private Document currentDoc = null;
-
-    private String currentFile = null;
-
-    private int currentDocElements = -1;
-
     protected HistoryWriterImpl(HistoryImpl historyImpl)
     {
         this.historyImpl = historyImpl;
@@ -113,9 +92,10 @@ public void addRecord(String[] propertyValues,
     }
 
     /**
-     * Adds new record to the current history document
-     * when the record property name ends with _CDATA this is removed from the
-     * property name and a CDATA text node is created to store the text value
+     * Adds new record to the history store.
+     * When the record property name ends with _CDATA this is removed from the
+     * property name and the store may keep the value as text rather than
+     * markup.
      *
      * @param propertyNames String[]
      * @param propertyValues String[]
@@ -131,161 +111,68 @@ private void addRecord(String[] propertyNames,
                            int maxNumberOfRecords)
         throws InvalidParameterException, IOException
     {
-        // Synchronized to assure that two concurrent threads can insert records
-        // safely.
-        synchronized (this.docCreateLock)
-        {
-            if (this.currentDoc == null
-                    || this.currentDocElements > MAX_RECORDS_PER_FILE)
-            {
-                this.createNewDoc(date, this.currentDoc == null);
-            }
-        }
-
-        synchronized (this.currentDoc)
-        {
-            Node root = this.currentDoc.getFirstChild();
-            synchronized (root)
-            {
-                // if we have setting for max number of records,
-                // check the number and when exceed them, remove the first one
-                if( maxNumberOfRecords > -1
-                    && this.currentDocElements >= maxNumberOfRecords)
-                {
-                    // lets remove the first one
-                    removeFirstRecord(root);
-                }
-
-                Element elem = createRecord(
-                    this.currentDoc, propertyNames, propertyValues, date);
-                root.appendChild(elem);
-                this.currentDocElements++;
-            }
-        }
+        HistoryRecord record
+            = new HistoryRecord(propertyNames, propertyValues, date);
+        AsyncHistoryWriter asyncWriter
+            = this.historyImpl.getHistoryServiceImpl().getAsyncWriter();
 
-        // write changes
-        synchronized (this.docWriteLock)
+        if(asyncWriter == null
+            || !asyncWriter.enqueue(this, record, maxNumberOfRecords))
         {
-            if(historyImpl.getHistoryServiceImpl().isCacheEnabled())
-                this.historyImpl.writeFile(this.currentFile);
-            else
-                this.historyImpl.writeFile(this.currentFile, this.currentDoc);
+            writeRecords(
+                Collections.singletonList(record), maxNumberOfRecords);
         }
     }
 
     /**
-     * Creates a record element for the supplied <tt>doc</tt> and populates it
-     * with the property names from <tt>propertyNames</tt> and corresponding
-     * values from <tt>propertyValues</tt>. The <tt>date</tt> will be used
-     * for the record timestamp attribute.
-     * @param doc the parent of the element.
-     * @param propertyNames property names for the element
-     * @param propertyValues values for the properties
-     * @param date the of creation of the record
-     * @return the newly created element.
+     * Appends records to the store of the history and updates its keyword
+     * index.
+     *
+     * @param records the records to append
+     * @param maxNumberOfRecords the maximum number of records to keep or
+     * value of -1 to ignore this param.
+     * @throws IOException if the records cannot be stored
      */
-    private Element createRecord(Document doc,
-                                 String[] propertyNames,
-                                 String[] propertyValues,
-                                 Date date)
+    public void writeRecords(
+            List<HistoryRecord> records, int maxNumberOfRecords)
+        throws IOException
     {
-        Element elem = doc.createElement("record");
-        SimpleDateFormat sdf
-            = new SimpleDateFormat(DATE_FORMAT);
-        elem.setAttribute("timestamp", sdf.format(date));
+        HistoryKeywordIndex index = this.historyImpl.getKeywordIndex();
 
-        for (int i = 0; i < propertyNames.length; i++)
+        // the index must see the records in the order they are appended
+        synchronized (index)
         {
-            String propertyName = propertyNames[i];
-
-            if(propertyName.endsWith(CDATA_SUFFIX))
-            {
-                if (propertyValues[i] != null)
-                {
-                    propertyName =
-                        propertyName.replaceFirst(CDATA_SUFFIX, "");
+            List<HistorySegment> segments = this.historyImpl.getStore()
+                .appendRecords(records, maxNumberOfRecords);
 
-                    Element propertyElement = doc.createElement(propertyName);
-
-                    Text value = doc.createCDATASection(
-                        XmlEscapers.xmlContentEscaper().escape(
-                            propertyValues[i].replaceAll("\0", " ")
-                        ));
-                    propertyElement.appendChild(value);
-
-                    elem.appendChild(propertyElement);
-                }
-            }
-            else
+            for (int i = 0; i < records.size(); i++)
             {
-                if (propertyValues[i] != null)
-                {
-                    Element propertyElement = doc.createElement(propertyName);
-
-                    Text value = doc.createTextNode(
-                        XmlEscapers.xmlContentEscaper().escape(
-                            propertyValues[i].replaceAll("\0", " ")
-                        ));
-                    propertyElement.appendChild(value);
-
-                    elem.appendChild(propertyElement);
-                }
+                // the oldest record may have been removed from the segment
+                if(maxNumberOfRecords > -1)
+                    index.segmentChanged(segments.get(i));
+                else
+                    index.recordAppended(
+                        segments.get(i),
+                        SegmentHistoryStore.normalize(records.get(i)));
             }
         }
-
-        return elem;
     }
 
     /**
-     * Finds the oldest node by timestamp in current root and deletes it.
-     * @param root where to search for records
+     * Waits until the records added so far are written. Records are written
+     * in the background only if the asynchronous writing is enabled.
      */
-    private void removeFirstRecord(Node root)
+    public void awaitFlush()
     {
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-
-        NodeList nodes = ((Element)root).getElementsByTagName("record");
-
-        Node oldestNode = null;
-        Date oldestTimeStamp = null;
-
-        Node node;
-        for (int i = 0; i < nodes.getLength(); i++)
-        {
-            node = nodes.item(i);
-
-            Date timestamp;
-            String ts
-                = node.getAttributes().getNamedItem("timestamp").getNodeValue();
-            try
-            {
-                timestamp = sdf.parse(ts);
-            }
-            catch (ParseException e)
-            {
-                timestamp = new Date(Long.parseLong(ts));
-            }
-
-            if(oldestNode == null
-                || (oldestTimeStamp.after(timestamp)))
-            {
-                oldestNode = node;
-                oldestTimeStamp = timestamp;
-                continue;
-            }
-
-        }
-
-        if(oldestNode != null)
-            root.removeChild(oldestNode);
+        this.historyImpl.awaitPendingRecords();
     }
 
     /**
      * Inserts a record from the passed <tt>propertyValues</tt> complying with
      * the current historyRecordStructure.
-     * First searches for the file to use to import the record, as files hold
-     * records with consecutive times and this fact is used for searching and
-     * filtering records by date. This is why when inserting an old record
+     * First searches for the segment to use to import the record, as segments
+     * hold records with consecutive times and this fact is used for searching
+     * and filtering records by date. This is why when inserting an old record
      * we need to insert it on the correct position.
      *
      * @param propertyValues The values of the record.
@@ -296,320 +183,240 @@ private void removeFirstRecord(Node root)
      * @throws IOException
      */
     public void insertRecord(
-            String[] propertyValues, Date timestamp, String timestampProperty)
+            final String[] propertyValues,
+            final Date timestamp,
+            final String timestampProperty)
         throws IOException
     {
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-        Iterator<String> fileIterator
-            = HistoryReaderImpl.filterFilesByDate(
-                    this.historyImpl.getFileList(), timestamp, null)
-                .iterator();
-        String filename = null;
-        while (fileIterator.hasNext())
-        {
-            filename = fileIterator.next();
-
-            Document doc = this.historyImpl.getDocumentForFile(filename);
-
-            if(doc == null)
-                continue;
-
-            NodeList nodes = doc.getElementsByTagName("record");
+        // records added before may still be waiting to be written
+        this.historyImpl.flushPendingRecords();
 
-            boolean changed = false;
+        final SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
 
-            Node node;
-            for (int i = 0; i < nodes.getLength(); i++)
+        updateRecords(timestamp, new HistoryStore.RecordUpdater()
+        {
+            public boolean update(List<HistoryRecord> records)
             {
-                node = nodes.item(i);
-
-                Element idNode = XMLUtils.findChild(
-                    (Element)node, timestampProperty);
-                if(idNode == null)
-                    continue;
-
-                Node nestedNode = idNode.getFirstChild();
-                if(nestedNode == null)
-                    continue;
-
-                // Get nested TEXT node's value
-                String nodeValue = nestedNode.getNodeValue();
-
-                Date nodeTimeStamp;
-                try
+                for (int i = 0; i < records.size(); i++)
                 {
-                    nodeTimeStamp = sdf.parse(nodeValue);
-                }
-                catch (ParseException e)
-                {
-                    nodeTimeStamp = new Date(Long.parseLong(nodeValue));
-                }
-
-                if(nodeTimeStamp.before(timestamp))
-                    continue;
-
-                Element newElem = createRecord(
-                    doc, structPropertyNames, propertyValues, timestamp);
-
-                doc.getFirstChild().insertBefore(newElem, node);
+                    String value
+                        = getPropertyValue(records.get(i), timestampProperty);
 
-                changed = true;
-                break;
-            }
+                    if(value == null)
+                        continue;
 
-            if(changed)
-            {
-                // write changes
-                synchronized (this.docWriteLock)
-                {
-                    this.historyImpl.writeFile(filename, doc);
-                }
+                    Date recordTimeStamp;
+                    try
+                    {
+                        recordTimeStamp = sdf.parse(value);
+                    }
+                    catch (ParseException e)
+                    {
+                        recordTimeStamp = new Date(Long.parseLong(value));
+                    }
 
-                // this prevents that the current writer, which holds
-                // instance for the last document he is editing will not
-                // override our last changes to the document
-                if(filename.equals(this.currentFile))
-                {
-                    this.currentDoc = doc;
+                    if(recordTimeStamp.before(timestamp))
+                        continue;
+
+                    records.add(
+                        i,
+                        SegmentHistoryStore.normalize(
+                            new HistoryRecord(
+                                structPropertyNames,
+                                propertyValues,
+                                timestamp)));
+                    return true;
                 }
-
-                break;
+                return false;
             }
-        }
+        });
     }
 
     /**
-     * If no file is currently loaded loads the last opened file. If it does not
-     * exists or if the current file was set - create a new file.
+     * Updates a record by searching for record with idProperty which have
+     * idValue and updating/creating the property with newValue.
      *
-     * @param date Date
-     * @param loadLastFile boolean
+     * @param idProperty name of the id property
+     * @param idValue value of the id property
+     * @param property the property to change
+     * @param newValue the value of the changed property.
      */
-    private void createNewDoc(Date date, boolean loadLastFile)
+    public void updateRecord(final String idProperty, final String idValue,
+            final String property, final String newValue)
+        throws IOException
     {
-        boolean loaded = false;
+        // records added before may still be waiting to be written
+        this.historyImpl.flushPendingRecords();
 
-        if (loadLastFile)
+        updateRecords(null, new HistoryStore.RecordUpdater()
         {
-            Iterator<String> files = historyImpl.getFileList();
-
-            String file = null;
-            while (files.hasNext())
+            public boolean update(List<HistoryRecord> records)
             {
-                file = files.next();
-            }
-
-            if (file != null)
-            {
-                this.currentDoc = this.historyImpl.getDocumentForFile(file);
-                this.currentFile = file;
-                loaded = true;
-            }
-
-            // if something happened and file was not loaded
-            // then we must create new one
-            if(this.currentDoc == null)
-            {
-                loaded = false;
+                for (int i = 0; i < records.size(); i++)
+                {
+                    HistoryRecord record = records.get(i);
+
+                    if(!idValue.equals(getPropertyValue(record, idProperty)))
+                        continue;
+
+                    // change the timestamp, to reflect there was a change
+                    records.set(i,
+                        setPropertyValues(
+                            record,
+                            Collections.singletonMap(
+                                property, newValue.replace('\0', ' ')),
+                            true));
+                    return true;
+                }
+                return false;
             }
-        }
-
-        if (!loaded)
-        {
-            this.currentFile = Long.toString(date.getTime());
-            this.currentFile += ".xml";
-
-            this.currentDoc = this.historyImpl.createDocument(this.currentFile);
-        }
-
-        // TODO: Assert: Assert.assertNonNull(this.currentDoc,
-        // "There should be a current document created.");
-
-        this.currentDocElements = this.currentDoc.getFirstChild()
-                .getChildNodes().getLength();
+        });
     }
 
     /**
-     * Updates a record by searching for record with idProperty which have
-     * idValue and updating/creating the property with newValue.
-     *
-     * @param idProperty name of the id property
-     * @param idValue value of the id property
-     * @param property the property to change
-     * @param newValue the value of the changed property.
+     * Updates history record using given <tt>HistoryRecordUpdater</tt> instance
+     * to find which is the record to be updated and to get the new values for
+     * the fields
+     * @param updater the <tt>HistoryRecordUpdater</tt> instance.
      */
-    public void updateRecord(String idProperty, String idValue,
-            String property, String newValue)
+    public void updateRecord(final HistoryRecordUpdater updater)
         throws IOException
     {
-        Iterator<String> fileIterator = this.historyImpl.getFileList();
-        String filename = null;
-        while (fileIterator.hasNext())
-        {
-            filename = fileIterator.next();
-
-            Document doc = this.historyImpl.getDocumentForFile(filename);
-
-            if(doc == null)
-                continue;
-
-            NodeList nodes = doc.getElementsByTagName("record");
-
-            boolean changed = false;
+        // records added before may still be waiting to be written
+        this.historyImpl.flushPendingRecords();
 
-            Node node;
-            for (int i = 0; i < nodes.getLength(); i++)
+        updateRecords(null, new HistoryStore.RecordUpdater()
+        {
+            public boolean update(List<HistoryRecord> records)
             {
-                node = nodes.item(i);
-
-                Element idNode = XMLUtils.findChild((Element)node, idProperty);
-                if(idNode == null)
-                    continue;
-
-                Node nestedNode = idNode.getFirstChild();
-                if(nestedNode == null)
-                    continue;
-
-                // Get nested TEXT node's value
-                String nodeValue = nestedNode.getNodeValue();
-
-                if(!nodeValue.equals(idValue))
-                    continue;
-
-                Element changedNode =
-                    XMLUtils.findChild((Element)node, property);
+                boolean changed = false;
 
-                if(changedNode != null)
+                for (int i = 0; i < records.size(); i++)
                 {
-                    Node changedNestedNode = changedNode.getFirstChild();
+                    HistoryRecord record = records.get(i);
 
-                    changedNestedNode.setNodeValue(newValue);
-                }
-                else
-                {
-                    Element propertyElement = this.currentDoc
-                        .createElement(property);
+                    updater.setHistoryRecord(createStructuredRecord(record));
+                    if(!updater.isMatching())
+                        continue;
 
-                    Text value = this.currentDoc
-                        .createTextNode(newValue.replaceAll("\0", " "));
-                    propertyElement.appendChild(value);
+                    HistoryRecord updated = setPropertyValues(
+                        record, updater.getUpdateChanges(), false);
 
-                    node.appendChild(propertyElement);
+                    if(updated != record)
+                    {
+                        records.set(i, updated);
+                        changed = true;
+                    }
                 }
-
-                // change the timestamp, to reflect there was a change
-                SimpleDateFormat sdf
-                    = new SimpleDateFormat(DATE_FORMAT);
-                ((Element)node).setAttribute("timestamp",
-                    sdf.format(new Date()));
-
-                changed = true;
-                break;
+                return changed;
             }
+        });
+    }
 
-            if(changed)
-            {
-                // write changes
-                synchronized (this.docWriteLock)
-                {
-                    this.historyImpl.writeFile(filename, doc);
-                }
+    /**
+     * Changes the records of the store and drops the postings of the
+     * rewritten segment from the keyword index. The index is locked as when
+     * records are appended, so the changes and the appends are serialized.
+     *
+     * @param startDate the start of the period of the records to change or
+     * <tt>null</tt>
+     * @param updater the changes to make to the records
+     * @throws IOException if the segment cannot be written
+     */
+    private void updateRecords(
+            Date startDate, HistoryStore.RecordUpdater updater)
+        throws IOException
+    {
+        HistoryKeywordIndex index = this.historyImpl.getKeywordIndex();
 
-                // this prevents that the current writer, which holds
-                // instance for the last document he is editing will not
-                // override our last changes to the document
-                if(filename.equals(this.currentFile))
-                {
-                    this.currentDoc = doc;
-                }
+        synchronized (index)
+        {
+            HistorySegment segment
+                = this.historyImpl.getStore().updateRecords(startDate, updater);
 
-                break;
-            }
+            if(segment != null)
+                index.segmentChanged(segment);
         }
     }
 
     /**
-     * Updates history record using given <tt>HistoryRecordUpdater</tt> instance
-     * to find which is the record to be updated and to get the new values for
-     * the fields
-     * @param updater the <tt>HistoryRecordUpdater</tt> instance.
+     * Returns the value of a property of a record.
+     *
+     * @param record the record
+     * @param propertyName the name of the property
+     * @return the value of the property or <tt>null</tt> if the record has no
+     * such property.
      */
-    public void updateRecord(HistoryRecordUpdater updater) throws IOException
+    private static String getPropertyValue(
+            HistoryRecord record, String propertyName)
     {
-        Iterator<String> fileIterator = this.historyImpl.getFileList();
-        String filename = null;
-        while (fileIterator.hasNext())
-        {
-            filename = fileIterator.next();
+        String[] names = record.getPropertyNames();
 
-            Document doc = this.historyImpl.getDocumentForFile(filename);
+        for (int i = 0; i < names.length; i++)
+        {
+            if(names[i].equals(propertyName))
+                return record.getPropertyValues()[i];
+        }
 
-            if(doc == null)
-                continue;
+        return null;
+    }
 
-            NodeList nodes = doc.getElementsByTagName("record");
+    /**
+     * Returns a copy of <tt>record</tt> with the given properties changed and
+     * the timestamp set to now, to reflect there was a change.
+     *
+     * @param record the record to change
+     * @param changes the new values of the properties
+     * @param addMissing whether to add the properties the record does not
+     * have yet
+     * @return the changed record or <tt>record</tt> itself if none of the
+     * properties was changed.
+     */
+    private static HistoryRecord setPropertyValues(
+            HistoryRecord record, Map<String, String> changes,
+            boolean addMissing)
+    {
+        List<String> names
+            = new ArrayList<String>(Arrays.asList(record.getPropertyNames()));
+        List<String> values
+            = new ArrayList<String>(Arrays.asList(record.getPropertyValues()));
+        boolean changed = false;
 
-            boolean changed = false;
+        for (Map.Entry<String, String> change : changes.entrySet())
+        {
+            int index = names.indexOf(change.getKey());
 
-            Node node;
-            for (int i = 0; i < nodes.getLength(); i++)
+            if(index != -1)
             {
-                node = nodes.item(i);
-                updater.setHistoryRecord(createHistoryRecordFromNode(node));
-                if(!updater.isMatching())
-                    continue;
-
-                // change the timestamp, to reflect there was a change
-                SimpleDateFormat sdf
-                    = new SimpleDateFormat(DATE_FORMAT);
-                ((Element)node).setAttribute("timestamp",
-                    sdf.format(new Date()));
-
-                Map<String, String> updates = updater.getUpdateChanges();
-                for(String nodeName : updates.keySet())
-                {
-                    Element changedNode =
-                        XMLUtils.findChild((Element)node, nodeName);
-
-                    if(changedNode != null)
-                    {
-                        Node changedNestedNode = changedNode.getFirstChild();
-
-                        changedNestedNode.setNodeValue(updates.get(nodeName));
-                        changed = true;
-                    }
-                }
+                values.set(index, change.getValue());
+                changed = true;
             }
-
-            if(changed)
+            else if(addMissing)
             {
-                // write changes
-                synchronized (this.docWriteLock)
-                {
-                    this.historyImpl.writeFile(filename, doc);
-                }
-
-                // this prevents that the current writer, which holds
-                // instance for the last document he is editing will not
-                // override our last changes to the document
-                if(filename.equals(this.currentFile))
-                {
-                    this.currentDoc = doc;
-                }
-
-                break;
+                names.add(change.getKey());
+                values.add(change.getValue());
+                changed = true;
             }
         }
+
+        if(!changed)
+            return record;
+
+        return new HistoryRecord(
+            names.toArray(new String[names.size()]),
+            values.toArray(new String[values.size()]),
+            new Date());
     }
 
     /**
-     * Creates <tt>HistoryRecord</tt> instance from <tt>Node</tt> object.
-     * @param node the node
+     * Creates a <tt>HistoryRecord</tt> following the history structure from a
+     * stored record. Properties the stored record does not have are
+     * <tt>null</tt>.
+     * @param record the stored record
      * @return the <tt>HistoryRecord</tt> instance
      */
-    private HistoryRecord createHistoryRecordFromNode(Node node)
+    private HistoryRecord createStructuredRecord(HistoryRecord record)
     {
-
         HistoryRecordStructure structure
             = historyImpl.getHistoryRecordsStructure();
         String propertyValues[] = new String[structure.getPropertyCount()];
@@ -617,13 +424,7 @@ private HistoryRecord createHistoryRecordFromNode(Node node)
         int i = 0;
         for(String propertyName : structure.getPropertyNames())
         {
-            Element childNode = XMLUtils.findChild((Element)node, propertyName);
-            if(childNode == null)
-            {
-                i++;
-                continue;
-            }
-            propertyValues[i] = childNode.getTextContent();
+            propertyValues[i] = getPropertyValue(record, propertyName);
             i++;
         }
 
@@ -0,0 +1,323 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+
+/**
+ * A <tt>QueryResultSet</tt> which loads its elements on demand. The results
+ * are split in parts, the segments of a history for example, which are
+ * loaded in order while the result set is iterated. Consecutive parts are
+ * grouped in pages holding at least the requested page size of elements, so
+ * the first elements are available as soon as the first page is loaded.
+ * <p>
+ * Only the last used pages are kept in memory. A page which was dropped is
+ * loaded again when the iteration goes back to it, so iterating over a large
+ * result set uses about the same memory as iterating over a small one.
+ *
+ * @param <T> element type of query
+ */
+public abstract class PagedQueryResultSet<T>
+    implements QueryResultSet<T>
+{
+    /**
+     * The number of pages kept in memory.
+     */
+    private static final int MAX_LOADED_PAGES = 3;
+
+    /**
+     * The number of parts of the results.
+     */
+    private final int partCount;
+
+    /**
+     * The minimum number of elements in a page, unless it holds the last
+     * parts.
+     */
+    private final int pageSize;
+
+    /**
+     * The pages found so far, in order.
+     */
+    private final List<Page<T>> pages = new ArrayList<Page<T>>();
+
+    /**
+     * The pages holding their elements, the most recently used last.
+     */
+    private final LinkedList<Page<T>> loadedPages = new LinkedList<Page<T>>();
+
+    /**
+     * The number of elements in the pages found so far.
+     */
+    private int foundCount = 0;
+
+    /**
+     * The first part which is not in a page yet.
+     */
+    private int nextPart = 0;
+
+    private int currentPos = -1;
+
+    /**
+     * Creates a result set with the given number of parts.
+     *
+     * @param partCount the number of parts of the results
+     * @param pageSize the minimum number of elements loaded at once
+     */
+    protected PagedQueryResultSet(int partCount, int pageSize)
+    {
+        this.partCount = partCount;
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    /**
+     * Loads the elements of a part of the results.
+     *
+     * @param part the index of the part
+     * @return the elements of the part in the order they must be returned
+     */
+    protected abstract List<T> loadPart(int part);
+
+    /**
+     * Called once all parts were loaded for the first time.
+     */
+    protected void loadCompleted()
+    {
+    }
+
+    /**
+     * Returns <tt>true</tt> if the iteration has more elements.
+     *
+     * @return <tt>true</tt> if the iterator has more elements.
+     */
+    public boolean hasNext()
+    {
+        while (this.currentPos + 1 >= this.foundCount
+                && this.nextPart < this.partCount)
+            findNextPage();
+
+        return this.currentPos + 1 < this.foundCount;
+    }
+
+    /**
+     * Returns true if the iteration has elements preceeding the current one.
+     *
+     * @return true if the iterator has preceeding elements.
+     */
+    public boolean hasPrev()
+    {
+        return this.currentPos - 1 >= 0;
+    }
+
+    /**
+     * Returns the next element in the iteration.
+     *
+     * @return the next element in the iteration.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public T next()
+        throws NoSuchElementException
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        this.currentPos++;
+        return get(this.currentPos);
+    }
+
+    /**
+     * A strongly-typed variant of <tt>next()</tt>.
+     *
+     * @return the next history record.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public T nextRecord()
+        throws NoSuchElementException
+    {
+        return this.next();
+    }
+
+    /**
+     * Returns the previous element in the iteration.
+     *
+     * @return the previous element in the iteration.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public T prev()
+        throws NoSuchElementException
+    {
+        if (this.currentPos - 1 < 0)
+            throw new NoSuchElementException();
+
+        this.currentPos--;
+        return get(this.currentPos);
+    }
+
+    /**
+     * A strongly-typed variant of <tt>prev()</tt>.
+     *
+     * @return the previous history record.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public T prevRecord()
+        throws NoSuchElementException
+    {
+        return this.prev();
+    }
+
+    /**
+     * Removes from the underlying collection the last element returned by
+     * the iterator (optional operation).
+     */
+    public void remove()
+    {
+        throw new UnsupportedOperationException("Cannot remove elements "
+                + "from underlaying collection.");
+    }
+
+    /**
+     * Loads the parts following the last page until they hold
+     * <tt>pageSize</tt> elements or there are no more parts.
+     */
+    private void findNextPage()
+    {
+        Page<T> page = new Page<T>();
+
+        page.firstPart = this.nextPart;
+        page.start = this.foundCount;
+        page.elements = new ArrayList<T>();
+
+        while (this.nextPart < this.partCount
+                && page.elements.size() < this.pageSize)
+            page.elements.addAll(loadPart(this.nextPart++));
+
+        page.endPart = this.nextPart;
+        page.count = page.elements.size();
+
+        if (page.count != 0)
+        {
+            this.pages.add(page);
+            this.foundCount += page.count;
+            markUsed(page);
+        }
+
+        if (this.nextPart == this.partCount)
+            loadCompleted();
+    }
+
+    /**
+     * Returns the element at position <tt>pos</tt>, loading its page again
+     * if it was dropped.
+     *
+     * @param pos the position of the element
+     * @return the element
+     * @throws NoSuchElementException if the page of the element has less
+     * elements than when it was first loaded
+     */
+    private T get(int pos)
+        throws NoSuchElementException
+    {
+        int low = 0;
+        int high = this.pages.size() - 1;
+
+        while (low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+
+            if (this.pages.get(mid).start <= pos)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+
+        Page<T> page = this.pages.get(low);
+
+        if (page.elements == null)
+        {
+            List<T> elements = new ArrayList<T>();
+
+            for (int part = page.firstPart; part < page.endPart; part++)
+                elements.addAll(loadPart(part));
+
+            // keep the positions of the following pages, elements added to
+            // the parts since they were first loaded are ignored
+            if (elements.size() > page.count)
+                elements = new ArrayList<T>(elements.subList(0, page.count));
+            page.elements = elements;
+        }
+
+        markUsed(page);
+
+        int index = pos - page.start;
+
+        if (index >= page.elements.size())
+            throw new NoSuchElementException();
+
+        return page.elements.get(index);
+    }
+
+    /**
+     * Marks a page as the most recently used and drops the elements of the
+     * least recently used pages.
+     *
+     * @param page the page
+     */
+    private void markUsed(Page<T> page)
+    {
+        this.loadedPages.remove(page);
+        this.loadedPages.addLast(page);
+
+        while (this.loadedPages.size() > MAX_LOADED_PAGES)
+            this.loadedPages.removeFirst().elements = null;
+    }
+
+    /**
+     * A group of consecutive parts.
+     *
+     * @param <T> element type of query
+     */
+    private static class Page<T>
+    {
+        /**
+         * The first part of the page.
+         */
+        int firstPart;
+
+        /**
+         * The part after the last part of the page.
+         */
+        int endPart;
+
+        /**
+         * The position of the first element of the page in the results.
+         */
+        int start;
+
+        /**
+         * The number of elements in the page.
+         */
+        int count;
+
+        /**
+         * The elements of the page or <tt>null</tt> if they were dropped.
+         */
+        List<T> elements;
+    }
+}
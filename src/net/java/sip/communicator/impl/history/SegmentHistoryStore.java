@@ -0,0 +1,1292 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * A <tt>HistoryStore</tt> keeping records in append-only binary segment
+ * files. Every segment <tt>&lt;timestamp&gt;.seg</tt> has a companion time
+ * index <tt>&lt;timestamp&gt;.idx</tt> holding the timestamp and the offset of
+ * every record, so date range queries decode only the records in the range
+ * and <tt>findLast</tt> reads only the tail of the newest segments.
+ * <p>
+ * A record in a segment file is stored as its payload length, the payload
+ * (timestamp, number of properties and name/value pairs as length prefixed
+ * UTF-8 strings) and the CRC32 of the payload. A record which was not
+ * completely written when the application stopped is dropped when the index
+ * of its segment is rebuilt.
+ * <p>
+ * Decoded segments are kept in the <tt>HistorySegmentCache</tt> shared by
+ * all histories, if one is given.
+ */
+public class SegmentHistoryStore
+    implements HistoryStore
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(SegmentHistoryStore.class);
+
+    /**
+     * The extension of segment files.
+     */
+    public static final String SEGMENT_FILETYPE = "seg";
+
+    /**
+     * The extension of segment index files.
+     */
+    public static final String INDEX_FILETYPE = "idx";
+
+    /**
+     * The maximum number of records in a segment before a new one is
+     * started.
+     */
+    public static final int MAX_RECORDS_PER_SEGMENT = 1000;
+
+    /**
+     * The suffix of property names which values were stored as CDATA in the
+     * XML files.
+     */
+    private static final String CDATA_SUFFIX = "_CDATA";
+
+    /**
+     * The size of an index entry: the timestamp and the offset of a record.
+     */
+    private static final int INDEX_ENTRY_SIZE = 16;
+
+    /**
+     * The charset used to encode property names and values.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The directory of the history.
+     */
+    private final File directory;
+
+    /**
+     * The segments of this store, ordered from oldest to newest.
+     */
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    /**
+     * The cache of decoded segments or <tt>null</tt> if segments are not
+     * cached.
+     */
+    private final HistorySegmentCache cache;
+
+    /**
+     * Creates a store keeping its segments in <tt>directory</tt>, without
+     * caching decoded segments.
+     *
+     * @param directory the directory of the history
+     */
+    public SegmentHistoryStore(File directory)
+    {
+        this(directory, null);
+    }
+
+    /**
+     * Creates a store keeping its segments in <tt>directory</tt>.
+     *
+     * @param directory the directory of the history
+     * @param cache the cache of decoded segments or <tt>null</tt> to not
+     * cache them
+     */
+    public SegmentHistoryStore(File directory, HistorySegmentCache cache)
+    {
+        this.directory = directory;
+        this.cache = cache;
+
+        reload();
+    }
+
+    /**
+     * Reloads the list of segments from disk. Indexes are loaded lazily the
+     * first time a segment is read.
+     */
+    public synchronized void reload()
+    {
+        segments.clear();
+
+        File[] files = directory.listFiles();
+
+        if (files == null)
+            return;
+
+        for (File file : files)
+        {
+            String filename = file.getName();
+
+            if (file.isDirectory()
+                || !filename.endsWith("." + SEGMENT_FILETYPE))
+                continue;
+
+            long start = HistorySegment.parseStartTimestamp(filename);
+
+            if (start != -1)
+                segments.add(new Segment(filename, start));
+        }
+
+        Collections.sort(segments);
+    }
+
+    /**
+     * Returns the segments which may contain records with timestamp between
+     * <tt>startDate</tt> and <tt>endDate</tt>.
+     *
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @return the segments to search, ordered from oldest to newest.
+     */
+    public synchronized List<HistorySegment> getSegments(
+            Date startDate, Date endDate)
+    {
+        return HistorySegment.filterByDate(segments, startDate, endDate);
+    }
+
+    /**
+     * Reads the records of <tt>segment</tt> in the given period. The time
+     * index is used to skip the records outside of the period without
+     * decoding them.
+     *
+     * @param segment the segment to read
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @return the records in the period or <tt>null</tt> if the segment cannot
+     * be read.
+     */
+    public List<HistoryRecord> readRecords(
+            HistorySegment segment, Date startDate, Date endDate)
+    {
+        long startLong = (startDate == null)
+            ? Long.MIN_VALUE : startDate.getTime();
+        long endLong = (endDate == null) ? Long.MAX_VALUE : endDate.getTime();
+
+        synchronized (this)
+        {
+            Segment seg = (Segment) segment;
+
+            if (!loadIndex(seg))
+                return null;
+
+            int first = -1;
+            int last = -1;
+            for (int i = 0; i < seg.count; i++)
+            {
+                long ts = seg.timestamps[i];
+
+                if (startLong <= ts && ts < endLong)
+                {
+                    if (first == -1)
+                        first = i;
+                    last = i;
+                }
+            }
+
+            if (first == -1)
+                return new ArrayList<HistoryRecord>();
+
+            List<HistoryRecord> cached = getCachedRecords(seg);
+            List<HistoryRecord> result;
+
+            if (cached != null)
+            {
+                result = new ArrayList<HistoryRecord>(last + 1 - first);
+                for (int i = first; i <= last; i++)
+                {
+                    long ts = seg.timestamps[i];
+
+                    if (startLong <= ts && ts < endLong)
+                        result.add(cached.get(i));
+                }
+            }
+            else if (first == 0 && last == seg.count - 1)
+            {
+                // the whole segment is read, keep it for the next queries
+                result = readRange(
+                    seg, 0, seg.count, Long.MIN_VALUE, Long.MAX_VALUE, null);
+
+                if (result != null)
+                {
+                    putCachedRecords(
+                        seg, new ArrayList<HistoryRecord>(result));
+
+                    for (Iterator<HistoryRecord> i = result.iterator();
+                            i.hasNext();)
+                    {
+                        long ts = i.next().getTimestamp().getTime();
+
+                        if (ts < startLong || ts >= endLong)
+                            i.remove();
+                    }
+                }
+            }
+            else
+            {
+                result = readRange(
+                    seg, first, last + 1, startLong, endLong, null);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Reads the records of <tt>segment</tt> with the given ordinals. Only the
+     * part of the segment file between the first and the last of these
+     * records is read.
+     *
+     * @param segment the segment to read
+     * @param ordinals the positions of the records to read
+     * @return the records or <tt>null</tt> if the segment cannot be read.
+     */
+    public synchronized List<HistoryRecord> readRecords(
+            HistorySegment segment, BitSet ordinals)
+    {
+        Segment seg = (Segment) segment;
+
+        if (!loadIndex(seg))
+            return null;
+
+        int first = ordinals.nextSetBit(0);
+        int last = Math.min(ordinals.length(), seg.count);
+
+        if (first == -1 || first >= last)
+            return new ArrayList<HistoryRecord>();
+
+        List<HistoryRecord> cached = getCachedRecords(seg);
+
+        if (cached != null)
+        {
+            List<HistoryRecord> result = new ArrayList<HistoryRecord>();
+
+            for (int i = first;
+                    i >= 0 && i < last;
+                    i = ordinals.nextSetBit(i + 1))
+                result.add(cached.get(i));
+            return result;
+        }
+
+        return readRange(
+            seg, first, last, Long.MIN_VALUE, Long.MAX_VALUE, ordinals);
+    }
+
+    /**
+     * Reads the last <tt>count</tt> records of <tt>segment</tt>. Only the tail
+     * of the segment file holding these records is read.
+     *
+     * @param segment the segment to read
+     * @param count the maximum number of records to read
+     * @return the last records of the segment or <tt>null</tt> if the segment
+     * cannot be read.
+     */
+    public synchronized List<HistoryRecord> readLastRecords(
+            HistorySegment segment, int count)
+    {
+        Segment seg = (Segment) segment;
+
+        if (!loadIndex(seg))
+            return null;
+
+        int first = Math.max(0, seg.count - count);
+        List<HistoryRecord> cached = getCachedRecords(seg);
+
+        if (cached != null)
+            return new ArrayList<HistoryRecord>(
+                cached.subList(first, seg.count));
+
+        return readRange(
+            seg, first, seg.count, Long.MIN_VALUE, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Appends a record to the newest segment, starting a new segment when the
+     * newest one is full.
+     *
+     * @param record the record to append
+     * @param maxNumberOfRecords the maximum number of records to keep in the
+     * newest segment or <tt>-1</tt> to ignore this param.
+     * @return the segment the record was appended to
+     * @throws IOException if the record cannot be written
+     */
+    public synchronized HistorySegment appendRecord(
+            HistoryRecord record, int maxNumberOfRecords)
+        throws IOException
+    {
+        Segment seg = segments.isEmpty()
+            ? null : segments.get(segments.size() - 1);
+
+        if (seg != null && !loadIndex(seg))
+            seg = null;
+
+        if (seg == null || seg.count >= MAX_RECORDS_PER_SEGMENT)
+            seg = createSegment(record.getTimestamp().getTime());
+
+        // if we have setting for max number of records, check the number and
+        // when exceed them, remove the oldest one
+        if (maxNumberOfRecords > -1 && seg.count >= maxNumberOfRecords)
+        {
+            List<HistoryRecord> records = readRange(
+                seg, 0, seg.count, Long.MIN_VALUE, Long.MAX_VALUE, null);
+
+            if (records != null)
+            {
+                removeOldestRecord(records);
+                records.add(normalize(record));
+                rewriteSegment(seg, records);
+                return seg;
+            }
+        }
+
+        appendRecords(seg, Collections.singletonList(normalize(record)));
+        return seg;
+    }
+
+    /**
+     * Appends records to the newest segments. The records going to the same
+     * segment are written at once.
+     *
+     * @param records the records to append
+     * @param maxNumberOfRecords the maximum number of records to keep in the
+     * newest segment or <tt>-1</tt> to ignore this param.
+     * @return the segments the records were appended to, one for every record
+     * @throws IOException if the records cannot be written
+     */
+    public synchronized List<HistorySegment> appendRecords(
+            List<HistoryRecord> records, int maxNumberOfRecords)
+        throws IOException
+    {
+        List<HistorySegment> result
+            = new ArrayList<HistorySegment>(records.size());
+
+        // keeping a maximum number of records rewrites the segment anyway
+        if (maxNumberOfRecords > -1)
+        {
+            for (HistoryRecord record : records)
+                result.add(appendRecord(record, maxNumberOfRecords));
+            return result;
+        }
+
+        int next = 0;
+        while (next < records.size())
+        {
+            Segment seg = segments.isEmpty()
+                ? null : segments.get(segments.size() - 1);
+
+            if (seg != null && !loadIndex(seg))
+                seg = null;
+
+            if (seg == null || seg.count >= MAX_RECORDS_PER_SEGMENT)
+            {
+                seg = createSegment(
+                    records.get(next).getTimestamp().getTime());
+            }
+
+            int end = Math.min(
+                records.size(), next + MAX_RECORDS_PER_SEGMENT - seg.count);
+            List<HistoryRecord> chunk
+                = new ArrayList<HistoryRecord>(end - next);
+
+            for (int i = next; i < end; i++)
+            {
+                chunk.add(normalize(records.get(i)));
+                result.add(seg);
+            }
+
+            appendRecords(seg, chunk);
+            next = end;
+        }
+
+        return result;
+    }
+
+    /**
+     * Replaces the content of <tt>segment</tt> with the given records. The new
+     * content is written to temporary files which then atomically replace the
+     * segment file and, last, its index. A failure before the segment file is
+     * replaced leaves the old content intact. A failure between the two moves
+     * leaves an index which does not match the new segment file, which is
+     * detected when the index is loaded and rebuilt from the segment file.
+     *
+     * @param segment the segment to rewrite
+     * @param records the new content of the segment
+     * @throws IOException if the segment cannot be written
+     */
+    public synchronized void rewriteSegment(
+            HistorySegment segment, List<HistoryRecord> records)
+        throws IOException
+    {
+        Segment seg = (Segment) segment;
+        File tmpData = new File(directory, seg.getName() + ".tmp");
+        File tmpIndex = new File(directory, seg.indexName() + ".tmp");
+
+        tmpData.delete();
+        tmpIndex.delete();
+
+        Segment tmp = new Segment(tmpData.getName(), seg.getStartTimestamp());
+        tmp.count = 0;
+        tmp.timestamps = new long[Math.max(16, records.size())];
+        tmp.offsets = new long[tmp.timestamps.length];
+        appendRecords(tmp, tmpData, tmpIndex, records);
+
+        File dataFile = new File(directory, seg.getName());
+        File indexFile = new File(directory, seg.indexName());
+
+        moveOver(tmpData, dataFile);
+        try
+        {
+            moveOver(tmpIndex, indexFile);
+        }
+        catch (IOException e)
+        {
+            // the old index is rebuilt from the new segment file the next
+            // time it is needed
+            seg.count = -1;
+            if (cache != null)
+                cache.remove(dataFile);
+            throw e;
+        }
+
+        seg.count = tmp.count;
+        seg.timestamps = tmp.timestamps;
+        seg.offsets = tmp.offsets;
+        seg.length = tmp.length;
+
+        putCachedRecords(seg, new ArrayList<HistoryRecord>(records));
+    }
+
+    /**
+     * Atomically replaces a file with another one, or replaces it without
+     * deleting it first if the file system cannot move files atomically.
+     *
+     * @param source the file replacing <tt>target</tt>
+     * @param target the file to replace
+     * @throws IOException if the file cannot be replaced
+     */
+    private static void moveOver(File source, File target)
+        throws IOException
+    {
+        try
+        {
+            Files.move(
+                source.toPath(),
+                target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(
+                source.toPath(),
+                target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Passes the records of the segments newer than <tt>startDate</tt> to
+     * <tt>updater</tt> until it changes them and rewrites the changed segment.
+     * The store is locked meanwhile, so no record is appended in between.
+     *
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param updater the changes to make to the records
+     * @return the rewritten segment or <tt>null</tt> if no record was
+     * changed.
+     * @throws IOException if the segment cannot be written
+     */
+    public synchronized HistorySegment updateRecords(
+            Date startDate, RecordUpdater updater)
+        throws IOException
+    {
+        for (HistorySegment segment : getSegments(startDate, null))
+        {
+            List<HistoryRecord> records = readRecords(segment, null, null);
+
+            if (records != null && updater.update(records))
+            {
+                rewriteSegment(segment, records);
+                return segment;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates a segment holding the given records. Used when importing
+     * records from another store.
+     *
+     * @param startTimestamp the timestamp the segment is created for
+     * @param records the records of the new segment
+     * @throws IOException if the segment cannot be written
+     */
+    synchronized void importSegment(
+            long startTimestamp, List<HistoryRecord> records)
+        throws IOException
+    {
+        String name = startTimestamp + "." + SEGMENT_FILETYPE;
+        Segment seg = null;
+
+        for (Segment s : segments)
+        {
+            if (s.getName().equals(name))
+            {
+                seg = s;
+                break;
+            }
+        }
+
+        if (seg == null)
+        {
+            seg = new Segment(name, startTimestamp);
+            segments.add(seg);
+            Collections.sort(segments);
+        }
+
+        List<HistoryRecord> normalized
+            = new ArrayList<HistoryRecord>(records.size());
+        for (HistoryRecord record : records)
+            normalized.add(normalize(record));
+
+        rewriteSegment(seg, normalized);
+    }
+
+    /**
+     * Returns the exact number of records in this store.
+     *
+     * @return the number of records in this store.
+     */
+    public synchronized int countRecords()
+    {
+        int result = 0;
+
+        for (Segment seg : segments)
+        {
+            if (loadIndex(seg))
+                result += seg.count;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of records in <tt>segment</tt>, as found in its time
+     * index.
+     *
+     * @param segment the segment
+     * @return the number of records in <tt>segment</tt>.
+     */
+    public synchronized int countRecords(HistorySegment segment)
+    {
+        Segment seg = (Segment) segment;
+
+        return loadIndex(seg) ? seg.count : 0;
+    }
+
+    /**
+     * Returns the timestamps of the oldest and the newest records of
+     * <tt>segment</tt>, as found in its time index.
+     *
+     * @param segment the segment
+     * @return the timestamps of the oldest and the newest records of
+     * <tt>segment</tt> or <tt>null</tt> if it is empty or cannot be read.
+     */
+    public synchronized long[] getTimeRange(HistorySegment segment)
+    {
+        Segment seg = (Segment) segment;
+
+        if (!loadIndex(seg) || seg.count == 0)
+            return null;
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+
+        for (int i = 0; i < seg.count; i++)
+        {
+            min = Math.min(min, seg.timestamps[i]);
+            max = Math.max(max, seg.timestamps[i]);
+        }
+
+        return new long[] { min, max };
+    }
+
+    /**
+     * Creates a new empty segment for records starting at
+     * <tt>timestamp</tt>.
+     *
+     * @param timestamp the timestamp of the first record of the segment
+     * @return the new segment
+     */
+    private Segment createSegment(long timestamp)
+    {
+        // segments are kept ordered, a new segment is never older than the
+        // newest one and its name must be unique
+        if (!segments.isEmpty())
+        {
+            timestamp = Math.max(
+                timestamp,
+                segments.get(segments.size() - 1).getStartTimestamp() + 1);
+        }
+
+        Segment seg = new Segment(timestamp + "." + SEGMENT_FILETYPE, timestamp);
+        seg.count = 0;
+        seg.length = 0;
+        seg.timestamps = new long[16];
+        seg.offsets = new long[16];
+
+        new File(directory, seg.getName()).delete();
+        new File(directory, seg.indexName()).delete();
+
+        segments.add(seg);
+        return seg;
+    }
+
+    /**
+     * Appends records to the files of <tt>seg</tt>.
+     *
+     * @param seg the segment to append to
+     * @param records the records to append
+     * @throws IOException if the records cannot be written
+     */
+    private void appendRecords(Segment seg, List<HistoryRecord> records)
+        throws IOException
+    {
+        File dataFile = new File(directory, seg.getName());
+        List<HistoryRecord> cached = getCachedRecords(seg);
+
+        try
+        {
+            appendRecords(
+                seg, dataFile, new File(directory, seg.indexName()), records);
+        }
+        catch (IOException e)
+        {
+            // the index is rebuilt from the file the next time it is needed
+            seg.count = -1;
+            if (cache != null)
+                cache.remove(dataFile);
+            throw e;
+        }
+
+        if (cached != null)
+        {
+            cached.addAll(records);
+            putCachedRecords(seg, cached);
+        }
+    }
+
+    /**
+     * Appends records to the given segment and index files and updates the
+     * in-memory index of <tt>seg</tt>.
+     *
+     * @param seg the segment to append to
+     * @param dataFile the segment file
+     * @param indexFile the index file
+     * @param records the records to append
+     * @throws IOException if the records cannot be written
+     */
+    private void appendRecords(
+            Segment seg, File dataFile, File indexFile,
+            List<HistoryRecord> records)
+        throws IOException
+    {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        long offset = seg.length;
+
+        for (HistoryRecord record : records)
+        {
+            byte[] encoded = encode(record);
+            long ts = record.getTimestamp().getTime();
+
+            data.write(encoded);
+            indexOut.writeLong(ts);
+            indexOut.writeLong(offset);
+
+            seg.add(ts, offset);
+            offset += encoded.length;
+        }
+
+        FileOutputStream dataOut = new FileOutputStream(dataFile, true);
+        try
+        {
+            data.writeTo(dataOut);
+        }
+        finally
+        {
+            dataOut.close();
+        }
+
+        FileOutputStream idxOut = new FileOutputStream(indexFile, true);
+        try
+        {
+            index.writeTo(idxOut);
+        }
+        finally
+        {
+            idxOut.close();
+        }
+
+        seg.length = offset;
+    }
+
+    /**
+     * Reads and decodes the records of <tt>seg</tt> from index
+     * <tt>from</tt> (inclusive) to <tt>to</tt> (exclusive), keeping only the
+     * ones in the given period.
+     *
+     * @param seg the segment to read
+     * @param from the index of the first record to read
+     * @param to the index after the last record to read
+     * @param startLong the start of the period
+     * @param endLong the end of the period
+     * @param ordinals the indexes of the records to decode or <tt>null</tt>
+     * to decode all records in the range
+     * @return the records or <tt>null</tt> if the segment cannot be read.
+     */
+    private List<HistoryRecord> readRange(
+            Segment seg, int from, int to, long startLong, long endLong,
+            BitSet ordinals)
+    {
+        List<HistoryRecord> result = new ArrayList<HistoryRecord>(to - from);
+
+        if (from >= to)
+            return result;
+
+        long startOffset = seg.offsets[from];
+        long endOffset = (to < seg.count) ? seg.offsets[to] : seg.length;
+        byte[] buffer = new byte[(int) (endOffset - startOffset)];
+
+        try
+        {
+            RandomAccessFile raf
+                = new RandomAccessFile(new File(directory, seg.getName()), "r");
+            try
+            {
+                raf.seek(startOffset);
+                raf.readFully(buffer);
+            }
+            finally
+            {
+                raf.close();
+            }
+
+            for (int i = from; i < to; i++)
+            {
+                long ts = seg.timestamps[i];
+
+                if (ts < startLong || ts >= endLong
+                    || (ordinals != null && !ordinals.get(i)))
+                    continue;
+
+                HistoryRecord record = decode(
+                    buffer, (int) (seg.offsets[i] - startOffset));
+
+                if (record != null)
+                    result.add(record);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Cannot read history segment "
+                + new File(directory, seg.getName()), e);
+            seg.count = -1;
+            if (cache != null)
+                cache.remove(new File(directory, seg.getName()));
+            return null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the cached records of <tt>seg</tt>.
+     *
+     * @param seg the segment
+     * @return the records of the segment or <tt>null</tt> if they are not
+     * cached.
+     */
+    @SuppressWarnings("unchecked")
+    private List<HistoryRecord> getCachedRecords(Segment seg)
+    {
+        if (cache == null)
+            return null;
+
+        List<HistoryRecord> cached = (List<HistoryRecord>)
+            cache.get(new File(directory, seg.getName()));
+
+        // the index may have been rebuilt after a torn record was dropped
+        return (cached != null && cached.size() == seg.count) ? cached : null;
+    }
+
+    /**
+     * Caches the records of <tt>seg</tt>.
+     *
+     * @param seg the segment
+     * @param records all the records of the segment, not shared with the
+     * callers of this store
+     */
+    private void putCachedRecords(Segment seg, List<HistoryRecord> records)
+    {
+        if (cache != null)
+        {
+            cache.put(
+                new File(directory, seg.getName()),
+                records,
+                HistorySegmentCache.estimateSize(records));
+        }
+    }
+
+    /**
+     * Loads the index of <tt>seg</tt> if it is not loaded yet. If the index
+     * file is missing or does not match the segment file, it is rebuilt by
+     * scanning the segment file.
+     *
+     * @param seg the segment which index to load
+     * @return <tt>true</tt> if the index is loaded, <tt>false</tt> if the
+     * segment cannot be read.
+     */
+    private boolean loadIndex(Segment seg)
+    {
+        if (seg.count != -1)
+            return true;
+
+        File dataFile = new File(directory, seg.getName());
+        File indexFile = new File(directory, seg.indexName());
+
+        try
+        {
+            if (!readIndex(seg, dataFile, indexFile))
+            {
+                logger.info("Rebuilding history index " + indexFile);
+                rebuildIndex(seg, dataFile, indexFile);
+            }
+            return true;
+        }
+        catch (IOException e)
+        {
+            logger.error("Cannot load history segment " + dataFile, e);
+            seg.count = -1;
+            return false;
+        }
+    }
+
+    /**
+     * Reads the index file of a segment and checks that it matches the
+     * segment file: the last record of the index must end at the end of the
+     * segment file, have a valid CRC and the timestamp of the index.
+     *
+     * @param seg the segment which index to read
+     * @param dataFile the segment file
+     * @param indexFile the index file
+     * @return <tt>true</tt> if the index was read and is valid
+     * @throws IOException if reading the files fails
+     */
+    private boolean readIndex(Segment seg, File dataFile, File indexFile)
+        throws IOException
+    {
+        long dataLength = dataFile.length();
+
+        if (!indexFile.exists()
+            || indexFile.length() % INDEX_ENTRY_SIZE != 0)
+            return false;
+
+        int count = (int) (indexFile.length() / INDEX_ENTRY_SIZE);
+        long[] timestamps = new long[Math.max(16, count)];
+        long[] offsets = new long[timestamps.length];
+
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(indexFile)));
+        try
+        {
+            for (int i = 0; i < count; i++)
+            {
+                timestamps[i] = in.readLong();
+                offsets[i] = in.readLong();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        // the last record must end exactly at the end of the segment file
+        if (count == 0)
+        {
+            if (dataLength != 0)
+                return false;
+        }
+        else
+        {
+            long lastOffset = offsets[count - 1];
+
+            if (lastOffset + 8 > dataLength)
+                return false;
+
+            RandomAccessFile raf = new RandomAccessFile(dataFile, "r");
+            try
+            {
+                raf.seek(lastOffset);
+
+                int payloadLength = raf.readInt();
+
+                if (payloadLength < 12
+                    || lastOffset + 8 + payloadLength != dataLength)
+                    return false;
+
+                byte[] payload = new byte[payloadLength];
+                raf.readFully(payload);
+
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != raf.readInt()
+                    || new DataInputStream(new ByteArrayInputStream(payload))
+                            .readLong() != timestamps[count - 1])
+                    return false;
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+
+        seg.timestamps = timestamps;
+        seg.offsets = offsets;
+        seg.count = count;
+        seg.length = dataLength;
+        return true;
+    }
+
+    /**
+     * Rebuilds the index of a segment by scanning its file. A torn or
+     * corrupted record at the end of the file and everything after it is
+     * truncated.
+     *
+     * @param seg the segment which index to rebuild
+     * @param dataFile the segment file
+     * @param indexFile the index file
+     * @throws IOException if the files cannot be read or written
+     */
+    private void rebuildIndex(Segment seg, File dataFile, File indexFile)
+        throws IOException
+    {
+        seg.count = 0;
+        seg.length = 0;
+        seg.timestamps = new long[16];
+        seg.offsets = new long[16];
+
+        if (dataFile.exists())
+        {
+            RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
+            try
+            {
+                long length = raf.length();
+                long offset = 0;
+
+                while (offset + 8 <= length)
+                {
+                    raf.seek(offset);
+                    int payloadLength = raf.readInt();
+
+                    if (payloadLength < 12
+                        || offset + 8 + payloadLength > length)
+                        break;
+
+                    byte[] payload = new byte[payloadLength];
+                    raf.readFully(payload);
+
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != raf.readInt())
+                        break;
+
+                    seg.add(
+                        new DataInputStream(new ByteArrayInputStream(payload))
+                            .readLong(),
+                        offset);
+                    offset += 8 + payloadLength;
+                }
+
+                if (offset != length)
+                {
+                    logger.warn("Truncating corrupted history segment "
+                        + dataFile + " at " + offset);
+                    raf.setLength(offset);
+                }
+                seg.length = offset;
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(indexFile)));
+        try
+        {
+            for (int i = 0; i < seg.count; i++)
+            {
+                out.writeLong(seg.timestamps[i]);
+                out.writeLong(seg.offsets[i]);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Removes the record with the oldest timestamp from <tt>records</tt>.
+     *
+     * @param records the records
+     */
+    private static void removeOldestRecord(List<HistoryRecord> records)
+    {
+        int oldest = -1;
+
+        for (int i = 0; i < records.size(); i++)
+        {
+            if (oldest == -1
+                || records.get(oldest).getTimestamp().after(
+                        records.get(i).getTimestamp()))
+                oldest = i;
+        }
+
+        if (oldest != -1)
+            records.remove(oldest);
+    }
+
+    /**
+     * Returns a record with the same content as it would have when read back
+     * from the legacy XML files: without the <tt>_CDATA</tt> suffix of
+     * property names, without properties with <tt>null</tt> values and with
+     * null characters replaced by spaces.
+     *
+     * @param record the record to normalize
+     * @return the normalized record
+     */
+    static HistoryRecord normalize(HistoryRecord record)
+    {
+        String[] names = record.getPropertyNames();
+        String[] values = record.getPropertyValues();
+        List<String> newNames = new ArrayList<String>(names.length);
+        List<String> newValues = new ArrayList<String>(names.length);
+
+        for (int i = 0; i < names.length; i++)
+        {
+            if (values[i] == null)
+                continue;
+
+            String name = names[i];
+            if (name.endsWith(CDATA_SUFFIX))
+                name = name.replaceFirst(CDATA_SUFFIX, "");
+
+            newNames.add(name);
+            newValues.add(values[i].replace('\0', ' '));
+        }
+
+        return new HistoryRecord(
+            newNames.toArray(new String[newNames.size()]),
+            newValues.toArray(new String[newValues.size()]),
+            record.getTimestamp());
+    }
+
+    /**
+     * Encodes a record in the segment file format.
+     *
+     * @param record the record to encode
+     * @return the encoded record
+     * @throws IOException never
+     */
+    static byte[] encode(HistoryRecord record)
+        throws IOException
+    {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        String[] names = record.getPropertyNames();
+        String[] values = record.getPropertyValues();
+
+        out.writeLong(record.getTimestamp().getTime());
+        out.writeInt(names.length);
+        for (int i = 0; i < names.length; i++)
+        {
+            writeString(out, names[i]);
+            writeString(out, values[i]);
+        }
+        out.flush();
+
+        byte[] payloadBytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payloadBytes);
+
+        ByteArrayOutputStream result
+            = new ByteArrayOutputStream(payloadBytes.length + 8);
+        DataOutputStream resultOut = new DataOutputStream(result);
+        resultOut.writeInt(payloadBytes.length);
+        resultOut.write(payloadBytes);
+        resultOut.writeInt((int) crc.getValue());
+        resultOut.flush();
+
+        return result.toByteArray();
+    }
+
+    /**
+     * Decodes the record starting at <tt>offset</tt> in <tt>buffer</tt>.
+     *
+     * @param buffer the bytes read from a segment file
+     * @param offset the offset of the record in <tt>buffer</tt>
+     * @return the decoded record
+     * @throws IOException if the record is corrupted
+     */
+    static HistoryRecord decode(byte[] buffer, int offset)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(buffer, offset, buffer.length - offset));
+
+        in.readInt();
+        long timestamp = in.readLong();
+        int count = in.readInt();
+        String[] names = new String[count];
+        String[] values = new String[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            // the few property names are shared by all records
+            names[i] = readString(in).intern();
+            values[i] = readString(in);
+        }
+
+        return new HistoryRecord(names, values, new Date(timestamp));
+    }
+
+    /**
+     * Writes a length prefixed UTF-8 string. Unlike
+     * <tt>DataOutputStream.writeUTF</tt> it is not limited to 64K.
+     *
+     * @param out the stream to write to
+     * @param s the string to write
+     * @throws IOException if writing fails
+     */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException
+    {
+        byte[] bytes = s.getBytes(UTF8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by <tt>writeString</tt>.
+     *
+     * @param in the stream to read from
+     * @return the string
+     * @throws IOException if reading fails
+     */
+    private static String readString(DataInputStream in)
+        throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * A segment with its in-memory time index.
+     */
+    private static class Segment
+        extends HistorySegment
+    {
+        /**
+         * The number of records in the segment or <tt>-1</tt> if the index is
+         * not loaded.
+         */
+        int count = -1;
+
+        /**
+         * The timestamps of the records in the order they are stored.
+         */
+        long[] timestamps;
+
+        /**
+         * The offsets of the records in the segment file.
+         */
+        long[] offsets;
+
+        /**
+         * The length of the segment file.
+         */
+        long length;
+
+        /**
+         * Creates a segment with an index which is not loaded.
+         *
+         * @param name the name of the segment file
+         * @param startTimestamp the timestamp the segment was created for
+         */
+        Segment(String name, long startTimestamp)
+        {
+            super(name, startTimestamp);
+        }
+
+        /**
+         * Returns the name of the index file of this segment.
+         * @return the name of the index file of this segment.
+         */
+        String indexName()
+        {
+            String name = getName();
+
+            return name.substring(0, name.length() - SEGMENT_FILETYPE.length())
+                + INDEX_FILETYPE;
+        }
+
+        /**
+         * Adds an entry to the index.
+         *
+         * @param timestamp the timestamp of the record
+         * @param offset the offset of the record in the segment file
+         */
+        void add(long timestamp, long offset)
+        {
+            if (count == timestamps.length)
+            {
+                timestamps = Arrays.copyOf(timestamps, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            timestamps[count] = timestamp;
+            offsets[count] = offset;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Converts the legacy XML files of a history to segments of a
+ * <tt>SegmentHistoryStore</tt>. Every XML file becomes a segment with the
+ * same name, so the time ranges of the segments stay the same. Once a file is
+ * converted it is renamed with a <tt>.migrated</tt> suffix, which makes the
+ * migration resumable if it is interrupted and keeps the original data on
+ * disk.
+ */
+public class XmlHistoryMigrator
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(XmlHistoryMigrator.class);
+
+    /**
+     * The suffix added to the XML files which were migrated.
+     */
+    public static final String MIGRATED_SUFFIX = ".migrated";
+
+    /**
+     * Migrates the XML files found in <tt>directory</tt> to <tt>target</tt>,
+     * if there are any.
+     *
+     * @param directory the directory of the history
+     * @param historyServiceImpl the history service used to parse the files
+     * @param target the store receiving the records
+     */
+    static void migrate(File directory,
+                        HistoryServiceImpl historyServiceImpl,
+                        SegmentHistoryStore target)
+    {
+        File[] files = directory.listFiles();
+
+        if (files == null)
+            return;
+
+        boolean hasXmlFiles = false;
+        for (File file : files)
+        {
+            if (!file.isDirectory() && file.getName().endsWith(
+                    "." + XmlHistoryStore.SUPPORTED_FILETYPE))
+            {
+                hasXmlFiles = true;
+                break;
+            }
+        }
+
+        if (!hasXmlFiles)
+            return;
+
+        if (logger.isInfoEnabled())
+            logger.info("Migrating history " + directory);
+
+        XmlHistoryStore source
+            = new XmlHistoryStore(directory, historyServiceImpl);
+        int migratedRecords = 0;
+
+        for (HistorySegment segment : source.getSegments(null, null))
+        {
+            List<HistoryRecord> records
+                = source.readRecords(segment, null, null);
+
+            // keep the files which cannot be parsed, nothing is lost and
+            // they will be retried next time
+            if (records == null)
+            {
+                logger.warn("Cannot migrate history file " + segment);
+                continue;
+            }
+
+            try
+            {
+                target.importSegment(segment.getStartTimestamp(), records);
+            }
+            catch (IOException e)
+            {
+                logger.error("Cannot migrate history file " + segment, e);
+                continue;
+            }
+
+            File file = new File(directory, segment.getName());
+            if (!file.renameTo(
+                    new File(directory, segment.getName() + MIGRATED_SUFFIX)))
+            {
+                logger.warn("Cannot rename migrated history file " + file);
+            }
+
+            migratedRecords += records.size();
+        }
+
+        target.reload();
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Migrated " + migratedRecords + " records of history "
+                + directory);
+        }
+    }
+}
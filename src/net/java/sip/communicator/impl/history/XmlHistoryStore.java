@@ -0,0 +1,966 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import static
+    net.java.sip.communicator.service.history.HistoryService.DATE_FORMAT;
+
+import java.io.*;
+import java.security.*;
+import java.text.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.util.*;
+
+import org.apache.commons.lang3.*;
+import org.jitsi.util.xml.XMLUtils;
+import org.w3c.dom.*;
+
+import com.google.common.xml.*;
+
+/**
+ * The legacy <tt>HistoryStore</tt> keeping every segment in a separate XML
+ * file with at most <tt>MAX_RECORDS_PER_FILE</tt> records. Every read of a
+ * segment parses the whole file into a DOM, unless caching of documents is
+ * enabled.
+ *
+ * @author Alexander Pelov
+ * @author Yana Stamcheva
+ */
+public class XmlHistoryStore
+    implements HistoryStore
+{
+    private static final Logger log = Logger.getLogger(XmlHistoryStore.class);
+
+    /**
+     * The supported filetype.
+     */
+    public static final String SUPPORTED_FILETYPE = "xml";
+
+    /**
+     * Maximum records per file.
+     */
+    public static final int MAX_RECORDS_PER_FILE = 150;
+
+    private static final String CDATA_SUFFIX = "_CDATA";
+
+    /**
+     * The ratio between the estimated heap size of a parsed document and the
+     * size of its file.
+     */
+    private static final int DOCUMENT_SIZE_FACTOR = 6;
+
+    private final File directory;
+
+    private final HistoryServiceImpl historyServiceImpl;
+
+    /**
+     * The XML files of the history by name. Parsed documents are kept in the
+     * cache of the history service, if caching is enabled.
+     */
+    private final SortedMap<String, File> historyFiles
+        = new TreeMap<String, File>();
+
+    private final Object docCreateLock = new Object();
+
+    private final Object docWriteLock = new Object();
+
+    private Document currentDoc = null;
+
+    private String currentFile = null;
+
+    private int currentDocElements = -1;
+
+    /**
+     * Creates a store reading the XML files in <tt>directory</tt>.
+     *
+     * @param directory the directory of the history
+     * @param historyServiceImpl the parent history service
+     */
+    public XmlHistoryStore(File directory,
+                           HistoryServiceImpl historyServiceImpl)
+    {
+        this.directory = directory;
+        this.historyServiceImpl = historyServiceImpl;
+
+        reload();
+    }
+
+    /**
+     * Reloads the list of XML files from disk.
+     */
+    public void reload()
+    {
+        synchronized (this.historyFiles)
+        {
+            this.historyFiles.clear();
+
+            File[] files = this.directory.listFiles();
+            // TODO: Assert: Assert.assertNonNull(files, "The list of files
+            // should be non-null.");
+
+            for (int i = 0; i < files.length; i++)
+            {
+                if (!files[i].isDirectory())
+                {
+                    String filename = files[i].getName();
+
+                    if (filename.endsWith(SUPPORTED_FILETYPE))
+                    {
+                        this.historyFiles.put(filename, files[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the XML files which may contain records with timestamp between
+     * <tt>startDate</tt> and <tt>endDate</tt>.
+     *
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @return the segments to search, ordered from oldest to newest.
+     */
+    public List<HistorySegment> getSegments(Date startDate, Date endDate)
+    {
+        List<HistorySegment> segments = new ArrayList<HistorySegment>();
+
+        synchronized (this.historyFiles)
+        {
+            for (String filename : this.historyFiles.keySet())
+            {
+                long start = HistorySegment.parseStartTimestamp(filename);
+
+                if (start != -1)
+                    segments.add(new HistorySegment(filename, start));
+            }
+        }
+
+        Collections.sort(segments);
+
+        return HistorySegment.filterByDate(segments, startDate, endDate);
+    }
+
+    /**
+     * Parses the XML file of <tt>segment</tt> and returns its records in the
+     * given period.
+     *
+     * @param segment the segment to read
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param endDate the end of the period or <tt>null</tt>
+     * @return the records in the period or <tt>null</tt> if the file cannot
+     * be parsed.
+     */
+    public List<HistoryRecord> readRecords(
+            HistorySegment segment, Date startDate, Date endDate)
+    {
+        Document doc = getDocumentForFile(segment.getName());
+
+        if(doc == null)
+            return null;
+
+        NodeList nodes = doc.getElementsByTagName("record");
+        List<HistoryRecord> result = new ArrayList<HistoryRecord>();
+
+        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+        for (int i = 0; i < nodes.getLength(); i++)
+        {
+            Node node = nodes.item(i);
+            Date timestamp = parseTimestamp(node, sdf);
+
+            if(HistoryReaderImpl.isInPeriod(timestamp, startDate, endDate))
+                result.add(createRecord(node, timestamp));
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses the XML file of <tt>segment</tt> and returns the records with the
+     * given ordinals.
+     *
+     * @param segment the segment to read
+     * @param ordinals the positions of the records to return
+     * @return the records or <tt>null</tt> if the file cannot be parsed.
+     */
+    public List<HistoryRecord> readRecords(
+            HistorySegment segment, BitSet ordinals)
+    {
+        Document doc = getDocumentForFile(segment.getName());
+
+        if(doc == null)
+            return null;
+
+        NodeList nodes = doc.getElementsByTagName("record");
+        List<HistoryRecord> result = new ArrayList<HistoryRecord>();
+
+        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+        for (int i = ordinals.nextSetBit(0);
+                i >= 0 && i < nodes.getLength();
+                i = ordinals.nextSetBit(i + 1))
+        {
+            Node node = nodes.item(i);
+
+            result.add(createRecord(node, parseTimestamp(node, sdf)));
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses the XML file of <tt>segment</tt> and returns its last
+     * <tt>count</tt> records.
+     *
+     * @param segment the segment to read
+     * @param count the maximum number of records to return
+     * @return the last records of the file or <tt>null</tt> if the file cannot
+     * be parsed.
+     */
+    public List<HistoryRecord> readLastRecords(
+            HistorySegment segment, int count)
+    {
+        Document doc = getDocumentForFile(segment.getName());
+
+        if(doc == null)
+            return null;
+
+        NodeList nodes = doc.getElementsByTagName("record");
+        List<HistoryRecord> result = new ArrayList<HistoryRecord>();
+
+        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+        for (int i = Math.max(0, nodes.getLength() - count);
+                i < nodes.getLength();
+                i++)
+        {
+            Node node = nodes.item(i);
+
+            result.add(createRecord(node, parseTimestamp(node, sdf)));
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds new record to the current history document
+     * when the record property name ends with _CDATA this is removed from the
+     * property name and a CDATA text node is created to store the text value
+     *
+     * @param record the record to add
+     * @param maxNumberOfRecords the maximum number of records to keep or
+     * value of -1 to ignore this param.
+     * @return the segment of the file the record was added to
+     * @throws InvalidParameterException
+     * @throws IOException
+     */
+    public HistorySegment appendRecord(
+            HistoryRecord record, int maxNumberOfRecords)
+        throws InvalidParameterException, IOException
+    {
+        return appendRecords(
+                Collections.singletonList(record), maxNumberOfRecords)
+            .get(0);
+    }
+
+    /**
+     * Adds new records to the current history document. Every changed file
+     * is written once after all the records are added.
+     *
+     * @param records the records to add
+     * @param maxNumberOfRecords the maximum number of records to keep or
+     * value of -1 to ignore this param.
+     * @return the segments of the files the records were added to
+     * @throws InvalidParameterException
+     * @throws IOException
+     */
+    public synchronized List<HistorySegment> appendRecords(
+            List<HistoryRecord> records, int maxNumberOfRecords)
+        throws InvalidParameterException, IOException
+    {
+        List<HistorySegment> result
+            = new ArrayList<HistorySegment>(records.size());
+        Map<String, Document> changedDocs
+            = new LinkedHashMap<String, Document>();
+
+        for (HistoryRecord record : records)
+        {
+            Document doc;
+            String file;
+
+            // Synchronized to assure that two concurrent threads can insert
+            // records safely.
+            synchronized (this.docCreateLock)
+            {
+                if (this.currentDoc == null
+                        || this.currentDocElements > MAX_RECORDS_PER_FILE)
+                {
+                    this.createNewDoc(
+                        record.getTimestamp(), this.currentDoc == null);
+                }
+                doc = this.currentDoc;
+                file = this.currentFile;
+            }
+
+            synchronized (doc)
+            {
+                Node root = doc.getFirstChild();
+                synchronized (root)
+                {
+                    // if we have setting for max number of records,
+                    // check the number and when exceed them, remove the
+                    // first one
+                    if( maxNumberOfRecords > -1
+                        && this.currentDocElements >= maxNumberOfRecords)
+                    {
+                        // lets remove the first one
+                        removeFirstRecord(root);
+                    }
+
+                    Element elem = createRecordElement(
+                        doc,
+                        record.getPropertyNames(),
+                        record.getPropertyValues(),
+                        record.getTimestamp());
+                    root.appendChild(elem);
+                    this.currentDocElements++;
+                }
+            }
+
+            changedDocs.put(file, doc);
+            result.add(new HistorySegment(
+                file, HistorySegment.parseStartTimestamp(file)));
+        }
+
+        // write changes
+        synchronized (this.docWriteLock)
+        {
+            for (Map.Entry<String, Document> e : changedDocs.entrySet())
+            {
+                this.writeFile(e.getKey(), e.getValue());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Replaces the content of the XML file of <tt>segment</tt> with the given
+     * records.
+     *
+     * @param segment the segment to rewrite
+     * @param records the new content of the segment
+     * @throws IOException if the file cannot be written
+     */
+    public void rewriteSegment(
+            HistorySegment segment, List<HistoryRecord> records)
+        throws IOException
+    {
+        String filename = segment.getName();
+        Document doc = historyServiceImpl.getDocumentBuilder().newDocument();
+        Element root = doc.createElement("history");
+        doc.appendChild(root);
+
+        for (HistoryRecord record : records)
+        {
+            root.appendChild(
+                createRecordElement(
+                    doc,
+                    record.getPropertyNames(),
+                    record.getPropertyValues(),
+                    record.getTimestamp()));
+        }
+
+        synchronized (this.docCreateLock)
+        {
+            HistorySegmentCache cache = getCache();
+
+            if (cache != null)
+                cache.remove(new File(this.directory, filename));
+
+            // write changes
+            synchronized (this.docWriteLock)
+            {
+                this.writeFile(filename, doc);
+            }
+
+            // this prevents that the current writer, which holds
+            // instance for the last document he is editing will not
+            // override our last changes to the document
+            if(filename.equals(this.currentFile))
+            {
+                this.currentDoc = doc;
+                this.currentDocElements = records.size();
+            }
+        }
+    }
+
+    /**
+     * Passes the records of the files newer than <tt>startDate</tt> to
+     * <tt>updater</tt> until it changes them and rewrites the changed file.
+     * Records are not appended meanwhile.
+     *
+     * @param startDate the start of the period or <tt>null</tt>
+     * @param updater the changes to make to the records
+     * @return the segment of the rewritten file or <tt>null</tt> if no record
+     * was changed.
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized HistorySegment updateRecords(
+            Date startDate, RecordUpdater updater)
+        throws IOException
+    {
+        for (HistorySegment segment : getSegments(startDate, null))
+        {
+            List<HistoryRecord> records = readRecords(segment, null, null);
+
+            if (records != null && updater.update(records))
+            {
+                rewriteSegment(segment, records);
+                return segment;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Count the number of records in this store. Actually only the last file
+     * is parsed and its nodes are counted. We accept that the other files are
+     * full with max records, this way we escape parsing all files.
+     *
+     * @return the estimated number of records
+     */
+    public int countRecords()
+    {
+        int result = 0;
+        String lastFile = null;
+
+        synchronized (this.historyFiles)
+        {
+            for (String filename : this.historyFiles.keySet())
+            {
+                lastFile = filename;
+                result += MAX_RECORDS_PER_FILE;
+            }
+        }
+
+        if(lastFile == null)
+            return result;
+
+        Document doc = getDocumentForFile(lastFile);
+
+        if(doc == null)
+            return result;
+
+        NodeList nodes = doc.getElementsByTagName("record");
+
+        result += nodes.getLength();
+
+        return result;
+    }
+
+    /**
+     * Parses the XML file of <tt>segment</tt> and counts its records.
+     *
+     * @param segment the segment
+     * @return the number of records in the file of <tt>segment</tt>
+     */
+    public int countRecords(HistorySegment segment)
+    {
+        Document doc = getDocumentForFile(segment.getName());
+
+        return (doc == null)
+            ? 0 : doc.getElementsByTagName("record").getLength();
+    }
+
+    /**
+     * Parses the XML file of <tt>segment</tt> and returns the timestamps of
+     * its oldest and newest records.
+     *
+     * @param segment the segment
+     * @return the timestamps of the oldest and the newest records of
+     * <tt>segment</tt> or <tt>null</tt> if it is empty or cannot be parsed.
+     */
+    public long[] getTimeRange(HistorySegment segment)
+    {
+        Document doc = getDocumentForFile(segment.getName());
+
+        if(doc == null)
+            return null;
+
+        NodeList nodes = doc.getElementsByTagName("record");
+
+        if(nodes.getLength() == 0)
+            return null;
+
+        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+
+        for (int i = 0; i < nodes.getLength(); i++)
+        {
+            long timestamp = parseTimestamp(nodes.item(i), sdf).getTime();
+
+            min = Math.min(min, timestamp);
+            max = Math.max(max, timestamp);
+        }
+
+        return new long[] { min, max };
+    }
+
+    /**
+     * Parses the timestamp attribute of a record node.
+     *
+     * @param node the record node
+     * @param sdf the format used to parse the timestamp
+     * @return the timestamp of the record
+     */
+    static Date parseTimestamp(Node node, SimpleDateFormat sdf)
+    {
+        String ts = node.getAttributes().getNamedItem("timestamp")
+            .getNodeValue();
+        try
+        {
+            return sdf.parse(ts);
+        }
+        catch (ParseException e)
+        {
+            return new Date(Long.parseLong(ts));
+        }
+    }
+
+    /**
+     * Creates the <tt>HistoryRecord</tt> corresponding to a record node,
+     * skipping the properties without value.
+     *
+     * @param node the record node
+     * @param timestamp the timestamp of the record
+     * @return the <tt>HistoryRecord</tt> for the node
+     */
+    static HistoryRecord createRecord(Node node, Date timestamp)
+    {
+        NodeList propertyNodes = node.getChildNodes();
+        ArrayList<String> nameVals = new ArrayList<String>();
+        int len = propertyNodes.getLength();
+        for (int j = 0; j < len; j++)
+        {
+            Node propertyNode = propertyNodes.item(j);
+            if (propertyNode.getNodeType() == Node.ELEMENT_NODE)
+            {
+                Node nestedNode = propertyNode.getFirstChild();
+
+                if(nestedNode == null)
+                    continue;
+
+                nameVals.add(propertyNode.getNodeName());
+                // Get nested TEXT node's value and unescape xml chars, we
+                // have escaped when writing values
+                nameVals.add(
+                    StringEscapeUtils.unescapeXml(nestedNode.getNodeValue()));
+            }
+        }
+
+        String[] propertyNames = new String[nameVals.size() / 2];
+        String[] propertyValues = new String[propertyNames.length];
+        for (int j = 0; j < propertyNames.length; j++)
+        {
+            propertyNames[j] = nameVals.get(j * 2);
+            propertyValues[j] = nameVals.get(j * 2 + 1);
+        }
+
+        return new HistoryRecord(propertyNames, propertyValues, timestamp);
+    }
+
+    /**
+     * Creates a record element for the supplied <tt>doc</tt> and populates it
+     * with the property names from <tt>propertyNames</tt> and corresponding
+     * values from <tt>propertyValues</tt>. The <tt>date</tt> will be used
+     * for the record timestamp attribute.
+     * @param doc the parent of the element.
+     * @param propertyNames property names for the element
+     * @param propertyValues values for the properties
+     * @param date the of creation of the record
+     * @return the newly created element.
+     */
+    private Element createRecordElement(Document doc,
+                                        String[] propertyNames,
+                                        String[] propertyValues,
+                                        Date date)
+    {
+        Element elem = doc.createElement("record");
+        SimpleDateFormat sdf
+            = new SimpleDateFormat(DATE_FORMAT);
+        elem.setAttribute("timestamp", sdf.format(date));
+
+        for (int i = 0; i < propertyNames.length; i++)
+        {
+            String propertyName = propertyNames[i];
+
+            if(propertyName.endsWith(CDATA_SUFFIX))
+            {
+                if (propertyValues[i] != null)
+                {
+                    propertyName =
+                        propertyName.replaceFirst(CDATA_SUFFIX, "");
+
+                    Element propertyElement = doc.createElement(propertyName);
+
+                    Text value = doc.createCDATASection(
+                        XmlEscapers.xmlContentEscaper().escape(
+                            propertyValues[i].replaceAll("\0", " ")
+                        ));
+                    propertyElement.appendChild(value);
+
+                    elem.appendChild(propertyElement);
+                }
+            }
+            else
+            {
+                if (propertyValues[i] != null)
+                {
+                    Element propertyElement = doc.createElement(propertyName);
+
+                    Text value = doc.createTextNode(
+                        XmlEscapers.xmlContentEscaper().escape(
+                            propertyValues[i].replaceAll("\0", " ")
+                        ));
+                    propertyElement.appendChild(value);
+
+                    elem.appendChild(propertyElement);
+                }
+            }
+        }
+
+        return elem;
+    }
+
+    /**
+     * Finds the oldest node by timestamp in current root and deletes it.
+     * @param root where to search for records
+     */
+    private void removeFirstRecord(Node root)
+    {
+        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+
+        NodeList nodes = ((Element)root).getElementsByTagName("record");
+
+        Node oldestNode = null;
+        Date oldestTimeStamp = null;
+
+        Node node;
+        for (int i = 0; i < nodes.getLength(); i++)
+        {
+            node = nodes.item(i);
+
+            Date timestamp = parseTimestamp(node, sdf);
+
+            if(oldestNode == null
+                || (oldestTimeStamp.after(timestamp)))
+            {
+                oldestNode = node;
+                oldestTimeStamp = timestamp;
+                continue;
+            }
+
+        }
+
+        if(oldestNode != null)
+            root.removeChild(oldestNode);
+    }
+
+    /**
+     * If no file is currently loaded loads the last opened file. If it does not
+     * exists or if the current file was set - create a new file.
+     *
+     * @param date Date
+     * @param loadLastFile boolean
+     */
+    private void createNewDoc(Date date, boolean loadLastFile)
+    {
+        boolean loaded = false;
+
+        if (loadLastFile)
+        {
+            String file = null;
+
+            synchronized (this.historyFiles)
+            {
+                if (!this.historyFiles.isEmpty())
+                    file = this.historyFiles.lastKey();
+            }
+
+            if (file != null)
+            {
+                this.currentDoc = getDocumentForFile(file);
+                this.currentFile = file;
+                loaded = true;
+            }
+
+            // if something happened and file was not loaded
+            // then we must create new one
+            if(this.currentDoc == null)
+            {
+                loaded = false;
+            }
+        }
+
+        if (!loaded)
+        {
+            this.currentFile = Long.toString(date.getTime());
+            this.currentFile += ".xml";
+
+            this.currentDoc = createDocument(this.currentFile);
+        }
+
+        // TODO: Assert: Assert.assertNonNull(this.currentDoc,
+        // "There should be a current document created.");
+
+        this.currentDocElements = this.currentDoc.getFirstChild()
+                .getChildNodes().getLength();
+    }
+
+    private Document createDocument(String filename)
+    {
+        Document retVal = null;
+
+        synchronized (this.historyFiles)
+        {
+            if (this.historyFiles.containsKey(filename))
+            {
+                retVal = getDocumentForFile(filename);
+            } else {
+                retVal = this.historyServiceImpl.getDocumentBuilder()
+                        .newDocument();
+                retVal.appendChild(retVal.createElement("history"));
+
+                // the document is kept as the current one until it is written
+                this.historyFiles.put(
+                    filename, new File(this.directory, filename));
+            }
+        }
+
+        return retVal;
+    }
+
+    private void writeFile(String filename, Document doc)
+        throws InvalidParameterException, IOException
+    {
+        File file = new File(this.directory, filename);
+
+        synchronized (this.historyFiles)
+        {
+            if (!this.historyFiles.containsKey(filename))
+            {
+                throw new InvalidParameterException("The requested "
+                        + "filename does not exist in the document list.");
+            }
+
+            synchronized (doc)
+            {
+                XMLUtils.writeXML(doc, file);
+            }
+        }
+    }
+
+    private Document getDocumentForFile(String filename)
+        throws InvalidParameterException, RuntimeException
+    {
+        Document retVal = null;
+        File file;
+
+        synchronized (this.historyFiles)
+        {
+            file = this.historyFiles.get(filename);
+
+            if (file == null)
+            {
+                throw new InvalidParameterException("The requested "
+                        + "filename does not exist in the document list.");
+            }
+        }
+
+        // records are added to the current document before it is written
+        synchronized (this.docCreateLock)
+        {
+            if (filename.equals(this.currentFile) && this.currentDoc != null)
+                return this.currentDoc;
+        }
+
+        HistorySegmentCache cache = getCache();
+
+        if (cache != null)
+        {
+            retVal = (Document) cache.get(file);
+
+            // Document already loaded. Use it directly
+            if (retVal != null)
+                return retVal;
+        }
+
+        try {
+            retVal = this.historyServiceImpl.parse(file);
+        } catch (Exception e)
+        {
+            log.error("Error occured while parsing XML document.", e);
+
+            // will try to fix the xml file
+            retVal = getFixedDocument(file);
+
+            // if is not fixed return
+            if(retVal == null)
+                return null;
+        }
+
+        // Cache the loaded document for reuse if configured
+        if (cache != null)
+            cache.put(file, retVal, file.length() * DOCUMENT_SIZE_FACTOR);
+
+        return retVal;
+    }
+
+    /**
+     * Returns the cache of parsed documents.
+     *
+     * @return the cache of parsed documents or <tt>null</tt> if documents
+     * must not be cached.
+     */
+    private HistorySegmentCache getCache()
+    {
+        return historyServiceImpl.isCacheEnabled()
+            ? historyServiceImpl.getSegmentCache() : null;
+    }
+
+    /**
+     * Methods trying to fix histry xml files if corrupted
+     */
+    /**
+     * Returns the fixed document as xml Document
+     * if file cannot be fixed return null
+     *
+     * @param file File the file trying to fix
+     * @return Document the fixed doc
+     */
+    public Document getFixedDocument(File file)
+    {
+        log.info("Will try to fix file : " + file);
+        StringBuffer resultDocStr = new StringBuffer("<history>");
+
+        try
+        {
+            BufferedReader inReader = new BufferedReader(new FileReader(file));
+            String line = null;
+            while ( (line = inReader.readLine()) != null)
+            {
+                // find the next start of record node
+                if (line.indexOf("<record") == -1)
+                {
+                    continue;
+                }
+
+                String record = getRecordNodeString(line, inReader).toString();
+
+                if (record != null && isValidXML(record))
+                {
+                    resultDocStr.append(record);
+                }
+            }
+        }
+        catch (Exception ex1)
+        {
+            log.error("File cannot be fixed. Erro reading! " +
+                      ex1.getLocalizedMessage());
+        }
+
+        resultDocStr.append("</history>");
+
+        try
+        {
+            Document result =
+                this.historyServiceImpl.parse(new ByteArrayInputStream(
+                    resultDocStr.toString().getBytes("UTF-8")));
+
+            // parsing is ok . lets overwrite with correct values
+            log.trace("File fixed will write to disk!");
+            XMLUtils.writeXML(result, file);
+
+            return result;
+        }
+        catch (Exception ex)
+        {
+            log.error("Cannot parse history file " + file + " again", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the string containing the record node from the xml -
+     * the supplied Reader
+     * @param startingLine String
+     * @param inReader BufferedReader
+     * @return StringBuffer
+     */
+    private StringBuffer getRecordNodeString(
+        String startingLine, BufferedReader inReader)
+    {
+        try
+        {
+            StringBuffer result = new StringBuffer(startingLine);
+
+            String line = null;
+            while ( (line = inReader.readLine()) != null)
+            {
+                // find the next start of record node
+                if (line.indexOf("</record>") != -1)
+                {
+                    result.append(line);
+                    break;
+                }
+                result.append(line);
+            }
+
+            return result;
+        }
+        catch (IOException ex)
+        {
+            log.info("Error reading record " + ex.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether the given xml is valid
+     * @param str String
+     * @return boolean
+     */
+    private boolean isValidXML(String str)
+    {
+        try
+        {
+            this.historyServiceImpl.parse(
+                new ByteArrayInputStream(str.getBytes("UTF-8")));
+        }
+        catch (Exception ex)
+        {
+            log.error("not valid xml " + str + " " + ex.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -23,6 +23,7 @@
 import net.java.sip.communicator.service.callhistory.event.*;
 import net.java.sip.communicator.service.contactlist.*;
 import net.java.sip.communicator.service.filehistory.*;
+import net.java.sip.communicator.service.history.*;
 import net.java.sip.communicator.service.history.event.*;
 import net.java.sip.communicator.service.history.event.ProgressEvent;
 import net.java.sip.communicator.service.metahistory.*;
@@ -76,55 +77,38 @@
      * @throws RuntimeException
      */
     public Collection<Object> findByStartDate(String[] services,
-            Object descriptor, Date startDate)
+            Object descriptor, final Date startDate)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        return find(services, descriptor, new ServiceQuery(startDate, null, null)
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, MetaContact contact)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findByStartDate((MetaContact)descriptor, startDate));
-                }
-                else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findByStartDate((ChatRoom)descriptor, startDate));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                return mhs.findByStartDate(contact, startDate);
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, ChatRoom room)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findByStartDate(
-                        (MetaContact)descriptor, startDate));
+                return mhs.findByStartDate(room, startDate);
             }
-            else if(serv instanceof CallHistoryService)
+
+            @Override
+            public Collection<?> findFiles(
+                FileHistoryService fhs, MetaContact contact)
             {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(chs.findByStartDate(startDate));
-                chs.removeSearchProgressListener(listenWrapper);
+                return fhs.findByStartDate(contact, startDate);
             }
-        }
-        listenWrapper.fireLastProgress(startDate, null, null);
 
-        return result;
+            @Override
+            public Collection<?> findCalls(CallHistoryService chs)
+            {
+                return chs.findByStartDate(startDate);
+            }
+        });
     }
 
     /**
@@ -139,56 +123,38 @@ else if(serv instanceof CallHistoryService)
      * @throws RuntimeException
      */
     public Collection<Object> findByEndDate(String[] services,
-            Object descriptor, Date endDate)
+            Object descriptor, final Date endDate)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        return find(services, descriptor, new ServiceQuery(null, endDate, null)
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, MetaContact contact)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findByEndDate((MetaContact)descriptor, endDate));
-                }
-                else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findByEndDate((ChatRoom)descriptor, endDate));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                return mhs.findByEndDate(contact, endDate);
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, ChatRoom room)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findByEndDate(
-                        (MetaContact)descriptor, endDate));
+                return mhs.findByEndDate(room, endDate);
             }
-            else if(serv instanceof CallHistoryService)
+
+            @Override
+            public Collection<?> findFiles(
+                FileHistoryService fhs, MetaContact contact)
             {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(
-                    chs.findByEndDate(endDate));
-                chs.removeSearchProgressListener(listenWrapper);
+                return fhs.findByEndDate(contact, endDate);
             }
-        }
-        listenWrapper.fireLastProgress(null, endDate, null);
 
-        return result;
+            @Override
+            public Collection<?> findCalls(CallHistoryService chs)
+            {
+                return chs.findByEndDate(endDate);
+            }
+        });
     }
 
     /**
@@ -204,59 +170,38 @@ else if(serv instanceof CallHistoryService)
      * @throws RuntimeException
      */
     public Collection<Object> findByPeriod(String[] services,
-            Object descriptor, Date startDate, Date endDate)
+            Object descriptor, final Date startDate, final Date endDate)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        LinkedList<Object> result = new LinkedList<Object>();
-        for (int i = 0; i < services.length; i++)
+        return find(services, descriptor, new ServiceQuery(startDate, endDate, null)
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, MetaContact contact)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findByPeriod(
-                            (MetaContact)descriptor, startDate, endDate));
-                }
-                else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findByPeriod(
-                            (ChatRoom)descriptor, startDate, endDate));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                return mhs.findByPeriod(contact, startDate, endDate);
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, ChatRoom room)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findByPeriod(
-                        (MetaContact)descriptor, startDate, endDate));
+                return mhs.findByPeriod(room, startDate, endDate);
             }
-            else if(serv instanceof CallHistoryService)
+
+            @Override
+            public Collection<?> findFiles(
+                FileHistoryService fhs, MetaContact contact)
             {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(
-                    chs.findByPeriod(startDate, endDate));
-                chs.removeSearchProgressListener(listenWrapper);
+                return fhs.findByPeriod(contact, startDate, endDate);
             }
-        }
-        listenWrapper.fireLastProgress(startDate, endDate, null);
 
-        Collections.sort(result, new RecordsComparator());
-        return result;
+            @Override
+            public Collection<?> findCalls(CallHistoryService chs)
+            {
+                return chs.findByPeriod(startDate, endDate);
+            }
+        });
     }
 
     /**
@@ -296,75 +241,44 @@ public Collection<Object> findByPeriod(String[] services,
      * @throws RuntimeException
      */
     public Collection<Object> findByPeriod(String[] services,
-            Object descriptor, Date startDate, Date endDate,
-            String[] keywords, boolean caseSensitive)
+            Object descriptor, final Date startDate, final Date endDate,
+            final String[] keywords, final boolean caseSensitive)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        return find(services, descriptor, new ServiceQuery(startDate, endDate, keywords)
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, MetaContact contact)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findByPeriod(
-                            (MetaContact)descriptor,
-                            startDate, endDate,
-                            keywords, caseSensitive));
-                }
-                else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findByPeriod(
-                            (ChatRoom)descriptor,
-                            startDate, endDate,
-                            keywords, caseSensitive));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                return mhs.findByPeriod(
+                    contact, startDate, endDate, keywords, caseSensitive);
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, ChatRoom room)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findByPeriod(
-                        (MetaContact)descriptor,
-                        startDate, endDate,
-                        keywords, caseSensitive));
+                return mhs.findByPeriod(
+                    room, startDate, endDate, keywords, caseSensitive);
             }
-            else if(serv instanceof CallHistoryService)
-            {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                Collection<CallRecord> cs =
-                    chs.findByPeriod(startDate, endDate);
 
-                Iterator<CallRecord> iter = cs.iterator();
-                while (iter.hasNext())
-                {
-                    CallRecord callRecord = iter.next();
-
-                    if(matchCallPeer(
-                            callRecord.getPeerRecords(), keywords, caseSensitive))
-                        result.add(callRecord);
-                }
-                chs.removeSearchProgressListener(listenWrapper);
+            @Override
+            public Collection<?> findFiles(
+                FileHistoryService fhs, MetaContact contact)
+            {
+                return fhs.findByPeriod(
+                    contact, startDate, endDate, keywords, caseSensitive);
             }
-        }
-        listenWrapper.fireLastProgress(startDate, endDate, keywords);
 
-        return result;
+            @Override
+            public Collection<?> findCalls(CallHistoryService chs)
+            {
+                return matchCallPeer(
+                    chs.findByPeriod(startDate, endDate),
+                    keywords, caseSensitive);
+            }
+        });
     }
 
     /**
@@ -436,72 +350,41 @@ public Collection<Object> findByKeywords(String[] services,
      * @throws RuntimeException
      */
     public Collection<Object> findByKeywords(String[] services,
-            Object descriptor, String[] keywords, boolean caseSensitive)
+            Object descriptor, final String[] keywords,
+            final boolean caseSensitive)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        return find(services, descriptor, new ServiceQuery(null, null, keywords)
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, MetaContact contact)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findByKeywords(
-                            (MetaContact)descriptor, keywords, caseSensitive));
-                }
-                else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findByKeywords(
-                            (ChatRoom)descriptor,
-                            keywords, caseSensitive));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                return mhs.findByKeywords(contact, keywords, caseSensitive);
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, ChatRoom room)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findByKeywords(
-                        (MetaContact)descriptor,
-                        keywords, caseSensitive));
+                return mhs.findByKeywords(room, keywords, caseSensitive);
             }
-            else if(serv instanceof CallHistoryService)
+
+            @Override
+            public Collection<?> findFiles(
+                FileHistoryService fhs, MetaContact contact)
             {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
+                return fhs.findByKeywords(contact, keywords, caseSensitive);
+            }
 
+            @Override
+            public Collection<?> findCalls(CallHistoryService chs)
+            {
                 // this will get all call records
-                Collection<CallRecord> cs =
-                    chs.findByEndDate(new Date());
-
-                Iterator<CallRecord> iter = cs.iterator();
-                while (iter.hasNext())
-                {
-                    CallRecord callRecord = iter.next();
-
-                    if(matchCallPeer(
-                            callRecord.getPeerRecords(), keywords, caseSensitive))
-                        result.add(callRecord);
-                }
-                chs.removeSearchProgressListener(listenWrapper);
+                return matchCallPeer(
+                    chs.findByEndDate(new Date()), keywords, caseSensitive);
             }
-        }
-        listenWrapper.fireLastProgress(null, null, keywords);
-
-        return result;
+        });
     }
 
     /**
@@ -516,67 +399,38 @@ else if(serv instanceof CallHistoryService)
      * @throws RuntimeException
      */
     public Collection<Object> findLast(String[] services,
-            Object descriptor, int count)
+            Object descriptor, final int count)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        return find(services, descriptor, new ServiceQuery(null, null, null)
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, MetaContact contact)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findLast(
-                            (MetaContact)descriptor,
-                            count));
-                }
-                else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findLast(
-                            (ChatRoom)descriptor,
-                            count));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                return mhs.findLast(contact, count);
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, ChatRoom room)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findLast(
-                        (MetaContact)descriptor,
-                        count));
+                return mhs.findLast(room, count);
             }
-            else if(serv instanceof CallHistoryService)
+
+            @Override
+            public Collection<?> findFiles(
+                FileHistoryService fhs, MetaContact contact)
             {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
-                result.addAll(
-                    chs.findLast(count));
-                chs.removeSearchProgressListener(listenWrapper);
+                return fhs.findLast(contact, count);
             }
-        }
-        listenWrapper.fireLastProgress(null, null, null);
 
-        LinkedList<Object> resultAsList = new LinkedList<Object>(result);
-        int startIndex = resultAsList.size() - count;
-
-        if(startIndex < 0)
-            startIndex = 0;
-
-        return resultAsList.subList(startIndex, resultAsList.size());
+            @Override
+            public Collection<?> findCalls(CallHistoryService chs)
+            {
+                return chs.findLast(count);
+            }
+        }, count, true);
     }
 
     /**
@@ -592,79 +446,39 @@ else if(serv instanceof CallHistoryService)
      * @throws RuntimeException
      */
     public Collection<Object> findFirstMessagesAfter(String[] services,
-            Object descriptor, Date date, int count)
+            Object descriptor, final Date date, final int count)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        return find(services, descriptor, new ServiceQuery(date, null, null)
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, MetaContact contact)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
-
-                if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findFirstMessagesAfter(
-                            (MetaContact)descriptor,
-                            date,
-                            count));
-                }
-                else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findFirstMessagesAfter(
-                            (ChatRoom)descriptor,
-                            date,
-                            count));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+                return mhs.findFirstMessagesAfter(contact, date, count);
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, ChatRoom room)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findFirstRecordsAfter(
-                        (MetaContact)descriptor,
-                        date,
-                        count));
+                return mhs.findFirstMessagesAfter(room, date, count);
             }
-            else if(serv instanceof CallHistoryService)
-            {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
 
-                Collection<CallRecord> col = chs.findByStartDate(date);
-                if(col.size() > count)
-                {
-                    // before we make a sublist make sure there are sorted in the
-                    // right order
-                    List<CallRecord> l = new LinkedList<CallRecord>(col);
-                    Collections.sort(l, new RecordsComparator());
-                    result.addAll(l.subList(0, count));
-                }
-                else
-                    result.addAll(col);
-                chs.removeSearchProgressListener(listenWrapper);
+            @Override
+            public Collection<?> findFiles(
+                FileHistoryService fhs, MetaContact contact)
+            {
+                return fhs.findFirstRecordsAfter(contact, date, count);
             }
-        }
-        listenWrapper.fireLastProgress(date, null, null);
-        LinkedList<Object> resultAsList = new LinkedList<Object>(result);
 
-        int toIndex = count;
-        if(toIndex > resultAsList.size())
-            toIndex = resultAsList.size();
-
-        return resultAsList.subList(0, toIndex);
+            @Override
+            public Collection<?> findCalls(CallHistoryService chs)
+            {
+                // the merge keeps the first count records
+                return chs.findByStartDate(date);
+            }
+        }, count, false);
     }
 
     /**
@@ -680,77 +494,113 @@ else if(serv instanceof CallHistoryService)
      * @throws RuntimeException
      */
     public Collection<Object> findLastMessagesBefore(String[] services,
-            Object descriptor, Date date, int count)
+            Object descriptor, final Date date, final int count)
         throws RuntimeException
     {
-        MessageProgressWrapper listenWrapper
-            = new MessageProgressWrapper(services.length);
-
-        TreeSet<Object> result = new TreeSet<Object>(new RecordsComparator());
-        for (int i = 0; i < services.length; i++)
+        return find(services, descriptor, new ServiceQuery(date, null, null)
         {
-            String name = services[i];
-            Object serv = getService(name);
-            if(serv instanceof MessageHistoryService)
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, MetaContact contact)
             {
-                MessageHistoryService mhs =
-                    (MessageHistoryService)serv;
-                listenWrapper.setIx(i);
-                mhs.addSearchProgressListener(listenWrapper);
+                return mhs.findLastMessagesBefore(contact, date, count);
+            }
 
-                if(descriptor instanceof MetaContact)
-                {
-                    result.addAll(
-                        mhs.findLastMessagesBefore(
-                            (MetaContact)descriptor,
-                            date,
-                            count));
-                }
-                else if(descriptor instanceof ChatRoom)
-                {
-                    result.addAll(
-                        mhs.findLastMessagesBefore(
-                            (ChatRoom)descriptor,
-                            date,
-                            count));
-                }
-                mhs.removeSearchProgressListener(listenWrapper);
+            @Override
+            public Collection<?> findMessages(
+                MessageHistoryService mhs, ChatRoom room)
+            {
+                return mhs.findLastMessagesBefore(room, date, count);
             }
-            else if(serv instanceof FileHistoryService
-                    && descriptor instanceof MetaContact)
+
+            @Override
+            public Collection<?> findFiles(
+                FileHistoryService fhs, MetaContact contact)
             {
-                result.addAll(
-                    ((FileHistoryService)serv).findLastRecordsBefore(
-                        (MetaContact)descriptor,
-                        date,
-                        count));
+                return fhs.findLastRecordsBefore(contact, date, count);
             }
-            else if(serv instanceof CallHistoryService)
+
+            @Override
+            public Collection<?> findCalls(CallHistoryService chs)
             {
-                CallHistoryService chs = (CallHistoryService)serv;
-                listenWrapper.setIx(i);
-                chs.addSearchProgressListener(listenWrapper);
+                // the merge keeps the last count records
+                return chs.findByEndDate(date);
+            }
+        }, count, true);
+    }
+
+    /**
+     * Runs a query on all the services in parallel and returns all the found
+     * records.
+     *
+     * @param services the services classnames we will query
+     * @param descriptor CallPeer address(String),
+     *  MetaContact or ChatRoom.
+     * @param query the query run on each service
+     * @return the found records sorted by date
+     */
+    private List<Object> find(
+        String[] services, Object descriptor, ServiceQuery query)
+    {
+        return find(services, descriptor, query, Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Runs a query on all the services in parallel and returns the first or
+     * the last <tt>count</tt> found records.
+     *
+     * @param services the services classnames we will query
+     * @param descriptor CallPeer address(String),
+     *  MetaContact or ChatRoom.
+     * @param query the query run on each service
+     * @param count the maximum number of records to return
+     * @param last <tt>true</tt> to return the last <tt>count</tt> records,
+     * <tt>false</tt> to return the first ones
+     * @return the found records sorted by date
+     */
+    private List<Object> find(
+        final String[] services, final Object descriptor,
+        final ServiceQuery query, int count, boolean last)
+    {
+        List<Integer> indexes = new ArrayList<Integer>(services.length);
+
+        for (int i = 0; i < services.length; i++)
+            indexes.add(i);
 
-                Collection<CallRecord> col = chs.findByEndDate(date);
-                if(col.size() > count)
+        HistoryQueryExecutor.Query<Integer, Object> serviceQuery
+            = new HistoryQueryExecutor.Query<Integer, Object>()
+            {
+                public Collection<Object> execute(Integer i)
                 {
-                    List<CallRecord> l = new LinkedList<CallRecord>(col);
-                    result.addAll(l.subList(l.size() - count, l.size()));
+                    List<Object> records = new ArrayList<Object>(
+                        query.execute(
+                            getService(services[i]),
+                            descriptor,
+                            new MessageProgressWrapper(services.length, i)));
+
+                    // the services do not all return their records by date
+                    Collections.sort(records, new RecordsComparator());
+                    return records;
                 }
-                else
-                    result.addAll(col);
-                chs.removeSearchProgressListener(listenWrapper);
-            }
-        }
-        listenWrapper.fireLastProgress(date, null, null);
+            };
 
-        LinkedList<Object> resultAsList = new LinkedList<Object>(result);
-        int startIndex = resultAsList.size() - count;
+        List<Object> result;
+
+        if(last)
+        {
+            result = HistoryQueryExecutor.findLast(
+                indexes, serviceQuery, new RecordsComparator(), count);
+        }
+        else
+        {
+            result = HistoryQueryExecutor.findFirst(
+                indexes, serviceQuery, new RecordsComparator(), count);
+        }
 
-        if(startIndex < 0)
-            startIndex = 0;
+        new MessageProgressWrapper(services.length, 0).fireLastProgress(
+            query.startDate, query.endDate, query.keywords);
 
-        return resultAsList.subList(startIndex, resultAsList.size());
+        return result;
     }
 
     /**
@@ -855,6 +705,30 @@ else if(callPeer.getPeerAddress().toLowerCase().
        return false;
    }
 
+   /**
+    * Returns the call records having peers matching all the keywords.
+    *
+    * @param callRecords the call records
+    * @param keywords array of keywords
+    * @param caseSensitive is keywords search case sensitive
+    * @return the matching call records
+    */
+   private List<CallRecord> matchCallPeer(
+       Collection<CallRecord> callRecords,
+       String[] keywords,
+       boolean caseSensitive)
+   {
+       List<CallRecord> result = new ArrayList<CallRecord>();
+
+       for (CallRecord callRecord : callRecords)
+       {
+           if(matchCallPeer(
+                   callRecord.getPeerRecords(), keywords, caseSensitive))
+               result.add(callRecord);
+       }
+       return result;
+   }
+
     public void serviceChanged(ServiceEvent serviceEvent)
     {
         if(serviceEvent.getType() == ServiceEvent.UNREGISTERING)
@@ -929,21 +803,109 @@ public int compare(Object o1, Object o2)
         }
     }
 
+    /**
+     * A query run on each of the wrapped history services. The services
+     * are queried in parallel, each one reporting its progress through its
+     * own <tt>MessageProgressWrapper</tt>.
+     */
+    private static abstract class ServiceQuery
+    {
+        /**
+         * The start date of the query reported with the last progress.
+         */
+        final Date startDate;
+
+        /**
+         * The end date of the query reported with the last progress.
+         */
+        final Date endDate;
+
+        /**
+         * The keywords of the query reported with the last progress.
+         */
+        final String[] keywords;
+
+        ServiceQuery(Date startDate, Date endDate, String[] keywords)
+        {
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.keywords = keywords;
+        }
+
+        public abstract Collection<?> findMessages(
+            MessageHistoryService mhs, MetaContact contact);
+
+        public abstract Collection<?> findMessages(
+            MessageHistoryService mhs, ChatRoom room);
+
+        public abstract Collection<?> findFiles(
+            FileHistoryService fhs, MetaContact contact);
+
+        public abstract Collection<?> findCalls(CallHistoryService chs);
+
+        /**
+         * Runs the query on a service.
+         *
+         * @param serv the service
+         * @param descriptor CallPeer address(String),
+         *  MetaContact or ChatRoom.
+         * @param listenWrapper the progress listener of the service
+         * @return the found records
+         */
+        Collection<?> execute(Object serv, Object descriptor,
+            MessageProgressWrapper listenWrapper)
+        {
+            if(serv instanceof MessageHistoryService)
+            {
+                MessageHistoryService mhs =
+                    (MessageHistoryService)serv;
+                mhs.addSearchProgressListener(listenWrapper);
+                try
+                {
+                    if(descriptor instanceof MetaContact)
+                        return findMessages(mhs, (MetaContact)descriptor);
+                    else if(descriptor instanceof ChatRoom)
+                        return findMessages(mhs, (ChatRoom)descriptor);
+                }
+                finally
+                {
+                    mhs.removeSearchProgressListener(listenWrapper);
+                }
+            }
+            else if(serv instanceof FileHistoryService
+                    && descriptor instanceof MetaContact)
+            {
+                return findFiles(
+                    (FileHistoryService)serv, (MetaContact)descriptor);
+            }
+            else if(serv instanceof CallHistoryService)
+            {
+                CallHistoryService chs = (CallHistoryService)serv;
+                chs.addSearchProgressListener(listenWrapper);
+                try
+                {
+                    return findCalls(chs);
+                }
+                finally
+                {
+                    chs.removeSearchProgressListener(listenWrapper);
+                }
+            }
+            return Collections.emptyList();
+        }
+    }
+
     private class MessageProgressWrapper
         implements MessageHistorySearchProgressListener,
         CallHistorySearchProgressListener
     {
         private final int count;
 
-        private int ix;
+        private final int ix;
 
-        public MessageProgressWrapper(int count)
+        public MessageProgressWrapper(int count, int ix)
         {
             this.count = count;
-        }
-
-        public void setIx(int ix)
-        {
             this.ix = ix;
         }
 
@@ -23,6 +23,7 @@
 import net.java.sip.communicator.util.*;
 
 import org.jitsi.service.configuration.*;
+import org.jitsi.service.fileaccess.*;
 import org.jitsi.service.resources.*;
 import org.osgi.framework.*;
 
@@ -62,6 +63,11 @@
      */
     private static ConfigurationService configService;
 
+    /**
+     * The <tt>FileAccessService</tt> reference.
+     */
+    private static FileAccessService fileAccessService;
+
     /**
      * The <tt>BundleContext</tt> of the service.
      */
@@ -185,4 +191,22 @@ public static ConfigurationService getConfigurationService()
         }
         return configService;
     }
+
+    /**
+     * Returns the <tt>FileAccessService</tt> obtained from the bundle
+     * context.
+     * @return the <tt>FileAccessService</tt> obtained from the bundle
+     * context
+     */
+    public static FileAccessService getFileAccessService()
+    {
+        if(fileAccessService == null)
+        {
+            fileAccessService
+                = ServiceUtils.getService(
+                bundleContext,
+                FileAccessService.class);
+        }
+        return fileAccessService;
+    }
 }
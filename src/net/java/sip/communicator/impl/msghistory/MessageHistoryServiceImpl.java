@@ -137,35 +137,16 @@ public HistoryService getHistoryService()
      * @throws RuntimeException
      */
     public Collection<EventObject> findByStartDate( MetaContact contact,
-                                                    Date startDate)
+                                                    final Date startDate)
         throws RuntimeException
     {
-        HashSet<EventObject> result = new HashSet<EventObject>();
-
-        // get the readers for this contact
-        Map<Contact, HistoryReader> readers = getHistoryReaders(contact);
-
-        int recordsCount = countRecords(readers);
-
-        for (Map.Entry<Contact, HistoryReader> readerEntry : readers.entrySet())
+        return findInHistories(contact, new ReaderQuery()
         {
-            Contact item = readerEntry.getKey();
-            HistoryReader reader = readerEntry.getValue();
-
-            // add the progress listeners
-            addHistorySearchProgressListeners(reader, recordsCount);
-            Iterator<HistoryRecord> recs = reader.findByStartDate(startDate);
-            while (recs.hasNext())
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                result.add(
-                    convertHistoryRecordToMessageEvent(recs.next(), item));
+                return reader.findByStartDate(startDate);
             }
-        }
-
-        // now remove this listeners
-        removeHistorySearchProgressListeners(readers);
-
-        return result;
+        });
     }
 
     private void removeHistorySearchProgressListeners(
@@ -185,35 +166,16 @@ private void removeHistorySearchProgressListeners(
      * @throws RuntimeException
      */
     public Collection<EventObject> findByEndDate(   MetaContact contact,
-                                                    Date endDate)
+                                                    final Date endDate)
         throws RuntimeException
     {
-        HashSet<EventObject> result = new HashSet<EventObject>();
-
-        // get the readers for this contact
-        Map<Contact, HistoryReader> readers = getHistoryReaders(contact);
-
-        int recordsCount = countRecords(readers);
-
-        for (Map.Entry<Contact, HistoryReader> readerEntry : readers.entrySet())
+        return findInHistories(contact, new ReaderQuery()
         {
-            Contact item = readerEntry.getKey();
-            HistoryReader reader = readerEntry.getValue();
-
-            // add the progress listeners
-            addHistorySearchProgressListeners(reader, recordsCount);
-            Iterator<HistoryRecord> recs = reader.findByEndDate(endDate);
-            while (recs.hasNext())
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                result
-                    .add(convertHistoryRecordToMessageEvent(recs.next(), item));
+                return reader.findByEndDate(endDate);
             }
-        }
-
-        // now remove this listeners
-        removeHistorySearchProgressListeners(readers);
-
-        return result;
+        });
     }
 
     /**
@@ -227,38 +189,17 @@ public Collection<EventObject> findByEndDate(   MetaContact contact,
      * @throws RuntimeException
      */
     public Collection<EventObject> findByPeriod(MetaContact contact,
-                                                Date startDate,
-                                                Date endDate)
+                                                final Date startDate,
+                                                final Date endDate)
         throws RuntimeException
     {
-        HashSet<EventObject> result = new HashSet<EventObject>();
-
-        // get the readers for this contact
-        Map<Contact, HistoryReader> readers = getHistoryReaders(contact);
-
-        int recordsCount = countRecords(readers);
-
-        for (Map.Entry<Contact, HistoryReader> readerEntry : readers.entrySet())
+        return findInHistories(contact, new ReaderQuery()
         {
-            Contact item = readerEntry.getKey();
-            HistoryReader reader = readerEntry.getValue();
-
-            // add the progress listeners
-            addHistorySearchProgressListeners(reader, recordsCount);
-
-            Iterator<HistoryRecord> recs
-                = reader.findByPeriod(startDate, endDate);
-            while (recs.hasNext())
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                result
-                    .add(convertHistoryRecordToMessageEvent(recs.next(), item));
+                return reader.findByPeriod(startDate, endDate);
             }
-        }
-
-        // now remove this listeners
-        removeHistorySearchProgressListeners(readers);
-
-        return result;
+        });
     }
 
     /**
@@ -322,41 +263,17 @@ public Collection<EventObject> findByKeywords(  MetaContact contact,
      * @return Collection of MessageReceivedEvents or MessageDeliveredEvents
      * @throws RuntimeException
      */
-    public Collection<EventObject> findLast(MetaContact contact, int count)
+    public Collection<EventObject> findLast(MetaContact contact,
+                                            final int count)
         throws RuntimeException
     {
-        LinkedList<EventObject> result = new LinkedList<EventObject>();
-
-        Iterator<Contact> iter = contact.getContacts();
-        while (iter.hasNext())
+        return findLastInHistories(contact, new ReaderQuery()
         {
-            Contact item = iter.next();
-
-            try
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                History history = this.getHistory(null, item);
-
-                HistoryReader reader = history.getReader();
-                Iterator<HistoryRecord> recs = reader.findLast(count);
-                while (recs.hasNext())
-                {
-                    result.add(
-                        convertHistoryRecordToMessageEvent(recs.next(), item));
-
-                }
+                return reader.findLast(count);
             }
-            catch (IOException e)
-            {
-                logger.error("Could not read history", e);
-            }
-        }
-
-        Collections.sort(result, new MessageEventComparator<EventObject>());
-        int startIndex = result.size() - count;
-        if(startIndex < 0)
-            startIndex = 0;
-
-        return result.subList(startIndex, result.size());
+        }, count);
     }
 
     /**
@@ -396,104 +313,131 @@ private boolean hasMessages(HistoryID historyID,
      * @throws RuntimeException
      */
     Collection<EventObject> findRecentMessagesPerContact(
-            int count, String providerToFilter, String contactToFilter,
-            boolean isSMSEnabled)
+            int count, final String providerToFilter,
+            final String contactToFilter, final boolean isSMSEnabled)
         throws RuntimeException
     {
-        HashSet<EventObject> result = new HashSet<EventObject>();
-
         List<HistoryID> historyIDs=
             this.historyService.getExistingHistories(
                 new String[]{"messages", "default"});
 
         // make the filter provider string to reflect those that were
         // used when creating folders
-        String providerFilterStr = null;
-        if(providerToFilter != null)
-            providerFilterStr = HistoryID.readableHash(providerToFilter);
+        final String providerFilterStr = (providerToFilter == null)
+            ? null : HistoryID.readableHash(providerToFilter);
+
+        // the histories are read in parallel, the messages of the first
+        // count histories having one are returned
+        return HistoryQueryExecutor.findAny(
+            historyIDs,
+            new HistoryQueryExecutor.Query<HistoryID, EventObject>()
+            {
+                public Collection<EventObject> execute(HistoryID id)
+                {
+                    EventObject o = findRecentMessage(
+                        id, providerToFilter, providerFilterStr,
+                        contactToFilter, isSMSEnabled);
+
+                    if(o == null)
+                        return Collections.emptyList();
+                    else
+                        return Collections.singletonList(o);
+                }
+            },
+            count);
+    }
 
-        for(HistoryID id : historyIDs)
+    /**
+     * Returns the last message of a history matching the filters of
+     * <tt>findRecentMessagesPerContact</tt>.
+     *
+     * @param id the id of the history
+     * @param providerToFilter can be filtered by provider, or <tt>null</tt> to
+     * search for all providers
+     * @param providerFilterStr the hash of <tt>providerToFilter</tt> used in
+     * history ids
+     * @param contactToFilter can be filtered by contac, or <tt>null</tt> to
+     * search for all contacts
+     * @return the last message or <tt>null</tt> if there is none or the
+     * history is filtered
+     */
+    private EventObject findRecentMessage(HistoryID id,
+                                          String providerToFilter,
+                                          String providerFilterStr,
+                                          String contactToFilter,
+                                          boolean isSMSEnabled)
+    {
+        try
         {
-            if(result.size() >= count)
-                break;
+            // this history id is: "messages", localId, account, remoteId
+            if(id.getID().length != 4)
+                return null;
 
-            try
+            // filter by protocol provider
+            if(providerFilterStr != null
+                && !id.getID()[2].startsWith(providerFilterStr))
             {
-                // this history id is: "messages", localId, account, remoteId
-                if(id.getID().length != 4)
-                    continue;
+                return null;
+            }
 
-                // filter by protocol provider
-                if(providerFilterStr != null
-                    && !id.getID()[2].startsWith(providerFilterStr))
-                {
-                    continue;
-                }
+            if(contactToFilter != null
+                && !id.getID()[3].startsWith(contactToFilter))
+            {
+                return null;
+            }
 
-                if(contactToFilter != null
-                    && !id.getID()[3].startsWith(contactToFilter))
-                {
-                    continue;
-                }
+            // find contact or chatroom for historyID
+            Object descriptor = getContactOrRoomByID(
+                providerToFilter,
+                id.getID()[3],
+                id,
+                isSMSEnabled);
 
-                // find contact or chatroom for historyID
-                Object descriptor = getContactOrRoomByID(
-                    providerToFilter,
-                    id.getID()[3],
-                    id,
-                    isSMSEnabled);
+            // skip not found contacts, disabled accounts and hidden one
+            if(descriptor == null)
+                return null;
 
-                // skip not found contacts, disabled accounts and hidden one
-                if(descriptor == null)
-                    continue;
+            History history = this.historyService.createHistory(id,
+                    recordStructure);
 
-                History history = this.historyService.createHistory(id,
-                        recordStructure);
+            HistoryReader reader = history.getReader();
 
-                HistoryReader reader = history.getReader();
+            // find last by type
+            Iterator<HistoryRecord> recs;
 
-                // find last by type
-                Iterator<HistoryRecord> recs;
+            if(isSMSEnabled)
+            {
+                recs = reader.findLast(
+                    1,
+                    new String[]{MessageHistoryServiceImpl.MSG_SUBTYPE_SMS},
+                    MessageHistoryServiceImpl.STRUCTURE_NAMES[7],
+                    true);
+            }
+            else
+            {
+                recs = reader.findLast(1);
+            }
 
-                if(isSMSEnabled)
-                {
-                    recs = reader.findLast(
-                        1,
-                        new String[]{MessageHistoryServiceImpl.MSG_SUBTYPE_SMS},
-                        MessageHistoryServiceImpl.STRUCTURE_NAMES[7],
-                        true);
-                }
-                else
+            if (recs.hasNext())
+            {
+                if(descriptor instanceof Contact)
                 {
-                    recs = reader.findLast(1);
+                    return convertHistoryRecordToMessageEvent(
+                        recs.next(), (Contact) descriptor);
                 }
-
-                while (recs.hasNext())
+                if(descriptor instanceof ChatRoom)
                 {
-                    if(descriptor instanceof Contact)
-                    {
-                        EventObject o = convertHistoryRecordToMessageEvent(
-                            recs.next(), (Contact) descriptor);
-
-                        result.add(o);
-                    }
-                    if(descriptor instanceof ChatRoom)
-                    {
-                        EventObject o = convertHistoryRecordToMessageEvent(
-                            recs.next(), (ChatRoom) descriptor);
-
-                        result.add(o);
-                    }
-                    break;
+                    return convertHistoryRecordToMessageEvent(
+                        recs.next(), (ChatRoom) descriptor);
                 }
             }
-            catch(IOException ex)
-            {
-                logger.error("Could not read history", ex);
-            }
+        }
+        catch(IOException ex)
+        {
+            logger.error("Could not read history", ex);
         }
 
-        return result;
+        return null;
     }
 
     /**
@@ -686,44 +630,17 @@ else if(object instanceof MessageReceivedEvent)
      * @throws RuntimeException
      */
     public Collection<EventObject> findLastMessagesBefore(  MetaContact contact,
-                                                            Date date,
-                                                            int count)
+                                                            final Date date,
+                                                            final int count)
         throws RuntimeException
     {
-        LinkedList<EventObject> result = new LinkedList<EventObject>();
-
-        Iterator<Contact> iter = contact.getContacts();
-        while (iter.hasNext())
+        return findLastInHistories(contact, new ReaderQuery()
         {
-            Contact item = iter.next();
-
-            try
-            {
-                History history = this.getHistory(null, item);
-
-                HistoryReader reader = history.getReader();
-                Iterator<HistoryRecord> recs
-                    = reader.findLastRecordsBefore(date, count);
-                while (recs.hasNext())
-                {
-                    result.add(
-                        convertHistoryRecordToMessageEvent(recs.next(),
-                            item));
-
-                }
-            }
-            catch (IOException e)
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                logger.error("Could not read history", e);
+                return reader.findLastRecordsBefore(date, count);
             }
-        }
-
-        Collections.sort(result, new MessageEventComparator<EventObject>());
-        int startIndex = result.size() - count;
-        if(startIndex < 0)
-            startIndex = 0;
-
-        return result.subList(startIndex, result.size());
+        }, count);
     }
 
     /**
@@ -866,7 +783,7 @@ private History getHistoryForMultiChat(
      * @param contact Contact
      * @return Object
      */
-    private EventObject convertHistoryRecordToMessageEvent( HistoryRecord hr,
+    EventObject convertHistoryRecordToMessageEvent( HistoryRecord hr,
                                                             Contact contact)
     {
         MessageImpl msg = createMessageFromHistoryRecord(hr);
@@ -933,7 +850,7 @@ private EventObject convertHistoryRecordToMessageEvent( HistoryRecord hr,
      * @param room the chat room
      * @return Object
      */
-    private EventObject convertHistoryRecordToMessageEvent(
+    EventObject convertHistoryRecordToMessageEvent(
         HistoryRecord hr, ChatRoom room)
     {
         MessageImpl msg = createMessageFromHistoryRecord(hr);
@@ -1119,6 +1036,7 @@ private void stopRecentMessages()
             messageSourceServiceReg.unregister();
             messageSourceServiceReg = null;
 
+            this.messageSourceService.stop();
             this.messageSourceService = null;
         }
     }
@@ -1133,6 +1051,7 @@ public void stop(BundleContext bc)
         if (configService != null)
             configService.removePropertyChangeListener(msgHistoryPropListener);
 
+        stopRecentMessages();
         stopMessageHistoryService();
     }
 
@@ -1862,36 +1781,20 @@ private void removeHistorySearchProgressListeners(HistoryReader reader)
      * @return Collection of MessageReceivedEvents or MessageDeliveredEvents
      * @throws RuntimeException
      */
-    public Collection<EventObject> findByPeriod(MetaContact contact, Date startDate,
-                                   Date endDate, String[] keywords,
-                                   boolean caseSensitive)
+    public Collection<EventObject> findByPeriod(MetaContact contact,
+                                   final Date startDate, final Date endDate,
+                                   final String[] keywords,
+                                   final boolean caseSensitive)
         throws RuntimeException
     {
-        HashSet<EventObject> result = new HashSet<EventObject>();
-        // get the readers for this contact
-        Map<Contact, HistoryReader> readers = getHistoryReaders(contact);
-
-        int recordsCount = countRecords(readers);
-
-        for (Map.Entry<Contact, HistoryReader> readerEntry : readers.entrySet())
+        return findInHistories(contact, new ReaderQuery()
         {
-            Contact item = readerEntry.getKey();
-            HistoryReader reader = readerEntry.getValue();
-
-            // add the progress listeners
-            addHistorySearchProgressListeners(reader, recordsCount);
-            Iterator<HistoryRecord> recs = reader.findByPeriod(startDate, endDate, keywords,
-                                                SEARCH_FIELD, caseSensitive);
-            while (recs.hasNext())
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                result.add(convertHistoryRecordToMessageEvent(recs.next(), item));
+                return reader.findByPeriod(
+                    startDate, endDate, keywords, SEARCH_FIELD, caseSensitive);
             }
-        }
-
-        // now remove this listeners
-        removeHistorySearchProgressListeners(readers);
-
-        return result;
+        });
     }
 
     /**
@@ -1904,35 +1807,18 @@ public Collection<EventObject> findByPeriod(MetaContact contact, Date startDate,
      * @return Collection of MessageReceivedEvents or MessageDeliveredEvents
      * @throws RuntimeException
      */
-    public Collection<EventObject> findByKeyword(MetaContact contact, String keyword,
-                                    boolean caseSensitive)
+    public Collection<EventObject> findByKeyword(MetaContact contact,
+                                    final String keyword,
+                                    final boolean caseSensitive)
         throws RuntimeException
     {
-        HashSet<EventObject> result = new HashSet<EventObject>();
-        // get the readers for this contact
-        Map<Contact, HistoryReader> readers = getHistoryReaders(contact);
-
-        int recordsCount = countRecords(readers);
-
-        for (Map.Entry<Contact, HistoryReader> readerEntry : readers.entrySet())
+        return findInHistories(contact, new ReaderQuery()
         {
-            Contact item = readerEntry.getKey();
-            HistoryReader reader = readerEntry.getValue();
-
-            // add the progress listeners
-            addHistorySearchProgressListeners(reader, recordsCount);
-            Iterator<HistoryRecord> recs = reader.
-                findByKeyword(keyword, SEARCH_FIELD, caseSensitive);
-            while (recs.hasNext())
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                result.add(convertHistoryRecordToMessageEvent(recs.next(), item));
+                return reader.findByKeyword(keyword, SEARCH_FIELD, caseSensitive);
             }
-        }
-
-        // now remove this listeners
-        removeHistorySearchProgressListeners(readers);
-
-        return result;
+        });
     }
 
     /**
@@ -1945,35 +1831,18 @@ public Collection<EventObject> findByKeyword(MetaContact contact, String keyword
      * @return Collection of MessageReceivedEvents or MessageDeliveredEvents
      * @throws RuntimeException
      */
-    public Collection<EventObject> findByKeywords(MetaContact contact, String[] keywords,
-                                     boolean caseSensitive)
+    public Collection<EventObject> findByKeywords(MetaContact contact,
+                                     final String[] keywords,
+                                     final boolean caseSensitive)
         throws RuntimeException
     {
-        HashSet<EventObject> result = new HashSet<EventObject>();
-        // get the readers for this contact
-        Map<Contact, HistoryReader> readers = getHistoryReaders(contact);
-
-        int recordsCount = countRecords(readers);
-
-        for (Map.Entry<Contact, HistoryReader> readerEntry : readers.entrySet())
+        return findInHistories(contact, new ReaderQuery()
         {
-            Contact item = readerEntry.getKey();
-            HistoryReader reader = readerEntry.getValue();
-
-            // add the progress listeners
-            addHistorySearchProgressListeners(reader, recordsCount);
-            Iterator<HistoryRecord> recs = reader.
-                findByKeywords(keywords, SEARCH_FIELD, caseSensitive);
-            while (recs.hasNext())
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                result.add(convertHistoryRecordToMessageEvent(recs.next(), item));
+                return reader.findByKeywords(keywords, SEARCH_FIELD, caseSensitive);
             }
-        }
-
-        // now remove this listeners
-        removeHistorySearchProgressListeners(readers);
-
-        return result;
+        });
     }
 
     /**
@@ -2002,6 +1871,95 @@ private Map<Contact, HistoryReader> getHistoryReaders(MetaContact contact)
         return readers;
     }
 
+    /**
+     * Runs a query on the histories of all the contacts in the given
+     * MetaContact. The progress of the search is reported to the registered
+     * progress listeners.
+     *
+     * @param contact MetaContact
+     * @param query the query run on each history
+     * @return the found messages ordered by timestamp
+     */
+    private List<EventObject> findInHistories(
+        MetaContact contact, ReaderQuery query)
+    {
+        return findInHistories(getHistoryReaders(contact), query);
+    }
+
+    /**
+     * Runs a query on the history of a chat room. The progress of the search
+     * is reported to the registered progress listeners.
+     *
+     * @param room the chat room
+     * @param query the query run on the history
+     * @return the found messages ordered by timestamp
+     */
+    private List<EventObject> findInHistory(ChatRoom room, ReaderQuery query)
+    {
+        try
+        {
+            return findInHistories(
+                Collections.singletonMap(
+                    room, getHistoryForMultiChat(room).getReader()),
+                query);
+        }
+        catch (IOException e)
+        {
+            logger.error("Could not read history", e);
+            return new ArrayList<EventObject>();
+        }
+    }
+
+    /**
+     * Runs a query on history readers in parallel and merges the found
+     * messages by timestamp. The records of each reader are read a page at a
+     * time.
+     *
+     * @param readers the readers of the histories by their contact or chat
+     * room
+     * @param query the query run on each history
+     * @return the found messages ordered by timestamp
+     */
+    private List<EventObject> findInHistories(
+        Map<?, HistoryReader> readers, ReaderQuery query)
+    {
+        try
+        {
+            int recordsCount = countRecords(readers);
+
+            for (HistoryReader reader : readers.values())
+                addHistorySearchProgressListeners(reader, recordsCount);
+
+            return HistoryQueryExecutor.findAll(
+                readers.entrySet(),
+                new ReaderQueryAdapter(query),
+                new MessageEventComparator<EventObject>());
+        }
+        finally
+        {
+            removeHistorySearchProgressListeners(readers);
+        }
+    }
+
+    /**
+     * Runs a query on the histories of all the contacts in the given
+     * MetaContact in parallel and returns the last <tt>count</tt> messages.
+     *
+     * @param contact MetaContact
+     * @param query the query run on each history
+     * @param count messages count
+     * @return the last <tt>count</tt> found messages ordered by timestamp
+     */
+    private List<EventObject> findLastInHistories(
+        MetaContact contact, ReaderQuery query, int count)
+    {
+        return HistoryQueryExecutor.findLast(
+            getHistoryReaders(contact).entrySet(),
+            new ReaderQueryAdapter(query),
+            new MessageEventComparator<EventObject>(),
+            count);
+    }
+
     /**
      * Total count of records for supplied history readers will read through
      *
@@ -2029,32 +1987,17 @@ public int countRecords(Map<?, HistoryReader> readers)
      * @return Collection of MessageReceivedEvents or MessageDeliveredEvents
      * @throws RuntimeException
      */
-    public Collection<EventObject> findByStartDate(ChatRoom room, Date startDate)
+    public Collection<EventObject> findByStartDate(
+            ChatRoom room, final Date startDate)
         throws RuntimeException
     {
-        HashSet<EventObject> result = new HashSet<EventObject>();
-        try
+        return findInHistory(room, new ReaderQuery()
         {
-            // get the readers for this room
-            HistoryReader reader =
-                this.getHistoryForMultiChat(room).getReader();
-
-            // add the progress listeners
-            addHistorySearchProgressListeners(reader, 1);
-
-            Iterator<HistoryRecord> recs = reader.findByStartDate(startDate);
-            while (recs.hasNext())
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                result.add(convertHistoryRecordToMessageEvent(recs.next(), room));
+                return reader.findByStartDate(startDate);
             }
-
-            removeHistorySearchProgressListeners(reader);
-        } catch (IOException e)
-        {
-            logger.error("Could not read history", e);
-        }
-
-        return result;
+        });
     }
 
     /**
@@ -2066,32 +2009,17 @@ public Collection<EventObject> findByStartDate(ChatRoom room, Date startDate)
      * @return Collection of MessageReceivedEvents or MessageDeliveredEvents
      * @throws RuntimeException
      */
-    public Collection<EventObject> findByEndDate(ChatRoom room, Date endDate)
+    public Collection<EventObject> findByEndDate(
+            ChatRoom room, final Date endDate)
         throws RuntimeException
     {
-        HashSet<EventObject> result = new HashSet<EventObject>();
-        try
+        return findInHistory(room, new ReaderQuery()
         {
-            // get the readers for this room
-            HistoryReader reader =
-                this.getHistoryForMultiChat(room).getReader();
-
-            // add the progress listeners
-            addHistorySearchProgressListeners(reader, 1);
-
-            Iterator<HistoryRecord> recs = reader.findByEndDate(endDate);
-            while (recs.hasNext())
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                result.add(convertHistoryRecordToMessageEvent(recs.next(), room));
+                return reader.findByEndDate(endDate);
             }
-
-            removeHistorySearchProgressListeners(reader);
-        } catch (IOException e)
-        {
-            logger.error("Could not read history", e);
-        }
-
-        return result;
+        });
     }
 
     /**
@@ -2104,32 +2032,17 @@ public Collection<EventObject> findByEndDate(ChatRoom room, Date endDate)
      * @return Collection of MessageReceivedEvents or MessageDeliveredEvents
      * @throws RuntimeException
      */
-    public Collection<EventObject> findByPeriod(ChatRoom room, Date startDate, Date endDate)
+    public Collection<EventObject> findByPeriod(
+            ChatRoom room, final Date startDate, final Date endDate)
         throws RuntimeException
     {
-        HashSet<EventObject> result = new HashSet<EventObject>();
-        try
+        return findInHistory(room, new ReaderQuery()
         {
-            // get the readers for this room
-            HistoryReader reader =
-                this.getHistoryForMultiChat(room).getReader();
-
-            // add the progress listeners
-            addHistorySearchProgressListeners(reader, 1);
-
-            Iterator<HistoryRecord> recs = reader.findByPeriod(startDate, endDate);
-            while (recs.hasNext())
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                result.add(convertHistoryRecordToMessageEvent(recs.next(), room));
+                return reader.findByPeriod(startDate, endDate);
             }
-
-            removeHistorySearchProgressListeners(reader);
-        } catch (IOException e)
-        {
-            logger.error("Could not read history", e);
-        }
-
-        return result;
+        });
     }
 
     /**
@@ -2164,35 +2077,19 @@ public Collection<EventObject> findByPeriod(ChatRoom room,
      * @return Collection of MessageReceivedEvents or MessageDeliveredEvents
      * @throws RuntimeException
      */
-    public Collection<EventObject> findByPeriod(ChatRoom room, Date startDate,
-            Date endDate, String[] keywords, boolean caseSensitive)
+    public Collection<EventObject> findByPeriod(ChatRoom room,
+            final Date startDate, final Date endDate, final String[] keywords,
+            final boolean caseSensitive)
         throws RuntimeException
     {
-        HashSet<EventObject> result = new HashSet<EventObject>();
-        try
+        return findInHistory(room, new ReaderQuery()
         {
-            // get the readers for this room
-            HistoryReader reader =
-                this.getHistoryForMultiChat(room).getReader();
-
-            // add the progress listeners
-            addHistorySearchProgressListeners(reader, 1);
-
-            Iterator<HistoryRecord> recs
-                = reader.findByPeriod(startDate, endDate, keywords,
-                                        SEARCH_FIELD, caseSensitive);
-            while (recs.hasNext())
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                result.add(convertHistoryRecordToMessageEvent(recs.next(), room));
+                return reader.findByPeriod(
+                    startDate, endDate, keywords, SEARCH_FIELD, caseSensitive);
             }
-
-            removeHistorySearchProgressListeners(reader);
-        } catch (IOException e)
-        {
-            logger.error("Could not read history", e);
-        }
-
-        return result;
+        });
     }
 
     /**
@@ -2220,35 +2117,18 @@ public Collection<EventObject> findByKeyword(ChatRoom room, String keyword)
      * @return Collection of MessageReceivedEvents or MessageDeliveredEvents
      * @throws RuntimeException
      */
-    public Collection<EventObject> findByKeyword(ChatRoom room, String keyword,
-            boolean caseSensitive)
+    public Collection<EventObject> findByKeyword(ChatRoom room,
+            final String keyword, final boolean caseSensitive)
         throws RuntimeException
     {
-        HashSet<EventObject> result = new HashSet<EventObject>();
-        try
+        return findInHistory(room, new ReaderQuery()
         {
-            // get the readers for this room
-            HistoryReader reader =
-                this.getHistoryForMultiChat(room).getReader();
-
-            // add the progress listeners
-            addHistorySearchProgressListeners(reader, 1);
-
-            Iterator<HistoryRecord> recs = reader.
-                findByKeyword(keyword, SEARCH_FIELD, caseSensitive);
-            while (recs.hasNext())
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                result
-                    .add(convertHistoryRecordToMessageEvent(recs.next(), room));
+                return reader.findByKeyword(
+                    keyword, SEARCH_FIELD, caseSensitive);
             }
-
-            removeHistorySearchProgressListeners(reader);
-        } catch (IOException e)
-        {
-            logger.error("Could not read history", e);
-        }
-
-        return result;
+        });
     }
 
     /**
@@ -2278,35 +2158,18 @@ public Collection<EventObject> findByKeywords(  ChatRoom room,
      * @throws RuntimeException
      */
     public Collection<EventObject> findByKeywords(  ChatRoom room,
-                                                    String[] keywords,
-                                                    boolean caseSensitive)
+                                                    final String[] keywords,
+                                                    final boolean caseSensitive)
         throws RuntimeException
     {
-        HashSet<EventObject> result = new HashSet<EventObject>();
-        try
+        return findInHistory(room, new ReaderQuery()
         {
-            // get the readers for this room
-            HistoryReader reader =
-                this.getHistoryForMultiChat(room).getReader();
-
-            // add the progress listeners
-            addHistorySearchProgressListeners(reader, 1);
-
-            Iterator<HistoryRecord> recs = reader.
-                findByKeywords(keywords, SEARCH_FIELD, caseSensitive);
-            while (recs.hasNext())
+            public Iterator<HistoryRecord> find(HistoryReader reader)
             {
-                result
-                    .add(convertHistoryRecordToMessageEvent(recs.next(), room));
+                return reader.findByKeywords(
+                    keywords, SEARCH_FIELD, caseSensitive);
             }
-
-            removeHistorySearchProgressListeners(reader);
-        } catch (IOException e)
-        {
-            logger.error("Could not read history", e);
-        }
-
-        return result;
+        });
     }
 
     /**
@@ -2441,6 +2304,93 @@ public Collection<EventObject> findLastMessagesBefore(  ChatRoom room,
         return result.subList(startIndex, result.size());
     }
 
+    /**
+     * A search run on the history of a contact.
+     */
+    private interface ReaderQuery
+    {
+        /**
+         * Runs the search.
+         *
+         * @param reader the reader of the history
+         * @return the found records
+         */
+        public Iterator<HistoryRecord> find(HistoryReader reader);
+    }
+
+    /**
+     * Converts the records found in the history of a contact or a chat room
+     * to message events while they are iterated.
+     */
+    private class EventIterator
+        implements Iterator<EventObject>
+    {
+        /**
+         * The contact or the chat room of the history.
+         */
+        private final Object descriptor;
+
+        private final Iterator<HistoryRecord> records;
+
+        EventIterator(Object descriptor, Iterator<HistoryRecord> records)
+        {
+            this.descriptor = descriptor;
+            this.records = records;
+        }
+
+        public boolean hasNext()
+        {
+            return records.hasNext();
+        }
+
+        public EventObject next()
+        {
+            if(descriptor instanceof ChatRoom)
+            {
+                return convertHistoryRecordToMessageEvent(
+                    records.next(), (ChatRoom) descriptor);
+            }
+            return convertHistoryRecordToMessageEvent(
+                records.next(), (Contact) descriptor);
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Runs a <tt>ReaderQuery</tt> for the <tt>HistoryQueryExecutor</tt> and
+     * converts the found records to message events while the executor reads
+     * them.
+     */
+    private class ReaderQueryAdapter
+        implements HistoryQueryExecutor.Query<
+                        Map.Entry<?, HistoryReader>, EventObject>
+    {
+        private final ReaderQuery query;
+
+        ReaderQueryAdapter(ReaderQuery query)
+        {
+            this.query = query;
+        }
+
+        public Iterable<EventObject> execute(
+            final Map.Entry<?, HistoryReader> source)
+        {
+            final Iterator<HistoryRecord> recs = query.find(source.getValue());
+
+            return new Iterable<EventObject>()
+            {
+                public Iterator<EventObject> iterator()
+                {
+                    return new EventIterator(source.getKey(), recs);
+                }
+            };
+        }
+    }
+
     /**
      * A wrapper around HistorySearchProgressListener
      * that fires events for MessageHistorySearchProgressListener
@@ -2449,10 +2399,24 @@ public Collection<EventObject> findLastMessagesBefore(  ChatRoom room,
         implements HistorySearchProgressListener
     {
         private MessageHistorySearchProgressListener listener = null;
-        double currentReaderProgressRatio = 0;
-        double accumulatedRatio = 0;
-        double currentProgress = 0;
-        double lastHistoryProgress = 0;
+
+        /**
+         * The part of the whole search done by each reader, the readers may
+         * search in parallel.
+         */
+        private final Map<Object, Double> readerRatios
+            = new HashMap<Object, Double>();
+
+        /**
+         * The progress of each reader weighted by its part of the search.
+         */
+        private final Map<Object, Double> readerProgress
+            = new HashMap<Object, Double>();
+
+        /**
+         * The readers which reported their maximum progress.
+         */
+        private final Set<Object> finishedReaders = new HashSet<Object>();
 
         // used for more precise calculations with double values
         int raiser = 1000;
@@ -2462,18 +2426,17 @@ public Collection<EventObject> findLastMessagesBefore(  ChatRoom room,
             this.listener = listener;
         }
 
-        private void setCurrentValues(  HistoryReader currentReader,
-                                        int allRecords)
+        private synchronized void setCurrentValues(
+            HistoryReader currentReader, int allRecords)
         {
-            currentReaderProgressRatio =
-                    (double)currentReader.countRecords()/allRecords * raiser;
-            accumulatedRatio += currentReaderProgressRatio;
+            readerRatios.put(
+                currentReader,
+                (double)currentReader.countRecords()/allRecords * raiser);
         }
 
         public void progressChanged(ProgressEvent evt)
         {
             int progress = getProgressMapping(evt);
-            currentProgress = progress;
 
             listener.progressChanged(
                 new net.java.sip.communicator.service.msghistory.event.
@@ -2487,27 +2450,31 @@ public void progressChanged(ProgressEvent evt)
          * @param evt the progress event
          * @return int
          */
-        private int getProgressMapping(ProgressEvent evt)
+        private synchronized int getProgressMapping(ProgressEvent evt)
         {
-            double tmpHistoryProgress =
-                    currentReaderProgressRatio * evt.getProgress();
-
-            currentProgress += tmpHistoryProgress - lastHistoryProgress;
+            Double ratio = readerRatios.get(evt.getSource());
 
-            if(evt.getProgress()
-                    == HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE)
+            if(ratio != null)
             {
-                lastHistoryProgress = 0;
+                readerProgress.put(evt.getSource(), ratio * evt.getProgress());
 
-                // this is the last one and the last event fire the max
-                // there will be looses in currentProgress due to the devision
-                if((int)accumulatedRatio == raiser)
-                    currentProgress = raiser *
-                        MessageHistorySearchProgressListener
-                            .PROGRESS_MAXIMUM_VALUE;
+                if(evt.getProgress()
+                        == HistorySearchProgressListener.PROGRESS_MAXIMUM_VALUE)
+                    finishedReaders.add(evt.getSource());
+            }
+
+            double currentProgress = 0;
+            for (Double p : readerProgress.values())
+                currentProgress += p;
+
+            // when all the readers are done fire the max, there will be
+            // looses in currentProgress due to the devision
+            if(finishedReaders.size() == readerRatios.size())
+            {
+                currentProgress = raiser *
+                    MessageHistorySearchProgressListener
+                        .PROGRESS_MAXIMUM_VALUE;
             }
-            else
-                lastHistoryProgress = tmpHistoryProgress;
 
             return (int)currentProgress;
         }
@@ -2515,10 +2482,11 @@ private int getProgressMapping(ProgressEvent evt)
         /**
          * clear the values
          */
-        void clear()
+        synchronized void clear()
         {
-            currentProgress = 0;
-            lastHistoryProgress = 0;
+            readerRatios.clear();
+            readerProgress.clear();
+            finishedReaders.clear();
         }
     }
 
@@ -33,6 +33,7 @@
 import net.java.sip.communicator.service.protocol.event.*;
 
 import org.jitsi.service.configuration.*;
+import org.jitsi.service.fileaccess.*;
 import org.jitsi.utils.*;
 import org.jitsi.utils.logging.*;
 
@@ -105,33 +106,28 @@
     private int numberOfMessages = 10;
 
     /**
-     * The structure to save recent messages list.
+     * The name of the file of the recent messages index.
      */
-    private static final String[] STRUCTURE_NAMES
-        = new String[] { "provider", "contact", "timestamp", "ver"};
+    private static final String INDEX_FILE_NAME = "recent_messages.idx";
 
     /**
-     * The current version of recent messages. When changed the recent messages
-     * are recreated.
-     */
-    private static String RECENT_MSGS_VER = "2";
-
-    /**
-     * The structure.
+     * The history where the recent messages were kept before the recent
+     * messages index replaced it.
      */
-    private static final HistoryRecordStructure recordStructure =
-        new HistoryRecordStructure(STRUCTURE_NAMES);
+    private static final HistoryID LEGACY_HISTORY_ID
+        = HistoryID.createFromRawID(new String[] { "recent_messages" });
 
     /**
-     * Recent messages history ID.
+     * The current version of recent messages. When changed the recent messages
+     * are recreated.
      */
-    private static final HistoryID historyID = HistoryID.createFromRawID(
-        new String[] {  "recent_messages"});
+    private static String RECENT_MSGS_VER = "2";
 
     /**
-     * The cache for recent messages.
+     * The last message of the recently contacted contacts, saved so they
+     * can be shown without searching the histories.
      */
-    private History history = null;
+    private final RecentMessagesIndex recentMessagesIndex;
 
     /**
      * List of recent messages.
@@ -189,6 +185,61 @@
         MessageSourceContactPresenceStatus.MSG_SRC_CONTACT_ONLINE
             .setStatusIcon(MessageHistoryActivator.getResources()
                 .getImageInBytes("service.gui.icons.SMS_STATUS_ICON"));
+
+        File indexFile = null;
+        try
+        {
+            indexFile = MessageHistoryActivator.getFileAccessService()
+                .getPrivatePersistentFile(
+                    INDEX_FILE_NAME, FileCategory.PROFILE);
+        }
+        catch(Exception ex)
+        {
+            logger.error("Cannot create recent messages index", ex);
+        }
+
+        // the saved messages are only valid for the same version and type
+        // of messages
+        recentMessagesIndex = new RecentMessagesIndex(
+            indexFile,
+            NUMBER_OF_MSGS_IN_HISTORY,
+            RECENT_MSGS_VER + (isSMSEnabled ? "-sms" : ""));
+
+        purgeLegacyHistory();
+    }
+
+    /**
+     * Deletes the history where the recent messages were kept before the
+     * recent messages index. It only has the contacts and not their messages,
+     * so it is not migrated: the index is seeded by searching the histories
+     * of the contacts when it has nothing for a provider.
+     */
+    private void purgeLegacyHistory()
+    {
+        HistoryService historyService
+            = messageHistoryService.getHistoryService();
+
+        if(historyService == null
+            || !historyService.isHistoryExisting(LEGACY_HISTORY_ID))
+            return;
+
+        try
+        {
+            historyService.purgeLocallyStoredHistory(LEGACY_HISTORY_ID);
+        }
+        catch(IOException ex)
+        {
+            logger.error("Cannot delete recent_messages history", ex);
+        }
+    }
+
+    /**
+     * Saves the pending changes of the recent messages when the contact
+     * source is unloaded.
+     */
+    void stop()
+    {
+        recentMessagesIndex.close();
     }
 
     /**
@@ -274,7 +325,8 @@ public void updateRecentMessages()
     }
 
     /**
-     * Searches for entries in cached recent messages in history.
+     * Searches for entries in cached recent messages in the recent messages
+     * index.
      *
      * @param provider the provider which contact messages we will search
      * @param isStatusChanged is the search because of status changed
@@ -284,27 +336,89 @@ private List<ComparableEvtObj> getCachedRecentMessages(
         ProtocolProviderService provider, boolean isStatusChanged)
     {
         String providerID = provider.getAccountID().getAccountUniqueID();
-        List<String> recentMessagesContactIDs =
-            getRecentContactIDs(providerID,
+        List<RecentMessagesIndex.Entry> entries =
+            recentMessagesIndex.getEntries(providerID,
                 recentMessages.size() < numberOfMessages
                     ? null : oldestRecentMessage );
 
+        List<EventObject> res = new ArrayList<EventObject>();
+
+        for(RecentMessagesIndex.Entry entry : entries)
+        {
+            if(res.size() >= numberOfMessages)
+                break;
+
+            EventObject obj = createEventObject(provider, entry);
+
+            if(obj != null)
+                res.add(obj);
+        }
+
         List<ComparableEvtObj> cachedRecentMessages
             = new ArrayList<ComparableEvtObj>();
 
-        for(String contactID : recentMessagesContactIDs)
+        processEventObjects(res, cachedRecentMessages, isStatusChanged);
+
+        return cachedRecentMessages;
+    }
+
+    /**
+     * Creates the event of a message saved in the recent messages index.
+     *
+     * @param provider the provider of the message
+     * @param entry the saved message
+     * @return the event or <tt>null</tt> if the contact or chat room of the
+     * message is not found
+     */
+    private EventObject createEventObject(
+        ProtocolProviderService provider, RecentMessagesIndex.Entry entry)
+    {
+        if(entry.chatRoom)
         {
-            Collection<EventObject> res =
-                messageHistoryService.findRecentMessagesPerContact(
-                    numberOfMessages,
-                    providerID,
-                    contactID,
-                    isSMSEnabled);
-
-            processEventObjects(res, cachedRecentMessages, isStatusChanged);
+            OperationSetMultiUserChat opSetMuc
+                = provider.getOperationSet(OperationSetMultiUserChat.class);
+
+            if(opSetMuc == null)
+                return null;
+
+            ChatRoom room;
+            try
+            {
+                room = opSetMuc.findRoom(entry.address);
+            }
+            catch(Exception e)
+            {
+                return null;
+            }
+
+            if(room == null)
+                return null;
+
+            return messageHistoryService.convertHistoryRecordToMessageEvent(
+                entry.record, room);
         }
 
-        return cachedRecentMessages;
+        Contact contact = null;
+        OperationSetPersistentPresence opSetPresence
+            = provider.getOperationSet(OperationSetPersistentPresence.class);
+
+        if(opSetPresence != null)
+            contact = opSetPresence.findContactByID(entry.address);
+
+        if(contact == null && isSMSEnabled)
+        {
+            OperationSetSmsMessaging opSetSMS
+                = provider.getOperationSet(OperationSetSmsMessaging.class);
+
+            if(opSetSMS != null)
+                contact = opSetSMS.getContact(entry.address);
+        }
+
+        if(contact == null)
+            return null;
+
+        return messageHistoryService.convertHistoryRecordToMessageEvent(
+            entry.record, contact);
     }
 
     /**
@@ -390,7 +504,7 @@ private void addNewRecentMessages(
                 duplicates.add(msgToAdd);
 
                 // save update
-                updateRecentMessageToHistory(msgToAdd);
+                saveRecentMessage(msgToAdd);
             }
         }
         recentMessages.removeAll(duplicates);
@@ -519,7 +633,7 @@ private void handleProviderAddedInSeparateThread(
 
                 for(ComparableEvtObj msc : newMsc)
                 {
-                    saveRecentMessageToHistory(msc);
+                    saveRecentMessage(msc);
                 }
             }
             else
@@ -627,138 +741,6 @@ void handleProviderRemoved(ProtocolProviderService provider)
         }
     }
 
-    /**
-     * Searches for contact ids in history of recent messages.
-     * @param provider
-     * @param after
-     * @return
-     */
-    List<String> getRecentContactIDs(String provider, Date after)
-    {
-        List<String> res = new ArrayList<String>();
-
-        try
-        {
-            History history = getHistory();
-
-            if(history != null)
-            {
-                Iterator<HistoryRecord> recs
-                    = history.getReader().findLast(NUMBER_OF_MSGS_IN_HISTORY);
-                SimpleDateFormat sdf
-                    = new SimpleDateFormat(HistoryService.DATE_FORMAT);
-
-                while(recs.hasNext())
-                {
-                    HistoryRecord hr = recs.next();
-
-                    String contact = null;
-                    String recordProvider = null;
-                    Date timestamp = null;
-
-                    for (int i = 0; i < hr.getPropertyNames().length; i++)
-                    {
-                        String propName = hr.getPropertyNames()[i];
-
-                        if (propName.equals(STRUCTURE_NAMES[0]))
-                            recordProvider = hr.getPropertyValues()[i];
-                        else if (propName.equals(STRUCTURE_NAMES[1]))
-                            contact = hr.getPropertyValues()[i];
-                        else if (propName.equals(STRUCTURE_NAMES[2]))
-                        {
-                            try
-                            {
-                                timestamp
-                                    = sdf.parse(hr.getPropertyValues()[i]);
-                            }
-                            catch (ParseException e)
-                            {
-                                timestamp =
-                                    new Date(Long.parseLong(
-                                            hr.getPropertyValues()[i]));
-                            }
-                        }
-                    }
-
-                    if(recordProvider == null || contact == null)
-                        continue;
-
-                    if(after != null
-                        && timestamp != null
-                        && timestamp.before(after))
-                        continue;
-
-                    if(recordProvider.equals(provider))
-                        res.add(contact);
-                }
-            }
-        }
-        catch(IOException ex)
-        {
-            logger.error("cannot create recent_messages history", ex);
-        }
-
-        return res;
-    }
-
-    /**
-     * Returns the cached recent messages history.
-     * @return
-     * @throws IOException
-     */
-    private History getHistory()
-        throws IOException
-    {
-        synchronized(historyID)
-        {
-            HistoryService historyService =
-                MessageHistoryActivator.getMessageHistoryService()
-                    .getHistoryService();
-
-            if(history == null)
-            {
-                history = historyService.createHistory(
-                        historyID, recordStructure);
-
-                // lets check the version if not our version, re-create
-                // history (delete it)
-                HistoryReader reader = history.getReader();
-                boolean delete = false;
-                QueryResultSet<HistoryRecord> res = reader.findLast(1);
-                if(res != null && res.hasNext())
-                {
-                    HistoryRecord hr = res.next();
-                    if(hr.getPropertyValues().length >= 4)
-                    {
-                        if(!hr.getPropertyValues()[3].equals(RECENT_MSGS_VER))
-                            delete = true;
-                    }
-                    else
-                        delete = true;
-                }
-
-                if(delete)
-                {
-                    // delete it
-                    try
-                    {
-                        historyService.purgeLocallyStoredHistory(historyID);
-
-                        history = historyService.createHistory(
-                            historyID, recordStructure);
-                    }
-                    catch(IOException ex)
-                    {
-                        logger.error(
-                            "Cannot delete recent_messages history", ex);
-                    }
-                }
-            }
-
-            return history;
-        }
-    }
-
     /**
      * Returns the index of the source contact, in the list of recent messages.
      * @param messageSourceContact
@@ -901,7 +883,7 @@ private void handle(EventObject obj,
                 {
                     // update
                     msc.update(obj);
-                    updateRecentMessageToHistory(msc);
+                    saveRecentMessage(msc);
 
                     existingMsc = msc;
                 }
@@ -948,7 +930,7 @@ private void handle(EventObject obj,
             }
 
             // save
-            saveRecentMessageToHistory(newMsg);
+            saveRecentMessage(newMsg);
 
             // no query nothing to fire
             if(recentQuery == null)
@@ -968,146 +950,16 @@ private void handle(EventObject obj,
     }
 
     /**
-     * Adds recent message in history.
+     * Saves recent message in the recent messages index, replacing the
+     * message saved for the same contact.
      */
-    private void saveRecentMessageToHistory(ComparableEvtObj msc)
+    private void saveRecentMessage(ComparableEvtObj msc)
     {
-        synchronized(historyID)
-        {
-            // and create it
-            try
-            {
-                History history = getHistory();
-                HistoryWriter writer = history.getWriter();
-
-                SimpleDateFormat sdf
-                    = new SimpleDateFormat(HistoryService.DATE_FORMAT);
-
-                writer.addRecord(
-                    new String[]
-                        {
-                            msc.getProtocolProviderService()
-                                .getAccountID().getAccountUniqueID(),
-                            msc.getContactAddress(),
-                            sdf.format(msc.getTimestamp()),
-                            RECENT_MSGS_VER
-                        },
-                    NUMBER_OF_MSGS_IN_HISTORY);
-            }
-            catch(IOException ex)
-            {
-                logger.error("cannot create recent_messages history", ex);
-                return;
-            }
-        }
-    }
-
-    /**
-     * Updates recent message in history.
-     */
-    private void updateRecentMessageToHistory(final ComparableEvtObj msg)
-    {
-        synchronized(historyID)
-        {
-            // and create it
-            try
-            {
-                History history = getHistory();
-
-                HistoryWriter writer = history.getWriter();
-
-                writer.updateRecord(
-                    new HistoryWriter.HistoryRecordUpdater()
-                    {
-                        HistoryRecord hr;
-
-                        @Override
-                        public void setHistoryRecord(
-                            HistoryRecord historyRecord)
-                        {
-                            this.hr = historyRecord;
-                        }
-
-                        @Override
-                        public boolean isMatching()
-                        {
-                            boolean providerFound = false;
-                            boolean contactFound = false;
-                            for(int i = 0;
-                                i < hr.getPropertyNames().length;
-                                i++)
-                            {
-                                String propName = hr.getPropertyNames()[i];
-
-                                if(propName.equals(STRUCTURE_NAMES[0]))
-                                {
-                                    if(msg.getProtocolProviderService()
-                                        .getAccountID().getAccountUniqueID()
-                                        .equals(hr.getPropertyValues()[i]))
-                                    {
-                                        providerFound = true;
-                                    }
-                                }
-                                else if(propName.equals(STRUCTURE_NAMES[1]))
-                                {
-                                    if(msg.getContactAddress()
-                                        .equals(hr.getPropertyValues()[i]))
-                                    {
-                                        contactFound = true;
-                                    }
-                                }
-                            }
-
-
-                            return contactFound && providerFound;
-                        }
-
-                        @Override
-                        public Map<String, String> getUpdateChanges()
-                        {
-                            HashMap<String, String> map
-                                = new HashMap<String, String>();
-                            SimpleDateFormat sdf
-                                = new SimpleDateFormat(
-                                        HistoryService.DATE_FORMAT);
-
-                            for(int i = 0;
-                                i < hr.getPropertyNames().length;
-                                i++)
-                            {
-                                String propName = hr.getPropertyNames()[i];
-
-                                if(propName.equals(STRUCTURE_NAMES[0]))
-                                {
-                                    map.put(
-                                        propName,
-                                        msg.getProtocolProviderService()
-                                            .getAccountID()
-                                            .getAccountUniqueID());
-                                }
-                                else if(propName.equals(STRUCTURE_NAMES[1]))
-                                {
-                                    map.put(propName, msg.getContactAddress());
-                                }
-                                else if(propName.equals(STRUCTURE_NAMES[2]))
-                                {
-                                    map.put(propName,
-                                        sdf.format(msg.getTimestamp()));
-                                }
-                                else if(propName.equals(STRUCTURE_NAMES[3]))
-                                    map.put(propName, RECENT_MSGS_VER);
-                            }
-
-                            return map;
-                        }
-                    });
-            }
-            catch(IOException ex)
-            {
-                logger.error("cannot create recent_messages history", ex);
-                return;
-            }
-        }
+        recentMessagesIndex.put(
+            msc.getProtocolProviderService().getAccountID()
+                .getAccountUniqueID(),
+            msc.getContactAddress(),
+            msc.getEventObject());
     }
 
     @Override
@@ -1304,6 +1156,7 @@ public void eraseLocallyStoredHistory()
             toRemove = new ArrayList<ComparableEvtObj>(recentMessages);
 
             recentMessages.clear();
+            recentMessagesIndex.clear();
         }
 
         if(recentQuery != null)
@@ -1341,6 +1194,9 @@ public void eraseLocallyStoredHistory(MetaContact contact)
                         toRemove.add(msc);
                     }
                 }
+
+                recentMessagesIndex.remove(
+                    provider.getAccountID().getAccountUniqueID(), id);
             }
 
             recentMessages.removeAll(toRemove);
@@ -1373,6 +1229,10 @@ public void eraseLocallyStoredHistory(ChatRoom room)
                 }
             }
 
+            recentMessagesIndex.remove(
+                room.getParentProvider().getAccountID().getAccountUniqueID(),
+                room.getIdentifier());
+
             if(toRemove == null)
                 return;
 
@@ -0,0 +1,536 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.msghistory;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+import net.java.sip.communicator.service.history.*;
+import net.java.sip.communicator.service.history.records.*;
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
+
+import org.jitsi.utils.logging.*;
+
+/**
+ * The last message exchanged with each recently contacted contact or chat
+ * room, saved in a single small file. The recent messages contact source
+ * reads it when a provider is added instead of searching the histories of
+ * all the contacts.
+ * <p>
+ * Each message is kept as a record with the structure of the message
+ * history, its content shortened to a preview, so it can be converted to an
+ * event like the records read from the history. It holds at most
+ * <tt>maxEntries</tt> messages. The changes are saved together a few seconds
+ * after the first of them, or when the index is flushed or closed, so a burst
+ * of messages rewrites the file once.
+ */
+class RecentMessagesIndex
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger
+        = Logger.getLogger(RecentMessagesIndex.class);
+
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The maximum number of characters of a message kept as preview.
+     */
+    static final int PREVIEW_LENGTH = 256;
+
+    /**
+     * The number of milliseconds after a change before the index is saved.
+     */
+    static final long SAVE_DELAY = 5000;
+
+    /**
+     * The file holding the index or <tt>null</tt> if the index is kept in
+     * memory only.
+     */
+    private final File file;
+
+    /**
+     * The maximum number of messages in the index.
+     */
+    private final int maxEntries;
+
+    /**
+     * Describes what the saved messages were selected for, the index is
+     * discarded when it changes.
+     */
+    private final String tag;
+
+    /**
+     * The messages by account and address.
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * The number of milliseconds after a change before the index is saved.
+     */
+    private final long saveDelay;
+
+    /**
+     * The timer saving the changes, created with the first change.
+     */
+    private Timer saveTimer;
+
+    /**
+     * The pending save of the changes or <tt>null</tt> if the saved index is
+     * up to date.
+     */
+    private TimerTask saveTask;
+
+    /**
+     * Creates the index and loads it from <tt>file</tt>.
+     *
+     * @param file the file holding the index or <tt>null</tt> to keep the
+     * index in memory only
+     * @param maxEntries the maximum number of messages in the index
+     * @param tag describes what the messages are selected for, a saved index
+     * with another tag is discarded
+     */
+    RecentMessagesIndex(File file, int maxEntries, String tag)
+    {
+        this(file, maxEntries, tag, SAVE_DELAY);
+    }
+
+    /**
+     * Creates the index and loads it from <tt>file</tt>.
+     *
+     * @param file the file holding the index or <tt>null</tt> to keep the
+     * index in memory only
+     * @param maxEntries the maximum number of messages in the index
+     * @param tag describes what the messages are selected for, a saved index
+     * with another tag is discarded
+     * @param saveDelay the number of milliseconds after a change before the
+     * index is saved
+     */
+    RecentMessagesIndex(File file, int maxEntries, String tag, long saveDelay)
+    {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.tag = tag;
+        this.saveDelay = saveDelay;
+
+        load();
+    }
+
+    /**
+     * Returns the saved messages of an account, the most recent first.
+     *
+     * @param accountID the unique id of the account
+     * @param after the date before which messages are skipped or
+     * <tt>null</tt>
+     * @return the saved messages
+     */
+    synchronized List<Entry> getEntries(String accountID, Date after)
+    {
+        List<Entry> result = new ArrayList<Entry>();
+
+        for (Entry e : entries.values())
+        {
+            if(!e.accountID.equals(accountID))
+                continue;
+
+            if(after != null && e.record.getTimestamp().before(after))
+                continue;
+
+            result.add(e);
+        }
+
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Saves the last message exchanged with a contact or in a chat room.
+     *
+     * @param accountID the unique id of the account
+     * @param address the address of the contact or the chat room
+     * @param evt the event of the message
+     */
+    void put(String accountID, String address, EventObject evt)
+    {
+        Entry entry = createEntry(accountID, address, evt);
+
+        if(entry != null)
+            put(entry);
+    }
+
+    /**
+     * Saves the last message exchanged with a contact or in a chat room.
+     *
+     * @param entry the message
+     */
+    synchronized void put(Entry entry)
+    {
+        entries.put(entry.getKey(), entry);
+
+        if(entries.size() > maxEntries)
+        {
+            List<Entry> sorted = new ArrayList<Entry>(entries.values());
+
+            Collections.sort(sorted);
+            for (Entry e : sorted.subList(maxEntries, sorted.size()))
+                entries.remove(e.getKey());
+        }
+
+        scheduleSave();
+    }
+
+    /**
+     * Removes the message exchanged with a contact or in a chat room.
+     *
+     * @param accountID the unique id of the account
+     * @param address the address of the contact or the chat room
+     */
+    synchronized void remove(String accountID, String address)
+    {
+        if(entries.remove(getKey(accountID, address)) != null)
+            scheduleSave();
+    }
+
+    /**
+     * Removes all the messages.
+     */
+    synchronized void clear()
+    {
+        entries.clear();
+        scheduleSave();
+    }
+
+    /**
+     * Saves the pending changes now.
+     */
+    synchronized void flush()
+    {
+        if(saveTask == null)
+            return;
+
+        saveTask.cancel();
+        saveTask = null;
+        save();
+    }
+
+    /**
+     * Saves the pending changes and stops the timer saving them.
+     */
+    synchronized void close()
+    {
+        flush();
+
+        if(saveTimer != null)
+        {
+            saveTimer.cancel();
+            saveTimer = null;
+        }
+    }
+
+    /**
+     * Schedules the save of the changes, unless a save is already pending
+     * and will include them.
+     */
+    private void scheduleSave()
+    {
+        if(file == null || saveTask != null)
+            return;
+
+        if(saveTimer == null)
+            saveTimer = new Timer("RecentMessagesIndex", true);
+
+        saveTask = new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                synchronized (RecentMessagesIndex.this)
+                {
+                    // flushed or rescheduled in the meantime
+                    if(saveTask != this)
+                        return;
+
+                    saveTask = null;
+                    save();
+                }
+            }
+        };
+        saveTimer.schedule(saveTask, saveDelay);
+    }
+
+    /**
+     * Reads the index from its file. A missing, damaged or outdated file
+     * leaves the index empty.
+     */
+    private void load()
+    {
+        if(file == null || !file.exists())
+            return;
+
+        try
+        {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+            try
+            {
+                if(in.readInt() != VERSION || !tag.equals(in.readUTF()))
+                    return;
+
+                int count = in.readInt();
+                String[] names = MessageHistoryServiceImpl.STRUCTURE_NAMES;
+
+                for (int i = 0; i < count; i++)
+                {
+                    String accountID = in.readUTF();
+                    String address = in.readUTF();
+                    boolean chatRoom = in.readBoolean();
+                    Date timestamp = new Date(in.readLong());
+                    String[] values = new String[names.length];
+
+                    for (int j = 0; j < values.length; j++)
+                        values[j] = in.readBoolean() ? in.readUTF() : null;
+
+                    Entry e = new Entry(
+                        accountID,
+                        address,
+                        chatRoom,
+                        new HistoryRecord(names, values, timestamp));
+
+                    entries.put(e.getKey(), e);
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot read recent messages index " + file, e);
+            entries.clear();
+        }
+    }
+
+    /**
+     * Writes the index to its file. The index is written to a temporary file
+     * first so a failure never leaves a partial file behind.
+     */
+    private void save()
+    {
+        if(file == null)
+            return;
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+
+        try
+        {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try
+            {
+                out.writeInt(VERSION);
+                out.writeUTF(tag);
+                out.writeInt(entries.size());
+                for (Entry e : entries.values())
+                {
+                    out.writeUTF(e.accountID);
+                    out.writeUTF(e.address);
+                    out.writeBoolean(e.chatRoom);
+                    out.writeLong(e.record.getTimestamp().getTime());
+                    for (String value : e.record.getPropertyValues())
+                    {
+                        out.writeBoolean(value != null);
+                        if(value != null)
+                            out.writeUTF(value);
+                    }
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            file.delete();
+            if(!tmpFile.renameTo(file))
+                throw new IOException("Cannot rename " + tmpFile);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot write recent messages index " + file, e);
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Creates the entry saving the message of an event, with the values the
+     * message history writes for it.
+     *
+     * @param accountID the unique id of the account
+     * @param address the address of the contact or the chat room
+     * @param evt the event of the message
+     * @return the entry or <tt>null</tt> if the event is not a message event
+     */
+    private static Entry createEntry(
+        String accountID, String address, EventObject evt)
+    {
+        String direction;
+        Message message;
+        Date timestamp;
+        String from = null;
+        String subType = null;
+        boolean chatRoom = false;
+
+        if(evt instanceof MessageDeliveredEvent)
+        {
+            MessageDeliveredEvent e = (MessageDeliveredEvent) evt;
+
+            direction = "out";
+            message = e.getSourceMessage();
+            timestamp = e.getTimestamp();
+            if(e.isSmsMessage())
+                subType = MessageHistoryServiceImpl.MSG_SUBTYPE_SMS;
+        }
+        else if(evt instanceof MessageReceivedEvent)
+        {
+            MessageReceivedEvent e = (MessageReceivedEvent) evt;
+
+            direction = "in";
+            message = e.getSourceMessage();
+            timestamp = e.getTimestamp();
+            if(e.getEventType() == MessageReceivedEvent.SMS_MESSAGE_RECEIVED)
+                subType = MessageHistoryServiceImpl.MSG_SUBTYPE_SMS;
+        }
+        else if(evt instanceof ChatRoomMessageDeliveredEvent)
+        {
+            ChatRoomMessageDeliveredEvent e
+                = (ChatRoomMessageDeliveredEvent) evt;
+
+            direction = "out";
+            message = e.getMessage();
+            timestamp = e.getTimestamp();
+            chatRoom = true;
+        }
+        else if(evt instanceof ChatRoomMessageReceivedEvent)
+        {
+            ChatRoomMessageReceivedEvent e
+                = (ChatRoomMessageReceivedEvent) evt;
+
+            direction = "in";
+            message = e.getMessage();
+            timestamp = e.getTimestamp();
+            if(e.getSourceChatRoomMember() != null)
+                from = e.getSourceChatRoomMember().getContactAddress();
+            chatRoom = true;
+        }
+        else
+            return null;
+
+        String content = message.getContent();
+
+        if(content != null && content.length() > PREVIEW_LENGTH)
+            content = content.substring(0, PREVIEW_LENGTH);
+
+        SimpleDateFormat sdf = new SimpleDateFormat(HistoryService.DATE_FORMAT);
+
+        return new Entry(
+            accountID,
+            address,
+            chatRoom,
+            new HistoryRecord(
+                MessageHistoryServiceImpl.STRUCTURE_NAMES,
+                new String[]
+                    {
+                        direction, content, message.getContentType(),
+                        message.getEncoding(), message.getMessageUID(),
+                        chatRoom ? from : message.getSubject(),
+                        sdf.format(timestamp), subType
+                    },
+                timestamp));
+    }
+
+    /**
+     * Returns the key of the message of a contact or chat room.
+     *
+     * @param accountID the unique id of the account
+     * @param address the address of the contact or the chat room
+     * @return the key
+     */
+    private static String getKey(String accountID, String address)
+    {
+        return accountID + '\n' + address;
+    }
+
+    /**
+     * The last message exchanged with a contact or in a chat room.
+     */
+    static class Entry
+        implements Comparable<Entry>
+    {
+        /**
+         * The unique id of the account.
+         */
+        final String accountID;
+
+        /**
+         * The address of the contact or the chat room.
+         */
+        final String address;
+
+        /**
+         * Whether the message was exchanged in a chat room.
+         */
+        final boolean chatRoom;
+
+        /**
+         * The message as recorded in the message history.
+         */
+        final HistoryRecord record;
+
+        Entry(String accountID, String address, boolean chatRoom,
+            HistoryRecord record)
+        {
+            this.accountID = accountID;
+            this.address = address;
+            this.chatRoom = chatRoom;
+            this.record = record;
+        }
+
+        /**
+         * Returns the key of this entry in the index.
+         * @return the key of this entry in the index.
+         */
+        String getKey()
+        {
+            return RecentMessagesIndex.getKey(accountID, address);
+        }
+
+        /**
+         * Orders the most recent message first.
+         */
+        public int compareTo(Entry o)
+        {
+            return o.record.getTimestamp().compareTo(record.getTimestamp());
+        }
+    }
+}
@@ -71,10 +71,24 @@
     private String chatSubject = "";
 
     /**
-     * list of members of this chatRoom.
+     * list of members of this chatRoom, by nick. Nicks are also indexed
+     * ignoring case as the server compares them, using the RFC 1459 case
+     * mapping in which <tt>[]\~</tt> are the upper case of <tt>{}|^</tt>.
      */
-    private final Hashtable<String, ChatRoomMember> chatRoomMembers
-        = new Hashtable<String, ChatRoomMember>();
+    private final ChatRoomMemberRegistry<String, ChatRoomMember>
+        chatRoomMembers
+            = new ChatRoomMemberRegistry<String, ChatRoomMember>()
+            {
+                @Override
+                protected String normalize(final String name)
+                {
+                    return name == null
+                        ? null
+                        : name.toLowerCase(Locale.ENGLISH)
+                            .replace('[', '{').replace(']', '}')
+                            .replace('\\', '|').replace('~', '^');
+                }
+            };
 
     /**
      * Listeners that will be notified of changes in member status in the
@@ -871,7 +885,13 @@ public void removeMessageListener(final ChatRoomMessageListener listener)
      */
     public ChatRoomMember getChatRoomMember(final String memberID)
     {
-        return chatRoomMembers.get(memberID);
+        final ChatRoomMember member = chatRoomMembers.get(memberID);
+        if (member != null)
+        {
+            return member;
+        }
+        // the server may spell the nick with a different case
+        return chatRoomMembers.getByName(memberID);
     }
 
     /**
@@ -879,10 +899,7 @@ public ChatRoomMember getChatRoomMember(final String memberID)
      */
     protected void clearChatRoomMemberList()
     {
-        synchronized (chatRoomMembers)
-        {
-            chatRoomMembers.clear();
-        }
+        chatRoomMembers.clear();
     }
 
     /**
@@ -911,14 +928,15 @@ public void invite(final String userAddress, final String reason)
 
     /**
      * Returns a <tt>List</tt> of <tt>ChatRoomMembers</tt>s corresponding to all
-     * members currently participating in this room.
+     * members currently participating in this room. The list is immutable and
+     * is shared by the callers until the members change.
      *
      * @return a <tt>List</tt> of <tt>Contact</tt> corresponding to all room
      *         members.
      */
     public List<ChatRoomMember> getMembers()
     {
-        return new ArrayList<ChatRoomMember>(chatRoomMembers.values());
+        return chatRoomMembers.getMembers();
     }
 
     /**
@@ -1795,13 +1813,10 @@ void updateSubject(final String subject)
      */
     void updateChatRoomMemberName(final String oldName)
     {
-        synchronized (this.chatRoomMembers)
+        final ChatRoomMember member = this.chatRoomMembers.get(oldName);
+        if (member != null)
         {
-            ChatRoomMember member = this.chatRoomMembers.remove(oldName);
-            if (member != null)
-            {
-                this.chatRoomMembers.put(member.getContactAddress(), member);
-            }
+            this.chatRoomMembers.rename(oldName, member.getContactAddress());
         }
     }
 }
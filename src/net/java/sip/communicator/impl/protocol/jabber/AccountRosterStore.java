@@ -0,0 +1,81 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.io.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.jivesoftware.smack.roster.rosterstore.*;
+
+/**
+ * Opens the stores in which Smack keeps the rosters of the accounts and
+ * their versions (XEP-0237) between logins.
+ */
+class AccountRosterStore
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>AccountRosterStore</tt> class for
+     * logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(AccountRosterStore.class);
+
+    /**
+     * The directory, in the cache directory of the application, in which
+     * the rosters of the accounts are stored.
+     */
+    private static final String ROSTER_STORE_DIR = "xmpp-roster";
+
+    /**
+     * Returns the directory, relative to the cache directory of the
+     * application, in which the roster of an account is stored.
+     *
+     * @param accountUID the unique ID of the account
+     * @return the directory of the roster store of the account
+     */
+    static String getDirectoryName(String accountUID)
+    {
+        return ROSTER_STORE_DIR + File.separator
+            + accountUID.replaceAll("[^\\w@.-]", "_");
+    }
+
+    /**
+     * Opens the roster store in a directory, creating the directory and
+     * the store if they do not exist. A store which cannot be read, such as
+     * one written by another version of Smack, is replaced by an empty one,
+     * so that the server sends the whole roster.
+     *
+     * @param rosterDir the directory of the roster store
+     * @return the roster store or <tt>null</tt> if it cannot be opened
+     */
+    static RosterStore open(File rosterDir)
+    {
+        if (!rosterDir.isDirectory() && !rosterDir.mkdirs())
+        {
+            logger.warn("Failed to create directory: " + rosterDir);
+            return null;
+        }
+
+        RosterStore rosterStore = DirectoryRosterStore.open(rosterDir);
+
+        if (rosterStore == null)
+            rosterStore = DirectoryRosterStore.init(rosterDir);
+        return rosterStore;
+    }
+}
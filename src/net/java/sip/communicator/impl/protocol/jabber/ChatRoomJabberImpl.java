@@ -132,10 +132,10 @@
     private final OperationSetMultiUserChatJabberImpl opSetMuc;
 
     /**
-     * The list of members of this chat room.
+     * The list of members of this chat room, by nickname.
      */
-    private final Hashtable<Resourcepart, ChatRoomMemberJabberImpl> members
-        = new Hashtable<>();
+    private final ChatRoomMemberRegistry<Resourcepart, ChatRoomMemberJabberImpl>
+        members = new ChatRoomMemberRegistry<>();
 
     /**
      * The list of banned members of this chat room.
@@ -449,17 +449,15 @@ public Message createMessage(String messageText)
 
     /**
      * Returns a <tt>List</tt> of <tt>Member</tt>s corresponding to all
-     * members currently participating in this room.
+     * members currently participating in this room. The list is immutable
+     * and is shared by the callers until the members change.
      *
      * @return a <tt>List</tt> of <tt>Member</tt> corresponding to all room
      *   members.
      */
     public List<ChatRoomMember> getMembers()
     {
-        synchronized (members)
-        {
-            return new LinkedList<ChatRoomMember>(members.values());
-        }
+        return members.getMembers();
     }
 
     /**
@@ -672,10 +670,7 @@ public void joinAs(String nickname, byte[] password)
                     this.nickname,
                     JidCreate.bareFrom(
                             provider.getAccountID().getAccountAddress()));
-            synchronized (members)
-            {
-                members.put(this.nickname, member);
-            }
+            members.put(this.nickname, member);
 
             // We don't specify a reason.
             opSetMuc.fireLocalUserPresenceEvent(this,
@@ -834,20 +829,17 @@ public ChatRoomMemberJabberImpl smackParticipantToScMember(Jid participant)
         }
 
         Resourcepart participantName = participant.getResourceOrThrow();
-        synchronized (members)
-        {
-            Iterator<ChatRoomMemberJabberImpl> chatRoomMembers =
-                this.members.values().iterator();
+        ChatRoomMemberJabberImpl member
+            = members.getByName(participantName.toString());
 
-            while(chatRoomMembers.hasNext())
-            {
-                ChatRoomMemberJabberImpl member = chatRoomMembers.next();
+        if (member != null)
+            return member;
 
-                if(participantName.equals(member.getName())
-                    || participant.equals(member.getContactAddress())
-                    || participantName.equals(member.getContactAddress()))
-                    return member;
-            }
+        for (ChatRoomMemberJabberImpl m : members.values())
+        {
+            if(participant.equals(m.getContactAddress())
+                || participantName.equals(m.getContactAddress()))
+                return m;
         }
         return null;
     }
@@ -967,16 +959,16 @@ private void leave(String reason, EntityBareJid alternateAddress)
         }
 
         // FIXME Do we have to do the following when we leave the room?
-        Hashtable<Resourcepart, ChatRoomMemberJabberImpl> membersCopy;
+        List<ChatRoomMember> membersCopy;
         synchronized (members)
         {
-            membersCopy = new Hashtable<>(members);
+            membersCopy = members.getMembers();
 
             // Delete the list of members
             members.clear();
         }
 
-        for (ChatRoomMember member : membersCopy.values())
+        for (ChatRoomMember member : membersCopy)
             fireMemberPresenceEvent(
                 member,
                 ChatRoomMemberPresenceChangeEvent.MEMBER_LEFT,
@@ -1186,10 +1178,7 @@ public void banned(EntityFullJid participant, Jid actor, String reason)
             if(member == null)
                 return;
 
-            synchronized (members)
-            {
-                members.remove(participant.getResourceOrThrow());
-            }
+            members.remove(participant.getResourceOrThrow());
 
             banList.put(participant.getResourceOrThrow(), member);
 
@@ -1268,7 +1257,7 @@ public void joined(EntityFullJid participant)
             // when somebody changes its nickname we first receive
             // event for its nickname changed and after that that has joined
             // we check is this already joined and if so we skip it
-            if(members.contains(participantName))
+            if(members.getByName(participantName.toString()) != null)
                 return;
 
             Occupant occupant = multiUserChat.getOccupant(participant);
@@ -1306,10 +1295,7 @@ public void left(EntityFullJid participant)
             if(member == null)
                 return;
 
-            synchronized (members)
-            {
-                members.remove(participant.getResourceOrThrow());
-            }
+            members.remove(participant.getResourceOrThrow());
 
             fireMemberPresenceEvent(member,
                 ChatRoomMemberPresenceChangeEvent.MEMBER_LEFT, null);
@@ -1334,12 +1320,8 @@ public void nicknameChanged(EntityFullJid participant, Resourcepart newNickname)
 
             ((ChatRoomMemberJabberImpl) member).setName(newNickname);
 
-            synchronized (members)
-            {
-                // chnage the member key
-                ChatRoomMemberJabberImpl mem = members.remove(participant.getResourceOrThrow());
-                members.put(newNickname, mem);
-            }
+            // change the member key
+            members.rename(participant.getResourceOrThrow(), newNickname);
 
             ChatRoomMemberPropertyChangeEvent evt
                 = new ChatRoomMemberPropertyChangeEvent(
@@ -1397,10 +1379,7 @@ public void kicked(EntityFullJid participant, Jid actor, String reason)
             if(member == null)
                 return;
 
-            synchronized (members)
-            {
-                members.remove(participant.getResourceOrThrow());
-            }
+            members.remove(participant.getResourceOrThrow());
 
             fireMemberPresenceEvent(member, actorMember,
                 ChatRoomMemberPresenceChangeEvent.MEMBER_KICKED, reason);
@@ -1889,7 +1868,7 @@ private void fireMemberPresenceEvent(ChatRoomMember member,
      * @param previousRole the previous role that member had
      * @param newRole the new role the member get
      */
-    private void fireMemberRoleEvent(ChatRoomMember member,
+    private void fireMemberRoleEvent(ChatRoomMemberJabberImpl member,
         ChatRoomMemberRole previousRole, ChatRoomMemberRole newRole)
     {
         member.setRole(newRole);
@@ -2815,10 +2794,7 @@ public boolean isPersistent()
      */
     public ChatRoomMemberJabberImpl findMemberForNickName(Resourcepart jabberID)
     {
-        synchronized (members)
-        {
-            return members.get(jabberID);
-        }
+        return members.get(jabberID);
     }
 
    /**
@@ -223,6 +223,32 @@ protected Map<String, OperationSet> getSupportedOperationSets(
         return getSupportedOperationSets(jid, online);
     }
 
+    /**
+     * Asks {@link #discoveryManager} to retrieve the capabilities of the
+     * contacts the user is looking at before those of the others.
+     *
+     * @param contacts the contacts the user is looking at
+     */
+    @Override
+    public void setVisibleContacts(Collection<Contact> contacts)
+    {
+        ScServiceDiscoveryManager discoveryManager = this.discoveryManager;
+
+        if (discoveryManager == null)
+            return;
+
+        Set<BareJid> jids = new HashSet<>();
+
+        for (Contact contact : contacts)
+        {
+            Jid jid = jidFromContact(contact);
+
+            if (jid != null)
+                jids.add(jid.asBareJid());
+        }
+        discoveryManager.setPriorityContacts(jids);
+    }
+
     private Jid jidFromContact(Contact contact)
     {
         try
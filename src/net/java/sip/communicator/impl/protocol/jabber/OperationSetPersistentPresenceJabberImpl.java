@@ -31,7 +31,6 @@
 import org.jivesoftware.smack.filter.*;
 import org.jivesoftware.smack.packet.*;
 import org.jivesoftware.smack.roster.*;
-import org.jivesoftware.smack.roster.packet.*;
 import org.jivesoftware.smack.util.*;
 import org.jivesoftware.smackx.nick.packet.*;
 import org.jivesoftware.smackx.vcardtemp.*;
@@ -1132,17 +1131,16 @@ public void registrationStateChanged(RegistrationStateChangeEvent evt)
 
             if(evt.getNewState() == RegistrationState.REGISTERING)
             {
-                // we will add listener for RosterPackets
-                // as this will indicate when one is received
-                // and we are ready to dispatch the contact list
-                // note that our listener will be added just before the
-                // one used in the Roster itself, but later we
-                // will wait for it to be ready
-                // (inside method XMPPConnection.getRoster())
-                parentProvider.getConnection().addAsyncStanzaListener(
-                    new ServerStoredListInit(),
-                    new StanzaTypeFilter(RosterPacket.class)
-                );
+                // we will be notified when the roster is loaded, either
+                // from a full roster or, when the server supports roster
+                // versioning, from the stored roster and the changes
+                // the server sent (which may be none, in which case
+                // no roster packet is received at all), and we are then
+                // ready to dispatch the contact list
+                Roster roster
+                    = Roster.getInstanceFor(parentProvider.getConnection());
+
+                roster.addRosterLoadedListener(new ServerStoredListInit(roster));
 
                 // will be used to store presence events till roster is
                 // initialized
@@ -1915,24 +1913,45 @@ else if(response.getResponseCode()
     }
 
     /**
-     * Runnable that resolves our list against the server side roster.
-     * This thread is the one which will call getRoster for the first time.
-     * And if roster is currently processing will wait for it (the wait
-     * is internal into XMPPConnection.getRoster method).
+     * Runnable that resolves our list against the server side roster, once
+     * the roster has been loaded.
      */
     private class ServerStoredListInit
         implements Runnable,
-                   StanzaListener
+                   RosterLoadedListener
     {
+        /**
+         * The roster whose loading we are waiting for.
+         */
+        private final Roster roster;
+
+        /**
+         * Creates the runnable which resolves our list against a roster.
+         *
+         * @param roster the roster whose loading we are waiting for
+         */
+        ServerStoredListInit(Roster roster)
+        {
+            this.roster = roster;
+        }
+
         public void run()
         {
-            // we are already notified lets remove us from the packet
-            // listener
-            parentProvider.getConnection()
-                .removeAsyncStanzaListener(this);
+            // we are already notified lets remove us from the roster
+            // listeners
+            roster.removeRosterLoadedListener(this);
 
-            // init ssList
-            ssContactList.init(contactChangesListener);
+            // init ssList, the contact list events of the roster are
+            // delivered as one batch
+            fireSubscriptionBatchStarted();
+            try
+            {
+                ssContactList.init(contactChangesListener);
+            }
+            finally
+            {
+                fireSubscriptionBatchEnded();
+            }
 
             // as we have dispatched the contact list and Roster is ready
             // lets start the jingle nodes discovery
@@ -1940,21 +1959,26 @@ public void run()
         }
 
         /**
-         * When roster packet with no error is received we are ready to
-         * to dispatch the contact list, doing it in different thread
-         * to avoid blocking xmpp packet receiving.
-         * @param packet the roster packet
+         * When the roster is loaded we are ready to dispatch the contact
+         * list, doing it in different thread to avoid blocking xmpp packet
+         * receiving.
+         * @param roster the loaded roster
          */
-        public void processStanza(Stanza packet)
+        public void onRosterLoaded(Roster roster)
         {
-            // don't process packets that are errors
-            if(packet.getError() != null)
-            {
-                return;
-            }
-
             new Thread(this, getClass().getName()).start();
         }
+
+        /**
+         * Logs the failure to load the roster. The contact list stays
+         * unresolved as it did when the roster request returned an error.
+         * @param exception the reason of the failure
+         */
+        public void onRosterLoadingFailed(Exception exception)
+        {
+            roster.removeRosterLoadedListener(this);
+            logger.error("Failed to load the roster", exception);
+        }
     }
 
     /**
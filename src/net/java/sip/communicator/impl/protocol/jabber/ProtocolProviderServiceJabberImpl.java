@@ -49,6 +49,7 @@
 import net.java.sip.communicator.util.Logger;
 
 import org.jitsi.service.configuration.*;
+import org.jitsi.service.fileaccess.*;
 import org.jitsi.service.neomedia.*;
 import org.jivesoftware.smack.*;
 import org.jivesoftware.smack.SmackException.*;
@@ -58,6 +59,7 @@
 import org.jivesoftware.smack.tcp.*;
 import org.jivesoftware.smack.util.*;
 import org.jivesoftware.smack.roster.*;
+import org.jivesoftware.smack.roster.rosterstore.*;
 import org.jivesoftware.smackx.disco.packet.*;
 import org.jivesoftware.smackx.message_correct.element.*;
 import org.jivesoftware.smackx.nick.packet.*;
@@ -1285,6 +1287,12 @@ else if (loginStrategy.isTlsRequired())
         ReconnectionManager.getInstanceFor(connection).disableAutomaticReconnection();
         this.address = address;
 
+        // keep the roster between logins so that a server supporting roster
+        // versioning only sends the changes made since the last login
+        RosterStore rosterStore = openRosterStore();
+        if (rosterStore != null)
+            Roster.getInstanceFor(connection).setRosterStore(rosterStore);
+
         if(debugger == null)
         {
             // FIXME Smack4.2: implement the smack debugger interface,
@@ -1431,6 +1439,35 @@ private X509ExtendedTrustManager getTrustManager(CertificateService cvs,
         );
     }
 
+    /**
+     * Opens the store in which Smack keeps the roster of this account and its
+     * version (XEP-0237) between logins, creating it if it does not exist.
+     *
+     * @return the roster store of this account or <tt>null</tt> if it cannot
+     * be opened
+     */
+    private RosterStore openRosterStore()
+    {
+        FileAccessService fileAccessService
+            = JabberActivator.getFileAccessService();
+        if (fileAccessService == null)
+            return null;
+
+        String accountUID = getAccountID().getAccountUniqueID();
+        try
+        {
+            return AccountRosterStore.open(
+                fileAccessService.getPrivatePersistentDirectory(
+                    AccountRosterStore.getDirectoryName(accountUID),
+                    FileCategory.CACHE));
+        }
+        catch (Exception e)
+        {
+            logger.warn("Cannot open the roster store of " + accountUID, e);
+            return null;
+        }
+    }
+
     /**
      * Registers our ServiceDiscoveryManager
      */
@@ -78,6 +78,17 @@
      */
     private ServiceDiscoveryManager discoveryManager;
 
+    /**
+     * The connection whose discovery manager we are wrapping.
+     */
+    private final XMPPConnection connection;
+
+    /**
+     * The maximum number of disco#info requests that
+     * {@link DiscoveryInfoRetriever} keeps in flight.
+     */
+    private final int maxDiscoverInfoRequests;
+
     /**
      * The parent provider
      */
@@ -120,6 +131,20 @@
     private static String entityNode
         = OSUtils.IS_ANDROID ? "http://android.jitsi.org" : "http://jitsi.org";
 
+    /**
+     * The name of the property under which the user may specify the maximum
+     * number of disco#info requests sent in parallel when retrieving the
+     * capabilities of the contacts.
+     */
+    private static final String MAX_DISCO_INFO_REQUESTS_PROPERTY
+        = "net.java.sip.communicator.impl.protocol.jabber."
+            + "MAX_DISCO_INFO_REQUESTS";
+
+    /**
+     * The default maximum number of disco#info requests sent in parallel.
+     */
+    private static final int DEFAULT_MAX_DISCO_INFO_REQUESTS = 8;
+
 
     /**
      * We need to call this before creating any xmpp connection to be sure
@@ -172,6 +197,13 @@ public ScServiceDiscoveryManager(
             boolean cacheNonCaps)
     {
         this.parentProvider = parentProvider;
+        this.connection = connection;
+        this.maxDiscoverInfoRequests
+            = Math.max(
+                    1,
+                    configService.getInt(
+                            MAX_DISCO_INFO_REQUESTS_PROPERTY,
+                            DEFAULT_MAX_DISCO_INFO_REQUESTS));
 
         this.discoveryManager
             = ServiceDiscoveryManager.getInstanceFor(connection);
@@ -411,6 +443,19 @@ public DiscoverInfo discoverInfoNonBlocking(Jid entityID)
         return null;
     }
 
+    /**
+     * Retrieves the discovery info of the entities of some contacts before
+     * that of the other contacts, because the user is looking at them in the
+     * contact list or in an open chat.
+     *
+     * @param contacts the bare JIDs of the contacts, replacing those of the
+     * previous call
+     */
+    public void setPriorityContacts(Collection<BareJid> contacts)
+    {
+        retriever.setPriorityContacts(contacts);
+    }
+
     /**
      * Returns the discovered items of a given XMPP entity addressed by its JID.
      *
@@ -673,27 +718,53 @@ public void stop()
     }
 
     /**
-     * Thread that runs the discovery info.
+     * Retrieves the discovery info of the entities queued by
+     * {@link #discoverInfoNonBlocking(Jid)}, keeping up to
+     * {@link #maxDiscoverInfoRequests} requests in flight instead of waiting
+     * for each response before sending the next request.
+     * <p>
+     * The entities advertising the same caps <tt>node#ver</tt> share a single
+     * request, whose verified result is cached by the
+     * <tt>EntityCapsManager</tt> for all of them. The entities of the contacts
+     * passed to {@link #setPriorityContacts(Collection)} are retrieved before
+     * the others. The size of the queue and the latency of the requests are
+     * logged each time the queue is drained.
      */
     private class DiscoveryInfoRetriever
-        implements Runnable
     {
         /**
-         * start/stop.
+         * The requests for the entities of prioritized contacts which are
+         * waiting to be sent, by key.
          */
-        private boolean stopped = true;
+        private final Map<String, Request> priorityRequests
+            = new LinkedHashMap<>();
 
         /**
-         * The thread that runs this dispatcher.
+         * The other requests which are waiting to be sent, by key.
          */
-        private Thread retrieverThread = null;
+        private final Map<String, Request> requests = new LinkedHashMap<>();
 
         /**
-         * Entities to be processed and their caps.
-         * HashMap so we can store null caps.
+         * The requests which have been sent and are waiting for a response,
+         * by key.
          */
-        private final Map<Jid, EntityCapsManager.NodeVerHash> entities
-            = new HashMap<>();
+        private final Map<String, Request> inFlight = new HashMap<>();
+
+        /**
+         * The bare JIDs of the prioritized contacts, the contacts the user is
+         * looking at.
+         */
+        private final Set<BareJid> priorityContacts = new HashSet<>();
+
+        /**
+         * The number of requests queued so far, which orders them.
+         */
+        private long queuedCount = 0;
+
+        /**
+         * Whether {@link #stop()} has been called.
+         */
+        private boolean stopped = false;
 
         /**
          * Our capability operation set.
@@ -701,124 +772,477 @@ public void stop()
         private OperationSetContactCapabilitiesJabberImpl capabilitiesOpSet;
 
         /**
-         * Runs in different thread.
+         * The number of requests completed since the queue was last drained.
          */
-        public void run()
+        private int completedCount = 0;
+
+        /**
+         * The sum of the latencies of the requests completed since the queue
+         * was last drained, in milliseconds.
+         */
+        private long totalLatency = 0;
+
+        /**
+         * The maximum latency of the requests completed since the queue was
+         * last drained, in milliseconds.
+         */
+        private long maxLatency = 0;
+
+        /**
+         * The maximum number of queued requests since the queue was last
+         * drained.
+         */
+        private int maxQueueSize = 0;
+
+        /**
+         * The time the first request was queued since the queue was last
+         * drained.
+         */
+        private long firstQueuedTime = 0;
+
+        /**
+         * Queue entities for retrieval.
+         * @param entityID the entity.
+         * @param caps and its capability.
+         */
+        public void addEntityForRetrieve(Jid entityID,
+                                         EntityCapsManager.NodeVerHash caps)
         {
-            try
+            List<Request> toSend;
+
+            synchronized(this)
             {
-                stopped = false;
+                if (stopped)
+                    return;
 
-                while(!stopped)
-                {
-                    Map.Entry<Jid, EntityCapsManager.NodeVerHash>
-                        entityToProcess = null;
+                String key = getKey(entityID, caps);
+                Request request = inFlight.get(key);
 
-                    synchronized(entities)
-                    {
-                        if(entities.size() == 0)
-                        {
-                            try
-                            {
-                                entities.wait();
-                            }
-                            catch (InterruptedException iex){}
-                        }
+                if (request == null)
+                    request = priorityRequests.get(key);
+                if (request == null)
+                    request = requests.get(key);
 
-                        Iterator<Map.Entry<Jid, EntityCapsManager.NodeVerHash>>
-                            iter = entities.entrySet().iterator();
-                        if(iter.hasNext())
-                        {
-                            entityToProcess = iter.next();
-                            iter.remove();
-                        }
-                    }
-
-                    if(entityToProcess != null)
+                if (request == null)
+                {
+                    request = new Request(key, caps);
+                    request.entities.add(entityID);
+                    queue(request);
+                }
+                else if (!request.entities.contains(entityID))
+                {
+                    request.entities.add(entityID);
+                    if (priorityContacts.contains(entityID.asBareJid())
+                        && requests.remove(key) != null)
                     {
-                        try
-                        {
-                            // process
-                            discoverInfo(
-                                entityToProcess.getKey(),
-                                entityToProcess.getValue(),
-                                capabilitiesOpSet);
-                        }
-                        catch(XMPPException
-                            | InterruptedException
-                            | NoResponseException
-                            | NotConnectedException ex)
-                        {
-                            // print discovery info errors only when trace
-                            if(logger.isTraceEnabled())
-                                logger.error(
-                                    "Error requesting discover info for "
-                                        + entityToProcess.getKey(), ex);
-                        }
+                        priorityRequests.put(key, request);
                     }
                 }
-            } catch(Throwable t)
+
+                toSend = poll();
+            }
+            send(toSend);
+        }
+
+        /**
+         * Retrieves the entities of some contacts before those of the other
+         * contacts. The queued requests are moved between the queues in the
+         * order they were queued, so the requests of the contacts which are
+         * no longer prioritized go back to their place.
+         *
+         * @param contacts the bare JIDs of the contacts
+         */
+        synchronized void setPriorityContacts(Collection<BareJid> contacts)
+        {
+            if (stopped)
+                return;
+
+            priorityContacts.clear();
+            priorityContacts.addAll(contacts);
+
+            List<Request> queued = new ArrayList<>(priorityRequests.values());
+
+            queued.addAll(requests.values());
+            Collections.sort(queued, new Comparator<Request>()
+            {
+                public int compare(Request r1, Request r2)
+                {
+                    return Long.compare(r1.order, r2.order);
+                }
+            });
+            priorityRequests.clear();
+            requests.clear();
+            for (Request request : queued)
             {
-                logger.error("Error requesting discovery info, " +
-                    "thread ended unexpectedly", t);
+                (isPriority(request) ? priorityRequests : requests)
+                    .put(request.key, request);
             }
         }
 
         /**
-         * Queue entities for retrieval.
-         * @param entityID the entity.
-         * @param caps and its capability.
+         * Determines whether one of the entities of a request belongs to a
+         * prioritized contact. Must be called while synchronized.
+         *
+         * @param request the request
+         * @return <tt>true</tt> if <tt>request</tt> is to be sent before the
+         * others
          */
-        public void addEntityForRetrieve(Jid entityID,
-                                         EntityCapsManager.NodeVerHash caps)
+        private boolean isPriority(Request request)
         {
-            synchronized(entities)
+            for (Jid entity : request.entities)
             {
+                if (priorityContacts.contains(entity.asBareJid()))
+                    return true;
+            }
+            return false;
+        }
 
-                if(!entities.containsKey(entityID))
-                {
-                    entities.put(entityID, caps);
-                    entities.notifyAll();
+        /**
+         * Returns the key of the request for an entity: the <tt>node#ver</tt>
+         * of its caps if it can be verified, otherwise the entity itself.
+         *
+         * @param entityID the entity
+         * @param caps its capability or <tt>null</tt>
+         * @return the key of the request for <tt>entityID</tt>
+         */
+        private String getKey(Jid entityID, EntityCapsManager.NodeVerHash caps)
+        {
+            return (caps == null || caps.getHash().equals(""))
+                ? entityID.toString()
+                : caps.getNodeVer();
+        }
+
+        /**
+         * Queues a request, before the others if one of its entities belongs
+         * to a prioritized contact. Must be called while synchronized.
+         *
+         * @param request the request
+         */
+        private void queue(Request request)
+        {
+            request.order = queuedCount++;
+            (isPriority(request) ? priorityRequests : requests)
+                .put(request.key, request);
+
+            int queueSize = priorityRequests.size() + requests.size();
+
+            if (firstQueuedTime == 0)
+                firstQueuedTime = System.currentTimeMillis();
+            if (queueSize > maxQueueSize)
+                maxQueueSize = queueSize;
+        }
+
+        /**
+         * Moves as many queued requests to {@link #inFlight} as allowed.
+         * Must be called while synchronized.
+         *
+         * @return the requests to be sent
+         */
+        private List<Request> poll()
+        {
+            List<Request> toSend = null;
+
+            while (inFlight.size() < maxDiscoverInfoRequests)
+            {
+                Map<String, Request> queue
+                    = priorityRequests.isEmpty() ? requests : priorityRequests;
+                Iterator<Request> iter = queue.values().iterator();
+
+                if (!iter.hasNext())
+                    break;
+
+                Request request = iter.next();
+
+                iter.remove();
+                request.sentTime = System.currentTimeMillis();
+                inFlight.put(request.key, request);
+
+                if (toSend == null)
+                    toSend = new ArrayList<>();
+                toSend.add(request);
+            }
+            return toSend;
+        }
+
+        /**
+         * Sends requests to the first of their entities.
+         *
+         * @param toSend the requests to send or <tt>null</tt>
+         */
+        private void send(List<Request> toSend)
+        {
+            if (toSend == null)
+                return;
 
-                    if(retrieverThread == null)
+            for (final Request request : toSend)
+            {
+                final Jid entityID;
+
+                synchronized (this)
+                {
+                    entityID = request.entities.get(0);
+                    if (capabilitiesOpSet == null)
                     {
-                        start();
+                        capabilitiesOpSet
+                            = (OperationSetContactCapabilitiesJabberImpl)
+                                parentProvider.getOperationSet(
+                                    OperationSetContactCapabilities.class);
                     }
                 }
+
+                DiscoverInfo discoverInfo = new DiscoverInfo();
+
+                discoverInfo.setType(IQ.Type.get);
+                discoverInfo.setTo(entityID);
+                if (request.caps != null)
+                    discoverInfo.setNode(request.caps.getNodeVer());
+
+                try
+                {
+                    connection.sendIqWithResponseCallback(
+                        discoverInfo,
+                        new StanzaListener()
+                        {
+                            public void processStanza(Stanza packet)
+                            {
+                                processResponse(
+                                    request, entityID, (DiscoverInfo) packet);
+                            }
+                        },
+                        new ExceptionCallback()
+                        {
+                            public void processException(Exception ex)
+                            {
+                                processFailure(request, entityID, ex);
+                            }
+                        },
+                        connection.getReplyTimeout());
+                }
+                catch (NotConnectedException | InterruptedException ex)
+                {
+                    processFailure(request, entityID, ex);
+                }
             }
         }
 
         /**
-         * Start thread.
+         * Caches the discovery info received for a request and fires the
+         * events for its entities.
+         *
+         * @param request the request
+         * @param entityID the entity the request was sent to
+         * @param discoverInfo the received discovery info
          */
-        private void start()
+        private void processResponse(
+            Request request,
+            Jid entityID,
+            DiscoverInfo discoverInfo)
         {
-            capabilitiesOpSet = (OperationSetContactCapabilitiesJabberImpl)
-                parentProvider.getOperationSet(
-                    OperationSetContactCapabilities.class);
+            EntityCapsManager.NodeVerHash caps = request.caps;
 
-            retrieverThread = new Thread(
-                this,
-                ScServiceDiscoveryManager.class.getName());
-            retrieverThread.setDaemon(true);
+            if (caps != null
+                && !EntityCapsManager.verifyDiscoverInfoVersion(
+                        caps.getVer(), caps.getHash(), discoverInfo))
+            {
+                if(!caps.getHash().equals(""))
+                {
+                    logger.error("Invalid DiscoverInfo for "
+                        + caps.getNodeVer() + ": " + discoverInfo);
+                }
+                caps = null;
+            }
 
-            retrieverThread.start();
+            List<Jid> entities;
+            List<Jid> retried;
+            List<Request> toSend;
 
+            synchronized (this)
+            {
+                if (caps == null)
+                {
+                    // the other entities cannot be trusted with this info
+                    entities = Collections.singletonList(entityID);
+                    retried = new ArrayList<>(request.entities);
+                    retried.remove(entityID);
+                }
+                else
+                {
+                    entities = new ArrayList<>(request.entities);
+                    retried = Collections.emptyList();
+                }
+                complete(request);
+                toSend = poll();
+            }
+            send(toSend);
+
+            Set<BareJid> bareJids = new LinkedHashSet<>();
+
+            if (caps != null)
+            {
+                EntityCapsManager.addDiscoverInfoByNode(
+                    caps.getNodeVer(), discoverInfo);
+                for (Jid entity : entities)
+                    bareJids.add(entity.asBareJid());
+            }
+            else if (cacheNonCaps)
+            {
+                nonCapsCache.put(entityID, discoverInfo);
+                bareJids.add(entityID.asBareJid());
+            }
+
+            OperationSetContactCapabilitiesJabberImpl capabilitiesOpSet
+                = this.capabilitiesOpSet;
 
+            if (capabilitiesOpSet != null)
+            {
+                for (BareJid bareJid : bareJids)
+                {
+                    capabilitiesOpSet.fireContactCapabilitiesChanged(
+                        bareJid,
+                        getFullJidsByBareJid(bareJid));
+                }
+            }
+
+            for (Jid entity : retried)
+                addEntityForRetrieve(entity, null);
         }
 
         /**
-         * Stops and clears.
+         * Handles the failure of a request. The request is sent again to its
+         * next entity, if any, as the one it was sent to may have gone
+         * offline in the meantime.
+         *
+         * @param request the request
+         * @param entityID the entity the request was sent to
+         * @param ex the cause of the failure
          */
-        void stop()
+        private void processFailure(
+            Request request,
+            Jid entityID,
+            Exception ex)
         {
-            synchronized(entities)
+            // print discovery info errors only when trace
+            if(logger.isTraceEnabled())
+                logger.error(
+                    "Error requesting discover info for " + entityID, ex);
+
+            List<Request> toSend;
+
+            synchronized (this)
             {
-                stopped = true;
-                entities.notifyAll();
+                request.entities.remove(entityID);
+                complete(request);
+                if (!stopped
+                    && !request.entities.isEmpty()
+                    && !requests.containsKey(request.key)
+                    && !priorityRequests.containsKey(request.key)
+                    && !inFlight.containsKey(request.key))
+                {
+                    queue(request);
+                }
+                toSend = poll();
+            }
+            send(toSend);
+        }
 
-                retrieverThread = null;
+        /**
+         * Removes a request from {@link #inFlight}, records its latency and
+         * logs the metrics of the queue if it has been drained. Must be
+         * called while synchronized.
+         *
+         * @param request the completed request
+         */
+        private void complete(Request request)
+        {
+            if (inFlight.remove(request.key) != request)
+                return;
+
+            long now = System.currentTimeMillis();
+            long latency = now - request.sentTime;
+
+            completedCount++;
+            totalLatency += latency;
+            if (latency > maxLatency)
+                maxLatency = latency;
+
+            if (logger.isTraceEnabled())
+            {
+                logger.trace("Discover info for " + request.key
+                    + " took " + latency + " ms, "
+                    + (priorityRequests.size() + requests.size())
+                    + " queued, " + inFlight.size() + " in flight");
+            }
+
+            if (inFlight.isEmpty()
+                && priorityRequests.isEmpty()
+                && requests.isEmpty())
+            {
+                if (logger.isInfoEnabled())
+                {
+                    logger.info("Retrieved discover info with "
+                        + completedCount + " requests in "
+                        + (now - firstQueuedTime) + " ms (average latency "
+                        + (totalLatency / completedCount)
+                        + " ms, maximum latency " + maxLatency
+                        + " ms, maximum queue size " + maxQueueSize + ")");
+                }
+                completedCount = 0;
+                totalLatency = 0;
+                maxLatency = 0;
+                maxQueueSize = 0;
+                firstQueuedTime = 0;
             }
         }
+
+        /**
+         * Stops and clears.
+         */
+        synchronized void stop()
+        {
+            stopped = true;
+            priorityRequests.clear();
+            requests.clear();
+            inFlight.clear();
+            priorityContacts.clear();
+        }
+    }
+
+    /**
+     * A disco#info request shared by the entities advertising the same caps
+     * or, when the caps cannot be verified, for a single entity.
+     */
+    private static class Request
+    {
+        /**
+         * The key of the request in the queues of the retriever.
+         */
+        final String key;
+
+        /**
+         * The caps of the entities or <tt>null</tt>.
+         */
+        final EntityCapsManager.NodeVerHash caps;
+
+        /**
+         * The entities waiting for the response, the request being sent to
+         * the first one.
+         */
+        final List<Jid> entities = new ArrayList<>();
+
+        /**
+         * The order in which the request was queued.
+         */
+        long order;
+
+        /**
+         * The time the request was sent.
+         */
+        long sentTime;
+
+        Request(String key, EntityCapsManager.NodeVerHash caps)
+        {
+            this.key = key;
+            this.caps = caps;
+        }
     }
 }
@@ -545,11 +545,8 @@ public boolean processRequest(RequestEvent requestEvent)
 
             if (dialog.equals(serverTransaction.getDialog()))
             {
-                // add the new timeout task
-                SubscriptionTimeoutTask timeout
-                    = new SubscriptionTimeoutTask(subscription);
-                subscription.setTimerTask(timeout);
-                timer.schedule(timeout, expires * 1000);
+                // replace the expiry
+                scheduleExpiry(subscription, expires * 1000L);
 
                 // send a OK
                 Response response;
@@ -778,14 +775,51 @@ public boolean processRequest(RequestEvent requestEvent)
             }
         }
 
-        // add the timeout task
-        SubscriptionTimeoutTask timeout
-            = new SubscriptionTimeoutTask(subscription);
-        subscription.setTimerTask(timeout);
-        timer.schedule(timeout, expires * 1000);
+        // schedule the expiry
+        scheduleExpiry(subscription, expires * 1000L);
         return true;
     }
 
+    /**
+     * Sends a closing NOTIFY to the targets represented by expired
+     * <tt>Subscription</tt>s, which removes them.
+     *
+     * @param subscriptions the expired subscriptions
+     */
+    @Override
+    protected void processExpiredSubscriptions(
+        List<EventPackageSupport.Subscription> subscriptions)
+    {
+        for (EventPackageSupport.Subscription s : subscriptions)
+        {
+            Subscription subscription = (Subscription) s;
+            Dialog dialog = subscription.getDialog();
+
+            if (dialog == null)
+            {
+                logger.warn(
+                    "null dialog associated with "
+                        + subscription
+                        + ", can't send the closing NOTIFY");
+                continue;
+            }
+
+            try
+            {
+                notify(
+                    subscription,
+                    SubscriptionStateHeader.TERMINATED,
+                    SubscriptionStateHeader.TIMEOUT);
+            }
+            catch (OperationFailedException ofex)
+            {
+                logger.error(
+                    "Failed to timeout subscription " + subscription,
+                    ofex);
+            }
+        }
+    }
+
     /**
      * Handles an incoming response to a request we'vre previously sent.
      *
@@ -987,65 +1021,4 @@ protected abstract byte[] createNotifyContent(
          */
         public boolean accept(Subscription subscription);
     }
-
-    /**
-     * Represents a <tt>TimerTask</tt> which times out a specific
-     * <tt>Subscription</tt> when its subscription duration expires.
-     */
-    private class SubscriptionTimeoutTask
-        extends TimerTask
-    {
-
-        /**
-         * The <tt>Subscription</tt> to be timed out by this
-         * <tt>TimerTask</tt>.
-         */
-        private final Subscription subscription;
-
-        /**
-         * Initializes a new <tt>SubscriptionTimeoutTask</tt> instance which is
-         * to time out a specific <tt>Subscription</tt>.
-         *
-         * @param subscription the <tt>Subscription</tt> to be timed out by the
-         * new instance
-         */
-        public SubscriptionTimeoutTask(Subscription subscription)
-        {
-            this.subscription = subscription;
-        }
-
-        /**
-         * Sends a closing NOTIFY to the target represented by the associated
-         * <tt>Subscription</tt> and removes the associated
-         * <tt>Subscription</tt>.
-         */
-        @Override
-        public void run()
-        {
-            Dialog dialog = subscription.getDialog();
-
-            if (dialog == null)
-            {
-                logger.warn(
-                    "null dialog associated with "
-                        + subscription
-                        + ", can't send the closing NOTIFY");
-                return;
-            }
-
-            try
-            {
-                EventPackageNotifier.this.notify(
-                    subscription,
-                    SubscriptionStateHeader.TERMINATED,
-                    SubscriptionStateHeader.TIMEOUT);
-            }
-            catch (OperationFailedException ofex)
-            {
-                logger.error(
-                    "Failed to timeout subscription " + subscription,
-                    ofex);
-            }
-        }
-    }
 }
@@ -455,6 +455,29 @@ protected void populateSubscribeRequest(
         }
         req.setHeader(accept);
 
+        // RFC 4662: resource lists
+        if (subscription instanceof ResourceListSubscription)
+        {
+            try
+            {
+                req.addHeader(
+                    headerFactory.createAcceptHeader("multipart", "related"));
+                req.addHeader(
+                    headerFactory.createAcceptHeader(
+                            "application", "rlmi+xml"));
+                req.setHeader(headerFactory.createSupportedHeader("eventlist"));
+            }
+            catch (ParseException e)
+            {
+                logger.error("wrong accept or supported header", e);
+                throw new OperationFailedException(
+                        "An unexpected error occurred while "
+                        + "constructing the resource list headers",
+                        OperationFailedException.INTERNAL_ERROR,
+                        e);
+            }
+        }
+
         // Expires
         ExpiresHeader expHeader;
         try
@@ -577,7 +600,12 @@ public boolean processRequest(RequestEvent requestEvent)
         ContentTypeHeader ctheader
             = (ContentTypeHeader) request.getHeader(ContentTypeHeader.NAME);
         if ((ctheader != null)
-                && !ctheader.getContentSubType().equalsIgnoreCase(contentSubType))
+                && !ctheader.getContentSubType().equalsIgnoreCase(contentSubType)
+                && !((subscription instanceof ResourceListSubscription)
+                        && "multipart".equalsIgnoreCase(
+                                ctheader.getContentType())
+                        && "related".equalsIgnoreCase(
+                                ctheader.getContentSubType())))
         {
             // send a 415 response (rfc3261)
             Response response;
@@ -675,9 +703,20 @@ public boolean processRequest(RequestEvent requestEvent)
 
         // transform the presence document in new presence status
         if (subscription != null)
+        {
             subscription
                 .processActiveRequest(requestEvent, request.getRawContent());
 
+            // a refresh makes the resource list server notify the full state
+            // of the list (RFC 4662)
+            if ((subscription instanceof ResourceListSubscription)
+                    && ((ResourceListSubscription) subscription)
+                        .takeFullStateRequest())
+            {
+                new SubscriptionRefreshTask(subscription).run();
+            }
+        }
+
         return true;
     }
 
@@ -796,7 +835,7 @@ else if ((statusCode != Response.OK)
                  // try to keep a margin if the refresh delay allows it
                  if (refreshDelay >= (2*refreshMargin))
                      refreshDelay -= refreshMargin;
-                 timer.schedule(refreshTask, refreshDelay * 1000);
+                 timer.scheduleRefresh(refreshTask, refreshDelay * 1000L);
 
                  // do it to remember the dialog in case of a polling
                  // subscription (which means no call to finalizeSubscription)
@@ -1262,11 +1301,184 @@ protected abstract void processTerminatedRequest(
     }
 
     /**
-     * Represents a <tt>TimerTask</tt> which refreshes a specific
-     * <tt>Subscription</tt>.
+     * Represents a subscription to a resource list as defined in RFC 4662,
+     * i.e. a single subscription to the states of all the resources of a
+     * list held by a resource list server. The <tt>multipart/related</tt>
+     * bodies of the NOTIFY requests are parsed and the states of the
+     * resources they carry are delivered one by one to
+     * {@link #processResource(RequestEvent, ResourceListNotification.Resource)}.
+     */
+    public static abstract class ResourceListSubscription
+        extends Subscription
+    {
+        /**
+         * The dialog of the last processed notification.
+         */
+        private Dialog lastDialog;
+
+        /**
+         * The version of the last processed notification, which is only
+         * meaningful within {@link #lastDialog}.
+         */
+        private int lastVersion = -1;
+
+        /**
+         * Whether notifications were missed within {@link #lastDialog} and
+         * the full state of the list has been requested since.
+         */
+        private boolean awaitingFullState = false;
+
+        /**
+         * Whether the subscription is to be refreshed in order to get the
+         * full state of the list.
+         */
+        private boolean fullStateRequested = false;
+
+        /**
+         * Initializes a new <tt>ResourceListSubscription</tt> instance with
+         * the URI of a resource list.
+         *
+         * @param toAddress the URI of the resource list
+         */
+        public ResourceListSubscription(Address toAddress)
+        {
+            super(toAddress);
+        }
+
+        /**
+         * Parses the body of an active NOTIFY <tt>Request</tt> and processes
+         * the states of the resources it carries, unless it is older than
+         * the last processed one. When partial notifications were missed,
+         * the full state of the list is requested with
+         * {@link #takeFullStateRequest()}.
+         *
+         * @param requestEvent the <tt>RequestEvent</tt> carrying the NOTIFY
+         * <tt>Request</tt>
+         * @param rawContent the body of the NOTIFY <tt>Request</tt>
+         */
+        @Override
+        protected void processActiveRequest(
+            RequestEvent requestEvent,
+            byte[] rawContent)
+        {
+            if (rawContent == null)
+                return;
+
+            ContentTypeHeader ctheader
+                = (ContentTypeHeader)
+                    requestEvent.getRequest().getHeader(ContentTypeHeader.NAME);
+
+            if ((ctheader == null)
+                    || !"multipart".equalsIgnoreCase(ctheader.getContentType()))
+            {
+                logger.warn(
+                    "Resource list " + getAddress()
+                        + " was notified without a multipart body");
+                return;
+            }
+
+            ResourceListNotification notification
+                = ResourceListNotification.parse(
+                        ctheader.getParameter("boundary"),
+                        rawContent);
+
+            if (notification == null)
+                return;
+
+            synchronized (this)
+            {
+                Dialog dialog = requestEvent.getDialog();
+
+                if (dialog != lastDialog)
+                {
+                    lastDialog = dialog;
+                    lastVersion = -1;
+                    awaitingFullState = false;
+                }
+                if (notification.getVersion() <= lastVersion)
+                {
+                    if (logger.isDebugEnabled())
+                        logger.debug(
+                            "Ignoring version " + notification.getVersion()
+                                + " of resource list " + getAddress()
+                                + ", already at " + lastVersion);
+                    return;
+                }
+                if (notification.isFullState())
+                    awaitingFullState = false;
+                else if ((lastVersion != -1)
+                        && (notification.getVersion() != lastVersion + 1)
+                        && !awaitingFullState)
+                {
+                    logger.warn(
+                        "Missed partial notifications of resource list "
+                            + getAddress() + " between versions "
+                            + lastVersion + " and "
+                            + notification.getVersion()
+                            + ", requesting its full state");
+                    awaitingFullState = true;
+                    fullStateRequested = true;
+                }
+                lastVersion = notification.getVersion();
+            }
+
+            processResourceList(requestEvent, notification);
+        }
+
+        /**
+         * Returns whether notifications of the list were missed and the
+         * subscription is to be refreshed in order to get its full state,
+         * and clears the request.
+         *
+         * @return <tt>true</tt> if the subscription is to be refreshed
+         */
+        synchronized boolean takeFullStateRequest()
+        {
+            boolean fullStateRequested = this.fullStateRequested;
+
+            this.fullStateRequested = false;
+            return fullStateRequested;
+        }
+
+        /**
+         * Processes a notification of the resource list. The default
+         * implementation processes each of its resources.
+         *
+         * @param requestEvent the <tt>RequestEvent</tt> carrying the NOTIFY
+         * <tt>Request</tt>
+         * @param notification the parsed body of the NOTIFY
+         * <tt>Request</tt>
+         */
+        protected void processResourceList(
+            RequestEvent requestEvent,
+            ResourceListNotification notification)
+        {
+            for (ResourceListNotification.Resource resource
+                    : notification.getResources())
+            {
+                processResource(requestEvent, resource);
+            }
+        }
+
+        /**
+         * Processes the state of a resource of the list, as it would process
+         * a NOTIFY <tt>Request</tt> of a subscription to the resource
+         * itself.
+         *
+         * @param requestEvent the <tt>RequestEvent</tt> carrying the NOTIFY
+         * <tt>Request</tt>
+         * @param resource the resource and the state of its subscriptions
+         */
+        protected abstract void processResource(
+            RequestEvent requestEvent,
+            ResourceListNotification.Resource resource);
+    }
+
+    /**
+     * Represents a task which refreshes a specific <tt>Subscription</tt>.
      */
     private class SubscriptionRefreshTask
-        extends TimerTask
+        extends SipScheduler.Task
     {
 
         /**
@@ -19,6 +19,7 @@
 
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import javax.sip.*;
 import javax.sip.address.*;
@@ -74,12 +75,47 @@
      */
     protected final int subscriptionDuration;
 
+    /**
+     * The time in milliseconds within which the subscriptions expiring after
+     * the earliest expiry are expired together with it.
+     */
+    private static final long EXPIRY_BATCH_WINDOW = 1000;
+
     /**
      * The list of subscriptions managed by this instance and indexed by their
-     * CallId.
+     * CallId. It is read without locking; it is modified, together with
+     * {@link #subscriptionsByAddress}, while holding its lock.
      */
     private final Map<String, Subscription> subscriptions
-        = new HashMap<String, Subscription>();
+        = new ConcurrentHashMap<String, Subscription>();
+
+    /**
+     * The subscriptions managed by this instance, indexed by the key of their
+     * subscription <tt>Address</tt>/Request URI so that looking them up by
+     * address does not depend on their number. The arrays are replaced, not
+     * modified, so that they may be read without locking.
+     */
+    private final Map<String, IndexEntry[]> subscriptionsByAddress
+        = new ConcurrentHashMap<String, IndexEntry[]>();
+
+    /**
+     * The pending expiries of the subscriptions, the earliest first. Entries
+     * which have been superseded by a later expiry of their subscription are
+     * left in the queue and skipped when they come up.
+     */
+    private final PriorityQueue<Expiry> expiries = new PriorityQueue<Expiry>();
+
+    /**
+     * The task which expires the subscriptions at the head of
+     * {@link #expiries}. Guarded by {@link #expiries}.
+     */
+    private ExpiryTask expiryTask;
+
+    /**
+     * The time in milliseconds for which {@link #expiryTask} is scheduled.
+     * Guarded by {@link #expiries}.
+     */
+    private long expiryTaskTime;
 
     /**
      * The <code>Timer</code> support which executes the time-based tasks of
@@ -162,9 +198,188 @@ protected void addSubscription(String callId, Subscription subscription)
             if (existingSubscription != null)
                 removeSubscription(callId, existingSubscription);
             subscriptions.put(callId, subscription);
+
+            String key = subscription.getAddressKey();
+            IndexEntry[] entries = subscriptionsByAddress.get(key);
+            IndexEntry entry = new IndexEntry(callId, subscription);
+
+            if (entries == null)
+            {
+                entries = new IndexEntry[] { entry };
+            }
+            else
+            {
+                entries = Arrays.copyOf(entries, entries.length + 1);
+                entries[entries.length - 1] = entry;
+            }
+            subscriptionsByAddress.put(key, entries);
+        }
+    }
+
+    /**
+     * Removes the entry of a <tt>Subscription</tt> associated with a specific
+     * CallId from {@link #subscriptionsByAddress}. The caller is expected to
+     * hold the lock of {@link #subscriptions}.
+     *
+     * @param callId the CallId associated with <tt>subscription</tt>
+     * @param subscription the <tt>Subscription</tt>
+     */
+    private void unindex(String callId, Subscription subscription)
+    {
+        String key = subscription.getAddressKey();
+        IndexEntry[] entries = subscriptionsByAddress.get(key);
+
+        if (entries == null)
+            return;
+
+        for (int i = 0; i < entries.length; i++)
+        {
+            IndexEntry entry = entries[i];
+
+            if ((entry.subscription == subscription)
+                    && entry.callId.equals(callId))
+            {
+                if (entries.length == 1)
+                {
+                    subscriptionsByAddress.remove(key);
+                }
+                else
+                {
+                    IndexEntry[] newEntries
+                        = new IndexEntry[entries.length - 1];
+
+                    System.arraycopy(entries, 0, newEntries, 0, i);
+                    System.arraycopy(
+                            entries, i + 1,
+                            newEntries, i,
+                            entries.length - i - 1);
+                    subscriptionsByAddress.put(key, newEntries);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the key under which the subscriptions with a specific
+     * subscription <tt>Address</tt>/Request URI are indexed. Addresses which
+     * identify the same resource have the same key, e.g. the user part of
+     * a SIP URI, but addresses with the same key may identify different
+     * resources.
+     *
+     * @param address the subscription <tt>Address</tt>/Request URI
+     * @return the key of <tt>address</tt>
+     */
+    static String getAddressKey(Address address)
+    {
+        URI uri = address.getURI();
+
+        if (uri instanceof SipURI)
+        {
+            SipURI sipUri = (SipURI) uri;
+            String user = sipUri.getUser();
+
+            return (user != null)
+                ? user.toLowerCase()
+                : String.valueOf(sipUri.getHost()).toLowerCase();
+        }
+        return uri.toString().toLowerCase();
+    }
+
+    /**
+     * Schedules the expiry of a specific <tt>Subscription</tt>, replacing its
+     * previously scheduled expiry if any. The expiries which fall due within
+     * {@link #EXPIRY_BATCH_WINDOW} of each other are processed together by
+     * {@link #processExpiredSubscriptions(List)}.
+     *
+     * @param subscription the <tt>Subscription</tt> to expire
+     * @param delay the time in milliseconds after which <tt>subscription</tt>
+     * expires
+     */
+    protected void scheduleExpiry(Subscription subscription, long delay)
+    {
+        long time = System.currentTimeMillis() + delay;
+
+        synchronized (expiries)
+        {
+            subscription.expiryTime = time;
+            expiries.add(new Expiry(time, subscription));
+
+            if ((expiryTask == null)
+                    || expiryTask.isCancelled()
+                    || (time < expiryTaskTime))
+            {
+                if (expiryTask != null)
+                    expiryTask.cancel();
+                expiryTask = new ExpiryTask();
+                expiryTaskTime = time;
+                timer.schedule(expiryTask, Math.max(delay, 0));
+            }
+        }
+    }
+
+    /**
+     * Takes the subscriptions which have expired out of {@link #expiries},
+     * schedules {@link #expiryTask} for the next expiry and processes them.
+     */
+    private void expireSubscriptions()
+    {
+        List<Subscription> expired = new ArrayList<Subscription>();
+
+        synchronized (expiries)
+        {
+            long limit = System.currentTimeMillis() + EXPIRY_BATCH_WINDOW;
+            Expiry expiry;
+
+            while (((expiry = expiries.peek()) != null)
+                    && (expiry.time <= limit))
+            {
+                expiries.poll();
+
+                Subscription subscription = expiry.subscription;
+
+                // skip the expiries superseded by a refresh or a removal
+                if (subscription.expiryTime == expiry.time)
+                {
+                    subscription.expiryTime = 0;
+                    expired.add(subscription);
+                }
+            }
+
+            expiryTask = null;
+            if (expiry != null)
+            {
+                expiryTask = new ExpiryTask();
+                expiryTaskTime = expiry.time;
+                timer.schedule(
+                        expiryTask,
+                        Math.max(
+                            expiry.time - System.currentTimeMillis(),
+                            0));
+            }
+        }
+
+        if (!expired.isEmpty())
+        {
+            if (logger.isDebugEnabled())
+                logger.debug(
+                    "Expiring " + expired.size() + " " + eventPackage
+                        + " subscriptions");
+            processExpiredSubscriptions(expired);
         }
     }
 
+    /**
+     * Processes subscriptions whose expiry scheduled with
+     * {@link #scheduleExpiry(Subscription, long)} has come. Does nothing by
+     * default.
+     *
+     * @param subscriptions the expired subscriptions
+     */
+    protected void processExpiredSubscriptions(List<Subscription> subscriptions)
+    {
+    }
+
     /**
      * Gets the name of the event package this instance implements and carried
      * in the Event and Allow-Events headers.
@@ -244,11 +459,14 @@ static ServerTransaction getOrCreateServerTransaction(
      */
     protected Subscription getSubscription(Address toAddress, String eventId)
     {
-        synchronized (subscriptions)
+        IndexEntry[] entries
+            = subscriptionsByAddress.get(getAddressKey(toAddress));
+
+        if (entries != null)
         {
-            for (Subscription subscription : subscriptions.values())
-                if (subscription.equals(toAddress, eventId))
-                    return subscription;
+            for (IndexEntry entry : entries)
+                if (entry.subscription.equals(toAddress, eventId))
+                    return entry.subscription;
         }
         return null;
     }
@@ -266,10 +484,7 @@ protected Subscription getSubscription(Address toAddress, String eventId)
      */
     protected Subscription getSubscription(String callId)
     {
-        synchronized (subscriptions)
-        {
-            return subscriptions.get(callId);
-        }
+        return subscriptions.get(callId);
     }
 
     /**
@@ -282,14 +497,7 @@ protected Subscription getSubscription(String callId)
      */
     protected Subscription[] getSubscriptions()
     {
-        synchronized (this.subscriptions)
-        {
-            Collection<Subscription> subscriptions
-                = this.subscriptions.values();
-
-            return
-                subscriptions.toArray(new Subscription[subscriptions.size()]);
-        }
+        return subscriptions.values().toArray(new Subscription[0]);
     }
 
     /**
@@ -412,20 +620,18 @@ public boolean removeSubscription(Address toAddress, String eventId)
 
         synchronized (subscriptions)
         {
-            Iterator<Map.Entry<String, Subscription>> subscriptionIter
-                = subscriptions.entrySet().iterator();
+            IndexEntry[] entries
+                = subscriptionsByAddress.get(getAddressKey(toAddress));
 
-            while (subscriptionIter.hasNext())
+            if (entries != null)
             {
-                Map.Entry<String, Subscription> subscriptionEntry
-                    = subscriptionIter.next();
-                Subscription subscription = subscriptionEntry.getValue();
-
-                if (subscription.equals(toAddress, eventId))
+                for (IndexEntry entry : entries)
                 {
-                    subscriptionIter.remove();
-                    removed = true;
-                    subscription.removed();
+                    if (entry.subscription.equals(toAddress, eventId)
+                            && removeSubscription(
+                                    entry.callId,
+                                    entry.subscription))
+                        removed = true;
                 }
             }
         }
@@ -457,6 +663,7 @@ protected boolean removeSubscription(String callId, Subscription subscription)
                     && subscriptionToRemove.equals(subscription))
             {
                 subscription = subscriptions.remove(callId);
+                unindex(callId, subscription);
                 subscription.removed();
                 return true;
             }
@@ -548,10 +755,16 @@ public static boolean sendNotImplementedResponse(
         protected final String eventId;
 
         /**
-         * The <code>TimerTask</code> associated with this
-         * <code>Subscription</code>.
+         * The timed task associated with this <code>Subscription</code>.
+         */
+        private SipScheduler.Task timerTask;
+
+        /**
+         * The time in milliseconds at which this <code>Subscription</code>
+         * expires or <tt>0</tt> if no expiry is scheduled. Guarded by the
+         * expiries of the <code>EventPackageSupport</code> which manages it.
          */
-        private TimerTask timerTask;
+        private volatile long expiryTime;
 
         /**
          * Initializes a new <code>Subscription</code> instance with a specific
@@ -594,6 +807,22 @@ protected boolean addressEquals(Address address)
             return getAddress().equals(address);
         }
 
+        /**
+         * Returns the key under which this <tt>Subscription</tt> is indexed by
+         * its <tt>EventPackageSupport</tt>. Extenders which override
+         * {@link #addressEquals(Address)} are to override this method so that
+         * the <tt>Address</tt>es they consider equal to theirs have the same
+         * key as returned by
+         * {@link EventPackageSupport#getAddressKey(Address)}.
+         *
+         * @return the key of the subscription <tt>Address</tt>/Request URI of
+         * this <tt>Subscription</tt>
+         */
+        protected String getAddressKey()
+        {
+            return EventPackageSupport.getAddressKey(getAddress());
+        }
+
         /**
          * Determines whether this <tt>Subscription</tt> is identified by a
          * specific subscription <tt>Address</tt>/Request URI and a specific id
@@ -680,6 +909,8 @@ protected void removed()
         {
             setDialog(null);
             setTimerTask(null);
+            // the pending expiry, if any, is skipped
+            expiryTime = 0;
         }
 
         /**
@@ -698,16 +929,16 @@ protected void setDialog(Dialog dialog)
         }
 
         /**
-         * Sets the <code>TimerTask</code> associated this
-         * <code>Subscription</code>. If this <code>Subscription</code> already
-         * knows of a different <code>TimerTask</code>, that different one is
-         * first canceled before remembering the specified new one.
+         * Sets the timed task associated this <code>Subscription</code>. If
+         * this <code>Subscription</code> already knows of a different task,
+         * that different one is first canceled before remembering the
+         * specified new one.
          *
          * @param timerTask
-         *            a <code>TimerTask</code> to be associated with this
+         *            a task to be associated with this
          *            <code>Subscription</code>
          */
-        protected void setTimerTask(TimerTask timerTask)
+        protected void setTimerTask(SipScheduler.Task timerTask)
         {
             if (this.timerTask != timerTask)
             {
@@ -718,4 +949,71 @@ protected void setTimerTask(TimerTask timerTask)
             }
         }
     }
+
+    /**
+     * An entry of {@link #subscriptionsByAddress}.
+     */
+    private static class IndexEntry
+    {
+        /**
+         * The CallId associated with {@link #subscription}.
+         */
+        final String callId;
+
+        /**
+         * The indexed <tt>Subscription</tt>.
+         */
+        final Subscription subscription;
+
+        IndexEntry(String callId, Subscription subscription)
+        {
+            this.callId = callId;
+            this.subscription = subscription;
+        }
+    }
+
+    /**
+     * A scheduled expiry of a <tt>Subscription</tt> in {@link #expiries}.
+     */
+    private static class Expiry
+        implements Comparable<Expiry>
+    {
+        /**
+         * The time in milliseconds at which {@link #subscription} expires.
+         */
+        final long time;
+
+        /**
+         * The expiring <tt>Subscription</tt>.
+         */
+        final Subscription subscription;
+
+        Expiry(long time, Subscription subscription)
+        {
+            this.time = time;
+            this.subscription = subscription;
+        }
+
+        public int compareTo(Expiry other)
+        {
+            return (time < other.time) ? -1 : ((time == other.time) ? 0 : 1);
+        }
+    }
+
+    /**
+     * The task which expires the subscriptions which are due.
+     */
+    private class ExpiryTask
+        extends SipScheduler.Task
+    {
+        ExpiryTask()
+        {
+            super("SubscriptionExpiryTask");
+        }
+
+        public void run()
+        {
+            expireSubscriptions();
+        }
+    }
 }
@@ -219,6 +219,24 @@
      */
     private final EventPackageSubscriber watcherInfoSubscriber;
 
+    /**
+     * The URI of the resource list of our contacts on a resource list server
+     * or <tt>null</tt> to subscribe to each contact.
+     */
+    private final String rlsUri;
+
+    /**
+     * The subscription to {@link #rlsUri}, if any.
+     */
+    private PresenceListSubscription rlsSubscription = null;
+
+    /**
+     * The contacts whose presence is notified by {@link #rlsSubscription}
+     * and which are therefore not polled one by one.
+     */
+    private final ResourceListMembers<ContactSipImpl> rlsContacts
+        = new ResourceListMembers<ContactSipImpl>();
+
     /**
      * The authorization handler, asking client for authentication.
      */
@@ -383,6 +401,15 @@ protected Subscription createSubscription(
 
         this.sipStatusEnum = parentProvider.getSipStatusEnum();
         this.presenceStatus = sipStatusEnum.getStatus(SipStatusEnum.OFFLINE);
+
+        String rlsUri
+            = provider.getAccountID().getAccountPropertyString(
+                    SipAccountID.PRESENCE_RLS_URI);
+
+        this.rlsUri
+            = (rlsUri == null || rlsUri.trim().length() == 0)
+                ? null
+                : rlsUri.trim();
     }
 
     /**
@@ -1287,7 +1314,8 @@ public boolean processResponse(ResponseEvent responseEvent)
                 // try to keep a margin if the refresh delay allows it
                 if (republishDelay >= (2*REFRESH_MARGIN))
                     republishDelay -= REFRESH_MARGIN;
-                timer.schedule(this.republishTask, republishDelay * 1000);
+                timer.scheduleRefresh(
+                        this.republishTask, republishDelay * 1000L);
 
             // UNAUTHORIZED (401/407)
             }
@@ -2896,7 +2924,8 @@ public void forcePollContact(ContactSipImpl contact)
      {
          if (this.presenceEnabled == false
              || !contact.isResolvable()
-             || !contact.isPersistent())
+             || !contact.isPersistent()
+             || rlsContacts.contains(contact))
              return;
 
          // Attempt to subscribe.
@@ -2910,6 +2939,55 @@ public void forcePollContact(ContactSipImpl contact)
          }
      }
 
+    /**
+     * Subscribes to the resource list of our contacts on the resource list
+     * server, if one is configured and we are not subscribed to it already.
+     */
+    private void pollResourceList()
+    {
+        if (this.presenceEnabled == false || rlsUri == null)
+            return;
+
+        try
+        {
+            Address address = parentProvider.parseAddressString(rlsUri);
+
+            synchronized (rlsContacts)
+            {
+                if (subscriber.getSubscription(address, null) != null)
+                    return;
+
+                rlsSubscription = new PresenceListSubscription(address);
+                subscriber.subscribe(rlsSubscription);
+            }
+        }
+        catch (ParseException ex)
+        {
+            logger.error("Invalid resource list URI " + rlsUri, ex);
+        }
+        catch (OperationFailedException ex)
+        {
+            logger.error("Failed to subscribe to resource list " + rlsUri, ex);
+
+            // fall back to a subscription to each contact
+            rlsContacts.clear();
+            pollUnlistedContacts();
+        }
+    }
+
+    /**
+     * Subscribes to each contact which is not notified through the resource
+     * list, i.e. to every contact when there is no resource list server.
+     */
+    private void pollUnlistedContacts()
+    {
+        for (ContactSipImpl contact : rlsContacts.getUnlisted(
+                ssContactList.getAllContacts(ssContactList.getRootGroup())))
+        {
+            forcePollContact(contact);
+        }
+    }
+
     /**
      * Unsubscribe to every contact.
      */
@@ -2940,6 +3018,22 @@ public void unsubscribeToAllContact()
      */
     private void unsubscribeToAllEventSubscribers()
     {
+        PresenceListSubscription rlsSubscription = this.rlsSubscription;
+
+        if (rlsSubscription != null)
+        {
+            try
+            {
+                subscriber.unsubscribe(rlsSubscription.getAddress(), false);
+            }
+            catch (Throwable ex)
+            {
+                logger.error("Failed to send the unsubscription " +
+                        "for resource list " + rlsUri, ex);
+            }
+            rlsContacts.clear();
+        }
+
         if(this.watcherInfoSubscriber != null)
         {
             try
@@ -3009,9 +3103,9 @@ private void cancelTimer()
      }
 
      /**
-      * A <tt>TimerTask</tt> handling refresh of PUBLISH requests.
+      * A task handling refresh of PUBLISH requests.
       */
-     private class RePublishTask extends TimerTask
+     private class RePublishTask extends SipScheduler.Task
      {
          /**
           * Send a new PUBLISH request to refresh the publication
@@ -3066,7 +3160,7 @@ public void run()
      /**
       * A task handling polling of offline contacts.
       */
-     private class PollOfflineContactsTask extends TimerTask
+     private class PollOfflineContactsTask extends SipScheduler.Task
      {
          /**
           * Check if we can't subscribe to this contact now
@@ -3074,6 +3168,10 @@ private class PollOfflineContactsTask extends TimerTask
          @Override
         public void run()
          {
+             // subscribe again to the resource list if its subscription
+             // was terminated
+             pollResourceList();
+
              // send a subscription for every contact
              Iterator<Contact> rootContactsIter
                 = getServerStoredContactListRoot().contacts();
@@ -3181,7 +3279,8 @@ else if (evt.getNewState().equals(RegistrationState.REGISTERED))
             {
                 logger.debug("enter registered state");
             }
-            // Init XCAP contacts
+            // Init XCAP contacts, the contact list events of the resource
+            // lists are delivered as one batch once they are retrieved
             ssContactList.init();
             /*
             * If presence support is enabled and the keep-alive method
@@ -3196,11 +3295,20 @@ else if (evt.getNewState().equals(RegistrationState.REGISTERED))
                 return;
             }
 
-            // Subcribe to each contact in the list
-            for (ContactSipImpl contact : ssContactList
-                    .getAllContacts(ssContactList.getRootGroup()))
+            // Subscribe to the resource list, which polls the contacts
+            // which are not in the list once it has been notified, or to each
+            // contact in the list
+            if (rlsUri != null)
             {
-                forcePollContact(contact);
+                pollResourceList();
+            }
+            else
+            {
+                for (ContactSipImpl contact : ssContactList
+                        .getAllContacts(ssContactList.getRootGroup()))
+                {
+                    forcePollContact(contact);
+                }
             }
 
             // create the new polling task
@@ -3235,6 +3343,20 @@ else if (evt.getNewState().equals(RegistrationState.CONNECTION_FAILED)
             }
             // Destroy XCAP contacts
             ssContactList.destroy();
+            if (subscriber != null && rlsSubscription != null)
+            {
+                try
+                {
+                    subscriber.removeSubscription(
+                            rlsSubscription.getAddress());
+                }
+                catch (Throwable ex)
+                {
+                    logger.error("Failed to remove subscription " +
+                            "for resource list " + rlsUri, ex);
+                }
+            }
+            rlsContacts.clear();
             // if connection failed we have lost network connectivity
             // we must fire that all contacts has gone offline
             for (ContactSipImpl contact : ssContactList
@@ -3435,6 +3557,30 @@ protected boolean addressEquals(Address address)
                     || contactAddressString.equals(id3);
         }
 
+        /**
+         * Returns the key under which this <tt>Subscription</tt> is indexed,
+         * i.e. the user part of the address of the contact, which is the key
+         * of all the addresses {@link #addressEquals(Address)} accepts.
+         *
+         * @return the key of this <tt>Subscription</tt>
+         * @see EventPackageSupport.Subscription#getAddressKey()
+         */
+        @Override
+        protected String getAddressKey()
+        {
+            String key = contact.getAddress();
+            int domainBeginIndex = key.indexOf('@');
+            int schemeEndIndex = key.indexOf(':');
+
+            if (domainBeginIndex >= 0)
+                key = key.substring(0, domainBeginIndex);
+            if ((schemeEndIndex >= 0)
+                    && ((domainBeginIndex < 0)
+                        || (schemeEndIndex < domainBeginIndex)))
+                key = key.substring(schemeEndIndex + 1);
+            return key.toLowerCase();
+        }
+
         /**
          * Creates content for a notify request using the specified
          * <tt>subscriptionState</tt> and <tt>reason</tt> string.
@@ -3454,6 +3600,38 @@ protected byte[] createNotifyContent(String subscriptionState,
         }
     }
 
+    /**
+     * Updates the state of our subscription to the presence of a contact
+     * with the state notified by its presence server or by the resource list
+     * server.
+     *
+     * @param contact the contact
+     * @param state the state of the subscription, <tt>pending</tt> or
+     * <tt>active</tt>
+     */
+    private void updateSubscriptionState(ContactSipImpl contact, String state)
+    {
+        if(SubscriptionStateHeader.PENDING.equals(state))
+        {
+            contact.setSubscriptionState(SubscriptionStateHeader.PENDING);
+        }
+        else if(SubscriptionStateHeader.ACTIVE.equals(state))
+        {
+            // if contact was in pending state
+            // our authorization request was accepted
+            if(SubscriptionStateHeader.PENDING
+                    .equals(contact.getSubscriptionState())
+               && authorizationHandler != null)
+            {
+                authorizationHandler.processAuthorizationResponse(
+                        new AuthorizationResponse(
+                                AuthorizationResponse.ACCEPT, ""),
+                        contact);
+            }
+            contact.setSubscriptionState(SubscriptionStateHeader.ACTIVE);
+        }
+    }
+
     /**
      * Represents a subscription to the presence event package of a specific
      * <code>ContactSipImpl</code>.
@@ -3507,31 +3685,7 @@ protected void processActiveRequest(
                         .getHeader(SubscriptionStateHeader.NAME);
 
             if(stateHeader != null)
-            {
-                if(SubscriptionStateHeader.PENDING
-                        .equals(stateHeader.getState()))
-                {
-                    contact.setSubscriptionState(
-                            SubscriptionStateHeader.PENDING);
-                }
-                else if(SubscriptionStateHeader.ACTIVE
-                        .equals(stateHeader.getState()))
-                {
-                    // if contact was in pending state
-                    // our authorization request was accepted
-                    if(SubscriptionStateHeader.PENDING
-                            .equals(contact.getSubscriptionState())
-                       && authorizationHandler != null)
-                    {
-                        authorizationHandler.processAuthorizationResponse(
-                                new AuthorizationResponse(
-                                        AuthorizationResponse.ACCEPT, ""),
-                                contact);
-                    }
-                    contact.setSubscriptionState(
-                            SubscriptionStateHeader.ACTIVE);
-                }
-            }
+                updateSubscriptionState(contact, stateHeader.getState());
         }
 
         /*
@@ -3665,6 +3819,207 @@ protected void processTerminatedRequest(
         }
     }
 
+    /**
+     * Represents a subscription to the presence event package of the
+     * resource list of our contacts on a resource list server (RFC 4662). The
+     * contacts in the list are notified through it instead of being
+     * subscribed to one by one.
+     */
+    private class PresenceListSubscription
+        extends EventPackageSubscriber.ResourceListSubscription
+    {
+        /**
+         * Initializes a new <tt>PresenceListSubscription</tt> instance.
+         *
+         * @param toAddress the URI of the resource list
+         */
+        public PresenceListSubscription(Address toAddress)
+        {
+            super(toAddress);
+        }
+
+        /**
+         * Updates the contacts covered by the list when it is notified in
+         * full, processes the states of its resources and then subscribes
+         * to the contacts which are not in the list.
+         *
+         * @param requestEvent the <tt>RequestEvent</tt> carrying the NOTIFY
+         * <tt>Request</tt>
+         * @param notification the parsed body of the NOTIFY
+         * <tt>Request</tt>
+         */
+        @Override
+        protected void processResourceList(
+            RequestEvent requestEvent,
+            ResourceListNotification notification)
+        {
+            if (notification.isFullState())
+            {
+                Set<ContactSipImpl> listContacts
+                    = new HashSet<ContactSipImpl>();
+
+                for (ResourceListNotification.Resource resource
+                        : notification.getResources())
+                {
+                    if (resource.getUri().length() == 0)
+                        continue;
+
+                    ContactSipImpl contact
+                        = resolveContactID(resource.getUri());
+
+                    if (contact != null)
+                        listContacts.add(contact);
+                }
+
+                List<ContactSipImpl> added = rlsContacts.update(listContacts);
+
+                // the contacts we used to subscribe to are now notified
+                // through the list
+                for (ContactSipImpl contact : added)
+                {
+                    try
+                    {
+                        subscriber.unsubscribe(
+                            OperationSetPresenceSipImpl.this
+                                .getAddress(contact),
+                            false);
+                    }
+                    catch (Throwable ex)
+                    {
+                        logger.error("Failed to unsubscribe from " + contact
+                                + " covered by resource list " + rlsUri, ex);
+                    }
+                }
+            }
+
+            super.processResourceList(requestEvent, notification);
+
+            // the contacts which are not in the list are subscribed to
+            // one by one
+            if (notification.isFullState())
+                pollUnlistedContacts();
+        }
+
+        /**
+         * Processes the state of a contact of the list like
+         * <tt>PresenceSubscriberSubscription</tt> processes a NOTIFY of a
+         * subscription to the contact itself.
+         *
+         * @param requestEvent the <tt>RequestEvent</tt> carrying the NOTIFY
+         * <tt>Request</tt>
+         * @param resource the contact and the state of its subscriptions
+         */
+        @Override
+        protected void processResource(
+            RequestEvent requestEvent,
+            ResourceListNotification.Resource resource)
+        {
+            ContactSipImpl contact = resolveContactID(resource.getUri());
+
+            if (contact == null)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Resource " + resource.getUri()
+                            + " of resource list " + rlsUri
+                            + " is not in our contact list");
+                return;
+            }
+
+            for (ResourceListNotification.Instance instance
+                    : resource.getInstances())
+            {
+                if (ResourceListNotification.TERMINATED
+                        .equals(instance.getState()))
+                {
+                    terminateSubscription(contact);
+
+                    if (SubscriptionStateHeader.REJECTED
+                            .equals(instance.getReason()))
+                    {
+                        if(SubscriptionStateHeader.PENDING
+                                .equals(contact.getSubscriptionState())
+                            && authorizationHandler != null)
+                        {
+                            authorizationHandler.processAuthorizationResponse(
+                                new AuthorizationResponse(
+                                    AuthorizationResponse.REJECT, ""),
+                                contact);
+                        }
+
+                        // as this contact is rejected we mark it as not
+                        // resolvable so we won't subscribe again
+                        contact.setResolvable(false);
+                    }
+
+                    contact.setSubscriptionState(
+                            SubscriptionStateHeader.TERMINATED);
+                }
+                else
+                {
+                    if (instance.getContent() != null)
+                        setPidfPresenceStatus(
+                                new String(instance.getContent()));
+
+                    if (!contact.isResolved())
+                        finalizeSubscription(contact);
+
+                    updateSubscriptionState(contact, instance.getState());
+                }
+            }
+        }
+
+        /**
+         * Falls back to a subscription to each contact when the resource
+         * list server refuses the subscription to the list.
+         *
+         * @param responseEvent the <tt>ResponseEvent</tt> carrying the
+         * failure <tt>Response</tt>
+         * @param statusCode the status code of the failure <tt>Response</tt>
+         */
+        @Override
+        protected void processFailureResponse(
+            ResponseEvent responseEvent,
+            int statusCode)
+        {
+            logger.warn("Subscription to resource list " + rlsUri
+                    + " failed with " + statusCode
+                    + ", subscribing to each contact");
+
+            rlsContacts.clear();
+            pollUnlistedContacts();
+        }
+
+        /*
+         * Implements
+         * EventPackageSubscriber.Subscription#processSuccessResponse(
+         * ResponseEvent, int).
+         */
+        @Override
+        protected void processSuccessResponse(
+            ResponseEvent responseEvent,
+            int statusCode)
+        {
+            // the contacts are resolved when the list is notified
+        }
+
+        /**
+         * Stops treating the contacts of the list as notified through it
+         * when the subscription to the list is terminated. The poll task
+         * subscribes to the list again.
+         *
+         * @param requestEvent the <tt>RequestEvent</tt> carrying the NOTIFY
+         * <tt>Request</tt>
+         * @param reasonCode the reason of the termination
+         */
+        @Override
+        protected void processTerminatedRequest(
+            RequestEvent requestEvent,
+            String reasonCode)
+        {
+            rlsContacts.clear();
+        }
+    }
+
     /**
      * Represents a subscription to the presence.winfo event package.
      *
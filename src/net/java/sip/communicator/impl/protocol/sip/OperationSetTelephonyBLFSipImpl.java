@@ -78,6 +78,13 @@
      */
     public static final String BLF_LINE_PICKUP_ACC_PROP_PREFIX = "Pickup";
 
+    /**
+     * Account property with the URI of a resource list of the monitored
+     * lines on a resource list server (RFC 4662), to which we subscribe
+     * instead of subscribing to each line.
+     */
+    public static final String BLF_RLS_URI_ACC_PROP = "BLF_RLS_URI";
+
     /**
      * The name of the event package supported by
      * <tt>BLFServiceImpl</tt> in SUBSCRIBE
@@ -141,6 +148,19 @@
     private static final String DATA_PROP
         = LineDetails.class.getCanonicalName();
 
+    /**
+     * The URI of the resource list of the monitored lines or <tt>null</tt>
+     * to subscribe to each line.
+     */
+    private final String rlsUri;
+
+    /**
+     * The lines whose dialogs are notified through the subscription to
+     * {@link #rlsUri} and which are therefore not subscribed to one by one.
+     */
+    private final ResourceListMembers<Line> rlsLines
+        = new ResourceListMembers<Line>();
+
     /**
      * Constructs the operations set and initializes the monitored lines.
      * @param provider
@@ -153,6 +173,14 @@ public OperationSetTelephonyBLFSipImpl(
 
         initLines();
 
+        String rlsUri
+            = provider.getAccountID().getAccountPropertyString(
+                    BLF_RLS_URI_ACC_PROP);
+
+        this.rlsUri = StringUtils.isNullOrEmpty(rlsUri, true)
+            ? null
+            : rlsUri.trim();
+
         this.subscriber
             = new EventPackageSubscriber(
             this.provider,
@@ -368,25 +396,10 @@ public void registrationStateChanged(RegistrationStateChangeEvent evt)
     {
         if(evt.getNewState().equals(RegistrationState.REGISTERED))
         {
-            for(Line line : this.lines)
-            {
-                // Attempt to subscribe.
-                try
-                {
-                    subscriber.poll(new DialogInfoSubscriberSubscription(
-                        provider.parseAddressString(line.getAddress()), line));
-                }
-                catch (OperationFailedException ex)
-                {
-                    logger.error(
-                        "Failed to create and send the subscription", ex);
-                }
-                catch (ParseException ex)
-                {
-                    logger.error(
-                        "Failed to create and send the subscription", ex);
-                }
-            }
+            // the lines are subscribed to one by one once the list has been
+            // notified, if they are not in it, or if it cannot be subscribed
+            if (rlsUri == null || !subscribeToResourceList())
+                subscribeToLines();
         }
         else if(evt.getNewState().equals(RegistrationState.UNREGISTERING))
         {
@@ -401,6 +414,24 @@ else if(evt.getNewState().equals(
         {
             if (subscriber != null)
             {
+                if (rlsUri != null)
+                {
+                    try
+                    {
+                        subscriber.removeSubscription(
+                            provider.parseAddressString(rlsUri));
+                    }
+                    catch(ParseException ex)
+                    {
+                        if(logger.isDebugEnabled())
+                        {
+                            logger.debug("Failed to remove subscription for "
+                                + rlsUri);
+                        }
+                    }
+                    rlsLines.clear();
+                }
+
                 for(Line line : this.lines)
                 {
                     try
@@ -424,6 +455,58 @@ else if(evt.getNewState().equals(
         }
     }
 
+    /**
+     * Subscribes to the resource list of the monitored lines.
+     *
+     * @return <tt>true</tt> if the subscription was sent
+     */
+    private boolean subscribeToResourceList()
+    {
+        try
+        {
+            subscriber.poll(new DialogInfoListSubscription(
+                provider.parseAddressString(rlsUri)));
+            return true;
+        }
+        catch (OperationFailedException ex)
+        {
+            logger.error(
+                "Failed to subscribe to resource list " + rlsUri, ex);
+        }
+        catch (ParseException ex)
+        {
+            logger.error("Invalid resource list URI " + rlsUri, ex);
+        }
+        return false;
+    }
+
+    /**
+     * Subscribes to each monitored line which is not notified through the
+     * resource list.
+     */
+    private void subscribeToLines()
+    {
+        for(Line line : rlsLines.getUnlisted(this.lines))
+        {
+            // Attempt to subscribe.
+            try
+            {
+                subscriber.poll(new DialogInfoSubscriberSubscription(
+                    provider.parseAddressString(line.getAddress()), line));
+            }
+            catch (OperationFailedException ex)
+            {
+                logger.error(
+                    "Failed to create and send the subscription", ex);
+            }
+            catch (ParseException ex)
+            {
+                logger.error(
+                    "Failed to create and send the subscription", ex);
+            }
+        }
+    }
+
     /**
      * Fires event.
      * @param line
@@ -502,6 +585,149 @@ private String getTextContent(Element node)
         return res;
     }
 
+    /**
+     * Parses a dialog-info document notified for a line and updates the
+     * state of the line.
+     *
+     * @param line the line
+     * @param rawContent the dialog-info document
+     */
+    private void processDialogInfo(Line line, byte[] rawContent)
+    {
+        if(rawContent == null)
+            return;
+
+        Document doc = convertDocument(rawContent);
+
+        if (doc == null)
+            return;
+
+        if (logger.isTraceEnabled())
+            logger.trace("parsing:\n" + new String(rawContent));
+
+        LineDetails details = (LineDetails)line.getData(DATA_PROP);
+        if(details == null)
+        {
+            details = new LineDetails();
+            line.setData(DATA_PROP, details);
+        }
+
+        // <dialog>
+        NodeList dialogList = doc.getElementsByTagNameNS(ANY_NS,
+            "dialog");
+
+        if(dialogList.getLength() == 0)
+        {
+            // no dialogs - it is free
+            updateLineState(line, details, "Terminated");
+            return;
+        }
+
+        for (int i = 0; i < dialogList.getLength(); i++)
+        {
+            Node dialogNode = dialogList.item(i);
+            Element dialogElem = (Element)dialogNode;
+
+            details.id = dialogElem.getAttribute("id");
+            details.direction = dialogElem.getAttribute("direction");
+            details.callID = dialogElem.getAttribute("call-id");
+            details.localTag = dialogElem.getAttribute("local-tag");
+            details.remoteTag = dialogElem.getAttribute("remote-tag");
+
+            NodeList states = ((Element)dialogNode)
+                .getElementsByTagNameNS(ANY_NS, "state");
+
+            if(states.getLength() == 0)
+                continue;
+
+            updateLineState(
+                line,
+                details,
+                getTextContent((Element)states.item(0)));
+        }
+    }
+
+    /**
+     * Dispatch the state from the xml and set the corresponding state
+     * of the line.
+     *
+     * @param line the line
+     * @param details the details of <tt>line</tt>
+     * @param state is one of: Trying, Proceeding, Early,
+     * Confirmed, Terminated
+     */
+    private void updateLineState(Line line, LineDetails details, String state)
+    {
+        int newEvent = BLFStatusEvent.STATUS_OFFLINE;
+
+        switch(details.lastStatusEvent)
+        {
+            case BLFStatusEvent.STATUS_OFFLINE:
+                if(state.equalsIgnoreCase("Trying")
+                    || state.equalsIgnoreCase("Proceeding")
+                    || state.equalsIgnoreCase("Early"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_RINGING;
+                }
+                else if(state.equalsIgnoreCase("Confirmed"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_BUSY;
+                }
+                else if(state.equalsIgnoreCase("Terminated"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_FREE;
+                }
+                break;
+            case BLFStatusEvent.STATUS_FREE:
+                if(state.equalsIgnoreCase("Trying")
+                    || state.equalsIgnoreCase("Proceeding")
+                    || state.equalsIgnoreCase("Early"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_RINGING;
+                }
+                else if(state.equalsIgnoreCase("Confirmed"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_BUSY;
+                }
+                else if(state.equalsIgnoreCase("Terminated"))
+                {
+                    // status is free so return
+                    return;
+                }
+                break;
+            case BLFStatusEvent.STATUS_BUSY:
+                if(state.equalsIgnoreCase("Terminated"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_FREE;
+                }
+                else
+                {
+                    // status is busy so return
+                    return;
+                }
+                break;
+            case BLFStatusEvent.STATUS_RINGING:
+                if(state.equalsIgnoreCase("Confirmed"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_BUSY;
+                }
+                else if(state.equalsIgnoreCase("Terminated"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_FREE;
+                }
+                else
+                {
+                    // status is ringing so return
+                    return;
+                }
+                break;
+            default:
+                return;
+        }
+
+        fireEvent(line, newEvent);
+    }
+
     /**
      * Represents a subscription to the dialog+info event package of a specific
      * <code>Address</code>.
@@ -545,148 +771,236 @@ protected void processActiveRequest(
             RequestEvent requestEvent,
             byte[] rawContent)
         {
-            if(rawContent == null)
-                return;
+            processDialogInfo(line, rawContent);
+        }
+
+        /*
+         * Implements
+         * EventPackageSubscriber.Subscription#processFailureResponse(
+         * ResponseEvent, int).
+         */
+        @Override
+        protected void processFailureResponse(
+            ResponseEvent responseEvent,
+            int statusCode)
+        {
+            fireEvent(line, BLFStatusEvent.STATUS_OFFLINE);
+        }
 
-            Document doc = convertDocument(rawContent);
+        /*
+         * Implements
+         * EventPackageSubscriber.Subscription#processSuccessResponse(
+         * ResponseEvent, int).
+         */
+        @Override
+        protected void processSuccessResponse(
+            ResponseEvent responseEvent,
+            int statusCode)
+        {
+            switch(statusCode)
+            {
+                case Response.OK:
+                case Response.ACCEPTED:
+                    fireEvent(line, BLFStatusEvent.STATUS_FREE);
+                    break;
+            }
+        }
 
-            if (doc == null)
-                return;
+        /**
+         * Implements the corresponding <tt>SipListener</tt> method by
+         * terminating the corresponding subscription and polling the related
+         * address.
+         *
+         * @param requestEvent the event containing the request that was
+         *                     terminated.
+         * @param reasonCode   a String indicating the reason of the termination.
+         */
+        @Override
+        protected void processTerminatedRequest(
+            RequestEvent requestEvent, String reasonCode)
+        {
+            fireEvent(line, BLFStatusEvent.STATUS_OFFLINE);
+        }
+    }
 
-            if (logger.isTraceEnabled())
-                logger.trace("parsing:\n" + new String(rawContent));
+    /**
+     * Represents a subscription to the dialog event package of the resource
+     * list of the monitored lines on a resource list server (RFC 4662).
+     */
+    private class DialogInfoListSubscription
+        extends EventPackageSubscriber.ResourceListSubscription
+    {
+        /**
+         * The monitored lines by the URI of their address.
+         */
+        private final Map<String, Line> linesByUri
+            = new HashMap<String, Line>();
+
+        /**
+         * Initializes a new <tt>DialogInfoListSubscription</tt> instance.
+         *
+         * @param address the URI of the resource list
+         */
+        public DialogInfoListSubscription(Address address)
+        {
+            super(address);
 
-            LineDetails details = (LineDetails)line.getData(DATA_PROP);
-            if(details == null)
+            for(Line line : lines)
             {
-                details = new LineDetails();
-                line.setData(DATA_PROP, details);
-            }
+                String uri = getUri(line.getAddress());
 
-            // <dialog>
-            NodeList dialogList = doc.getElementsByTagNameNS(ANY_NS,
-                "dialog");
+                if (uri != null)
+                    linesByUri.put(uri, line);
+            }
+        }
 
-            if(dialogList.getLength() == 0)
+        /**
+         * Returns the URI of an address the way it is compared with the
+         * URIs of the resources of the list.
+         *
+         * @param address the address of a line or resource
+         * @return the URI of <tt>address</tt> or <tt>null</tt> if it cannot
+         * be parsed
+         */
+        private String getUri(String address)
+        {
+            try
             {
-                // no dialogs - it is free
-                updateLineState(details, "Terminated");
-                return;
+                return provider.parseAddressString(address).getURI()
+                    .toString();
+            }
+            catch (ParseException ex)
+            {
+                if(logger.isDebugEnabled())
+                    logger.debug("Failed to parse address " + address);
+                return null;
             }
+        }
 
-            for (int i = 0; i < dialogList.getLength(); i++)
+        /**
+         * Updates the lines covered by the list when it is notified in full,
+         * processes the dialogs of its resources and then subscribes to the
+         * lines which are not in the list.
+         *
+         * @param requestEvent the <tt>RequestEvent</tt> carrying the NOTIFY
+         * <tt>Request</tt>
+         * @param notification the parsed body of the NOTIFY
+         * <tt>Request</tt>
+         */
+        @Override
+        protected void processResourceList(
+            RequestEvent requestEvent,
+            ResourceListNotification notification)
+        {
+            if (notification.isFullState())
             {
-                Node dialogNode = dialogList.item(i);
-                Element dialogElem = (Element)dialogNode;
+                Set<Line> listLines = new HashSet<Line>();
 
-                details.id = dialogElem.getAttribute("id");
-                details.direction = dialogElem.getAttribute("direction");
-                details.callID = dialogElem.getAttribute("call-id");
-                details.localTag = dialogElem.getAttribute("local-tag");
-                details.remoteTag = dialogElem.getAttribute("remote-tag");
+                for (ResourceListNotification.Resource resource
+                        : notification.getResources())
+                {
+                    Line line = getLine(resource);
 
-                NodeList states = ((Element)dialogNode)
-                    .getElementsByTagNameNS(ANY_NS, "state");
+                    if (line != null)
+                        listLines.add(line);
+                }
 
-                if(states.getLength() == 0)
-                    continue;
+                List<Line> added = rlsLines.update(listLines);
 
-                updateLineState(
-                    details,
-                    getTextContent((Element)states.item(0)));
+                // the lines we used to subscribe to are now notified
+                // through the list
+                for (Line line : added)
+                {
+                    try
+                    {
+                        subscriber.unsubscribe(
+                            provider.parseAddressString(line.getAddress()),
+                            false);
+                    }
+                    catch (Throwable ex)
+                    {
+                        logger.error("Failed to unsubscribe from "
+                            + line.getAddress() + " covered by resource list "
+                            + rlsUri, ex);
+                    }
+                }
             }
+
+            super.processResourceList(requestEvent, notification);
+
+            if (notification.isFullState())
+                subscribeToLines();
+        }
+
+        /**
+         * Returns the line of a resource of the list.
+         *
+         * @param resource the resource
+         * @return the line whose address is the URI of <tt>resource</tt> or
+         * <tt>null</tt> if it is not monitored
+         */
+        private Line getLine(ResourceListNotification.Resource resource)
+        {
+            if (resource.getUri().length() == 0)
+                return null;
+
+            String uri = getUri(resource.getUri());
+
+            return (uri == null) ? null : linesByUri.get(uri);
         }
 
         /**
-         * Dispatch the state from the xml and set the corresponding state
-         * of the line.
+         * Processes the dialogs of a line of the list like
+         * <tt>DialogInfoSubscriberSubscription</tt> processes a NOTIFY of a
+         * subscription to the line itself.
          *
-         * @param state is one of: Trying, Proceeding, Early,
-         * Confirmed, Terminated
+         * @param requestEvent the <tt>RequestEvent</tt> carrying the NOTIFY
+         * <tt>Request</tt>
+         * @param resource the line and the state of its subscriptions
          */
-        private void updateLineState(LineDetails details, String state)
+        @Override
+        protected void processResource(
+            RequestEvent requestEvent,
+            ResourceListNotification.Resource resource)
         {
-            int newEvent = BLFStatusEvent.STATUS_OFFLINE;
+            Line line = getLine(resource);
+
+            if (line == null)
+                return;
 
-            switch(details.lastStatusEvent)
+            for (ResourceListNotification.Instance instance
+                    : resource.getInstances())
             {
-                case BLFStatusEvent.STATUS_OFFLINE:
-                    if(state.equalsIgnoreCase("Trying")
-                        || state.equalsIgnoreCase("Proceeding")
-                        || state.equalsIgnoreCase("Early"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_RINGING;
-                    }
-                    else if(state.equalsIgnoreCase("Confirmed"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_BUSY;
-                    }
-                    else if(state.equalsIgnoreCase("Terminated"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_FREE;
-                    }
-                    break;
-                case BLFStatusEvent.STATUS_FREE:
-                    if(state.equalsIgnoreCase("Trying")
-                        || state.equalsIgnoreCase("Proceeding")
-                        || state.equalsIgnoreCase("Early"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_RINGING;
-                    }
-                    else if(state.equalsIgnoreCase("Confirmed"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_BUSY;
-                    }
-                    else if(state.equalsIgnoreCase("Terminated"))
-                    {
-                        // status is free so return
-                        return;
-                    }
-                    break;
-                case BLFStatusEvent.STATUS_BUSY:
-                    if(state.equalsIgnoreCase("Terminated"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_FREE;
-                    }
-                    else
-                    {
-                        // status is busy so return
-                        return;
-                    }
-                    break;
-                case BLFStatusEvent.STATUS_RINGING:
-                    if(state.equalsIgnoreCase("Confirmed"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_BUSY;
-                    }
-                    else if(state.equalsIgnoreCase("Terminated"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_FREE;
-                    }
-                    else
-                    {
-                        // status is ringing so return
-                        return;
-                    }
-                    break;
-                default:
-                    return;
+                if (ResourceListNotification.TERMINATED
+                        .equals(instance.getState()))
+                {
+                    fireEvent(line, BLFStatusEvent.STATUS_OFFLINE);
+                }
+                else if (instance.getContent() != null)
+                {
+                    processDialogInfo(line, instance.getContent());
+                }
             }
-
-            fireEvent(line, newEvent);
         }
 
-        /*
-         * Implements
-         * EventPackageSubscriber.Subscription#processFailureResponse(
-         * ResponseEvent, int).
+        /**
+         * Falls back to a subscription to each line when the resource list
+         * server refuses the subscription to the list.
+         *
+         * @param responseEvent the <tt>ResponseEvent</tt> carrying the
+         * failure <tt>Response</tt>
+         * @param statusCode the status code of the failure <tt>Response</tt>
          */
         @Override
         protected void processFailureResponse(
             ResponseEvent responseEvent,
             int statusCode)
         {
-            fireEvent(line, BLFStatusEvent.STATUS_OFFLINE);
+            logger.warn("Subscription to resource list " + rlsUri
+                + " failed with " + statusCode + ", subscribing to each line");
+
+            rlsLines.clear();
+            subscribeToLines();
         }
 
         /*
@@ -699,19 +1013,12 @@ protected void processSuccessResponse(
             ResponseEvent responseEvent,
             int statusCode)
         {
-            switch(statusCode)
-            {
-                case Response.OK:
-                case Response.ACCEPTED:
-                    fireEvent(line, BLFStatusEvent.STATUS_FREE);
-                    break;
-            }
+            // the lines are updated when the list is notified
         }
 
         /**
-         * Implements the corresponding <tt>SipListener</tt> method by
-         * terminating the corresponding subscription and polling the related
-         * address.
+         * Subscribes to each line when the subscription to the list is
+         * terminated.
          *
          * @param requestEvent the event containing the request that was
          *                     terminated.
@@ -721,7 +1028,8 @@ protected void processSuccessResponse(
         protected void processTerminatedRequest(
             RequestEvent requestEvent, String reasonCode)
         {
-            fireEvent(line, BLFStatusEvent.STATUS_OFFLINE);
+            rlsLines.clear();
+            subscribeToLines();
         }
     }
 
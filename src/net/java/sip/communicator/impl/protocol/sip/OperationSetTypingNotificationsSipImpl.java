@@ -118,7 +118,7 @@
     /**
      * The global timer managing the tasks.
      */
-    private Timer timer = new Timer();
+    private final TimerScheduler timer = new TimerScheduler();
 
     /**
      * The timer tasks for received events, it timer time is reached this
@@ -582,7 +582,7 @@ void shutdown()
      * Task that will fire typing stopped when refresh time expires.
      */
     private class TypingTask
-        extends TimerTask
+        extends SipScheduler.Task
     {
         /**
          * The contact that is typing in case of receiving the event and
@@ -0,0 +1,99 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.util.*;
+
+/**
+ * The members of a resource list (RFC 4662), i.e. the contacts or lines
+ * whose states are notified through the subscription to the list and which
+ * are therefore not subscribed to one by one. Without a resource list
+ * server, or when the subscription to the list fails or is terminated, there
+ * are no members and everything is subscribed to one by one.
+ *
+ * @param <T> the type of the members
+ */
+class ResourceListMembers<T>
+{
+    /**
+     * The members of the list.
+     */
+    private final Set<T> members = new HashSet<T>();
+
+    /**
+     * Determines whether something is notified through the list.
+     *
+     * @param member the contact or line
+     * @return <tt>true</tt> if <tt>member</tt> is in the list and is not to
+     * be subscribed to one by one
+     */
+    synchronized boolean contains(T member)
+    {
+        return members.contains(member);
+    }
+
+    /**
+     * Replaces the members with those of a full state notification of the
+     * list.
+     *
+     * @param listed the contacts or lines in the list
+     * @return the members which were not in the list before, whose own
+     * subscriptions are no longer needed
+     */
+    synchronized List<T> update(Collection<T> listed)
+    {
+        List<T> added = new ArrayList<T>();
+
+        members.retainAll(listed);
+        for (T member : listed)
+        {
+            if (members.add(member))
+                added.add(member);
+        }
+        return added;
+    }
+
+    /**
+     * Returns those of some contacts or lines which are not in the list and
+     * are therefore to be subscribed to one by one.
+     *
+     * @param all the contacts or lines
+     * @return the elements of <tt>all</tt> which are not in the list, in
+     * their order
+     */
+    synchronized List<T> getUnlisted(Collection<T> all)
+    {
+        List<T> unlisted = new ArrayList<T>();
+
+        for (T member : all)
+        {
+            if (!members.contains(member))
+                unlisted.add(member);
+        }
+        return unlisted;
+    }
+
+    /**
+     * Removes all the members, when the subscription to the list fails or
+     * ends, so that they are subscribed to one by one.
+     */
+    synchronized void clear()
+    {
+        members.clear();
+    }
+}
@@ -0,0 +1,785 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.io.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.jitsi.util.xml.*;
+import org.w3c.dom.*;
+
+/**
+ * The body of a NOTIFY request sent by a resource list server as defined in
+ * RFC 4662 "A Session Initiation Protocol (SIP) Event Notification Extension
+ * for Resource Lists": a <tt>multipart/related</tt> body whose root part is a
+ * Resource List Meta-Information (RLMI) document and whose other parts are
+ * the states of the resources of the list, e.g. PIDF documents for the
+ * presence event package.
+ * <p>
+ * The resources of the nested lists are flattened into the resources of the
+ * notification.
+ */
+public class ResourceListNotification
+{
+    /**
+     * Our class logger.
+     */
+    private static final Logger logger
+        = Logger.getLogger(ResourceListNotification.class);
+
+    /**
+     * The namespace of RLMI documents.
+     */
+    public static final String RLMI_NS = "urn:ietf:params:xml:ns:rlmi";
+
+    /**
+     * The content type of RLMI documents.
+     */
+    public static final String RLMI_CONTENT_TYPE = "application/rlmi+xml";
+
+    /**
+     * The content type of the NOTIFY bodies of resource list subscriptions.
+     */
+    public static final String MULTIPART_RELATED = "multipart/related";
+
+    /**
+     * The state of an instance whose subscription is active.
+     */
+    public static final String ACTIVE = "active";
+
+    /**
+     * The state of an instance whose subscription is pending.
+     */
+    public static final String PENDING = "pending";
+
+    /**
+     * The state of an instance whose subscription is terminated.
+     */
+    public static final String TERMINATED = "terminated";
+
+    /**
+     * The URI of the list.
+     */
+    private final String uri;
+
+    /**
+     * The version of the RLMI document.
+     */
+    private final int version;
+
+    /**
+     * Whether the notification carries the state of all the resources of
+     * the list or only of those which have changed.
+     */
+    private final boolean fullState;
+
+    /**
+     * The resources of the list carried in the notification.
+     */
+    private final List<Resource> resources = new ArrayList<Resource>();
+
+    /**
+     * Initializes a new <tt>ResourceListNotification</tt>.
+     *
+     * @param uri the URI of the list
+     * @param version the version of the RLMI document
+     * @param fullState whether the notification carries the state of all the
+     * resources of the list
+     */
+    private ResourceListNotification(
+            String uri,
+            int version,
+            boolean fullState)
+    {
+        this.uri = uri;
+        this.version = version;
+        this.fullState = fullState;
+    }
+
+    /**
+     * Returns the URI of the list.
+     *
+     * @return the URI of the list
+     */
+    public String getUri()
+    {
+        return uri;
+    }
+
+    /**
+     * Returns the version of the RLMI document, which the server increments
+     * with each notification of a subscription.
+     *
+     * @return the version of the RLMI document
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Determines whether the notification carries the state of all the
+     * resources of the list, in which case the resources it does not carry
+     * are no longer in the list, or only of those which have changed.
+     *
+     * @return <tt>true</tt> if the notification carries the state of all the
+     * resources of the list
+     */
+    public boolean isFullState()
+    {
+        return fullState;
+    }
+
+    /**
+     * Returns the resources carried in the notification.
+     *
+     * @return the resources carried in the notification
+     */
+    public List<Resource> getResources()
+    {
+        return resources;
+    }
+
+    /**
+     * Parses the <tt>multipart/related</tt> body of a NOTIFY request.
+     *
+     * @param boundary the <tt>boundary</tt> parameter of the
+     * <tt>Content-Type</tt> header of the request
+     * @param body the body of the request
+     * @return the parsed notification or <tt>null</tt> if <tt>body</tt> is
+     * not a valid resource list notification
+     */
+    public static ResourceListNotification parse(String boundary, byte[] body)
+    {
+        if (boundary == null || body == null)
+            return null;
+
+        List<Part> parts = parseMultipart(boundary, body);
+
+        if (parts == null || parts.isEmpty())
+        {
+            logger.error("Invalid multipart body in resource list NOTIFY");
+            return null;
+        }
+
+        // the root part, i.e. the RLMI document, is usually the first one
+        Part root = null;
+        Map<String, Part> partsByCid = new HashMap<String, Part>();
+
+        for (Part part : parts)
+        {
+            if (root == null && RLMI_CONTENT_TYPE.equals(part.getType()))
+                root = part;
+
+            String cid = part.headers.get("content-id");
+
+            if (cid != null)
+            {
+                cid = cid.trim();
+                if (cid.startsWith("<") && cid.endsWith(">"))
+                    cid = cid.substring(1, cid.length() - 1);
+                partsByCid.put(cid, part);
+            }
+        }
+        if (root == null)
+        {
+            logger.error("No RLMI document in resource list NOTIFY");
+            return null;
+        }
+
+        Element list;
+
+        try
+        {
+            list
+                = XMLUtils.createDocument(new String(root.content, "UTF-8"))
+                    .getDocumentElement();
+        }
+        catch (Exception e)
+        {
+            logger.error("Can't parse the RLMI document", e);
+            return null;
+        }
+        if (!"list".equals(getLocalName(list)))
+        {
+            logger.error("The RLMI document has no list element");
+            return null;
+        }
+
+        int version;
+
+        try
+        {
+            version = Integer.parseInt(list.getAttribute("version").trim());
+        }
+        catch (NumberFormatException e)
+        {
+            logger.error("Invalid version in RLMI document", e);
+            return null;
+        }
+
+        ResourceListNotification notification
+            = new ResourceListNotification(
+                    list.getAttribute("uri"),
+                    version,
+                    Boolean.parseBoolean(list.getAttribute("fullState")));
+
+        for (Element resourceElem : getChildren(list, "resource"))
+        {
+            String name = null;
+
+            for (Element nameElem : getChildren(resourceElem, "name"))
+            {
+                name = nameElem.getTextContent();
+                break;
+            }
+
+            Resource resource
+                = new Resource(resourceElem.getAttribute("uri"), name);
+
+            notification.resources.add(resource);
+
+            for (Element instanceElem : getChildren(resourceElem, "instance"))
+            {
+                Instance instance
+                    = new Instance(
+                            instanceElem.getAttribute("id"),
+                            instanceElem.getAttribute("state"),
+                            emptyToNull(instanceElem.getAttribute("reason")));
+                Part part = partsByCid.get(instanceElem.getAttribute("cid"));
+
+                resource.instances.add(instance);
+                if (part == null)
+                    continue;
+
+                if (MULTIPART_RELATED.equals(part.getType()))
+                {
+                    // a nested list
+                    ResourceListNotification nested
+                        = parse(
+                            getParameter(
+                                part.headers.get("content-type"),
+                                "boundary"),
+                            part.content);
+
+                    if (nested != null)
+                        notification.resources.addAll(nested.resources);
+                }
+                else
+                {
+                    instance.contentType = part.getType();
+                    instance.content = part.content;
+                }
+            }
+        }
+
+        return notification;
+    }
+
+    /**
+     * Returns the value of a parameter of a header such as
+     * <tt>Content-Type</tt>.
+     *
+     * @param header the value of the header
+     * @param name the name of the parameter
+     * @return the value of the parameter without quotes or <tt>null</tt> if
+     * the header has no such parameter
+     */
+    static String getParameter(String header, String name)
+    {
+        if (header == null)
+            return null;
+
+        String[] params = header.split(";");
+
+        for (int i = 1; i < params.length; i++)
+        {
+            String param = params[i].trim();
+            int eq = param.indexOf('=');
+
+            if (eq > 0 && param.substring(0, eq).trim().equalsIgnoreCase(name))
+            {
+                String value = param.substring(eq + 1).trim();
+
+                if (value.length() > 1
+                    && value.startsWith("\"")
+                    && value.endsWith("\""))
+                {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits a <tt>multipart</tt> body into its parts.
+     *
+     * @param boundary the boundary of the parts
+     * @param body the body
+     * @return the parts of <tt>body</tt> or <tt>null</tt> if it is not a
+     * valid <tt>multipart</tt> body
+     */
+    private static List<Part> parseMultipart(String boundary, byte[] body)
+    {
+        byte[] delimiter;
+
+        try
+        {
+            delimiter = ("--" + boundary).getBytes("ISO-8859-1");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // every Java platform supports ISO-8859-1
+            return null;
+        }
+
+        List<Part> parts = new ArrayList<Part>();
+        int start = indexOfDelimiter(body, delimiter, 0);
+
+        while (start != -1)
+        {
+            int afterDelimiter = start + delimiter.length;
+
+            // the close delimiter
+            if (afterDelimiter + 1 < body.length
+                && body[afterDelimiter] == '-'
+                && body[afterDelimiter + 1] == '-')
+            {
+                return parts;
+            }
+
+            int partStart = indexOfLineEnd(body, afterDelimiter);
+
+            if (partStart == -1)
+                return null;
+
+            int next = indexOfDelimiter(body, delimiter, partStart);
+
+            if (next == -1)
+                return null;
+
+            // the line break before the delimiter belongs to it
+            int partEnd = next;
+
+            if (partEnd > partStart && body[partEnd - 1] == '\n')
+                partEnd--;
+            if (partEnd > partStart && body[partEnd - 1] == '\r')
+                partEnd--;
+
+            Part part = parsePart(body, partStart, partEnd);
+
+            if (part == null)
+                return null;
+            parts.add(part);
+            start = next;
+        }
+        return null;
+    }
+
+    /**
+     * Parses the headers and the content of a part of a <tt>multipart</tt>
+     * body.
+     *
+     * @param body the <tt>multipart</tt> body
+     * @param start the index of the first byte of the part
+     * @param end the index after the last byte of the part
+     * @return the part or <tt>null</tt> if it is not valid
+     */
+    private static Part parsePart(byte[] body, int start, int end)
+    {
+        Part part = new Part();
+        int lineStart = start;
+
+        // the headers, up to an empty line
+        while (true)
+        {
+            // a part without content may end with its headers
+            if (lineStart >= end)
+            {
+                lineStart = end;
+                break;
+            }
+
+            int lineEnd = indexOfLineEnd(body, lineStart);
+
+            if (lineEnd == -1 || lineEnd > end)
+                return null;
+
+            String line;
+
+            try
+            {
+                line
+                    = new String(
+                            body,
+                            lineStart,
+                            lineEnd - lineStart,
+                            "ISO-8859-1").trim();
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                // every Java platform supports ISO-8859-1
+                return null;
+            }
+
+            lineStart = lineEnd;
+            if (line.length() == 0)
+                break;
+
+            int colon = line.indexOf(':');
+
+            if (colon > 0)
+            {
+                part.headers.put(
+                        line.substring(0, colon).trim()
+                            .toLowerCase(Locale.ENGLISH),
+                        line.substring(colon + 1).trim());
+            }
+        }
+
+        part.content = Arrays.copyOfRange(body, lineStart, end);
+
+        String encoding = part.headers.get("content-transfer-encoding");
+
+        if ("base64".equalsIgnoreCase(encoding))
+        {
+            try
+            {
+                part.content
+                    = java.util.Base64.getMimeDecoder().decode(part.content);
+            }
+            catch (IllegalArgumentException e)
+            {
+                logger.error("Invalid base64 part in multipart body", e);
+                return null;
+            }
+        }
+        return part;
+    }
+
+    /**
+     * Returns the index of a delimiter of a <tt>multipart</tt> body, which
+     * starts the body or a line.
+     *
+     * @param body the <tt>multipart</tt> body
+     * @param delimiter the delimiter
+     * @param from the index to start searching from
+     * @return the index of <tt>delimiter</tt> or <tt>-1</tt>
+     */
+    private static int indexOfDelimiter(byte[] body, byte[] delimiter, int from)
+    {
+        for (int i = from; i + delimiter.length <= body.length; i++)
+        {
+            if (i > 0 && body[i - 1] != '\n')
+                continue;
+
+            int j = 0;
+
+            while (j < delimiter.length && body[i + j] == delimiter[j])
+                j++;
+            if (j == delimiter.length)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the start of the line after the one containing a
+     * specific index.
+     *
+     * @param body the bytes
+     * @param from the index in the line
+     * @return the index of the start of the next line or <tt>-1</tt> if there
+     * is no line break after <tt>from</tt>
+     */
+    private static int indexOfLineEnd(byte[] body, int from)
+    {
+        for (int i = from; i < body.length; i++)
+        {
+            if (body[i] == '\n')
+                return i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the child elements of an element with a specific local name,
+     * whatever their namespace, as servers do not always use the RLMI one.
+     *
+     * @param parent the parent element
+     * @param localName the local name of the children
+     * @return the children of <tt>parent</tt> named <tt>localName</tt>
+     */
+    private static List<Element> getChildren(Element parent, String localName)
+    {
+        List<Element> children = new ArrayList<Element>();
+
+        for (Node node = parent.getFirstChild();
+                node != null;
+                node = node.getNextSibling())
+        {
+            if (node.getNodeType() == Node.ELEMENT_NODE
+                && localName.equals(getLocalName(node)))
+            {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Returns the local name of a node, whether or not it was parsed with
+     * namespaces.
+     *
+     * @param node the node
+     * @return the local name of <tt>node</tt>
+     */
+    private static String getLocalName(Node node)
+    {
+        String localName = node.getLocalName();
+
+        if (localName == null)
+        {
+            localName = node.getNodeName();
+
+            int colon = localName.indexOf(':');
+
+            if (colon != -1)
+                localName = localName.substring(colon + 1);
+        }
+        return localName;
+    }
+
+    /**
+     * Returns <tt>null</tt> for an empty attribute value.
+     *
+     * @param s the attribute value
+     * @return <tt>s</tt> or <tt>null</tt> if it is empty
+     */
+    private static String emptyToNull(String s)
+    {
+        return (s == null || s.length() == 0) ? null : s;
+    }
+
+    /**
+     * A resource of a list.
+     */
+    public static class Resource
+    {
+        /**
+         * The URI of the resource.
+         */
+        private final String uri;
+
+        /**
+         * The name of the resource or <tt>null</tt>.
+         */
+        private final String name;
+
+        /**
+         * The instances of the resource.
+         */
+        private final List<Instance> instances = new ArrayList<Instance>(1);
+
+        /**
+         * Initializes a new <tt>Resource</tt>.
+         *
+         * @param uri the URI of the resource
+         * @param name the name of the resource or <tt>null</tt>
+         */
+        Resource(String uri, String name)
+        {
+            this.uri = uri;
+            this.name = name;
+        }
+
+        /**
+         * Returns the URI of the resource.
+         *
+         * @return the URI of the resource
+         */
+        public String getUri()
+        {
+            return uri;
+        }
+
+        /**
+         * Returns the name of the resource.
+         *
+         * @return the name of the resource or <tt>null</tt>
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Returns the instances of the resource, i.e. the subscriptions of
+         * the server to the resource. A resource without instances is being
+         * subscribed to by the server.
+         *
+         * @return the instances of the resource
+         */
+        public List<Instance> getInstances()
+        {
+            return instances;
+        }
+    }
+
+    /**
+     * A subscription of the server to a resource and its state.
+     */
+    public static class Instance
+    {
+        /**
+         * The id of the instance.
+         */
+        private final String id;
+
+        /**
+         * The state of the subscription.
+         */
+        private final String state;
+
+        /**
+         * The reason of the termination of the subscription or
+         * <tt>null</tt>.
+         */
+        private final String reason;
+
+        /**
+         * The content type of {@link #content}.
+         */
+        private String contentType;
+
+        /**
+         * The state of the resource or <tt>null</tt>.
+         */
+        private byte[] content;
+
+        /**
+         * Initializes a new <tt>Instance</tt>.
+         *
+         * @param id the id of the instance
+         * @param state the state of the subscription
+         * @param reason the reason of the termination of the subscription
+         * or <tt>null</tt>
+         */
+        Instance(String id, String state, String reason)
+        {
+            this.id = id;
+            this.state = state;
+            this.reason = reason;
+        }
+
+        /**
+         * Returns the id of the instance.
+         *
+         * @return the id of the instance
+         */
+        public String getId()
+        {
+            return id;
+        }
+
+        /**
+         * Returns the state of the subscription: {@link #ACTIVE},
+         * {@link #PENDING} or {@link #TERMINATED}.
+         *
+         * @return the state of the subscription
+         */
+        public String getState()
+        {
+            return state;
+        }
+
+        /**
+         * Returns the reason of the termination of the subscription, e.g.
+         * <tt>rejected</tt> or <tt>noresource</tt>.
+         *
+         * @return the reason of the termination of the subscription or
+         * <tt>null</tt>
+         */
+        public String getReason()
+        {
+            return reason;
+        }
+
+        /**
+         * Returns the content type of the state of the resource.
+         *
+         * @return the content type of the state of the resource, e.g.
+         * <tt>application/pidf+xml</tt>, or <tt>null</tt>
+         */
+        public String getContentType()
+        {
+            return contentType;
+        }
+
+        /**
+         * Returns the state of the resource, in the format of the event
+         * package.
+         *
+         * @return the state of the resource or <tt>null</tt> if the
+         * notification does not carry it
+         */
+        public byte[] getContent()
+        {
+            return content;
+        }
+    }
+
+    /**
+     * A part of a <tt>multipart</tt> body.
+     */
+    private static class Part
+    {
+        /**
+         * The headers of the part by lower case name.
+         */
+        final Map<String, String> headers = new HashMap<String, String>();
+
+        /**
+         * The content of the part.
+         */
+        byte[] content;
+
+        /**
+         * Returns the content type of the part without its parameters.
+         *
+         * @return the lower case content type of the part or <tt>null</tt>
+         */
+        String getType()
+        {
+            String contentType = headers.get("content-type");
+
+            if (contentType == null)
+                return null;
+
+            int semicolon = contentType.indexOf(';');
+
+            if (semicolon != -1)
+                contentType = contentType.substring(0, semicolon);
+            return contentType.trim().toLowerCase(Locale.ENGLISH);
+        }
+    }
+}
@@ -679,52 +679,63 @@ synchronized public void init()
                 }
             }
             boolean updateResourceLists = false;
-            // Resolve localy saved contacts and groups with server stored
-            // contacts and groups
-            resolveContactGroup(rootGroup, serverRootList, false);
-            // Upload unresolved contacts and groups to the server.
-            for (ContactSipImpl contact : getAllContacts(rootGroup))
+            // the contact list events are delivered as one batch, the server
+            // is only queried before and updated after it
+            parentOperationSet.fireSubscriptionBatchStarted();
+            try
             {
-                if (!contact.isResolved() && contact.isPersistent())
+                // Resolve localy saved contacts and groups with server stored
+                // contacts and groups
+                resolveContactGroup(rootGroup, serverRootList, false);
+                // Upload unresolved contacts and groups to the server.
+                for (ContactSipImpl contact : getAllContacts(rootGroup))
                 {
-                    contact.setResolved(true);
-                    ContactGroupSipImpl parentGroup = ((ContactGroupSipImpl)
-                            contact.getParentContactGroup());
-                    // If contact is xcap.resolved and is not on the server we
-                    // delete it
-                    if (contact.isXCapResolved())
+                    if (!contact.isResolved() && contact.isPersistent())
                     {
-                        parentGroup.removeContact(contact);
-                        fireContactRemoved(parentGroup, contact);
+                        contact.setResolved(true);
+                        ContactGroupSipImpl parentGroup = ((ContactGroupSipImpl)
+                                contact.getParentContactGroup());
+                        // If contact is xcap.resolved and is not on the server
+                        // we delete it
+                        if (contact.isXCapResolved())
+                        {
+                            parentGroup.removeContact(contact);
+                            fireContactRemoved(parentGroup, contact);
+                        }
+                        // If contact is added localy we upload it
+                        else
+                        {
+                            updateResourceLists = true;
+                            String oldValue = contact.getPersistentData();
+                            contact.setXCapResolved(true);
+                            fireContactResolved(parentGroup, contact);
+
+                            // fire that property is changed in order
+                            // to save change, event resolved doesn't save it
+                            parentOperationSet.fireContactPropertyChangeEvent(
+                                ContactPropertyChangeEvent
+                                    .PROPERTY_PERSISTENT_DATA,
+                                contact,
+                                oldValue,
+                                contact.getPersistentData()
+                            );
+                        }
                     }
-                    // If contact is added localy we upload it
-                    else
+                }
+                for (ContactGroupSipImpl group : getAllGroups(rootGroup))
+                {
+                    if (!group.isResolved() && group.isPersistent())
                     {
                         updateResourceLists = true;
-                        String oldValue = contact.getPersistentData();
-                        contact.setXCapResolved(true);
-                        fireContactResolved(parentGroup, contact);
-
-                        // fire that property is changed in order
-                        // to save change, event resolved doesn't save it
-                        parentOperationSet.fireContactPropertyChangeEvent(
-                            ContactPropertyChangeEvent.PROPERTY_PERSISTENT_DATA,
-                            contact,
-                            oldValue,
-                            contact.getPersistentData()
-                        );
+                        group.setResolved(true);
+                        fireGroupEvent(group,
+                                ServerStoredGroupEvent.GROUP_RESOLVED_EVENT);
                     }
                 }
             }
-            for (ContactGroupSipImpl group : getAllGroups(rootGroup))
+            finally
             {
-                if (!group.isResolved() && group.isPersistent())
-                {
-                    updateResourceLists = true;
-                    group.setResolved(true);
-                    fireGroupEvent(group,
-                            ServerStoredGroupEvent.GROUP_RESOLVED_EVENT);
-                }
+                parentOperationSet.fireSubscriptionBatchEnded();
             }
             // Update resource-lists if needed
             if(updateResourceLists)
@@ -95,7 +95,7 @@
     /**
     * The timer we use for rescheduling registrations.
     */
-    private Timer reRegisterTimer = new Timer();
+    private final TimerScheduler reRegisterTimer = new TimerScheduler();
 
     /**
     * A copy of our last sent register request. (used when unregistering)
@@ -746,7 +746,7 @@ public void setRegistrationState(RegistrationState newState,
     * it will resend the REGISTER request.
     */
     private class ReRegisterTask
-        extends TimerTask
+        extends SipScheduler.Task
     {
         /**
         * Creates a new instance of the ReRegister task prepared to reregister
@@ -784,16 +784,15 @@ public void run()
     private void cancelPendingRegistrations()
     {
         reRegisterTimer.cancel();
-        reRegisterTimer = null;
-
-        reRegisterTimer = new Timer();
     }
 
     /**
     * Schedules a reregistration for after almost <tt>expires</tt>
     * seconds. The method leaves a margin for all intervals, scheduling
     * the registration for slightly earlier by reducing with 10% the number
-    * of seconds specified in the expires param.
+    * of seconds specified in the expires param, and randomly by up to
+    * another 10% so that the accounts registered together do not stay
+    * aligned.
     * <p>
     * @param expires the number of seconds that we specified in the
     * expires header when registering.
@@ -802,12 +801,12 @@ private void scheduleReRegistration(int expires)
     {
         ReRegisterTask reRegisterTask = new ReRegisterTask();
 
-        //java.util.Timer thinks in miliseconds and expires header contains
+        //the scheduler thinks in miliseconds and expires header contains
         //seconds
         //bug report and fix by Willem Romijn (romijn at lucent.com)
         //We keep a margin of 10% when sending re-registrations (1000
         //becomes 900)
-        reRegisterTimer.schedule(reRegisterTask, expires * 900);
+        reRegisterTimer.scheduleRefresh(reRegisterTask, expires * 900L);
     }
 
     /**
@@ -0,0 +1,132 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.util.*;
+
+/**
+ * The targets that <tt>SipStackSharing</tt> dispatches incoming requests to,
+ * indexed by the user ID of their account, so that finding the candidates
+ * for a request does not depend on the number of accounts sharing the
+ * stack.
+ * <p>
+ * A table is filled with {@link #add(Object, String)} when the targets
+ * change, and is never modified once published, so that it may be read
+ * without locking. The value of the
+ * {@link SipStackSharing#CONTACT_ADDRESS_CUSTOM_PARAM_NAME} parameter of the
+ * contact address of a target is not indexed but read with
+ * {@link #getParamValue(Object)} when a request needs it, since it is only
+ * known once the account has initialised its registrar connection.
+ *
+ * @param <T> the type of the targets
+ */
+abstract class SipRoutingTable<T>
+{
+    /**
+     * All the targets, in the order they were added.
+     */
+    private final List<T> targets = new ArrayList<T>();
+
+    /**
+     * The targets by the user ID of their account.
+     */
+    private final Map<String, List<T>> targetsByUserID
+        = new HashMap<String, List<T>>();
+
+    /**
+     * Adds a target to this table.
+     *
+     * @param target the target
+     * @param userID the user ID of the account of <tt>target</tt>
+     */
+    void add(T target, String userID)
+    {
+        targets.add(target);
+
+        List<T> withUserID = targetsByUserID.get(userID);
+
+        if (withUserID == null)
+        {
+            withUserID = new ArrayList<T>(1);
+            targetsByUserID.put(userID, withUserID);
+        }
+        withUserID.add(target);
+    }
+
+    /**
+     * Returns the current value of the custom parameter of the contact
+     * address of a target.
+     *
+     * @param target the target
+     * @return the value of the custom parameter of the contact address of
+     * <tt>target</tt> or <tt>null</tt> if it has none
+     */
+    abstract String getParamValue(T target);
+
+    /**
+     * Returns all the targets.
+     *
+     * @return all the targets, in the order they were added
+     */
+    List<T> getTargets()
+    {
+        return targets;
+    }
+
+    /**
+     * Returns the targets with a user ID.
+     *
+     * @param userID the user ID, e.g. the user of a Request-URI
+     * @return the targets whose account has <tt>userID</tt>
+     */
+    List<T> getTargets(String userID)
+    {
+        List<T> withUserID
+            = (userID == null) ? null : targetsByUserID.get(userID);
+
+        return (withUserID == null) ? Collections.<T>emptyList() : withUserID;
+    }
+
+    /**
+     * Returns the targets with a user ID and a value of the custom parameter
+     * of their contact address.
+     *
+     * @param userID the user ID, e.g. the user of a Request-URI
+     * @param paramValue the value of the custom parameter
+     * @return the targets whose account has <tt>userID</tt> and whose contact
+     * address has <tt>paramValue</tt>
+     */
+    List<T> getTargets(String userID, String paramValue)
+    {
+        if (paramValue == null)
+            return Collections.emptyList();
+
+        List<T> withParam = null;
+
+        for (T target : getTargets(userID))
+        {
+            if (paramValue.equals(getParamValue(target)))
+            {
+                if (withParam == null)
+                    withParam = new ArrayList<T>(1);
+                withParam.add(target);
+            }
+        }
+        return (withParam == null) ? Collections.<T>emptyList() : withParam;
+    }
+}
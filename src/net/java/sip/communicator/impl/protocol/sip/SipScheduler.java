@@ -0,0 +1,649 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * The scheduler shared by all the SIP accounts, which runs their timed tasks
+ * (subscription refreshes, re-registrations, re-publications, polling) on a
+ * small pool of daemon threads instead of a <tt>java.util.Timer</tt> thread
+ * per feature and per account, so that a slow task does not delay all the
+ * other tasks of its feature.
+ * <p>
+ * Refreshes are scheduled with {@link #scheduleRefresh(Task, long)} and
+ * periodic tasks with {@link #schedule(Task, long, long)}, both of which
+ * randomly bring the executions forward by up to {@link #JITTER} of their
+ * delay, so that the refreshes of the many subscriptions created at login
+ * do not stay aligned.
+ * <p>
+ * The tasks are grouped by name for the statistics of their latency, i.e.
+ * how late they start, and of their overruns, i.e. the executions which
+ * take longer than {@link #OVERRUN_THRESHOLD} and therefore hold up a
+ * thread of the pool. The statistics are available from
+ * {@link #getStatistics()} and are logged every {@link #METRICS_PERIOD}.
+ */
+public class SipScheduler
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>SipScheduler</tt> class for
+     * logging output.
+     */
+    private static final Logger logger = Logger.getLogger(SipScheduler.class);
+
+    /**
+     * The fraction of their delay by which the refreshes and the periodic
+     * tasks are randomly brought forward.
+     */
+    static final double JITTER = 0.1;
+
+    /**
+     * The duration in milliseconds of an execution above which it is counted
+     * as an overrun and logged.
+     */
+    static final long OVERRUN_THRESHOLD = 1000;
+
+    /**
+     * The period in milliseconds of the logging of the statistics.
+     */
+    private static final long METRICS_PERIOD = 10 * 60 * 1000;
+
+    /**
+     * The scheduler shared by all the SIP accounts.
+     */
+    private static SipScheduler instance;
+
+    /**
+     * The executor which runs the tasks.
+     */
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * The statistics by task name.
+     */
+    private final Map<String, TaskStatistics> statistics
+        = new TreeMap<String, TaskStatistics>();
+
+    /**
+     * The source of the jitter.
+     */
+    private final Random random = new Random();
+
+    /**
+     * Returns the scheduler shared by all the SIP accounts.
+     *
+     * @return the scheduler shared by all the SIP accounts
+     */
+    public static synchronized SipScheduler getInstance()
+    {
+        if (instance == null)
+            instance = new SipScheduler();
+        return instance;
+    }
+
+    /**
+     * Initializes a new <tt>SipScheduler</tt>.
+     */
+    private SipScheduler()
+    {
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        executor
+            = new ScheduledThreadPoolExecutor(
+                    Math.max(
+                        2,
+                        Runtime.getRuntime().availableProcessors() / 2),
+                    new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread thread
+                                = new Thread(
+                                        r,
+                                        "SipScheduler-"
+                                            + threadCount.incrementAndGet());
+
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        // the refresh tasks of the removed subscriptions are canceled long
+        // before they are due
+        executor.setRemoveOnCancelPolicy(true);
+
+        executor.scheduleWithFixedDelay(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        logStatistics();
+                    }
+                },
+                METRICS_PERIOD,
+                METRICS_PERIOD,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules a task for execution after a delay.
+     *
+     * @param task the task
+     * @param delay the delay in milliseconds before the execution of
+     * <tt>task</tt>
+     */
+    public void schedule(Task task, long delay)
+    {
+        task.schedule(this, delay, 0);
+    }
+
+    /**
+     * Schedules a task which refreshes a state before it expires, randomly
+     * bringing it forward by up to {@link #JITTER} of its delay.
+     *
+     * @param task the task
+     * @param delay the delay in milliseconds before the state needs to be
+     * refreshed
+     */
+    public void scheduleRefresh(Task task, long delay)
+    {
+        task.schedule(this, jitter(delay), 0);
+    }
+
+    /**
+     * Schedules a task for repeated fixed-delay execution. Each delay is
+     * randomly shortened by up to {@link #JITTER} of it.
+     *
+     * @param task the task
+     * @param delay the delay in milliseconds before the first execution of
+     * <tt>task</tt>
+     * @param period the time in milliseconds between the end of an execution
+     * of <tt>task</tt> and the start of the next one
+     */
+    public void schedule(Task task, long delay, long period)
+    {
+        if (period <= 0)
+            throw new IllegalArgumentException("period");
+        task.schedule(this, jitter(delay), period);
+    }
+
+    /**
+     * Returns the statistics of the tasks.
+     *
+     * @return the statistics of the tasks, by task name
+     */
+    public Map<String, TaskStatistics> getStatistics()
+    {
+        Map<String, TaskStatistics> copy
+            = new TreeMap<String, TaskStatistics>();
+
+        synchronized (statistics)
+        {
+            for (Map.Entry<String, TaskStatistics> e : statistics.entrySet())
+                copy.put(e.getKey(), new TaskStatistics(e.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Randomly shortens a delay by up to {@link #JITTER} of it.
+     *
+     * @param delay the delay in milliseconds
+     * @return the jittered delay in milliseconds
+     */
+    private long jitter(long delay)
+    {
+        if (delay <= 0)
+            return delay;
+
+        double jitter;
+
+        synchronized (random)
+        {
+            jitter = random.nextDouble();
+        }
+        return delay - (long) (delay * JITTER * jitter);
+    }
+
+    /**
+     * Schedules the next execution of a task on {@link #executor}.
+     *
+     * @param task the task
+     * @param generation the number of times <tt>task</tt> has been
+     * scheduled, which identifies the schedule the execution belongs to
+     * @param delay the delay in milliseconds
+     * @return the future of the execution
+     */
+    private ScheduledFuture<?> submit(
+            final Task task,
+            final int generation,
+            long delay)
+    {
+        final long due = System.currentTimeMillis() + Math.max(delay, 0);
+
+        return
+            executor.schedule(
+                    new Runnable()
+                    {
+                        public void run()
+                        {
+                            execute(task, generation, due);
+                        }
+                    },
+                    delay,
+                    TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a task, records its latency and duration and schedules its next
+     * execution if it is periodic.
+     *
+     * @param task the task
+     * @param generation the schedule the execution belongs to
+     * @param due the time in milliseconds at which the execution was due
+     */
+    private void execute(Task task, int generation, long due)
+    {
+        if (!task.isScheduled(generation))
+            return;
+
+        long start = System.currentTimeMillis();
+
+        try
+        {
+            task.run();
+        }
+        catch (Throwable t)
+        {
+            if (t instanceof ThreadDeath)
+                throw (ThreadDeath) t;
+            logger.error("Task " + task.getName() + " failed", t);
+        }
+        finally
+        {
+            long end = System.currentTimeMillis();
+
+            record(task.getName(), start - due, end - start);
+            task.executed(this, generation);
+        }
+    }
+
+    /**
+     * Records an execution of a task in its statistics.
+     *
+     * @param name the name of the task
+     * @param latency how late the execution started, in milliseconds
+     * @param duration the duration of the execution, in milliseconds
+     */
+    private void record(String name, long latency, long duration)
+    {
+        boolean overrun = (duration > OVERRUN_THRESHOLD);
+
+        synchronized (statistics)
+        {
+            TaskStatistics stats = statistics.get(name);
+
+            if (stats == null)
+            {
+                stats = new TaskStatistics();
+                statistics.put(name, stats);
+            }
+            stats.executions++;
+            stats.totalLatency += Math.max(latency, 0);
+            stats.maxLatency = Math.max(stats.maxLatency, latency);
+            stats.maxDuration = Math.max(stats.maxDuration, duration);
+            if (overrun)
+                stats.overruns++;
+        }
+
+        if (overrun)
+        {
+            logger.warn(
+                "Task " + name + " ran for " + duration
+                    + " ms and started " + latency + " ms late");
+        }
+    }
+
+    /**
+     * Logs the statistics of the tasks.
+     */
+    private void logStatistics()
+    {
+        if (!logger.isInfoEnabled())
+            return;
+
+        Map<String, TaskStatistics> statistics = getStatistics();
+
+        if (statistics.isEmpty())
+            return;
+
+        StringBuilder s = new StringBuilder("SIP scheduler statistics:");
+
+        for (Map.Entry<String, TaskStatistics> e : statistics.entrySet())
+        {
+            s.append("\n  ").append(e.getKey()).append(": ")
+                .append(e.getValue());
+        }
+        logger.info(s);
+    }
+
+    /**
+     * A task of a <tt>SipScheduler</tt>. Unlike a <tt>TimerTask</tt>, it may
+     * be scheduled again once it has been executed or canceled.
+     */
+    public static abstract class Task
+        implements Runnable
+    {
+        /**
+         * The name under which the statistics of the task are recorded.
+         */
+        private final String name;
+
+        /**
+         * The future of the next execution of the task.
+         */
+        private ScheduledFuture<?> future;
+
+        /**
+         * The period in milliseconds of the task or <tt>0</tt> if it is not
+         * periodic.
+         */
+        private long period;
+
+        /**
+         * Whether the task has been canceled since it was last scheduled.
+         */
+        private boolean cancelled;
+
+        /**
+         * The number of times the task has been scheduled, which tells the
+         * executions of its current schedule from those of a previous one.
+         */
+        private int generation;
+
+        /**
+         * The <tt>TimerScheduler</tt> which scheduled the task, if any.
+         */
+        private TimerScheduler owner;
+
+        /**
+         * Initializes a new <tt>Task</tt> named after its class.
+         */
+        protected Task()
+        {
+            this(null);
+        }
+
+        /**
+         * Initializes a new <tt>Task</tt> with a name.
+         *
+         * @param name the name under which the statistics of the task are
+         * recorded or <tt>null</tt> to use the name of its class
+         */
+        protected Task(String name)
+        {
+            if (name == null)
+            {
+                name = getClass().getName();
+                name = name.substring(name.lastIndexOf('.') + 1);
+            }
+            this.name = name;
+        }
+
+        /**
+         * Returns the name under which the statistics of this task are
+         * recorded.
+         *
+         * @return the name of this task
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Cancels the next executions of this task.
+         *
+         * @return <tt>true</tt> if an execution was prevented
+         */
+        public boolean cancel()
+        {
+            TimerScheduler owner;
+            boolean prevented;
+
+            synchronized (this)
+            {
+                prevented = !cancelled && (future != null);
+                cancelled = true;
+                if (future != null)
+                {
+                    future.cancel(false);
+                    future = null;
+                }
+                owner = this.owner;
+                this.owner = null;
+            }
+            if (owner != null)
+                owner.removed(this);
+            return prevented;
+        }
+
+        /**
+         * Determines whether this task has been canceled since it was last
+         * scheduled.
+         *
+         * @return <tt>true</tt> if this task has been canceled
+         */
+        public synchronized boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        /**
+         * Determines whether an execution of this task belongs to its
+         * current schedule, which has not been canceled.
+         *
+         * @param generation the schedule of the execution
+         * @return <tt>true</tt> if the execution is to run
+         */
+        private synchronized boolean isScheduled(int generation)
+        {
+            return !cancelled && (this.generation == generation);
+        }
+
+        /**
+         * Sets the <tt>TimerScheduler</tt> which schedules this task.
+         *
+         * @param owner the <tt>TimerScheduler</tt> which schedules this task
+         */
+        synchronized void setOwner(TimerScheduler owner)
+        {
+            this.owner = owner;
+        }
+
+        /**
+         * Schedules the first execution of this task.
+         *
+         * @param scheduler the scheduler
+         * @param delay the delay in milliseconds
+         * @param period the period in milliseconds or <tt>0</tt>
+         */
+        private synchronized void schedule(
+                SipScheduler scheduler,
+                long delay,
+                long period)
+        {
+            if (future != null)
+                future.cancel(false);
+            this.cancelled = false;
+            this.period = period;
+            this.future = scheduler.submit(this, ++generation, delay);
+        }
+
+        /**
+         * Schedules the next execution of this task if it is periodic, once
+         * it has been executed.
+         *
+         * @param scheduler the scheduler
+         * @param generation the schedule of the execution
+         */
+        private void executed(SipScheduler scheduler, int generation)
+        {
+            TimerScheduler owner = null;
+
+            synchronized (this)
+            {
+                if (!isScheduled(generation))
+                    return;
+                if (period > 0)
+                {
+                    future
+                        = scheduler.submit(
+                                this,
+                                generation,
+                                scheduler.jitter(period));
+                }
+                else
+                {
+                    future = null;
+                    owner = this.owner;
+                    this.owner = null;
+                }
+            }
+            if (owner != null)
+                owner.removed(this);
+        }
+    }
+
+    /**
+     * The statistics of the executions of the tasks with the same name.
+     */
+    public static class TaskStatistics
+    {
+        /**
+         * The number of executions.
+         */
+        private long executions;
+
+        /**
+         * The sum of the latencies of the executions, in milliseconds.
+         */
+        private long totalLatency;
+
+        /**
+         * The maximum latency of an execution, in milliseconds.
+         */
+        private long maxLatency;
+
+        /**
+         * The maximum duration of an execution, in milliseconds.
+         */
+        private long maxDuration;
+
+        /**
+         * The number of executions which took longer than
+         * {@link SipScheduler#OVERRUN_THRESHOLD}.
+         */
+        private long overruns;
+
+        /**
+         * Initializes new empty <tt>TaskStatistics</tt>.
+         */
+        TaskStatistics()
+        {
+        }
+
+        /**
+         * Initializes a copy of <tt>TaskStatistics</tt>.
+         *
+         * @param other the statistics to copy
+         */
+        TaskStatistics(TaskStatistics other)
+        {
+            executions = other.executions;
+            totalLatency = other.totalLatency;
+            maxLatency = other.maxLatency;
+            maxDuration = other.maxDuration;
+            overruns = other.overruns;
+        }
+
+        /**
+         * Returns the number of executions.
+         *
+         * @return the number of executions
+         */
+        public long getExecutions()
+        {
+            return executions;
+        }
+
+        /**
+         * Returns the average latency of the executions, i.e. how late they
+         * started on average.
+         *
+         * @return the average latency in milliseconds
+         */
+        public long getAverageLatency()
+        {
+            return (executions == 0) ? 0 : totalLatency / executions;
+        }
+
+        /**
+         * Returns the maximum latency of an execution.
+         *
+         * @return the maximum latency in milliseconds
+         */
+        public long getMaxLatency()
+        {
+            return maxLatency;
+        }
+
+        /**
+         * Returns the maximum duration of an execution.
+         *
+         * @return the maximum duration in milliseconds
+         */
+        public long getMaxDuration()
+        {
+            return maxDuration;
+        }
+
+        /**
+         * Returns the number of executions which took longer than
+         * {@link SipScheduler#OVERRUN_THRESHOLD}.
+         *
+         * @return the number of overruns
+         */
+        public long getOverruns()
+        {
+            return overruns;
+        }
+
+        @Override
+        public String toString()
+        {
+            return executions + " executions, latency avg "
+                + getAverageLatency() + " ms max " + maxLatency
+                + " ms, duration max " + maxDuration + " ms, "
+                + overruns + " overruns";
+        }
+    }
+}
@@ -87,13 +87,20 @@
 
     /**
      * The candidate recipients to choose from when dispatching messages
-     * received from one the JAIN-SIP <tt>SipProvider</tt>-s. for thread safety
-     * issues reasons, better iterate on a copy of that set using
-     * <tt>getSipListeners()</tt>.
+     * received from one the JAIN-SIP <tt>SipProvider</tt>-s. For thread
+     * safety reasons, requests are dispatched with {@link #routingTable},
+     * which is rebuilt whenever this set changes.
      */
     private final Set<ProtocolProviderServiceSipImpl> listeners
         = new HashSet<ProtocolProviderServiceSipImpl>();
 
+    /**
+     * The <tt>listeners</tt> indexed by the user ID of their account, so
+     * that <tt>findTargetFor()</tt> does not look at all of them.
+     */
+    private volatile SipRoutingTable<ProtocolProviderServiceSipImpl>
+        routingTable = new ListenerRoutingTable();
+
     /**
      * The property indicating the preferred UDP and TCP
      * port to bind to for clear communications.
@@ -201,6 +208,7 @@ public void addSipListener(ProtocolProviderServiceSipImpl listener)
             if(this.listeners.size() == 0)
                 startListening();
             this.listeners.add(listener);
+            updateRoutingTable();
             if (logger.isTraceEnabled())
                 logger.trace(this.listeners.size() + " listeners now");
         }
@@ -218,6 +226,7 @@ public void removeSipListener(ProtocolProviderServiceSipImpl listener)
         synchronized(this.listeners)
         {
             this.listeners.remove(listener);
+            updateRoutingTable();
 
             int listenerCount = listeners.size();
             if (logger.isTraceEnabled())
@@ -228,15 +237,32 @@ public void removeSipListener(ProtocolProviderServiceSipImpl listener)
     }
 
     /**
-     * Returns a copy of the <tt>listeners</tt> (= candidate recipients) set.
-     *
-     * @return a copy of the <tt>listeners</tt> set.
+     * Rebuilds {@link #routingTable} from the <tt>listeners</tt>. Must be
+     * called while synchronized on <tt>listeners</tt>.
      */
-    private Set<ProtocolProviderServiceSipImpl> getSipListeners()
+    private void updateRoutingTable()
     {
-        synchronized(this.listeners)
+        SipRoutingTable<ProtocolProviderServiceSipImpl> routingTable
+            = new ListenerRoutingTable();
+
+        for (ProtocolProviderServiceSipImpl listener : listeners)
+            routingTable.add(listener, listener.getAccountID().getUserID());
+        this.routingTable = routingTable;
+    }
+
+    /**
+     * The routing table of the <tt>listeners</tt>. The custom parameter of
+     * the contact address of a listener is read when a request is
+     * dispatched, since listeners are added before their registrar
+     * connection is initialised.
+     */
+    private static class ListenerRoutingTable
+        extends SipRoutingTable<ProtocolProviderServiceSipImpl>
+    {
+        @Override
+        String getParamValue(ProtocolProviderServiceSipImpl listener)
         {
-            return new HashSet<ProtocolProviderServiceSipImpl>(this.listeners);
+            return listener.getContactAddressCustomParamValue();
         }
     }
 
@@ -896,6 +922,10 @@ public void processTransactionTerminated(TransactionTerminatedEvent event)
      * Note that this method takes a <tt>Request</tt> as param, and not a
      * <tt>ServerTransaction</tt>, because sometimes <tt>RequestEvent</tt>s
      * have no associated <tt>ServerTransaction</tt>.
+     * <p>
+     * The candidates are looked up in {@link #routingTable} by the user of
+     * the request URI, so that only the accounts with that user are looked
+     * at, whatever the number of accounts sharing the stack.
      *
      * @param request the <tt>Request</tt> to find a recipient for.
      * @return a suitable <tt>ProtocolProviderServiceSipImpl</tt>.
@@ -908,100 +938,102 @@ private ProtocolProviderServiceSipImpl findTargetFor(Request request)
             return null;
         }
 
-        List<ProtocolProviderServiceSipImpl> currentListenersCopy
-            = new ArrayList<ProtocolProviderServiceSipImpl>(
-                                this.getSipListeners());
-
-        // Let's first narrow down candidate choice by comparing
-        // addresses and ports (no point in delivering to a provider with a
-        // non matching IP address  since they will reject it anyway).
-        filterByAddress(currentListenersCopy, request);
+        SipRoutingTable<ProtocolProviderServiceSipImpl> routingTable
+            = this.routingTable;
+        URI requestURI = request.getRequestURI();
 
-        if(currentListenersCopy.size() == 0)
+        if(!requestURI.isSipURI())
         {
-            logger.error("no listeners");
+            logger.error("Request-URI is not a SIP URI, dropping");
             return null;
         }
 
-        URI requestURI = request.getRequestURI();
+        String requestUser = ((SipURI) requestURI).getUser();
+
+        // check if the Request-URI username is
+        // one of ours usernames
+        List<ProtocolProviderServiceSipImpl> candidates
+            = routingTable.getTargets(requestUser);
+        ProtocolProviderServiceSipImpl firstMatch = null;
+        int matchCount = 0;
 
-        if(requestURI.isSipURI())
+        for (int i = 0, count = candidates.size(); i < count; i++)
         {
-            String requestUser = ((SipURI) requestURI).getUser();
+            ProtocolProviderServiceSipImpl candidate = candidates.get(i);
 
-            List<ProtocolProviderServiceSipImpl> candidates =
-                new ArrayList<ProtocolProviderServiceSipImpl>();
+            // no point in delivering to a provider with a non matching IP
+            // address since they will reject it anyway
+            if (isAddressMatching(candidate, request))
+            {
+                if (logger.isTraceEnabled())
+                    logger.trace("suitable candidate found: "
+                            + candidate.getAccountID());
+                if (firstMatch == null)
+                    firstMatch = candidate;
+                matchCount++;
+            }
+        }
 
-            // check if the Request-URI username is
-            // one of ours usernames
-            for(ProtocolProviderServiceSipImpl listener : currentListenersCopy)
+        // the perfect match
+        // every other case is approximation
+        if(matchCount == 1)
+        {
+            if (logger.isTraceEnabled())
+                logger.trace("Will dispatch to \""
+                        + firstMatch.getAccountID() + "\"");
+            return firstMatch;
+        }
+
+        // more than one account match
+        if(matchCount > 1)
+        {
+            // check if a custom param exists in the contact
+            // address (set for registrar accounts)
+            String hostValue = ((SipURI) requestURI).getParameter(
+                    SipStackSharing.CONTACT_ADDRESS_CUSTOM_PARAM_NAME);
+            List<ProtocolProviderServiceSipImpl> withParam
+                = routingTable.getTargets(requestUser, hostValue);
+
+            for (int i = 0, count = withParam.size(); i < count; i++)
             {
-                String ourUserID = listener.getAccountID().getUserID();
-                //logger.trace(ourUserID + " *** " + requestUser);
-                if(ourUserID.equals(requestUser))
+                ProtocolProviderServiceSipImpl candidate = withParam.get(i);
+
+                if (isAddressMatching(candidate, request))
                 {
                     if (logger.isTraceEnabled())
-                        logger.trace("suitable candidate found: "
-                                + listener.getAccountID());
-                    candidates.add(listener);
+                        logger.trace("Will dispatch to \""
+                                + candidate.getAccountID() + "\" because "
+                                + "\" the custom param was set");
+                    return candidate;
                 }
             }
 
-            // the perfect match
-            // every other case is approximation
-            if(candidates.size() == 1)
-            {
-                ProtocolProviderServiceSipImpl perfectMatch = candidates.get(0);
+            // Past this point, our guess is not reliable. We try to find
+            // the "least worst" match based on parameters like the To field
 
-                if (logger.isTraceEnabled())
-                    logger.trace("Will dispatch to \""
-                            + perfectMatch.getAccountID() + "\"");
-                return perfectMatch;
-            }
+            // check if the To header field host part
+            // matches any of our SIP hosts
+            URI fromURI = ((FromHeader) request
+                    .getHeader(FromHeader.NAME)).getAddress().getURI();
+            URI toURI = ((ToHeader) request
+                    .getHeader(ToHeader.NAME)).getAddress().getURI();
 
-            // more than one account match
-            if(candidates.size() > 1)
+            if(fromURI.isSipURI() && toURI.isSipURI())
             {
-                // check if a custom param exists in the contact
-                // address (set for registrar accounts)
-                for (ProtocolProviderServiceSipImpl candidate : candidates)
-                {
-                    String hostValue = ((SipURI) requestURI).getParameter(
-                            SipStackSharing.CONTACT_ADDRESS_CUSTOM_PARAM_NAME);
-                    if (hostValue == null)
-                        continue;
-                    if (hostValue.equals(candidate
-                                .getContactAddressCustomParamValue()))
-                    {
-                        if (logger.isTraceEnabled())
-                            logger.trace("Will dispatch to \""
-                                    + candidate.getAccountID() + "\" because "
-                                    + "\" the custom param was set");
-                        return candidate;
-                    }
-                }
+                String toHost = ((SipURI) toURI).getHost();
 
-                // Past this point, our guess is not reliable. We try to find
-                // the "least worst" match based on parameters like the To field
-
-                // check if the To header field host part
-                // matches any of our SIP hosts
-                for(ProtocolProviderServiceSipImpl candidate : candidates)
+                for (int i = 0, count = candidates.size(); i < count; i++)
                 {
-                    URI fromURI = ((FromHeader) request
-                            .getHeader(FromHeader.NAME)).getAddress().getURI();
-                    if(fromURI.isSipURI() == false)
+                    ProtocolProviderServiceSipImpl candidate
+                        = candidates.get(i);
+
+                    if (!isAddressMatching(candidate, request))
                         continue;
+
                     SipURI ourURI = (SipURI) candidate
                         .getOurSipAddress((SipURI) fromURI).getURI();
                     String ourHost = ourURI.getHost();
 
-                    URI toURI = ((ToHeader) request
-                            .getHeader(ToHeader.NAME)).getAddress().getURI();
-                    if(toURI.isSipURI() == false)
-                        continue;
-                    String toHost = ((SipURI) toURI).getHost();
-
                     //logger.trace(toHost + "***" + ourHost);
                     if(toHost.equals(ourHost))
                     {
@@ -1012,79 +1044,78 @@ private ProtocolProviderServiceSipImpl findTargetFor(Request request)
                         return candidate;
                     }
                 }
-
-                // fallback on the first candidate
-                ProtocolProviderServiceSipImpl target =
-                    candidates.iterator().next();
-                logger.info("Will randomly dispatch to \""
-                        + target.getAccountID()
-                        + "\" because there is ambiguity on the username from"
-                        + " the Request-URI");
-                if (logger.isTraceEnabled())
-                    logger.trace("\n" + request);
-                return target;
             }
 
-            // fallback on any account
-            ProtocolProviderServiceSipImpl target =
-                currentListenersCopy.iterator().next();
-            if (logger.isDebugEnabled())
-                logger.debug("Will randomly dispatch to \"" + target
-                        .getAccountID()
-                        + "\" because the username in the Request-URI "
-                        + "is unknown or empty");
+            // fallback on the first candidate
+            logger.info("Will randomly dispatch to \""
+                    + firstMatch.getAccountID()
+                    + "\" because there is ambiguity on the username from"
+                    + " the Request-URI");
             if (logger.isTraceEnabled())
                 logger.trace("\n" + request);
-            return target;
+            return firstMatch;
         }
-        else
+
+        // fallback on any account
+        List<ProtocolProviderServiceSipImpl> listeners
+            = routingTable.getTargets();
+
+        for (int i = 0, count = listeners.size(); i < count; i++)
         {
-            logger.error("Request-URI is not a SIP URI, dropping");
+            ProtocolProviderServiceSipImpl target = listeners.get(i);
+
+            if (isAddressMatching(target, request))
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Will randomly dispatch to \"" + target
+                            .getAccountID()
+                            + "\" because the username in the Request-URI "
+                            + "is unknown or empty");
+                if (logger.isTraceEnabled())
+                    logger.trace("\n" + request);
+                return target;
+            }
         }
+
+        logger.error("no listeners");
         return null;
     }
 
     /**
-     * Removes from the specified list of candidates providers connected to a
-     * registrar that does not match the IP address that we are receiving a
-     * request from.
+     * Determines whether a candidate may receive a request, i.e. whether it
+     * is not connected to a registrar that does not match the IP address
+     * that we are receiving the request from.
      *
-     * @param candidates the list of providers we've like to filter.
+     * @param candidate the provider we'd like to check.
      * @param request the request that we are currently dispatching
+     * @return <tt>true</tt> if <tt>candidate</tt> may receive
+     * <tt>request</tt>
      */
-    private void filterByAddress(
-                    List<ProtocolProviderServiceSipImpl> candidates,
-                    Request                              request)
+    private boolean isAddressMatching(
+                    ProtocolProviderServiceSipImpl candidate,
+                    Request                        request)
     {
-        Iterator<ProtocolProviderServiceSipImpl> iterPP =
-            candidates.iterator();
-        while (iterPP.hasNext())
+        boolean forceProxyBypass
+            = candidate.getAccountID()
+                .getAccountPropertyBoolean(
+                    ProtocolProviderFactory.FORCE_PROXY_BYPASS, false);
+        if(forceProxyBypass)
         {
-            ProtocolProviderServiceSipImpl candidate = iterPP.next();
-            boolean forceProxyBypass
-                = candidate.getAccountID()
-                    .getAccountPropertyBoolean(
-                        ProtocolProviderFactory.FORCE_PROXY_BYPASS, false);
-            if(forceProxyBypass)
-            {
-                // Proxy check is disabled all connections are
-                // ok (HA sipXecs, sipXcom, ...)
-                continue;
-            } 
-            if(candidate.getRegistrarConnection() == null)
-            {
-                //RegistrarLess connections are ok
-                continue;
-            }
+            // Proxy check is disabled all connections are
+            // ok (HA sipXecs, sipXcom, ...)
+            return true;
+        }
 
-            if (   !candidate.getRegistrarConnection().isRegistrarless()
-                && !candidate.getRegistrarConnection()
-                        .isRequestFromSameConnection(request))
-            {
-                iterPP.remove();
-            }
+        SipRegistrarConnection registrarConnection
+            = candidate.getRegistrarConnection();
+        if(registrarConnection == null)
+        {
+            //RegistrarLess connections are ok
+            return true;
         }
 
+        return registrarConnection.isRegistrarless()
+            || registrarConnection.isRequestFromSameConnection(request);
     }
 
     /**
@@ -1298,8 +1329,8 @@ private boolean applyNonConformanceHacks(RequestEvent event)
      * List of currently waiting timers that will monitor the protocol provider
      *
      */
-    Map<String, TimerTask> resetListeningPointsTimers
-            = new HashMap<String, TimerTask>();
+    Map<String, ResetListeningPoint> resetListeningPointsTimers
+            = new HashMap<String, ResetListeningPoint>();
 
     /**
      * Listens for network changes and if we have a down interface
@@ -1351,7 +1382,7 @@ public void configurationChanged(ChangeEvent event)
      * to wrong interfaces. So we will replace them.
      */
     private class ResetListeningPoint
-            extends TimerTask
+            extends SipScheduler.Task
             implements RegistrationStateChangeListener
     {
         /**
@@ -1381,7 +1412,8 @@ public void registrationStateChanged(RegistrationStateChangeEvent evt)
         {
             if(evt.getNewState() == RegistrationState.UNREGISTERING)
             {
-                new Timer().schedule(this, TIME_FOR_PP_TO_UNREGISTER);
+                SipScheduler.getInstance().schedule(
+                        this, TIME_FOR_PP_TO_UNREGISTER);
             }
             else
             {
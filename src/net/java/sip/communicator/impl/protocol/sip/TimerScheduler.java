@@ -20,11 +20,11 @@
 import java.util.*;
 
 /**
- * Represents an analogy of <code>Timer</code> which does not have the
- * disadvantage of <code>Timer</code> to always create its thread at
- * construction time. It also allows the currently scheduled
- * <code>TimerTask</code>s to be canceled while still being able to schedule new
- * <code>TimerTask</code>s later on.
+ * Represents the timed tasks of a feature of a SIP account, such as the
+ * refreshes of its subscriptions, which are run by the {@link SipScheduler}
+ * shared by all the accounts. It allows the currently scheduled tasks of the
+ * feature to be canceled while still being able to schedule new tasks later
+ * on.
  *
  * @author Lubomir Marinov
  */
@@ -32,68 +32,104 @@
 {
 
     /**
-     * The timer which will handle all scheduled tasks.
+     * The tasks scheduled by this instance which have not been executed or
+     * canceled yet.
      */
-    private Timer timer;
+    private final Set<SipScheduler.Task> tasks
+        = new HashSet<SipScheduler.Task>();
 
     /**
-     * Discarding any currently scheduled <code>TimerTask</code>s.
+     * The scheduler which runs the tasks.
      */
-    public synchronized void cancel()
+    private final SipScheduler scheduler = SipScheduler.getInstance();
+
+    /**
+     * Discarding any currently scheduled tasks.
+     */
+    public void cancel()
     {
-       if (timer != null)
-       {
-           timer.cancel();
-           timer = null;
-       }
+        SipScheduler.Task[] tasks;
+
+        synchronized (this)
+        {
+            tasks = this.tasks.toArray(new SipScheduler.Task[0]);
+            this.tasks.clear();
+        }
+        for (SipScheduler.Task task : tasks)
+            task.cancel();
     }
 
     /**
-     * Gets the timer which handles all scheduled tasks. If it still doesn't
-     * exists, a new <tt>Timer</tt> is created.
+     * Schedules the specified task for execution after the specified delay.
      *
-     * @return the <tt>Timer</tt> which handles all scheduled tasks
+     * @param task
+     *            the task to be executed after the specified delay
+     * @param delay
+     *            the delay in milliseconds before the specified task is
+     *            executed
      */
-    private synchronized Timer getTimer()
+    public void schedule(SipScheduler.Task task, long delay)
     {
-       if (timer == null)
-           timer = new Timer(true);
-       return timer;
+        add(task);
+        scheduler.schedule(task, delay);
     }
 
     /**
-     * Schedules the specified <code>TimerTask</code> for execution after the
-     * specified delay.
+     * Schedules the specified task, which refreshes a state before it
+     * expires, for execution after at most the specified delay. The delay is
+     * randomly shortened so that the refreshes of many states which expire
+     * together do not happen together.
      *
      * @param task
-     *            the <code>TimerTask</code> to be executed after the specified
-     *            delay
+     *            the task to be executed before the specified delay
      * @param delay
-     *            the delay in milliseconds before the specified
-     *            <code>TimerTask</code> is executed
+     *            the delay in milliseconds before the state needs to be
+     *            refreshed
      */
-    public synchronized void schedule(TimerTask task, long delay)
+    public void scheduleRefresh(SipScheduler.Task task, long delay)
     {
-        getTimer().schedule(task, delay);
+        add(task);
+        scheduler.scheduleRefresh(task, delay);
     }
 
     /**
-     * Schedules the specified <code>TimerTask</code> for repeated fixed-delay
-     * execution, beginning after the specified delay. Subsequent executions
-     * take place at approximately regular intervals separated by the specified
-     * period.
+     * Schedules the specified task for repeated fixed-delay execution,
+     * beginning after the specified delay. Subsequent executions take place
+     * at approximately regular intervals separated by the specified period.
      *
      * @param task
-     *            the <code>TimerTask</code> to be scheduled
+     *            the task to be scheduled
      * @param delay
-     *            the delay in milliseconds before the specified
-     *            <code>TimerTask</code> is executed
+     *            the delay in milliseconds before the specified task is
+     *            executed
      * @param period
      *            the time in milliseconds between successive executions of the
-     *            specified <code>TimerTask</code>
+     *            specified task
+     */
+    public void schedule(SipScheduler.Task task, long delay, long period)
+    {
+        add(task);
+        scheduler.schedule(task, delay, period);
+    }
+
+    /**
+     * Remembers a task scheduled by this instance.
+     *
+     * @param task the task
+     */
+    private synchronized void add(SipScheduler.Task task)
+    {
+        tasks.add(task);
+        task.setOwner(this);
+    }
+
+    /**
+     * Forgets a task which has been executed or canceled.
+     *
+     * @param task the task
      */
-    public synchronized void schedule(TimerTask task, long delay, long period)
+    synchronized void removed(SipScheduler.Task task)
     {
-        getTimer().schedule(task, delay, period);
+        tasks.remove(task);
     }
 }
@@ -342,22 +342,25 @@ public void handleUri(final String uri)
             final DelayRegistrationStateChangeListener listener =
                 new DelayRegistrationStateChangeListener(uri, provider);
             provider.addRegistrationStateChangeListener(listener);
-            new Timer().schedule(new TimerTask()
-            {
-                @Override
-                public void run()
+            SipScheduler.getInstance().schedule(
+                new SipScheduler.Task("UriHandlerRegistrationTimeout")
                 {
-                    provider.removeRegistrationStateChangeListener(listener);
-                    // Even if not registered after the timeout, try the call
-                    // anyway and the error popup will appear to ask the
-                    // user if they want to register
-                    if(provider.getRegistrationState()
-                        != RegistrationState.REGISTERED)
+                    @Override
+                    public void run()
                     {
-                        handleUri(uri, provider);
+                        provider.removeRegistrationStateChangeListener(
+                            listener);
+                        // Even if not registered after the timeout, try the
+                        // call anyway and the error popup will appear to ask
+                        // the user if they want to register
+                        if(provider.getRegistrationState()
+                            != RegistrationState.REGISTERED)
+                        {
+                            handleUri(uri, provider);
+                        }
                     }
-                }
-            }, initialRegistrationTimeout);
+                },
+                initialRegistrationTimeout);
         }
     }
 
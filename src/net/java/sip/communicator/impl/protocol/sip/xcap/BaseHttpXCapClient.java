@@ -38,6 +38,9 @@
 import org.apache.http.client.methods.*;
 import org.apache.http.entity.*;
 import org.apache.http.impl.client.*;
+import org.apache.http.impl.conn.*;
+import org.apache.http.util.*;
+import org.jitsi.service.fileaccess.*;
 import org.osgi.framework.*;
 
 /**
@@ -70,6 +73,23 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
      */
     public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
 
+    /**
+     * HTTP If-Match header.
+     */
+    public static final String HEADER_IF_MATCH = "If-Match";
+
+    /**
+     * The directory, in the cache of the application, where the XCAP
+     * documents are stored.
+     */
+    private static final String CACHE_DIRECTORY = "xcap";
+
+    /**
+     * The maximum number of connections the client keeps open to the XCAP
+     * server.
+     */
+    private static final int MAX_CONNECTIONS = 2;
+
     /**
      * XCap-error content type.
      */
@@ -106,18 +126,34 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
      */
     private CertificateService certificateVerification;
 
+    /**
+     * The HTTP client, with its pool of persistent connections, shared by
+     * all the requests to the current server.
+     */
+    private volatile DefaultHttpClient httpClient;
+
+    /**
+     * The local copies of the documents of the current server.
+     */
+    private volatile XCapDocumentCache documentCache;
+
     /**
      * Creates an instance of this XCAP client.
      */
     public BaseHttpXCapClient()
     {
+        BundleContext bundleContext = SipActivator.getBundleContext();
+        if (bundleContext == null)
+        {
+            return;
+        }
         ServiceReference guiVerifyReference
-            = SipActivator.getBundleContext().getServiceReference(
+            = bundleContext.getServiceReference(
                 CertificateService.class.getName());
 
         if(guiVerifyReference != null)
             certificateVerification
-                = (CertificateService)SipActivator.getBundleContext()
+                = (CertificateService)bundleContext
                     .getService(guiVerifyReference);
     }
 
@@ -141,6 +177,15 @@ public void connect(URI uri, Address userAddress, String username, String passwo
         this.userAddress = (Address) userAddress.clone();
         this.username = username;
         this.password = password == null ? "" : password;
+        try
+        {
+            httpClient = createHttpClient();
+        }
+        catch (IOException e)
+        {
+            throw new XCapException("Cannot create the XCAP HTTP client", e);
+        }
+        documentCache = new XCapDocumentCache(getCacheDirectory());
         connected = true;
     }
 
@@ -159,6 +204,13 @@ public boolean isConnected()
      */
     public void disconnect()
     {
+        DefaultHttpClient client = httpClient;
+        httpClient = null;
+        documentCache = null;
+        if (client != null)
+        {
+            client.getConnectionManager().shutdown();
+        }
         this.uri = null;
         this.userAddress = null;
         this.password = null;
@@ -180,7 +232,8 @@ public XCapHttpResponse get(XCapResourceId resourceId)
     }
 
     /**
-     * Gets resource from the server.
+     * Gets resource from the server. If there is a local copy of the resource
+     * it is only downloaded again if it has changed on the server.
      *
      * @param uri the resource uri.
      * @return the server response.
@@ -190,16 +243,38 @@ public XCapHttpResponse get(XCapResourceId resourceId)
     protected XCapHttpResponse get(URI uri)
             throws XCapException
     {
-        DefaultHttpClient httpClient = null;
+        assertConnected();
+        DefaultHttpClient client = httpClient;
+        XCapDocumentCache cache = documentCache;
+        assertConnected(client, cache);
         try
         {
-            httpClient = createHttpClient();
-
             HttpGet getMethod = new HttpGet(uri);
-            getMethod.setHeader("Connection", "close");
+            XCapDocumentCache.Document cached = cache.get(uri.toString());
+            if (cached != null)
+            {
+                getMethod.setHeader(HEADER_IF_NONE_MATCH, cached.getETag());
+            }
 
-            HttpResponse response = httpClient.execute(getMethod);
+            HttpResponse response = client.execute(getMethod);
             XCapHttpResponse result = createResponse(response);
+            int httpCode = result.getHttpCode();
+            if (httpCode == HttpStatus.SC_NOT_MODIFIED && cached != null)
+            {
+                result.setHttpCode(HttpStatus.SC_OK);
+                result.setContentType(cached.getContentType());
+                result.setContent(cached.getContent());
+                result.setETag(cached.getETag());
+            }
+            else if (httpCode == HttpStatus.SC_OK)
+            {
+                cache.put(uri.toString(), result.getETag(),
+                        result.getContentType(), result.getContent());
+            }
+            else if (httpCode == HttpStatus.SC_NOT_FOUND)
+            {
+                cache.remove(uri.toString());
+            }
             if (logger.isDebugEnabled())
             {
                 byte[] contentBytes = result.getContent();
@@ -238,11 +313,6 @@ protected XCapHttpResponse get(URI uri)
             showError(e, null, errorMessage);
             throw new XCapException(errorMessage, e);
         }
-        finally
-        {
-            if(httpClient != null)
-                httpClient.getConnectionManager().shutdown();
-        }
     }
 
     /**
@@ -287,14 +357,37 @@ static void showError(Exception ex, String title, String message)
     public XCapHttpResponse put(XCapResource resource)
             throws XCapException
     {
-        DefaultHttpClient httpClient = null;
+        return put(resource, null);
+    }
+
+    /**
+     * Puts the resource to the server if its document has not changed since
+     * it has been tagged with <tt>eTag</tt>. Putting a resource drops the
+     * local copy of its document, which is read again as the server has
+     * stored it the next time it is needed.
+     *
+     * @param resource the resource  to be saved on the server.
+     * @param eTag     the entity tag the document of the resource must match
+     *                 or <tt>null</tt> to put the resource unconditionally.
+     * @return the server response.
+     * @throws IllegalStateException if the user has not been connected.
+     * @throws XCapException         if there is some error during operation.
+     */
+    public XCapHttpResponse put(XCapResource resource, String eTag)
+            throws XCapException
+    {
+        assertConnected();
+        DefaultHttpClient client = httpClient;
+        XCapDocumentCache cache = documentCache;
+        assertConnected(client, cache);
         try
         {
-            httpClient = createHttpClient();
-
             URI resourceUri = getResourceURI(resource.getId());
             HttpPut putMethod = new HttpPut(resourceUri);
-            putMethod.setHeader("Connection", "close");
+            if (eTag != null)
+            {
+                putMethod.setHeader(HEADER_IF_MATCH, eTag);
+            }
             StringEntity stringEntity = new StringEntity(resource.getContent());
             stringEntity.setContentType(resource.getContentType());
             stringEntity.setContentEncoding("UTF-8");
@@ -309,8 +402,15 @@ public XCapHttpResponse put(XCapResource resource)
                 );
                 logger.debug(logMessage);
             }
-            HttpResponse response = httpClient.execute(putMethod);
-            return createResponse(response);
+            HttpResponse response = client.execute(putMethod);
+            XCapHttpResponse result = createResponse(response);
+            int httpCode = result.getHttpCode();
+            if (httpCode == HttpStatus.SC_OK
+                    || httpCode == HttpStatus.SC_CREATED)
+            {
+                cache.remove(getDocumentURI(resource.getId()));
+            }
+            return result;
         }
         catch (IOException e)
         {
@@ -319,11 +419,6 @@ public XCapHttpResponse put(XCapResource resource)
                     resource.getId().toString());
             throw new XCapException(errorMessage, e);
         }
-        finally
-        {
-            if(httpClient != null)
-                httpClient.getConnectionManager().shutdown();
-        }
     }
 
     /**
@@ -336,16 +431,37 @@ public XCapHttpResponse put(XCapResource resource)
      */
     public XCapHttpResponse delete(XCapResourceId resourceId)
             throws XCapException
+    {
+        return delete(resourceId, null);
+    }
+
+    /**
+     * Deletes the resource from the server if its document has not changed
+     * since it has been tagged with <tt>eTag</tt>.
+     *
+     * @param resourceId resource identifier.
+     * @param eTag       the entity tag the document of the resource must
+     *                   match or <tt>null</tt> to delete the resource
+     *                   unconditionally.
+     * @return the server response.
+     * @throws IllegalStateException if the user has not been connected.
+     * @throws XCapException         if there is some error during operation.
+     */
+    public XCapHttpResponse delete(XCapResourceId resourceId, String eTag)
+            throws XCapException
     {
         assertConnected();
-        DefaultHttpClient httpClient = null;
+        DefaultHttpClient client = httpClient;
+        XCapDocumentCache cache = documentCache;
+        assertConnected(client, cache);
         try
         {
-            httpClient = createHttpClient();
-
             URI resourceUri = getResourceURI(resourceId);
             HttpDelete deleteMethod = new HttpDelete(resourceUri);
-            deleteMethod.setHeader("Connection", "close");
+            if (eTag != null)
+            {
+                deleteMethod.setHeader(HEADER_IF_MATCH, eTag);
+            }
 
             if (logger.isDebugEnabled())
             {
@@ -355,8 +471,14 @@ public XCapHttpResponse delete(XCapResourceId resourceId)
                 );
                 logger.debug(logMessage);
             }
-            HttpResponse response = httpClient.execute(deleteMethod);
-            return createResponse(response);
+            HttpResponse response = client.execute(deleteMethod);
+            XCapHttpResponse result = createResponse(response);
+            if (result.getHttpCode() == HttpStatus.SC_OK
+                    || result.getHttpCode() == HttpStatus.SC_NOT_FOUND)
+            {
+                cache.remove(getDocumentURI(resourceId));
+            }
+            return result;
         }
         catch (IOException e)
         {
@@ -365,11 +487,6 @@ public XCapHttpResponse delete(XCapResourceId resourceId)
                     resourceId.toString());
             throw new XCapException(errorMessage, e);
         }
-        finally
-        {
-            if(httpClient != null)
-                httpClient.getConnectionManager().shutdown();
-        }
     }
 
     /**
@@ -406,6 +523,25 @@ protected void assertConnected()
         }
     }
 
+    /**
+     * Utility method throwing an exception if the client has been
+     * disconnected while a request was about to be sent.
+     *
+     * @param client the HTTP client of the request.
+     * @param cache  the local copies of the documents.
+     * @throws XCapException if the client has been disconnected.
+     */
+    private static void assertConnected(
+            DefaultHttpClient client,
+            XCapDocumentCache cache)
+            throws XCapException
+    {
+        if (client == null || cache == null)
+        {
+            throw new XCapException("User is not connected to the server");
+        }
+    }
+
     /**
      * Gets resource uri from XCAP resource identifier.
      *
@@ -416,7 +552,13 @@ protected URI getResourceURI(XCapResourceId resourceId)
     {
         try
         {
-            return new URI(uri.toString() + "/" + resourceId);
+            String node = resourceId.getNode();
+            if (node == null || node.length() == 0)
+            {
+                return new URI(uri.toString() + "/" + resourceId);
+            }
+            return new URI(getDocumentURI(resourceId) + "/~~"
+                    + escapeNodeSelector(node));
         }
         catch (URISyntaxException e)
         {
@@ -426,11 +568,86 @@ protected URI getResourceURI(XCapResourceId resourceId)
     }
 
     /**
-     * Creates HTTP client with special parameters.
+     * Gets the uri of the document of a resource.
+     *
+     * @param resourceId the resource identifier.
+     * @return the document uri.
+     */
+    protected String getDocumentURI(XCapResourceId resourceId)
+    {
+        return uri.toString() + "/" + resourceId.getDocument();
+    }
+
+    /**
+     * Escapes the characters of a node selector which may not appear in the
+     * path of an uri, such as the brackets and quotes of its predicates.
+     *
+     * @param node the node selector.
+     * @return the escaped node selector.
+     */
+    private static String escapeNodeSelector(String node)
+    {
+        StringBuilder builder = new StringBuilder();
+        byte[] bytes;
+        try
+        {
+            bytes = node.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            bytes = node.getBytes();
+        }
+        for (byte b : bytes)
+        {
+            char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || (c >= '0' && c <= '9')
+                    || "-._~!$&'()*+,;=:@/".indexOf(c) != -1)
+            {
+                builder.append(c);
+            }
+            else
+            {
+                builder.append(String.format("%%%02X", b & 0xff));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Gets the directory where the XCAP documents are cached.
+     *
+     * @return the cache directory or <tt>null</tt> if the documents can only
+     *         be cached in memory.
+     */
+    private static File getCacheDirectory()
+    {
+        FileAccessService fileAccessService
+            = SipActivator.getFileAccessService();
+        if (fileAccessService == null)
+        {
+            return null;
+        }
+        try
+        {
+            return fileAccessService.getPrivatePersistentDirectory(
+                    CACHE_DIRECTORY, FileCategory.CACHE);
+        }
+        catch (Exception e)
+        {
+            logger.warn("XCAP documents will only be cached in memory", e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates HTTP client with special parameters. The client keeps its
+     * connections to the server open and may be used by several threads.
      *
      * @return the HTTP client.
+     * @throws IOException if the client cannot be created.
      */
-    private DefaultHttpClient createHttpClient()
+    protected DefaultHttpClient createHttpClient()
         throws IOException
     {
         XCapCredentialsProvider credentialsProvider
@@ -439,13 +656,20 @@ private DefaultHttpClient createHttpClient()
             AuthScope.ANY,
             new UsernamePasswordCredentials(getUserName(), password));
 
+        PoolingClientConnectionManager connectionManager
+            = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+
         return HttpUtils.getHttpClient(
-            null , null, uri.getHost(), credentialsProvider);
+            null , null, uri.getHost(), credentialsProvider,
+            connectionManager);
     }
 
     /**
      * Creates XCAP response from HTTP response.
-     * If HTTP code is 200, 201 or 409 the HTTP content would be read.
+     * If HTTP code is 200, 201 or 409 the HTTP content would be read, any
+     * other content is discarded so that the connection can be reused.
      *
      * @param response the HTTP response.
      * @return the XCAP response.
@@ -469,6 +693,13 @@ private XCapHttpResponse createResponse(HttpResponse response)
             xcapHttpResponse.setContent(content);
             xcapHttpResponse.setETag(eTag);
         }
+        else
+        {
+            // put, delete and patch return the new entity tag without content
+            xcapHttpResponse.setETag(
+                    getSingleHeaderValue(response, HEADER_ETAG));
+            EntityUtils.consume(response.getEntity());
+        }
         xcapHttpResponse.setHttpCode(statusCode);
         return xcapHttpResponse;
     }
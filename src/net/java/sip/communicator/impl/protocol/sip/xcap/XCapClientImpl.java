@@ -19,6 +19,7 @@
 
 import java.io.*;
 import java.net.URI;
+import java.util.*;
 
 import javax.sip.address.*;
 
@@ -29,6 +30,7 @@
 import net.java.sip.communicator.impl.protocol.sip.xcap.model.resourcelists.*;
 import net.java.sip.communicator.impl.protocol.sip.xcap.model.xcapcaps.*;
 import net.java.sip.communicator.util.*;
+import net.java.sip.communicator.util.Base64; // disambiguation
 
 import org.apache.http.*;
 import org.jitsi.utils.*;
@@ -43,6 +45,23 @@
  */
 public class XCapClientImpl extends BaseHttpXCapClient implements XCapClient
 {
+    /**
+     * The maximum number of elements changed one by one when the
+     * resource-lists are put, beyond which the whole document is put.
+     */
+    static final int MAX_PATCH_OPERATIONS = 5;
+
+    /**
+     * The maximum number of times the resource-lists are read and put again
+     * when they have been changed by someone else in the meantime.
+     */
+    private static final int MAX_PUT_ATTEMPTS = 3;
+
+    /**
+     * The node selector of the resource-lists root element.
+     */
+    private static final String RESOURCE_LISTS_NODE = "/resource-lists";
+
     /**
      * Current xcap-caps.
      */
@@ -116,7 +135,36 @@ public void disconnect()
     }
 
     /**
-     * Puts the resource-lists to the server.
+     * The outcome of putting or deleting the changed entries of the
+     * resource-lists one by one.
+     */
+    private enum PatchResult
+    {
+        /**
+         * The document on the server is the one to be saved.
+         */
+        UP_TO_DATE,
+
+        /**
+         * The document has been changed on the server in the meantime and
+         * must be read again.
+         */
+        CHANGED,
+
+        /**
+         * The changes cannot be made entry by entry, the whole document must
+         * be put.
+         */
+        NOT_PATCHED
+    }
+
+    /**
+     * Puts the resource-lists to the server. The document is first read
+     * again, or revalidated if there is a local copy of it, and when only
+     * some entries differ just these entries are put or deleted. Every change
+     * is made on condition that the document has not been changed by someone
+     * else since it has been read, in which case it is read and compared
+     * again.
      *
      * @param resourceLists the resource-lists to be saved on the server.
      * @throws IllegalStateException if the user has not been connected, or
@@ -140,8 +188,36 @@ public void putResourceLists(ResourceListsType resourceLists)
             String xml = ResourceListsParser.toXml(resourceLists);
             XCapResource resource = new XCapResource(resourceId, xml,
                     ResourceListsClient.RESOURCE_LISTS_CONTENT_TYPE);
-            // Put resource-lists to the server
-            putResource(resource);
+            for (int attempt = 1; ; attempt++)
+            {
+                XCapHttpResponse current = this.get(resourceId);
+                String eTag = null;
+                if (current.getHttpCode() == HttpStatus.SC_OK)
+                {
+                    eTag = current.getETag();
+                    PatchResult result = patchResourceLists(
+                            resourceId, current, resourceLists, xml);
+                    if (result == PatchResult.UP_TO_DATE)
+                    {
+                        return;
+                    }
+                    if (result == PatchResult.CHANGED
+                            && attempt < MAX_PUT_ATTEMPTS)
+                    {
+                        continue;
+                    }
+                }
+                // Put resource-lists to the server, unless they have been
+                // changed since they have been read
+                XCapHttpResponse response = this.put(resource, eTag);
+                if (response.getHttpCode() == HttpStatus.SC_PRECONDITION_FAILED
+                        && attempt < MAX_PUT_ATTEMPTS)
+                {
+                    continue;
+                }
+                assertPutSucceeded(resource, response);
+                return;
+            }
         }
         catch (ParsingException e)
         {
@@ -149,6 +225,300 @@ public void putResourceLists(ResourceListsType resourceLists)
         }
     }
 
+    /**
+     * Puts or deletes, one by one, the entries of the resource-lists which
+     * differ from the document on the server. Every request is made on
+     * condition that the document has not been changed by someone else in
+     * the meantime.
+     *
+     * @param resourceId    the resource-lists document identifier.
+     * @param current       the response to the request of the document.
+     * @param resourceLists the resource-lists to be saved on the server.
+     * @param xml           the resource-lists xml.
+     * @return whether the server is up to date, the document must be read
+     *         again or the whole document must be put.
+     * @throws ParsingException if there is some error during parsing.
+     * @throws XCapException    if there is some error during operation.
+     */
+    private PatchResult patchResourceLists(
+            XCapResourceId resourceId,
+            XCapHttpResponse current,
+            ResourceListsType resourceLists,
+            String xml)
+            throws ParsingException, XCapException
+    {
+        byte[] content = current.getContent();
+        if (content == null)
+        {
+            return PatchResult.NOT_PATCHED;
+        }
+        String currentXml;
+        try
+        {
+            currentXml = new String(content, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            return PatchResult.NOT_PATCHED;
+        }
+        if (currentXml.equals(xml))
+        {
+            return PatchResult.UP_TO_DATE;
+        }
+        ResourceListsType currentLists;
+        try
+        {
+            currentLists = ResourceListsParser.fromXml(currentXml);
+        }
+        catch (ParsingException e)
+        {
+            return PatchResult.NOT_PATCHED;
+        }
+        // only the entries may differ, the lists must be the same
+        if (!ResourceListsParser.toXml(withoutEntries(currentLists))
+                .equals(ResourceListsParser.toXml(
+                        withoutEntries(resourceLists))))
+        {
+            return PatchResult.NOT_PATCHED;
+        }
+        Map<String, String> puts = new LinkedHashMap<String, String>();
+        List<String> deletes = new ArrayList<String>();
+        if (!diffEntries(RESOURCE_LISTS_NODE, currentLists.getList(),
+                resourceLists.getList(), puts, deletes)
+            || puts.size() + deletes.size() > MAX_PATCH_OPERATIONS)
+        {
+            return PatchResult.NOT_PATCHED;
+        }
+
+        String eTag = current.getETag();
+        boolean changed = false;
+        for (String node : deletes)
+        {
+            XCapHttpResponse response = this.delete(
+                    new XCapResourceId(resourceId.getDocument(), node), eTag);
+            int httpCode = response.getHttpCode();
+            if (httpCode != HttpStatus.SC_OK)
+            {
+                return getPatchFailure(httpCode, changed);
+            }
+            eTag = response.getETag();
+            changed = true;
+        }
+        for (Map.Entry<String, String> put : puts.entrySet())
+        {
+            XCapResource resource = new XCapResource(
+                    new XCapResourceId(resourceId.getDocument(), put.getKey()),
+                    put.getValue(),
+                    ResourceListsClient.ELEMENT_CONTENT_TYPE);
+            XCapHttpResponse response = this.put(resource, eTag);
+            int httpCode = response.getHttpCode();
+            if (httpCode != HttpStatus.SC_OK
+                    && httpCode != HttpStatus.SC_CREATED)
+            {
+                return getPatchFailure(httpCode, changed);
+            }
+            eTag = response.getETag();
+            changed = true;
+        }
+        return PatchResult.UP_TO_DATE;
+    }
+
+    /**
+     * Tells what to do when an entry of the resource-lists cannot be put or
+     * deleted.
+     *
+     * @param httpCode the HTTP code of the failed request.
+     * @param changed  whether some entries have already been changed.
+     * @return {@link PatchResult#CHANGED} if the document has been changed by
+     *         someone else or partly by us, so that it must be read again,
+     *         {@link PatchResult#NOT_PATCHED} otherwise.
+     */
+    private static PatchResult getPatchFailure(int httpCode, boolean changed)
+    {
+        if (changed
+                || httpCode == HttpStatus.SC_PRECONDITION_FAILED
+                || httpCode == HttpStatus.SC_CONFLICT)
+        {
+            return PatchResult.CHANGED;
+        }
+        return PatchResult.NOT_PATCHED;
+    }
+
+    /**
+     * Collects the node selectors of the entries to be deleted and the
+     * entries to be put so that the old lists become the new ones.
+     *
+     * @param node     the node selector of the parent of the lists.
+     * @param oldLists the lists on the server.
+     * @param newLists the lists to be saved on the server, of the same
+     *                 structure as the old ones.
+     * @param puts     the xml of the entries to be put by node selector.
+     * @param deletes  the node selectors of the entries to be deleted.
+     * @return <tt>false</tt> if the entries cannot be selected one by one.
+     * @throws ParsingException if there is some error during parsing.
+     */
+    static boolean diffEntries(
+            String node,
+            List<ListType> oldLists,
+            List<ListType> newLists,
+            Map<String, String> puts,
+            List<String> deletes)
+            throws ParsingException
+    {
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i < newLists.size(); i++)
+        {
+            ListType oldList = oldLists.get(i);
+            ListType newList = newLists.get(i);
+            String name = quote(newList.getName());
+            if (name == null || !names.add(name))
+            {
+                return false;
+            }
+            String listNode = node + "/list[@name=" + name + "]";
+            Map<String, String> oldEntries = getEntries(oldList);
+            Map<String, String> newEntries = getEntries(newList);
+            if (oldEntries == null || newEntries == null)
+            {
+                return false;
+            }
+            for (String uri : oldEntries.keySet())
+            {
+                if (newEntries.containsKey(uri))
+                {
+                    continue;
+                }
+                String entryNode = getEntryNode(listNode, uri);
+                if (entryNode == null)
+                {
+                    return false;
+                }
+                deletes.add(entryNode);
+            }
+            for (Map.Entry<String, String> entry : newEntries.entrySet())
+            {
+                if (entry.getValue().equals(oldEntries.get(entry.getKey())))
+                {
+                    continue;
+                }
+                String entryNode = getEntryNode(listNode, entry.getKey());
+                if (entryNode == null)
+                {
+                    return false;
+                }
+                puts.put(entryNode, entry.getValue());
+            }
+            if (!diffEntries(listNode, oldList.getLists(),
+                    newList.getLists(), puts, deletes))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the xml of the entries of a list by their uri.
+     *
+     * @param list the list.
+     * @return the xml of the entries or <tt>null</tt> if several entries have
+     *         the same uri.
+     * @throws ParsingException if there is some error during parsing.
+     */
+    static Map<String, String> getEntries(ListType list)
+            throws ParsingException
+    {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        for (EntryType entry : list.getEntries())
+        {
+            if (entries.put(entry.getUri(), ResourceListsParser.toXml(entry))
+                    != null)
+            {
+                return null;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Gets the node selector of an entry.
+     *
+     * @param listNode the node selector of the list of the entry.
+     * @param uri      the entry uri.
+     * @return the node selector or <tt>null</tt> if the uri cannot be quoted.
+     */
+    static String getEntryNode(String listNode, String uri)
+    {
+        String quoted = quote(uri);
+        if (quoted == null)
+        {
+            return null;
+        }
+        return listNode + "/entry[@uri=" + quoted + "]";
+    }
+
+    /**
+     * Quotes an attribute value of a node selector predicate.
+     *
+     * @param value the attribute value.
+     * @return the quoted value or <tt>null</tt> if it cannot be quoted.
+     */
+    static String quote(String value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        if (value.indexOf('"') == -1)
+        {
+            return "\"" + value + "\"";
+        }
+        if (value.indexOf('\'') == -1)
+        {
+            return "'" + value + "'";
+        }
+        return null;
+    }
+
+    /**
+     * Copies resource-lists without their entries.
+     *
+     * @param resourceLists the resource-lists.
+     * @return the copy without entries.
+     */
+    private static ResourceListsType withoutEntries(
+            ResourceListsType resourceLists)
+    {
+        ResourceListsType copy = new ResourceListsType();
+        for (ListType list : resourceLists.getList())
+        {
+            copy.getList().add(withoutEntries(list));
+        }
+        return copy;
+    }
+
+    /**
+     * Copies a list, and its sub-lists, without their entries.
+     *
+     * @param list the list.
+     * @return the copy without entries.
+     */
+    private static ListType withoutEntries(ListType list)
+    {
+        ListType copy = new ListType();
+        copy.setName(list.getName());
+        copy.setDisplayName(list.getDisplayName());
+        copy.getEntryRefs().addAll(list.getEntryRefs());
+        copy.getExternals().addAll(list.getExternals());
+        copy.setAny(list.getAny());
+        copy.setAnyAttributes(list.getAnyAttributes());
+        for (ListType subList : list.getLists())
+        {
+            copy.getLists().add(withoutEntries(subList));
+        }
+        return copy;
+    }
+
     /**
      * Gets the resource-lists from the server.
      *
@@ -440,7 +810,8 @@ public ContentType getPresContent(String imageName)
                 // They do not follow for 100% percent the RFC
                 ContentType presContent = new ContentType();
                 DataType data = new DataType();
-                data.setValue(new String(Base64.encode(content)));
+                data.setValue(new String(
+                        Base64.encode(content)));
                 presContent.setData(data);
                 return presContent;
             }
@@ -568,7 +939,22 @@ protected void assertPresContentSupported()
     private void putResource(XCapResource resource)
             throws XCapException
     {
-        XCapHttpResponse response = this.put(resource);
+        assertPutSucceeded(resource, this.put(resource));
+    }
+
+    /**
+     * Analyzes the HTTP code of the response to the put of a resource and
+     * tryes to get xcap-error if possible.
+     *
+     * @param resource the resource.
+     * @param response the server response.
+     * @throws XCapException if the resource has not been put.
+     */
+    private void assertPutSucceeded(
+            XCapResource resource,
+            XCapHttpResponse response)
+            throws XCapException
+    {
         int httpCode = response.getHttpCode();
         if (httpCode != HttpStatus.SC_OK && httpCode != HttpStatus.SC_CREATED)
         {
@@ -0,0 +1,325 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip.xcap;
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * Local copies of the XCAP documents, keyed by their URI and tagged with the
+ * entity tag the server has returned for them. A document whose tag is known
+ * is requested with <tt>If-None-Match</tt>, so that an unchanged document
+ * costs a <tt>304 Not Modified</tt> instead of a full download.
+ * <p/>
+ * The documents are kept in memory and, when a directory is given, written
+ * to it so that they survive a restart of the application.
+ */
+public class XCapDocumentCache
+{
+    /**
+     * Class logger.
+     */
+    private static final Logger logger =
+            Logger.getLogger(XCapDocumentCache.class);
+
+    /**
+     * The extension of the files of the cached documents.
+     */
+    private static final String FILE_EXTENSION = ".xcap";
+
+    /**
+     * The cached documents by their URI.
+     */
+    private final Map<String, Document> documents
+        = new HashMap<String, Document>();
+
+    /**
+     * The directory where the documents are stored or <tt>null</tt> if they
+     * are only kept in memory.
+     */
+    private final File directory;
+
+    /**
+     * Creates a cache of XCAP documents.
+     *
+     * @param directory the directory where the documents are stored or
+     *                  <tt>null</tt> to keep them only in memory.
+     */
+    public XCapDocumentCache(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the cached copy of a document.
+     *
+     * @param uri the document uri.
+     * @return the cached document or <tt>null</tt> if there is none.
+     */
+    public synchronized Document get(String uri)
+    {
+        Document document = documents.get(uri);
+
+        if (document == null && directory != null)
+        {
+            document = read(getFile(uri));
+            if (document != null)
+                documents.put(uri, document);
+        }
+        return document;
+    }
+
+    /**
+     * Stores a copy of a document.
+     *
+     * @param uri         the document uri.
+     * @param eTag        the entity tag the server has returned for the
+     *                    document.
+     * @param contentType the document content type.
+     * @param content     the document content.
+     */
+    public synchronized void put(
+            String uri,
+            String eTag,
+            String contentType,
+            byte[] content)
+    {
+        if (eTag == null || content == null)
+        {
+            remove(uri);
+            return;
+        }
+
+        Document document = new Document(eTag, contentType, content);
+
+        documents.put(uri, document);
+        if (directory != null)
+            write(getFile(uri), document);
+    }
+
+    /**
+     * Removes the copy of a document, for example because it has been
+     * deleted or changed on the server.
+     *
+     * @param uri the document uri.
+     */
+    public synchronized void remove(String uri)
+    {
+        documents.remove(uri);
+        if (directory != null)
+        {
+            File file = getFile(uri);
+
+            if (file.exists() && !file.delete())
+                logger.warn("Failed to delete " + file);
+        }
+    }
+
+    /**
+     * Gets the file of a document.
+     *
+     * @param uri the document uri.
+     * @return the file the document is stored in.
+     */
+    private File getFile(String uri)
+    {
+        String name;
+
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder hex = new StringBuilder();
+
+            for (byte b : digest.digest(uri.getBytes("UTF-8")))
+                hex.append(String.format("%02x", b & 0xff));
+            name = hex.toString();
+        }
+        catch (Exception e)
+        {
+            // SHA-1 and UTF-8 are always available
+            name = Integer.toHexString(uri.hashCode());
+        }
+        return new File(directory, name + FILE_EXTENSION);
+    }
+
+    /**
+     * Reads a document from a file.
+     *
+     * @param file the file.
+     * @return the document or <tt>null</tt> if it cannot be read.
+     */
+    private static Document read(File file)
+    {
+        if (!file.exists())
+            return null;
+
+        DataInputStream in = null;
+
+        try
+        {
+            in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+
+            String eTag = in.readUTF();
+            String contentType = in.readUTF();
+            byte[] content = new byte[in.readInt()];
+
+            in.readFully(content);
+            return
+                new Document(
+                        eTag,
+                        contentType.length() == 0 ? null : contentType,
+                        content);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to read the cached XCAP document " + file, e);
+            return null;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a document to a file.
+     *
+     * @param file     the file.
+     * @param document the document.
+     */
+    private static void write(File file, Document document)
+    {
+        File parent = file.getParentFile();
+
+        if (!parent.exists() && !parent.mkdirs())
+        {
+            logger.warn("Failed to create directory " + parent);
+            return;
+        }
+
+        DataOutputStream out = null;
+
+        try
+        {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeUTF(document.getETag());
+            out.writeUTF(
+                document.getContentType() == null
+                    ? ""
+                    : document.getContentType());
+            out.writeInt(document.getContent().length);
+            out.write(document.getContent());
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to cache the XCAP document in " + file, e);
+        }
+        finally
+        {
+            if (out != null)
+            {
+                try
+                {
+                    out.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * A cached copy of an XCAP document.
+     */
+    public static class Document
+    {
+        /**
+         * The entity tag the server has returned for the document.
+         */
+        private final String eTag;
+
+        /**
+         * The document content type.
+         */
+        private final String contentType;
+
+        /**
+         * The document content.
+         */
+        private final byte[] content;
+
+        /**
+         * Creates a cached copy of a document.
+         *
+         * @param eTag        the document entity tag.
+         * @param contentType the document content type.
+         * @param content     the document content.
+         */
+        Document(String eTag, String contentType, byte[] content)
+        {
+            this.eTag = eTag;
+            this.contentType = contentType;
+            this.content = content;
+        }
+
+        /**
+         * Gets the entity tag of the document.
+         *
+         * @return the entity tag.
+         */
+        public String getETag()
+        {
+            return eTag;
+        }
+
+        /**
+         * Gets the content type of the document.
+         *
+         * @return the content type.
+         */
+        public String getContentType()
+        {
+            return contentType;
+        }
+
+        /**
+         * Gets the content of the document.
+         *
+         * @return the content.
+         */
+        public byte[] getContent()
+        {
+            return content;
+        }
+    }
+}
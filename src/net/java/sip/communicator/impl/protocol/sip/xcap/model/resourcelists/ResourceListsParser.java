@@ -164,6 +164,39 @@ public static String toXml(ResourceListsType resourceLists)
         }
     }
 
+    /**
+     * Creates XML from the entry element, as the body of an XCAP request
+     * putting this single element.
+     *
+     * @param entry the entry to analyze.
+     * @return the entry xml.
+     * @throws ParsingException if there is some error during parsing.
+     */
+    public static String toXml(EntryType entry)
+            throws ParsingException
+    {
+        if (entry == null)
+        {
+            throw new IllegalArgumentException("entry cannot be null");
+        }
+        try
+        {
+            Document document = createDocument();
+            document.appendChild(elementFromEntry(document, entry));
+            String xml = createXml(document);
+            // an element body is an XML fragment without the declaration
+            if (xml.startsWith("<?xml"))
+            {
+                xml = xml.substring(xml.indexOf("?>") + 2).trim();
+            }
+            return xml;
+        }
+        catch (Exception ex)
+        {
+            throw new ParsingException(ex);
+        }
+    }
+
     /**
      * Creates list object from the element.
      *
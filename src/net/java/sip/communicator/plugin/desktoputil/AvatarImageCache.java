@@ -0,0 +1,559 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.plugin.desktoputil;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.imageio.*;
+import javax.swing.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.jitsi.service.fileaccess.*;
+
+/**
+ * Caches the scaled, rounded icons of the avatars shown by the renderers of
+ * the user interface, so that painting never decodes or scales an image.
+ * <p>
+ * The icons are kept in memory, up to {@link #MAX_CACHE_SIZE} bytes of
+ * pixels, and are keyed by the SHA-1 of the avatar image and their size, so
+ * that contacts sharing an avatar share its icons. An icon which is not in
+ * memory is read from the <tt>avatarcache</tt> directory, where the scaled
+ * icons are stored next to the original avatars, or created from the avatar
+ * and stored there. This happens on a background thread, together with the
+ * other {@link #STANDARD_SIZES} of the same avatar, and the components
+ * registered with {@link #addRepaintComponent(Component)} are repainted
+ * when it is done. Callers which are not repainted, such as tooltips, use
+ * {@link #getScaledRoundedIconNow(byte[], int, int)} instead, which creates
+ * a missing icon on the calling thread.
+ * <p>
+ * The stored icons which have not been used for {@link #MAX_FILE_AGE}
+ * milliseconds are deleted, as are the least recently used ones when they
+ * take more than {@link #MAX_DIR_SIZE} bytes.
+ */
+public class AvatarImageCache
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>AvatarImageCache</tt> class for
+     * logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(AvatarImageCache.class);
+
+    /**
+     * The directory, relative to the cache directory of the application, in
+     * which the scaled icons are stored.
+     */
+    private static final String SCALED_AVATAR_DIR
+        = "avatarcache" + File.separator + "scaled";
+
+    /**
+     * The sizes of the avatars in the contact list, in its selected rows and
+     * in the conference call panels, which are created together.
+     */
+    private static final int[][] STANDARD_SIZES
+        = new int[][] { { 30, 30 }, { 45, 45 }, { 50, 50 } };
+
+    /**
+     * The maximum number of bytes of the pixels of the icons kept in memory.
+     */
+    private static final long MAX_CACHE_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The maximum number of bytes of the icons stored in the cache
+     * directory.
+     */
+    private static final long MAX_DIR_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The number of milliseconds after which a stored icon which has not
+     * been used is deleted.
+     */
+    private static final long MAX_FILE_AGE = 30L * 24 * 60 * 60 * 1000;
+
+    /**
+     * The number of icons stored between two prunings of the cache
+     * directory.
+     */
+    private static final int PRUNE_INTERVAL = 64;
+
+    /**
+     * The number of icons stored since the cache directory was last pruned,
+     * or <tt>-1</tt> if it has not been pruned yet.
+     */
+    private static final AtomicInteger storedSincePrune
+        = new AtomicInteger(-1);
+
+    /**
+     * The icons by key, from the least to the most recently used.
+     */
+    private static final Map<String, ImageIcon> icons
+        = new LinkedHashMap<String, ImageIcon>(16, 0.75f, true);
+
+    /**
+     * The number of bytes of the pixels of {@link #icons}. Guarded by
+     * {@link #icons}.
+     */
+    private static long cacheSize = 0;
+
+    /**
+     * The keys of the icons which are being created or which could not be
+     * created. Guarded by {@link #icons}.
+     */
+    private static final Set<String> pendingKeys = new HashSet<String>();
+
+    /**
+     * The SHA-1 of the avatars. Arrays do not override <tt>equals()</tt>, so
+     * the avatars are compared by identity and each is only hashed once.
+     */
+    private static final Map<byte[], String> hashes
+        = new WeakHashMap<byte[], String>();
+
+    /**
+     * The components which show avatars and are to be repainted when an icon
+     * has been created.
+     */
+    private static final Map<Component, Boolean> repaintComponents
+        = new WeakHashMap<Component, Boolean>();
+
+    /**
+     * Repaints {@link #repaintComponents}, once for all the icons created
+     * since it was last run.
+     */
+    private static final Runnable repaint
+        = LowPriorityEventQueue.createRepetitiveInvokeLater(
+                new Runnable()
+                {
+                    public void run()
+                    {
+                        Component[] components;
+
+                        synchronized (repaintComponents)
+                        {
+                            components
+                                = repaintComponents.keySet().toArray(
+                                        new Component[0]);
+                        }
+                        for (Component component : components)
+                            component.repaint();
+                    }
+                });
+
+    /**
+     * The thread which creates the icons.
+     */
+    private static final ExecutorService executor
+        = Executors.newSingleThreadExecutor(
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "AvatarImageCache");
+
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+
+    /**
+     * Returns the rounded icon of an avatar scaled within a size, if it has
+     * already been created. Otherwise schedules its creation and returns
+     * <tt>null</tt>. Only meant for the renderers of the components
+     * registered with {@link #addRepaintComponent(Component)}.
+     *
+     * @param avatar the bytes of the avatar image
+     * @param width the maximum width of the icon
+     * @param height the maximum height of the icon
+     * @return the icon or <tt>null</tt> if it is not available yet or cannot
+     * be created
+     */
+    public static ImageIcon getScaledRoundedIcon(
+        byte[] avatar, int width, int height)
+    {
+        if ((avatar == null) || (avatar.length == 0))
+            return null;
+
+        String hash = getHash(avatar);
+        String key = getKey(hash, width, height);
+
+        synchronized (icons)
+        {
+            ImageIcon icon = icons.get(key);
+
+            if ((icon != null) || !pendingKeys.add(key))
+                return icon;
+        }
+
+        executor.execute(new CreateIconsTask(avatar, hash, width, height));
+        return null;
+    }
+
+    /**
+     * Returns the rounded icon of an avatar scaled within a size, creating it
+     * on the calling thread if it is not in memory.
+     *
+     * @param avatar the bytes of the avatar image
+     * @param width the maximum width of the icon
+     * @param height the maximum height of the icon
+     * @return the icon or <tt>null</tt> if it cannot be created
+     */
+    public static ImageIcon getScaledRoundedIconNow(
+        byte[] avatar, int width, int height)
+    {
+        if ((avatar == null) || (avatar.length == 0))
+            return null;
+
+        String hash = getHash(avatar);
+        ImageIcon icon;
+
+        synchronized (icons)
+        {
+            icon = icons.get(getKey(hash, width, height));
+        }
+        return (icon != null) ? icon : createIcon(avatar, hash, width, height);
+    }
+
+    /**
+     * Registers a component to be repainted when an icon has been created.
+     * The component is only weakly referenced.
+     *
+     * @param component the component which shows icons of this cache
+     */
+    public static void addRepaintComponent(Component component)
+    {
+        synchronized (repaintComponents)
+        {
+            repaintComponents.put(component, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Returns the SHA-1 of an avatar.
+     *
+     * @param avatar the bytes of the avatar image
+     * @return the hexadecimal SHA-1 of <tt>avatar</tt>
+     */
+    private static String getHash(byte[] avatar)
+    {
+        synchronized (hashes)
+        {
+            String hash = hashes.get(avatar);
+
+            if (hash == null)
+            {
+                try
+                {
+                    byte[] digest
+                        = MessageDigest.getInstance("SHA-1").digest(avatar);
+                    StringBuilder s = new StringBuilder(digest.length * 2);
+
+                    for (byte b : digest)
+                        s.append(String.format("%02x", b & 0xff));
+                    hash = s.toString();
+                }
+                catch (NoSuchAlgorithmException e)
+                {
+                    // every Java platform supports SHA-1
+                    hash = Integer.toHexString(Arrays.hashCode(avatar));
+                }
+                hashes.put(avatar, hash);
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * Returns the key of an icon in {@link #icons}, which is also the name
+     * of its file.
+     *
+     * @param hash the SHA-1 of the avatar
+     * @param width the maximum width of the icon
+     * @param height the maximum height of the icon
+     * @return the key of the icon
+     */
+    private static String getKey(String hash, int width, int height)
+    {
+        return hash + "_" + width + "x" + height + ".png";
+    }
+
+    /**
+     * Returns the file in which an icon is stored.
+     *
+     * @param key the key of the icon
+     * @return the file of the icon or <tt>null</tt> if the cache directory
+     * is not available
+     * @throws Exception if the file cannot be obtained
+     */
+    private static File getFile(String key)
+        throws Exception
+    {
+        FileAccessService fileAccessService
+            = DesktopUtilActivator.getFileAccessService();
+
+        return (fileAccessService == null)
+            ? null
+            : fileAccessService.getPrivatePersistentFile(
+                    SCALED_AVATAR_DIR + File.separator + key,
+                    FileCategory.CACHE);
+    }
+
+    /**
+     * Reads or creates an icon of an avatar and puts it in {@link #icons}.
+     * The key of the icon is removed from {@link #pendingKeys} if the icon
+     * is created, and left there otherwise.
+     *
+     * @param avatar the bytes of the avatar image
+     * @param hash the SHA-1 of <tt>avatar</tt>
+     * @param width the maximum width of the icon
+     * @param height the maximum height of the icon
+     * @return the icon or <tt>null</tt> if it cannot be created
+     */
+    private static ImageIcon createIcon(
+        byte[] avatar, String hash, int width, int height)
+    {
+        String key = getKey(hash, width, height);
+        ImageIcon icon = null;
+        File file = null;
+
+        try
+        {
+            file = getFile(key);
+            if ((file != null) && file.exists())
+            {
+                BufferedImage image = ImageIO.read(file);
+
+                if (image != null)
+                {
+                    icon = new ImageIcon(image);
+                    // the age of a stored icon is counted from its last use
+                    file.setLastModified(System.currentTimeMillis());
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            logger.warn("Could not read scaled avatar " + file, e);
+        }
+
+        if (icon == null)
+        {
+            icon = ImageUtils.getScaledRoundedIcon(avatar, width, height);
+            if ((icon != null) && (file != null))
+                store(icon, file);
+        }
+
+        if (icon == null)
+            return null;
+
+        synchronized (icons)
+        {
+            pendingKeys.remove(key);
+
+            ImageIcon previous = icons.put(key, icon);
+
+            if (previous != null)
+                cacheSize -= getSize(previous);
+            cacheSize += getSize(icon);
+
+            Iterator<ImageIcon> iter = icons.values().iterator();
+
+            while ((cacheSize > MAX_CACHE_SIZE) && iter.hasNext())
+            {
+                cacheSize -= getSize(iter.next());
+                iter.remove();
+            }
+        }
+        return icon;
+    }
+
+    /**
+     * Stores an icon in the cache directory, which is pruned the first time
+     * and then every {@link #PRUNE_INTERVAL} icons.
+     *
+     * @param icon the icon
+     * @param file the file of the icon
+     */
+    private static void store(ImageIcon icon, File file)
+    {
+        Image image = icon.getImage();
+
+        if (!(image instanceof RenderedImage))
+            return;
+
+        try
+        {
+            File dir = file.getParentFile();
+
+            if (!dir.exists() && !dir.mkdirs())
+            {
+                throw new IOException(
+                    "Failed to create directory: "
+                        + dir.getAbsolutePath());
+            }
+            ImageIO.write((RenderedImage) image, "png", file);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not store scaled avatar " + file, e);
+        }
+
+        int stored = storedSincePrune.incrementAndGet();
+
+        if ((stored == 0) || (stored >= PRUNE_INTERVAL))
+        {
+            storedSincePrune.set(0);
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    prune();
+                }
+            });
+        }
+    }
+
+    /**
+     * Deletes the stored icons which have not been used for
+     * {@link #MAX_FILE_AGE} milliseconds, then the least recently used ones
+     * until they take at most {@link #MAX_DIR_SIZE} bytes.
+     */
+    private static void prune()
+    {
+        File[] files;
+
+        try
+        {
+            FileAccessService fileAccessService
+                = DesktopUtilActivator.getFileAccessService();
+
+            if (fileAccessService == null)
+                return;
+
+            files = fileAccessService.getPrivatePersistentDirectory(
+                    SCALED_AVATAR_DIR, FileCategory.CACHE).listFiles();
+        }
+        catch (Exception e)
+        {
+            logger.warn("Could not list the scaled avatars", e);
+            return;
+        }
+        if (files == null)
+            return;
+
+        Arrays.sort(files, new Comparator<File>()
+        {
+            public int compare(File f1, File f2)
+            {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+
+                return (m1 < m2) ? -1 : ((m1 == m2) ? 0 : 1);
+            }
+        });
+
+        long oldest = System.currentTimeMillis() - MAX_FILE_AGE;
+        long dirSize = 0;
+
+        for (File file : files)
+            dirSize += file.length();
+
+        for (File file : files)
+        {
+            if ((file.lastModified() >= oldest) && (dirSize <= MAX_DIR_SIZE))
+                break;
+
+            long length = file.length();
+
+            if (file.delete())
+                dirSize -= length;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the pixels of an icon.
+     *
+     * @param icon the icon
+     * @return the number of bytes of the pixels of <tt>icon</tt>
+     */
+    private static long getSize(ImageIcon icon)
+    {
+        return 4L * icon.getIconWidth() * icon.getIconHeight();
+    }
+
+    /**
+     * Creates the icons of an avatar at the requested size and at the
+     * {@link #STANDARD_SIZES}.
+     */
+    private static class CreateIconsTask
+        implements Runnable
+    {
+        /**
+         * The bytes of the avatar image.
+         */
+        private final byte[] avatar;
+
+        /**
+         * The SHA-1 of {@link #avatar}.
+         */
+        private final String hash;
+
+        /**
+         * The requested width.
+         */
+        private final int width;
+
+        /**
+         * The requested height.
+         */
+        private final int height;
+
+        CreateIconsTask(byte[] avatar, String hash, int width, int height)
+        {
+            this.avatar = avatar;
+            this.hash = hash;
+            this.width = width;
+            this.height = height;
+        }
+
+        public void run()
+        {
+            createIcon(avatar, hash, width, height);
+
+            for (int[] size : STANDARD_SIZES)
+            {
+                String key = getKey(hash, size[0], size[1]);
+
+                synchronized (icons)
+                {
+                    if (icons.containsKey(key) || !pendingKeys.add(key))
+                        continue;
+                }
+                createIcon(avatar, hash, size[0], size[1]);
+            }
+
+            repaint.run();
+        }
+    }
+}
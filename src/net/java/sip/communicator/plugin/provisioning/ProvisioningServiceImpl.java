@@ -713,6 +713,8 @@ private static String getParamValue(List<NameValuePair> parameters,
 
     /**
      * Update configuration with properties retrieved from provisioning URL.
+     * The changes are collected and applied to the configuration service
+     * with a single call, so they are stored at once.
      *
      * @param data Provisioning data
      */
@@ -720,6 +722,7 @@ private void updateConfiguration(final InputStream data)
     {
         Properties fileProps = new OrderedProperties();
         InputStream in = null;
+        Map<String, Object> changes = new LinkedHashMap<String, Object>();
 
         try
         {
@@ -752,7 +755,10 @@ private void updateConfiguration(final InputStream data)
                 }
                 else if(key.equals(PROVISIONING_ENFORCE_PREFIX_PROP))
                 {
-                    checkEnforcePrefix((String)value);
+                    checkEnforcePrefix(
+                        ProvisioningActivator.getConfigurationService(),
+                        (String)value,
+                        changes);
                     continue;
                 }
 
@@ -762,7 +768,13 @@ else if(key.equals(PROVISIONING_ENFORCE_PREFIX_PROP))
                     continue;
                 }
 
-                processProperty(key, value);
+                processProperty(key, value, changes);
+            }
+
+            if(changes.size() > 0)
+            {
+                ProvisioningActivator.getConfigurationService().
+                    setProperties(changes);
             }
 
             try
@@ -830,15 +842,30 @@ private boolean isPrefixAllowed(String key)
      *
      * @param key property key name
      * @param value property value
+     * @param changes the changes to apply to the configuration service, a
+     * <tt>null</tt> value removes the property
      */
-    private void processProperty(String key, Object value)
+    private void processProperty(String key, Object value,
+                                 Map<String, Object> changes)
     {
         if((value instanceof String) && value.equals("${null}"))
         {
-            ProvisioningActivator.getConfigurationService().removeProperty(key);
+            removeProperty(
+                ProvisioningActivator.getConfigurationService(),
+                key,
+                changes);
         }
         else if(key.endsWith(".PASSWORD"))
         {
+            /* the credentials storage service writes to the configuration
+             * service, apply the previous changes first to keep their order */
+            if(changes.size() > 0)
+            {
+                ProvisioningActivator.getConfigurationService().
+                    setProperties(changes);
+                changes.clear();
+            }
+
             /* password => credentials storage service */
             ProvisioningActivator.getCredentialsStorageService().storePassword(
                     key.substring(0, key.lastIndexOf(".")),
@@ -858,24 +885,58 @@ else if(key.startsWith(SYSTEM_PROP_PREFIX))
         }
         else
         {
-            ProvisioningActivator.getConfigurationService().setProperty(key,
-                value);
+            changes.put(key, value);
         }
 
         if(logger.isInfoEnabled())
             logger.info(key + "=" + value);
     }
 
+    /**
+     * Adds the removal of a property and of all the properties below it to
+     * the changes to apply, as
+     * <tt>ConfigurationService.removeProperty(String)</tt> would remove them.
+     * The properties below it which were set by the previous changes are
+     * removed too.
+     *
+     * @param config the configuration service holding the properties
+     * @param key property key name
+     * @param changes the changes to apply to the configuration service, a
+     * <tt>null</tt> value removes the property
+     */
+    static void removeProperty(ConfigurationService config,
+                               String key,
+                               Map<String, Object> changes)
+    {
+        for (String child : config.getPropertyNamesByPrefix(key, false))
+        {
+            changes.put(child, null);
+        }
+
+        for (Map.Entry<String, Object> e : changes.entrySet())
+        {
+            if(e.getKey().startsWith(key))
+            {
+                e.setValue(null);
+            }
+        }
+
+        changes.put(key, null);
+    }
+
     /**
      * Walk through all properties and make sure all properties keys match
      * a specific set of prefixes defined in configuration.
      *
+     * @param config the configuration service holding the properties
      * @param enforcePrefix list of enforce prefix.
+     * @param changes the changes to apply to the configuration service, a
+     * <tt>null</tt> value removes the property
      */
-    private void checkEnforcePrefix(String enforcePrefix)
+    static void checkEnforcePrefix(ConfigurationService config,
+                                   String enforcePrefix,
+                                   Map<String, Object> changes)
     {
-        ConfigurationService config =
-            ProvisioningActivator.getConfigurationService();
         String prefixes[] = null;
 
         if(enforcePrefix == null)
@@ -886,8 +947,19 @@ private void checkEnforcePrefix(String enforcePrefix)
         /* must escape the | character */
         prefixes = enforcePrefix.split("\\|");
 
-        /* get all properties */
-        for (String key : config.getAllPropertyNames())
+        /* get all properties, including those set by the previous changes */
+        Set<String> keys
+            = new LinkedHashSet<String>(config.getAllPropertyNames());
+
+        for (Map.Entry<String, Object> e : changes.entrySet())
+        {
+            if(e.getValue() != null)
+            {
+                keys.add(e.getKey());
+            }
+        }
+
+        for (String key : keys)
         {
             boolean isValid = false;
 
@@ -905,7 +977,7 @@ private void checkEnforcePrefix(String enforcePrefix)
              */
             if(!isValid)
             {
-                config.removeProperty(key);
+                removeProperty(config, key, changes);
             }
         }
     }
@@ -0,0 +1,191 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.contactlist.event;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * The events fired by a <tt>MetaContactListService</tt> during a batch of
+ * changes, in the order they occurred. Events which were superseded by a later
+ * event of the same batch, like an earlier rename of the same meta contact,
+ * are not included.
+ * <p>
+ * Listeners which are not <tt>MetaContactListBatchListener</tt>s receive the
+ * events one by one through {@link #dispatchTo(MetaContactListListener)}.
+ */
+public class MetaContactListBatchEvent
+    extends EventObject
+{
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 0L;
+
+    /**
+     * Our logger.
+     */
+    private static final Logger logger
+        = Logger.getLogger(MetaContactListBatchEvent.class);
+
+    /**
+     * The events of the batch.
+     */
+    private final List<EventObject> events;
+
+    /**
+     * Creates a batch event.
+     *
+     * @param source the <tt>MetaContactListService</tt> which fired the events
+     * @param events the events of the batch, in the order they occurred
+     */
+    public MetaContactListBatchEvent(MetaContactListService source,
+                                     List<EventObject> events)
+    {
+        super(source);
+
+        this.events
+            = Collections.unmodifiableList(new ArrayList<EventObject>(events));
+    }
+
+    /**
+     * Returns the events of the batch in the order they occurred. They are
+     * <tt>MetaContactEvent</tt>s, <tt>MetaContactPropertyChangeEvent</tt>s,
+     * <tt>ProtoContactEvent</tt>s and <tt>MetaContactGroupEvent</tt>s.
+     *
+     * @return the events of the batch
+     */
+    public List<EventObject> getEvents()
+    {
+        return events;
+    }
+
+    /**
+     * Delivers the events of the batch one by one to the corresponding
+     * methods of <tt>listener</tt>.
+     *
+     * @param listener the listener to deliver the events to
+     */
+    public void dispatchTo(MetaContactListListener listener)
+    {
+        for (EventObject evt : events)
+            dispatch(evt, listener);
+    }
+
+    /**
+     * Delivers an event of the meta contact list to the corresponding method
+     * of <tt>listener</tt>.
+     *
+     * @param evt the event to deliver
+     * @param listener the listener to deliver <tt>evt</tt> to
+     */
+    public static void dispatch(EventObject evt,
+                                MetaContactListListener listener)
+    {
+        if (evt instanceof MetaContactEvent)
+        {
+            MetaContactEvent mcEvt = (MetaContactEvent) evt;
+
+            switch (mcEvt.getEventID())
+            {
+                case MetaContactEvent.META_CONTACT_ADDED:
+                    listener.metaContactAdded(mcEvt);
+                    break;
+                case MetaContactEvent.META_CONTACT_REMOVED:
+                    listener.metaContactRemoved(mcEvt);
+                    break;
+                default:
+                    logger.error("Unknown event type " + mcEvt.getEventID());
+            }
+        }
+        else if (evt instanceof MetaContactMovedEvent)
+        {
+            listener.metaContactMoved((MetaContactMovedEvent) evt);
+        }
+        else if (evt instanceof MetaContactRenamedEvent)
+        {
+            listener.metaContactRenamed((MetaContactRenamedEvent) evt);
+        }
+        else if (evt instanceof MetaContactModifiedEvent)
+        {
+            listener.metaContactModified((MetaContactModifiedEvent) evt);
+        }
+        else if (evt instanceof MetaContactAvatarUpdateEvent)
+        {
+            listener.metaContactAvatarUpdated(
+                (MetaContactAvatarUpdateEvent) evt);
+        }
+        else if (evt instanceof ProtoContactEvent)
+        {
+            ProtoContactEvent protoEvt = (ProtoContactEvent) evt;
+            String eventName = protoEvt.getPropertyName();
+
+            if (eventName.equals(ProtoContactEvent.PROTO_CONTACT_ADDED))
+                listener.protoContactAdded(protoEvt);
+            else if (eventName.equals(ProtoContactEvent.PROTO_CONTACT_MOVED))
+                listener.protoContactMoved(protoEvt);
+            else if (eventName.equals(ProtoContactEvent.PROTO_CONTACT_REMOVED))
+                listener.protoContactRemoved(protoEvt);
+            else if (eventName.equals(ProtoContactEvent.PROTO_CONTACT_MODIFIED))
+                listener.protoContactModified(protoEvt);
+        }
+        else if (evt instanceof MetaContactGroupEvent)
+        {
+            MetaContactGroupEvent groupEvt = (MetaContactGroupEvent) evt;
+
+            switch (groupEvt.getEventID())
+            {
+                case MetaContactGroupEvent.META_CONTACT_GROUP_ADDED:
+                    listener.metaContactGroupAdded(groupEvt);
+                    break;
+                case MetaContactGroupEvent.META_CONTACT_GROUP_REMOVED:
+                    listener.metaContactGroupRemoved(groupEvt);
+                    break;
+                case MetaContactGroupEvent.CHILD_CONTACTS_REORDERED:
+                    listener.childContactsReordered(groupEvt);
+                    break;
+                case MetaContactGroupEvent
+                    .META_CONTACT_GROUP_RENAMED:
+                case MetaContactGroupEvent
+                    .CONTACT_GROUP_RENAMED_IN_META_GROUP:
+                case MetaContactGroupEvent
+                    .CONTACT_GROUP_REMOVED_FROM_META_GROUP:
+                case MetaContactGroupEvent
+                    .CONTACT_GROUP_ADDED_TO_META_GROUP:
+                    listener.metaContactGroupModified(groupEvt);
+                    break;
+                default:
+                    logger.error("Unknown event type ("
+                        + groupEvt.getEventID() + ") for event: " + groupEvt);
+            }
+        }
+    }
+
+    /**
+     * Returns a <tt>String</tt> representation of this event.
+     *
+     * @return a <tt>String</tt> representation of this event
+     */
+    @Override
+    public String toString()
+    {
+        return "MetaContactListBatchEvent[events=" + events.size() + "]";
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.contactlist.event;
+
+/**
+ * A <tt>MetaContactListListener</tt> which receives the events of a batch,
+ * such as the loading of the contact list of an account, at once in a
+ * <tt>MetaContactListBatchEvent</tt> instead of one by one. Outside of batches
+ * it receives the events through the methods of
+ * <tt>MetaContactListListener</tt> like any other listener.
+ */
+public interface MetaContactListBatchListener
+    extends MetaContactListListener
+{
+    /**
+     * Indicates that a batch of changes was made to the meta contact list.
+     * Implementations which only want to update themselves once may still
+     * process the events one by one with
+     * {@link MetaContactListBatchEvent#dispatchTo(MetaContactListListener)}.
+     *
+     * @param evt the <tt>MetaContactListBatchEvent</tt> containing the events
+     * of the batch
+     */
+    public void metaContactListChanged(MetaContactListBatchEvent evt);
+}
@@ -0,0 +1,339 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.contactsource;
+
+import java.util.*;
+
+/**
+ * An in-memory index of the search strings (display names, addresses, phone
+ * numbers) of the contacts of a contact source, which finds the contacts
+ * matching a search string without matching every string of every contact.
+ * <p>
+ * The strings are indexed by their trigrams, after case folding, so that
+ * {@link #find(String)} returns the contacts with a string containing the
+ * searched one, ignoring case, just as a quoted case insensitive
+ * <tt>Pattern</tt> would. The strings which look like phone numbers are
+ * also indexed by their last digits, so that {@link #findPhoneNumber(String)}
+ * returns the few contacts which may have a number matching the searched
+ * one.
+ * <p>
+ * Contact sources keep the index up to date by calling
+ * {@link #put(Object, Collection)} whenever the strings of a contact change
+ * and {@link #remove(Object)} when a contact is removed. The methods of the
+ * index are thread safe.
+ *
+ * @param <T> the type of the indexed contacts
+ */
+public class ContactSearchIndex<T>
+{
+    /**
+     * The length of the substrings by which the search strings are indexed.
+     */
+    private static final int GRAM_LENGTH = 3;
+
+    /**
+     * The number of trailing digits by which phone numbers are indexed. Two
+     * phone numbers only match when the national number of one of them ends
+     * with the national number of the other, which is never shorter than
+     * this.
+     */
+    private static final int PHONE_SUFFIX_LENGTH = 6;
+
+    /**
+     * The key of the phone numbers with less than
+     * {@link #PHONE_SUFFIX_LENGTH} digits, which may match any number.
+     */
+    private static final String SHORT_PHONE_NUMBER = "";
+
+    /**
+     * The case folded search strings of the indexed contacts.
+     */
+    private final Map<T, String[]> searchStrings
+        = new LinkedHashMap<T, String[]>();
+
+    /**
+     * The contacts by the trigrams of their case folded search strings.
+     */
+    private final Map<String, Set<T>> contactsByGram
+        = new HashMap<String, Set<T>>();
+
+    /**
+     * The contacts by the last digits of their phone numbers.
+     */
+    private final Map<String, Set<T>> contactsByPhoneSuffix
+        = new HashMap<String, Set<T>>();
+
+    /**
+     * Indexes a contact with its search strings, replacing the strings it
+     * was indexed with before, if any.
+     *
+     * @param contact the contact to index
+     * @param strings the strings the contact is searched by
+     */
+    public synchronized void put(T contact, Collection<String> strings)
+    {
+        remove(contact);
+
+        List<String> folded = new ArrayList<String>(strings.size());
+
+        for (String s : strings)
+        {
+            if (s == null || s.length() == 0)
+                continue;
+
+            String f = fold(s);
+
+            folded.add(f);
+            for (int i = 0; i + GRAM_LENGTH <= f.length(); i++)
+            {
+                add(contactsByGram, f.substring(i, i + GRAM_LENGTH),
+                    contact);
+            }
+
+            String phoneSuffix = getPhoneSuffix(s);
+
+            if (phoneSuffix != null)
+                add(contactsByPhoneSuffix, phoneSuffix, contact);
+        }
+        searchStrings.put(contact, folded.toArray(new String[folded.size()]));
+    }
+
+    /**
+     * Removes a contact from the index.
+     *
+     * @param contact the contact to remove
+     */
+    public synchronized void remove(T contact)
+    {
+        String[] folded = searchStrings.remove(contact);
+
+        if (folded == null)
+            return;
+
+        for (String f : folded)
+        {
+            for (int i = 0; i + GRAM_LENGTH <= f.length(); i++)
+            {
+                remove(contactsByGram, f.substring(i, i + GRAM_LENGTH),
+                    contact);
+            }
+
+            // folding keeps the digits and the separators of phone numbers
+            String phoneSuffix = getPhoneSuffix(f);
+
+            if (phoneSuffix != null)
+                remove(contactsByPhoneSuffix, phoneSuffix, contact);
+        }
+    }
+
+    /**
+     * Removes all the contacts from the index.
+     */
+    public synchronized void clear()
+    {
+        searchStrings.clear();
+        contactsByGram.clear();
+        contactsByPhoneSuffix.clear();
+    }
+
+    /**
+     * Determines whether a contact is indexed.
+     *
+     * @param contact the contact
+     * @return <tt>true</tt> if <tt>contact</tt> is indexed
+     */
+    public synchronized boolean contains(T contact)
+    {
+        return searchStrings.containsKey(contact);
+    }
+
+    /**
+     * Returns the number of indexed contacts.
+     *
+     * @return the number of indexed contacts
+     */
+    public synchronized int size()
+    {
+        return searchStrings.size();
+    }
+
+    /**
+     * Returns the contacts with a search string which contains a string,
+     * ignoring case.
+     *
+     * @param query the string to search for
+     * @return the matching contacts, all the indexed contacts if
+     * <tt>query</tt> is empty
+     */
+    public synchronized List<T> find(String query)
+    {
+        String folded = fold(query);
+        Collection<T> candidates;
+
+        if (folded.length() < GRAM_LENGTH)
+        {
+            candidates = searchStrings.keySet();
+        }
+        else
+        {
+            // the contacts having the rarest trigram of the query
+            candidates = null;
+            for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++)
+            {
+                Set<T> contacts = contactsByGram.get(
+                    folded.substring(i, i + GRAM_LENGTH));
+
+                if (contacts == null)
+                    return new ArrayList<T>();
+                if (candidates == null || contacts.size() < candidates.size())
+                    candidates = contacts;
+            }
+        }
+
+        List<T> result = new ArrayList<T>();
+
+        for (T contact : candidates)
+        {
+            for (String s : searchStrings.get(contact))
+            {
+                if (s.contains(folded))
+                {
+                    result.add(contact);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the contacts with a phone number which may match a phone
+     * number. The caller is expected to check the returned contacts with
+     * <tt>PhoneNumberI18nService.phoneNumbersMatch()</tt>.
+     *
+     * @param number the phone number to search for
+     * @return the contacts which may have a matching number, all the
+     * indexed contacts if <tt>number</tt> has too few digits to be looked up
+     */
+    public synchronized List<T> findPhoneNumber(String number)
+    {
+        String phoneSuffix = getPhoneSuffix(number);
+
+        if (phoneSuffix == null || phoneSuffix.equals(SHORT_PHONE_NUMBER))
+            return new ArrayList<T>(searchStrings.keySet());
+
+        Set<T> result = new LinkedHashSet<T>();
+        Set<T> contacts = contactsByPhoneSuffix.get(phoneSuffix);
+
+        if (contacts != null)
+            result.addAll(contacts);
+        contacts = contactsByPhoneSuffix.get(SHORT_PHONE_NUMBER);
+        if (contacts != null)
+            result.addAll(contacts);
+        return new ArrayList<T>(result);
+    }
+
+    /**
+     * Folds the case of a string, character by character as a case
+     * insensitive unicode <tt>Pattern</tt> does, so that the folded string
+     * has the length of the original one.
+     *
+     * @param s the string to fold
+     * @return the case folded string
+     */
+    private static String fold(String s)
+    {
+        char[] chars = s.toCharArray();
+
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        return new String(chars);
+    }
+
+    /**
+     * Returns the key of a phone number in {@link #contactsByPhoneSuffix}: its
+     * last {@link #PHONE_SUFFIX_LENGTH} digits. The scheme and the domain of
+     * an address such as <tt>sip:+123456789@example.com</tt> are ignored.
+     *
+     * @param s the string
+     * @return the key of the phone number, {@link #SHORT_PHONE_NUMBER} if it
+     * has less digits than the key, <tt>null</tt> if <tt>s</tt> does not
+     * look like a phone number
+     */
+    private static String getPhoneSuffix(String s)
+    {
+        int start = s.indexOf(':') + 1;
+        int end = s.indexOf('@');
+
+        if (end < start)
+            end = s.length();
+
+        StringBuilder digits = new StringBuilder();
+
+        for (int i = start; i < end; i++)
+        {
+            char c = s.charAt(i);
+
+            if (Character.isDigit(c))
+                digits.append(c);
+            else if ("+-()./ ".indexOf(c) == -1)
+                return null;
+        }
+
+        if (digits.length() == 0)
+            return null;
+        if (digits.length() < PHONE_SUFFIX_LENGTH)
+            return SHORT_PHONE_NUMBER;
+        return digits.substring(digits.length() - PHONE_SUFFIX_LENGTH);
+    }
+
+    /**
+     * Adds a contact to the set of a key in a map of sets.
+     *
+     * @param map the map
+     * @param key the key
+     * @param contact the contact to add
+     */
+    private static <T> void add(Map<String, Set<T>> map, String key, T contact)
+    {
+        Set<T> contacts = map.get(key);
+
+        if (contacts == null)
+        {
+            contacts = new LinkedHashSet<T>();
+            map.put(key, contacts);
+        }
+        contacts.add(contact);
+    }
+
+    /**
+     * Removes a contact from the set of a key in a map of sets.
+     *
+     * @param map the map
+     * @param key the key
+     * @param contact the contact to remove
+     */
+    private static <T> void remove(
+        Map<String, Set<T>> map, String key, T contact)
+    {
+        Set<T> contacts = map.get(key);
+
+        if (contacts != null && contacts.remove(contact) && contacts.isEmpty())
+            map.remove(key);
+    }
+}
@@ -0,0 +1,544 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.history;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a query on several histories, or on several history services, in
+ * parallel and merges the results ordered by timestamp. The queries are run
+ * on a fork/join pool shared by all the history services and bounded by the
+ * number of processors. A query run from a thread of the pool forks its
+ * subqueries in the same pool, so nested queries do not block each other.
+ * At most {@link #BATCH_SIZE} sources are queried at a time.
+ * <p>
+ * Each source gives its results ordered by timestamp and may read them
+ * lazily. A source is read until it gave the requested number of results,
+ * or to its end when the last results are requested. The results of the
+ * sources are then merged with a k-way merge on a heap of cursors, one per
+ * source, which stops as soon as the requested number of results is out.
+ */
+public final class HistoryQueryExecutor
+{
+    /**
+     * The maximum number of threads of the pool.
+     */
+    private static final int MAX_PARALLELISM = 8;
+
+    /**
+     * The pool running the queries.
+     */
+    private static final ForkJoinPool pool = new ForkJoinPool(
+        Math.max(
+            1,
+            Math.min(
+                MAX_PARALLELISM,
+                Runtime.getRuntime().availableProcessors())),
+        new ForkJoinPool.ForkJoinWorkerThreadFactory()
+        {
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+            {
+                ForkJoinWorkerThread t
+                    = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                        .newThread(pool);
+
+                t.setName("HistoryQueryExecutor-" + t.getPoolIndex());
+                t.setDaemon(true);
+                return t;
+            }
+        },
+        null,
+        false);
+
+    /**
+     * The maximum number of sources of a query submitted to the pool at a
+     * time. The next source is submitted when the first one is done.
+     */
+    private static final int BATCH_SIZE = 2 * pool.getParallelism();
+
+    /**
+     * The query run on each source.
+     *
+     * @param <S> the type of the sources
+     * @param <T> the type of the results
+     */
+    public interface Query<S, T>
+    {
+        /**
+         * Returns the results of a source. Called concurrently for different
+         * sources. The results are iterated once, by the thread which called
+         * this method, and may not be iterated to their end, so they may be
+         * read while they are iterated.
+         *
+         * @param source the source to query
+         * @return the results of the source ordered by the comparator of the
+         * query, never <tt>null</tt>
+         */
+        public Iterable<? extends T> execute(S source);
+    }
+
+    /**
+     * This class is not meant to be instantiated.
+     */
+    private HistoryQueryExecutor()
+    {
+    }
+
+    /**
+     * Queries all the sources and returns all the results.
+     *
+     * @param sources the sources to query
+     * @param query the query run on each source
+     * @param comparator orders the results by timestamp
+     * @return the results of all the sources, ordered with
+     * <tt>comparator</tt>
+     */
+    public static <S, T> List<T> findAll(
+            Collection<? extends S> sources,
+            Query<S, T> query,
+            Comparator<? super T> comparator)
+    {
+        return execute(sources, query, comparator, Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Queries all the sources and returns the first <tt>count</tt> results.
+     *
+     * @param sources the sources to query
+     * @param query the query run on each source
+     * @param comparator orders the results by timestamp
+     * @param count the maximum number of results
+     * @return the first <tt>count</tt> results of all the sources, ordered
+     * with <tt>comparator</tt>
+     */
+    public static <S, T> List<T> findFirst(
+            Collection<? extends S> sources,
+            Query<S, T> query,
+            Comparator<? super T> comparator,
+            int count)
+    {
+        return execute(sources, query, comparator, count, false);
+    }
+
+    /**
+     * Queries all the sources and returns the last <tt>count</tt> results.
+     *
+     * @param sources the sources to query
+     * @param query the query run on each source
+     * @param comparator orders the results by timestamp
+     * @param count the maximum number of results
+     * @return the last <tt>count</tt> results of all the sources, ordered
+     * with <tt>comparator</tt>
+     */
+    public static <S, T> List<T> findLast(
+            Collection<? extends S> sources,
+            Query<S, T> query,
+            Comparator<? super T> comparator,
+            int count)
+    {
+        return execute(sources, query, comparator, count, true);
+    }
+
+    /**
+     * Queries the sources in parallel and returns the results of the first
+     * sources, in the order of <tt>sources</tt>, until <tt>count</tt>
+     * results are found. The following sources are not queried, or their
+     * queries are cancelled when they did not start yet.
+     *
+     * @param sources the sources to query
+     * @param query the query run on each source
+     * @param count the number of results to find
+     * @return at most <tt>count</tt> results in the order of their sources
+     */
+    public static <S, T> List<T> findAny(
+            Collection<? extends S> sources,
+            final Query<S, T> query,
+            final int count)
+    {
+        SourceTasks<S, List<T>> tasks = new SourceTasks<S, List<T>>(sources)
+        {
+            @Override
+            protected List<T> run(S source)
+            {
+                return read(query.execute(source), null, count, false);
+            }
+        };
+        List<T> result = new ArrayList<T>();
+
+        try
+        {
+            while (result.size() < count && tasks.hasNext())
+            {
+                for (T t : tasks.next())
+                {
+                    if(result.size() >= count)
+                        break;
+                    result.add(t);
+                }
+            }
+        }
+        finally
+        {
+            tasks.cancel();
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs the query on all the sources and merges their results.
+     *
+     * @param sources the sources to query
+     * @param query the query run on each source
+     * @param comparator orders the results
+     * @param count the maximum number of results
+     * @param fromEnd <tt>true</tt> to return the last <tt>count</tt>
+     * results, <tt>false</tt> to return the first ones
+     * @return the merged results ordered with <tt>comparator</tt>
+     */
+    private static <S, T> List<T> execute(
+            Collection<? extends S> sources,
+            final Query<S, T> query,
+            final Comparator<? super T> comparator,
+            final int count,
+            final boolean fromEnd)
+    {
+        SourceTasks<S, List<T>> tasks = new SourceTasks<S, List<T>>(sources)
+        {
+            @Override
+            protected List<T> run(S source)
+            {
+                return read(query.execute(source), comparator, count, fromEnd);
+            }
+        };
+        List<Cursor<T>> cursors = new ArrayList<Cursor<T>>(sources.size());
+
+        try
+        {
+            while (tasks.hasNext())
+            {
+                cursors.add(
+                    new Cursor<T>(cursors.size(), tasks.next(), fromEnd));
+            }
+        }
+        finally
+        {
+            tasks.cancel();
+        }
+
+        return merge(cursors, comparator, count, fromEnd);
+    }
+
+    /**
+     * Reads the first or the last <tt>count</tt> results of a source. The
+     * first results are read until <tt>count</tt> of them are found, the
+     * last ones are read to the end while keeping only <tt>count</tt> of
+     * them. The read results are then sorted, which is stable and cheap for
+     * the results of a source, so a source whose results are only nearly
+     * ordered, such as messages whose date differs a little from the date
+     * of their record, is still merged in order.
+     *
+     * @param results the results of the source ordered by timestamp
+     * @param comparator orders the read results, or <tt>null</tt> to keep
+     * the order of <tt>results</tt>
+     * @param count the maximum number of results to read
+     * @param fromEnd <tt>true</tt> to read the last <tt>count</tt> results,
+     * <tt>false</tt> to read the first ones
+     * @return the read results
+     */
+    static <T> List<T> read(
+            Iterable<? extends T> results,
+            Comparator<? super T> comparator,
+            int count,
+            boolean fromEnd)
+    {
+        List<T> read;
+
+        if(fromEnd)
+        {
+            ArrayDeque<T> last = new ArrayDeque<T>();
+
+            for (T t : results)
+            {
+                if(last.size() >= count)
+                    last.removeFirst();
+                last.addLast(t);
+            }
+            read = new ArrayList<T>(last);
+        }
+        else
+        {
+            read = new ArrayList<T>();
+            if(count > 0)
+            {
+                for (T t : results)
+                {
+                    read.add(t);
+                    if(read.size() >= count)
+                        break;
+                }
+            }
+        }
+
+        if(comparator != null)
+            Collections.sort(read, comparator);
+
+        return read;
+    }
+
+    /**
+     * Merges the results of the sources with a heap of their cursors and
+     * returns the first or the last <tt>count</tt> of them. The results
+     * which compare equal are ordered by the index of their source.
+     *
+     * @param cursors the cursors of the sources
+     * @param comparator orders the results
+     * @param count the maximum number of results
+     * @param fromEnd <tt>true</tt> to return the last <tt>count</tt>
+     * results, <tt>false</tt> to return the first ones
+     * @return the merged results ordered with <tt>comparator</tt>
+     */
+    private static <T> List<T> merge(
+            List<Cursor<T>> cursors,
+            final Comparator<? super T> comparator,
+            int count,
+            final boolean fromEnd)
+    {
+        PriorityQueue<Cursor<T>> heap = new PriorityQueue<Cursor<T>>(
+            Math.max(1, cursors.size()),
+            new Comparator<Cursor<T>>()
+            {
+                public int compare(Cursor<T> c1, Cursor<T> c2)
+                {
+                    int r = comparator.compare(c1.head, c2.head);
+
+                    if(r == 0)
+                        r = c1.source - c2.source;
+                    return fromEnd ? -r : r;
+                }
+            });
+
+        for (Cursor<T> cursor : cursors)
+        {
+            if(cursor.advance())
+                heap.add(cursor);
+        }
+
+        List<T> result = new ArrayList<T>();
+
+        while (result.size() < count && !heap.isEmpty())
+        {
+            Cursor<T> cursor = heap.poll();
+
+            result.add(cursor.head);
+            if(cursor.advance())
+                heap.add(cursor);
+        }
+
+        // the last results were merged from the newest to the oldest
+        if(fromEnd)
+            Collections.reverse(result);
+
+        return result;
+    }
+
+    /**
+     * Walks the results read from a source in the order in which they are
+     * merged.
+     *
+     * @param <T> the type of the results
+     */
+    private static class Cursor<T>
+    {
+        /**
+         * The index of the source.
+         */
+        final int source;
+
+        /**
+         * Walks the results of the source.
+         */
+        private final ListIterator<T> results;
+
+        /**
+         * <tt>true</tt> to walk the results from the newest to the oldest.
+         */
+        private final boolean backward;
+
+        /**
+         * The current result.
+         */
+        T head;
+
+        /**
+         * Creates a cursor before the first result to merge.
+         *
+         * @param source the index of the source
+         * @param results the results of the source ordered by timestamp
+         * @param backward <tt>true</tt> to walk the results from the newest
+         * to the oldest
+         */
+        Cursor(int source, List<T> results, boolean backward)
+        {
+            this.source = source;
+            this.results
+                = results.listIterator(backward ? results.size() : 0);
+            this.backward = backward;
+        }
+
+        /**
+         * Moves to the next result to merge.
+         *
+         * @return <tt>false</tt> if there are no more results
+         */
+        boolean advance()
+        {
+            if(backward ? !results.hasPrevious() : !results.hasNext())
+            {
+                head = null;
+                return false;
+            }
+            head = backward ? results.previous() : results.next();
+            return true;
+        }
+    }
+
+    /**
+     * Runs a task for each source in the pool and gives their results in
+     * the order of the sources. At most {@link #BATCH_SIZE} tasks are
+     * submitted at a time, the next one is submitted when the results of
+     * the first one are taken. A single source is queried by the calling
+     * thread.
+     *
+     * @param <S> the type of the sources
+     * @param <R> the type of the results of a task
+     */
+    private static abstract class SourceTasks<S, R>
+    {
+        /**
+         * The sources which were not submitted yet.
+         */
+        private final Iterator<? extends S> sources;
+
+        /**
+         * <tt>true</tt> if there is a single source.
+         */
+        private final boolean inline;
+
+        /**
+         * The submitted tasks in the order of their sources.
+         */
+        private final Deque<ForkJoinTask<R>> submitted
+            = new ArrayDeque<ForkJoinTask<R>>();
+
+        /**
+         * <tt>true</tt> once the tasks are cancelled.
+         */
+        private boolean cancelled = false;
+
+        /**
+         * Creates the tasks of sources.
+         *
+         * @param sources the sources
+         */
+        SourceTasks(Collection<? extends S> sources)
+        {
+            this.sources = sources.iterator();
+            this.inline = (sources.size() == 1);
+        }
+
+        /**
+         * Queries a source.
+         *
+         * @param source the source
+         * @return the results of the source
+         */
+        protected abstract R run(S source);
+
+        /**
+         * Determines whether there are sources whose results were not
+         * taken yet.
+         *
+         * @return <tt>true</tt> if there are more results
+         */
+        boolean hasNext()
+        {
+            submit();
+            return !submitted.isEmpty();
+        }
+
+        /**
+         * Waits for the task of the next source and returns its results.
+         *
+         * @return the results of the next source
+         */
+        R next()
+        {
+            submit();
+
+            ForkJoinTask<R> task = submitted.removeFirst();
+
+            return inline ? task.invoke() : task.join();
+        }
+
+        /**
+         * Cancels the submitted tasks which did not start yet and submits no
+         * more tasks.
+         */
+        void cancel()
+        {
+            for (ForkJoinTask<R> task : submitted)
+                task.cancel(false);
+            submitted.clear();
+            cancelled = true;
+        }
+
+        /**
+         * Submits tasks until {@link #BATCH_SIZE} of them are submitted.
+         */
+        private void submit()
+        {
+            boolean inPool = (ForkJoinTask.getPool() == pool);
+
+            while (!cancelled
+                    && submitted.size() < BATCH_SIZE
+                    && sources.hasNext())
+            {
+                final S source = sources.next();
+                ForkJoinTask<R> task = ForkJoinTask.adapt(
+                    new Callable<R>()
+                    {
+                        public R call()
+                        {
+                            return run(source);
+                        }
+                    });
+
+                if(!inline)
+                {
+                    if(inPool)
+                        task.fork();
+                    else
+                        pool.execute(task);
+                }
+                submitted.addLast(task);
+            }
+        }
+    }
+}
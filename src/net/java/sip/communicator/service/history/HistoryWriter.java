@@ -117,6 +117,13 @@ public void updateRecord(
     public void updateRecord(HistoryRecordUpdater updater)
         throws IOException;
 
+    /**
+     * Waits until all the records added so far are written to the history.
+     * Records may be written in the background, in which case they are not
+     * found by the readers of the history until they are written.
+     */
+    public void awaitFlush();
+
     /**
      * This interface is used to find a history record to update and to get the
      * new values for the record.
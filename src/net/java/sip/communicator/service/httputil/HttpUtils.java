@@ -35,6 +35,7 @@
 import org.apache.http.client.methods.*;
 import org.apache.http.client.params.*;
 import org.apache.http.client.utils.*;
+import org.apache.http.conn.*;
 import org.apache.http.conn.scheme.*;
 import org.apache.http.entity.*;
 import org.apache.http.entity.mime.*;
@@ -673,13 +674,47 @@ public static DefaultHttpClient getHttpClient(
         final String address,
         CredentialsProvider credentialsProvider)
         throws IOException
+    {
+        return getHttpClient(
+            usernamePropertyName,
+            passwordPropertyName,
+            address,
+            credentialsProvider,
+            null);
+    }
+
+    /**
+     * Returns the preconfigured http client, the same way
+     * {@link #getHttpClient(String, String, String, CredentialsProvider)}
+     * does, but with a specific connection manager. A
+     * <tt>PoolingClientConnectionManager</tt> lets the returned client be kept
+     * and shared by several threads which then reuse its persistent
+     * connections.
+     * @param usernamePropertyName the property to use to retrieve/store
+     * username value if protected site is hit.
+     * @param passwordPropertyName the property to use to retrieve/store
+     * password value if protected site is hit.
+     * @param credentialsProvider if not null provider will bre reused
+     * in the new client
+     * @param address the address we will be connecting to
+     * @param connectionManager the connection manager of the new client or
+     * <tt>null</tt> to use the default single connection one.
+     */
+    public static DefaultHttpClient getHttpClient(
+        String usernamePropertyName,
+        String passwordPropertyName,
+        final String address,
+        CredentialsProvider credentialsProvider,
+        ClientConnectionManager connectionManager)
+        throws IOException
     {
         HttpParams params = new BasicHttpParams();
         params.setParameter(CoreConnectionPNames.SO_TIMEOUT, 10000);
         params.setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, 10000);
         params.setParameter(ClientPNames.MAX_REDIRECTS, MAX_REDIRECTS);
 
-        DefaultHttpClient httpClient = new DefaultHttpClient(params);
+        DefaultHttpClient httpClient
+            = new DefaultHttpClient(connectionManager, params);
 
         HttpProtocolParams.setUserAgent(httpClient.getParams(),
             System.getProperty("sip-communicator.application.name")
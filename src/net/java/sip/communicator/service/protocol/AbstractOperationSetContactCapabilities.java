@@ -293,6 +293,19 @@ protected Map<String, OperationSet> getSupportedOperationSets(
         return parentProvider.getSupportedOperationSets();
     }
 
+    /**
+     * Sets the <tt>Contact</tt>s the user is looking at. The default
+     * implementation does nothing. Extenders which retrieve the capabilities
+     * of the contacts in the background override it to retrieve those of
+     * <tt>contacts</tt> first.
+     *
+     * @param contacts the <tt>Contact</tt>s the user is looking at
+     * @see OperationSetContactCapabilities#setVisibleContacts(Collection)
+     */
+    public void setVisibleContacts(Collection<Contact> contacts)
+    {
+    }
+
     /**
      * Determines whether a specific <tt>Contact</tt> is online (in contrast to
      * offline).
@@ -435,6 +435,52 @@ public void fireSubscriptionEvent(Contact source, ContactGroup parentGroup,
             }
     }
 
+    /**
+     * Tells the registered <tt>SubscriptionBatchListener</tt>s that the
+     * events of the whole server stored contact list follow. Must be paired
+     * with {@link #fireSubscriptionBatchEnded()} on the same thread.
+     */
+    public void fireSubscriptionBatchStarted()
+    {
+        for (SubscriptionListener listener : getSubscriptionListeners())
+        {
+            if (listener instanceof SubscriptionBatchListener)
+            {
+                ((SubscriptionBatchListener) listener)
+                    .subscriptionBatchStarted(parentProvider);
+            }
+        }
+    }
+
+    /**
+     * Tells the registered <tt>SubscriptionBatchListener</tt>s that the
+     * events of the whole server stored contact list have been delivered.
+     */
+    public void fireSubscriptionBatchEnded()
+    {
+        for (SubscriptionListener listener : getSubscriptionListeners())
+        {
+            if (listener instanceof SubscriptionBatchListener)
+            {
+                ((SubscriptionBatchListener) listener)
+                    .subscriptionBatchEnded(parentProvider);
+            }
+        }
+    }
+
+    /**
+     * Gets a copy of the registered <tt>SubscriptionListener</tt>s.
+     *
+     * @return a copy of the registered <tt>SubscriptionListener</tt>s
+     */
+    private List<SubscriptionListener> getSubscriptionListeners()
+    {
+        synchronized (subscriptionListeners)
+        {
+            return new ArrayList<SubscriptionListener>(subscriptionListeners);
+        }
+    }
+
     /**
      * Notifies all registered listeners of the new event.
      *
@@ -884,12 +884,17 @@ public boolean removeStoredAccount(ProtocolProviderFactory factory,
                     = configurationService.getPropertyNamesByPrefix(
                         accountRootPropertyName, false);
 
-                //set all account properties to null in order to remove them.
+                //set all account properties to null in order to remove them,
+                //and the parent too, with a single update of the
+                //configuration.
+                Map<String, Object> removedProperties
+                    = new LinkedHashMap<String, Object>();
+
                 for (String propName : accountPropertyNames)
-                    configurationService.setProperty(propName, null);
+                    removedProperties.put(propName, null);
+                removedProperties.put(accountRootPropertyName, null);
 
-                //and now remove the parent too.
-                configurationService.setProperty(accountRootPropertyName, null);
+                configurationService.setProperties(removedProperties);
                 return true;
             }
         }
@@ -0,0 +1,231 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The members of a chat room, indexed by the key the protocol identifies
+ * them with and by their normalized name.
+ * <p>
+ * Lookups never lock. {@link #getMembers()} returns an immutable list which
+ * is shared by all the callers until the members change, so that the user
+ * interface may ask for the members of a large room as often as it wants
+ * without copying them every time.
+ *
+ * @param <K> the type of the keys of the members
+ * @param <M> the type of the members
+ */
+public class ChatRoomMemberRegistry<K, M extends ChatRoomMember>
+{
+    /**
+     * The members by key.
+     */
+    private final Map<K, M> members = new ConcurrentHashMap<K, M>();
+
+    /**
+     * The members by normalized name.
+     */
+    private final Map<String, M> membersByName
+        = new ConcurrentHashMap<String, M>();
+
+    /**
+     * The normalized names the members were indexed with, by key, so that
+     * a member is removed from {@link #membersByName} even if its name has
+     * changed since it was added. Guarded by <tt>this</tt>.
+     */
+    private final Map<K, String> names = new HashMap<K, String>();
+
+    /**
+     * The members as returned by {@link #getMembers()} or <tt>null</tt> if
+     * the members have changed since it was last called.
+     */
+    private volatile List<ChatRoomMember> snapshot;
+
+    /**
+     * Adds a member, replacing the member with the same key, if any.
+     *
+     * @param key the key of the member
+     * @param member the member
+     * @return the replaced member or <tt>null</tt>
+     */
+    public synchronized M put(K key, M member)
+    {
+        M previous = remove(key);
+        String name = normalize(member.getName());
+
+        members.put(key, member);
+        if (name != null)
+        {
+            names.put(key, name);
+            membersByName.put(name, member);
+        }
+        snapshot = null;
+        return previous;
+    }
+
+    /**
+     * Removes a member.
+     *
+     * @param key the key of the member
+     * @return the removed member or <tt>null</tt> if there was no member with
+     * that key
+     */
+    public synchronized M remove(K key)
+    {
+        M member = members.remove(key);
+
+        if (member != null)
+        {
+            String name = names.remove(key);
+
+            if (name != null)
+                membersByName.remove(name, member);
+            snapshot = null;
+        }
+        return member;
+    }
+
+    /**
+     * Changes the key of a member, for instance when it changes its
+     * nickname, and indexes it with its current name.
+     *
+     * @param oldKey the key of the member
+     * @param newKey the new key of the member
+     * @return the member or <tt>null</tt> if there was no member with
+     * <tt>oldKey</tt>
+     */
+    public synchronized M rename(K oldKey, K newKey)
+    {
+        M member = remove(oldKey);
+
+        if (member != null)
+            put(newKey, member);
+        return member;
+    }
+
+    /**
+     * Removes all the members.
+     */
+    public synchronized void clear()
+    {
+        members.clear();
+        membersByName.clear();
+        names.clear();
+        snapshot = null;
+    }
+
+    /**
+     * Returns the member with a key.
+     *
+     * @param key the key of the member
+     * @return the member or <tt>null</tt>
+     */
+    public M get(K key)
+    {
+        return members.get(key);
+    }
+
+    /**
+     * Returns the member with a name, compared after normalization.
+     *
+     * @param name the name of the member
+     * @return the member or <tt>null</tt>
+     */
+    public M getByName(String name)
+    {
+        String normalized = normalize(name);
+
+        return (normalized == null) ? null : membersByName.get(normalized);
+    }
+
+    /**
+     * Determines whether there is a member with a key.
+     *
+     * @param key the key
+     * @return <tt>true</tt> if there is a member with <tt>key</tt>
+     */
+    public boolean containsKey(K key)
+    {
+        return members.containsKey(key);
+    }
+
+    /**
+     * Returns the number of members.
+     *
+     * @return the number of members
+     */
+    public int size()
+    {
+        return members.size();
+    }
+
+    /**
+     * Returns a live view of the members which may be iterated while they
+     * change.
+     *
+     * @return the members
+     */
+    public Collection<M> values()
+    {
+        return Collections.unmodifiableCollection(members.values());
+    }
+
+    /**
+     * Returns the members. The returned list is immutable and is the same
+     * until the members change.
+     *
+     * @return the members
+     */
+    public List<ChatRoomMember> getMembers()
+    {
+        List<ChatRoomMember> snapshot = this.snapshot;
+
+        if (snapshot == null)
+        {
+            synchronized (this)
+            {
+                snapshot = this.snapshot;
+                if (snapshot == null)
+                {
+                    snapshot
+                        = Collections.unmodifiableList(
+                                new ArrayList<ChatRoomMember>(
+                                        members.values()));
+                    this.snapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Normalizes a name of a member, so that the names the protocol
+     * considers equal have the same normalized name. The default
+     * implementation returns the name unchanged.
+     *
+     * @param name the name
+     * @return the normalized name or <tt>null</tt> if <tt>name</tt> is
+     * <tt>null</tt>
+     */
+    protected String normalize(String name)
+    {
+        return name;
+    }
+}
@@ -90,6 +90,17 @@ public <T extends OperationSet> T getOperationSet(
      */
     public Map<String, OperationSet> getSupportedOperationSets(Contact contact);
 
+    /**
+     * Sets the <tt>Contact</tt>s the user is looking at, in the contact list
+     * or in an open chat. A protocol which retrieves the capabilities of its
+     * contacts in the background retrieves theirs before those of the other
+     * contacts.
+     *
+     * @param contacts the <tt>Contact</tt>s of this protocol provider the
+     * user is looking at, replacing those of the previous call
+     */
+    public void setVisibleContacts(Collection<Contact> contacts);
+
     /**
      * Unregisters a specific <tt>ContactCapabilitiesListener</tt> to no longer
      * be notified about changes in the list of <tt>OperationSet</tt>
@@ -0,0 +1,50 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.event;
+
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * A <tt>SubscriptionListener</tt> which is also told when a persistent
+ * presence operation set starts and stops delivering the events of a whole
+ * server stored contact list, as when the list is loaded after the provider
+ * registers. The subscription and server stored group events between the two
+ * calls may be processed as a single batch.
+ * <p>
+ * The calls are always paired, and they are made from the thread which
+ * delivers the events of the batch.
+ */
+public interface SubscriptionBatchListener
+    extends SubscriptionListener
+{
+    /**
+     * Indicates that the operation set of <tt>provider</tt> starts delivering
+     * the events of its server stored contact list.
+     *
+     * @param provider the provider whose contact list is being loaded
+     */
+    public void subscriptionBatchStarted(ProtocolProviderService provider);
+
+    /**
+     * Indicates that the operation set of <tt>provider</tt> has delivered the
+     * events of its server stored contact list.
+     *
+     * @param provider the provider whose contact list was loaded
+     */
+    public void subscriptionBatchEnded(ProtocolProviderService provider);
+}
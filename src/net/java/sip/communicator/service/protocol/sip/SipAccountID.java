@@ -65,6 +65,13 @@
      */
     public static final String OPT_CLIST_PASSWORD = "OPT_CLIST_PASSWORD";
 
+    /**
+     * The name of the property under which the user may specify the URI of
+     * the resource list of the contacts on a resource list server (RFC 4662),
+     * to subscribe to their presence with a single subscription.
+     */
+    public static final String PRESENCE_RLS_URI = "PRESENCE_RLS_URI";
+
     /**
      * Default properties prefix used in jitsi-defaults.properties file
      * for SIP protocol.
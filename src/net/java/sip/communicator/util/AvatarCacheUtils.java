@@ -18,6 +18,7 @@
 package net.java.sip.communicator.util;
 
 import java.io.*;
+import java.util.*;
 
 import org.jitsi.service.fileaccess.*;
 
@@ -43,6 +44,25 @@
      */
     private final static String AVATAR_DIR = "avatarcache";
 
+    /**
+     * The maximum number of bytes of the avatars kept in memory.
+     */
+    private final static int MAX_MEMORY_CACHE_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The avatars recently read or stored, by path, from the least to the
+     * most recently used, so that the file of an avatar is not read again
+     * every time the avatar is asked for.
+     */
+    private final static Map<String, byte[]> memoryCache
+        = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    /**
+     * The number of bytes of the avatars in {@link #memoryCache}. Guarded by
+     * {@link #memoryCache}.
+     */
+    private static int memoryCacheSize = 0;
+
     /**
      *  Characters and their replacement in created folder names
      */
@@ -182,6 +202,14 @@ public static String getCachedAvatarPath(
      */
     private static byte[] getLocallyStoredAvatar(String avatarPath)
     {
+        synchronized (memoryCache)
+        {
+            byte[] bs = memoryCache.get(avatarPath);
+
+            if (bs != null)
+                return bs;
+        }
+
         try
         {
             File avatarFile
@@ -211,7 +239,10 @@ private static byte[] getLocallyStoredAvatar(String avatarPath)
                     avatarInputStream.close();
                 }
                 if (bs != null)
+                {
+                    putInMemoryCache(avatarPath, bs);
                     return bs;
+                }
             }
         }
         catch (Exception ex)
@@ -345,6 +376,10 @@ private static void cacheAvatar(String avatarDirPath,
             {
                 fileOutStream.close();
             }
+
+            putInMemoryCache(
+                new File(avatarDirPath, avatarFileName).toString(),
+                avatarBytes);
         }
         catch (Exception ex)
         {
@@ -354,4 +389,31 @@ private static void cacheAvatar(String avatarDirPath,
                     ex);
         }
     }
+
+    /**
+     * Keeps an avatar in memory, forgetting the least recently used ones if
+     * there are too many.
+     *
+     * @param avatarPath the path of the avatar file
+     * @param avatarBytes the avatar image bytes
+     */
+    private static void putInMemoryCache(String avatarPath, byte[] avatarBytes)
+    {
+        synchronized (memoryCache)
+        {
+            byte[] previous = memoryCache.put(avatarPath, avatarBytes);
+
+            if (previous != null)
+                memoryCacheSize -= previous.length;
+            memoryCacheSize += avatarBytes.length;
+
+            Iterator<byte[]> iter = memoryCache.values().iterator();
+
+            while ((memoryCacheSize > MAX_MEMORY_CACHE_SIZE) && iter.hasNext())
+            {
+                memoryCacheSize -= iter.next().length;
+                iter.remove();
+            }
+        }
+    }
 }
@@ -0,0 +1,138 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.configuration;
+
+import java.beans.*;
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jitsi.service.fileaccess.*;
+
+/**
+ * Tests the in-memory properties of <tt>JdbcConfigService</tt> and their
+ * write-back to the database.
+ */
+public class JdbcConfigServiceTest
+    extends TestCase
+{
+    private File directory;
+
+    private FileAccessService fas;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("config", "");
+        directory.delete();
+        directory.mkdirs();
+
+        fas = new FileAccessService()
+        {
+            public File getPrivatePersistentDirectory(
+                String dirName, FileCategory category)
+            {
+                return new File(directory, dirName);
+            }
+
+            public File getPrivatePersistentFile(
+                String fileName, FileCategory category)
+            {
+                return new File(directory, fileName);
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    public void testChangesAreVisibleAndStored()
+        throws Exception
+    {
+        JdbcConfigService cs = new JdbcConfigService(fas);
+        final List<String> changed = new ArrayList<String>();
+
+        cs.addPropertyChangeListener(new PropertyChangeListener()
+        {
+            public void propertyChange(PropertyChangeEvent evt)
+            {
+                changed.add(evt.getPropertyName() + "=" + evt.getNewValue());
+            }
+        });
+
+        cs.setProperty("test.acc1", "acc1");
+        cs.setProperty("test.acc1.user", "alice");
+        cs.setProperty("test.acc1.server", "example.org");
+        cs.setProperty("test.acc2.user", "bob");
+        cs.removeProperty("test.acc1");
+
+        assertNull(cs.getProperty("test.acc1.user"));
+        assertEquals("bob", cs.getString("test.acc2.user"));
+        assertEquals(
+            Arrays.asList("test.acc2.user"),
+            cs.getPropertyNamesByPrefix("test", false));
+        assertEquals(
+            Arrays.asList(
+                "test.acc1=acc1",
+                "test.acc1.user=alice",
+                "test.acc1.server=example.org",
+                "test.acc2.user=bob"),
+            changed.subList(0, 4));
+        assertEquals(7, changed.size());
+
+        cs.storeConfiguration();
+
+        cs = new JdbcConfigService(fas);
+        assertEquals("bob", cs.getString("test.acc2.user"));
+        assertEquals(
+            Arrays.asList("test.acc2.user"),
+            cs.getPropertyNamesByPrefix("test", false));
+        cs.storeConfiguration();
+    }
+
+    public void testSetPropertiesWithRemovals()
+        throws Exception
+    {
+        JdbcConfigService cs = new JdbcConfigService(fas);
+
+        cs.setProperty("test.a", "1");
+
+        Map<String, Object> props = new LinkedHashMap<String, Object>();
+        props.put("test.a", null);
+        props.put("test.b", 2);
+        props.put("test.c", "3");
+        cs.setProperties(props);
+
+        assertNull(cs.getProperty("test.a"));
+        assertEquals(2, cs.getInt("test.b", 0));
+        cs.storeConfiguration();
+
+        cs = new JdbcConfigService(fas);
+        assertNull(cs.getProperty("test.a"));
+        assertEquals("2", cs.getProperty("test.b"));
+        assertEquals("3", cs.getProperty("test.c"));
+        cs.storeConfiguration();
+    }
+}
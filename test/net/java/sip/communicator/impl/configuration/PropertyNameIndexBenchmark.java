@@ -0,0 +1,200 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.configuration;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Compares the prefix and suffix queries of <tt>PropertyNameIndex</tt> with
+ * the <tt>LIKE</tt> queries <tt>JdbcConfigService</tt> ran before, on a
+ * configuration with many accounts. Not a unit test, run it with
+ * <tt>java PropertyNameIndexBenchmark [accounts] [iterations]</tt> and
+ * HSQLDB on the class path.
+ */
+public class PropertyNameIndexBenchmark
+{
+    private static final String ACCOUNTS_PREFIX
+        = "net.java.sip.communicator.impl.protocol.jabber";
+
+    private static final String[] ACCOUNT_PROPERTIES = new String[]
+        {
+            "USER_ID", "SERVER_ADDRESS", "SERVER_PORT", "PASSWORD",
+            "ACCOUNT_UID", "PROTOCOL_NAME", "IS_ACCOUNT_DISABLED",
+            "ENCRYPTION_PROTOCOL.ZRTP", "ENCRYPTION_PROTOCOL_STATUS.ZRTP",
+            "Encodings.opus/48000", "Encodings.SILK/24000",
+        };
+
+    /**
+     * The names of the properties before the account properties, to have a
+     * table of a realistic size.
+     */
+    private static final int OTHER_PROPERTIES = 5000;
+
+    private static PreparedStatement selectLike;
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+        Connection connection = DriverManager.getConnection(
+            "jdbc:hsqldb:mem:PropertyNameIndexBenchmark", "SA", "");
+        connection.createStatement().executeUpdate(
+            "CREATE TABLE Props (k LONGVARCHAR UNIQUE, v LONGVARCHAR)");
+        selectLike = connection.prepareStatement(
+            "SELECT k, v FROM Props WHERE k LIKE ?");
+
+        PreparedStatement insert = connection.prepareStatement(
+            "INSERT INTO Props (k, v) VALUES (?, ?)");
+        PropertyNameIndex index = new PropertyNameIndex();
+        List<String> names = new ArrayList<String>();
+
+        for (int i = 0; i < OTHER_PROPERTIES; i++)
+            names.add("net.java.sip.communicator.plugin.p" + (i % 50)
+                + ".property" + i);
+        for (int i = 0; i < accounts; i++)
+        {
+            String account = ACCOUNTS_PREFIX + ".acc" + i;
+
+            names.add(account);
+            for (String p : ACCOUNT_PROPERTIES)
+                names.add(account + "." + p);
+        }
+
+        for (String name : names)
+        {
+            insert.setString(1, name);
+            insert.setString(2, "value");
+            insert.executeUpdate();
+            index.add(name);
+        }
+
+        System.out.println(names.size() + " properties, " + accounts
+            + " accounts, " + iterations + " iterations");
+
+        for (int round = 0; round < 2; round++)
+        {
+            // the first round warms up
+            boolean print = (round == 1);
+            long start = System.nanoTime();
+            int found = 0;
+
+            for (int i = 0; i < iterations; i++)
+                found += sqlPrefix(ACCOUNTS_PREFIX, true).size();
+            report(print, "exact prefix, SQL", start, iterations, found);
+
+            start = System.nanoTime();
+            found = 0;
+            for (int i = 0; i < iterations; i++)
+                found += index.getChildren(ACCOUNTS_PREFIX).size();
+            report(print, "exact prefix, index", start, iterations, found);
+
+            String account = ACCOUNTS_PREFIX + ".acc" + (accounts / 2);
+
+            start = System.nanoTime();
+            found = 0;
+            for (int i = 0; i < iterations; i++)
+                found += sqlPrefix(account, false).size();
+            report(print, "prefix, SQL", start, iterations, found);
+
+            start = System.nanoTime();
+            found = 0;
+            for (int i = 0; i < iterations; i++)
+                found += index.getByPrefix(account).size();
+            report(print, "prefix, index", start, iterations, found);
+
+            start = System.nanoTime();
+            found = 0;
+            for (int i = 0; i < iterations; i++)
+                found += sqlSuffix("USER_ID").size();
+            report(print, "suffix, SQL", start, iterations, found);
+
+            start = System.nanoTime();
+            found = 0;
+            for (int i = 0; i < iterations; i++)
+                found += index.getBySuffix("USER_ID").size();
+            report(print, "suffix, index", start, iterations, found);
+        }
+
+        connection.close();
+    }
+
+    private static void report(boolean print, String name, long start,
+        int iterations, int found)
+    {
+        if (print)
+        {
+            System.out.println(String.format("%-20s %10.2f us/op %8d names",
+                name,
+                (System.nanoTime() - start) / 1000.0 / iterations,
+                found / iterations));
+        }
+    }
+
+    /**
+     * The prefix query of <tt>JdbcConfigService</tt> before the index.
+     */
+    private static List<String> sqlPrefix(String prefix,
+        boolean exactPrefixMatch)
+        throws SQLException
+    {
+        List<String> resultSet = new ArrayList<String>(50);
+        selectLike.setString(1, prefix + "%");
+        ResultSet q = selectLike.executeQuery();
+        while (q.next())
+        {
+            String key = q.getString(1);
+
+            if(exactPrefixMatch)
+            {
+                int ix = key.lastIndexOf('.');
+                if(ix != -1 && prefix.equals(key.substring(0, ix)))
+                    resultSet.add(key);
+            }
+            else if(key.startsWith(prefix))
+            {
+                resultSet.add(key);
+            }
+        }
+
+        return resultSet;
+    }
+
+    /**
+     * The suffix query of <tt>JdbcConfigService</tt> before the index.
+     */
+    private static List<String> sqlSuffix(String suffix)
+        throws SQLException
+    {
+        List<String> resultKeySet = new ArrayList<String>(20);
+        selectLike.setString(1, "%" + suffix);
+        ResultSet q = selectLike.executeQuery();
+        while (q.next())
+        {
+            String key = q.getString(1);
+            int ix = key.lastIndexOf('.');
+            if (ix != -1 && suffix.equals(key.substring(ix + 1)))
+                resultKeySet.add(key);
+        }
+
+        return resultKeySet;
+    }
+}
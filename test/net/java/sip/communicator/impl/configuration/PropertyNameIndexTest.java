@@ -0,0 +1,144 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.configuration;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that the queries of <tt>PropertyNameIndex</tt> return the names the
+ * string comparisons of the former SQL queries returned.
+ */
+public class PropertyNameIndexTest
+    extends TestCase
+{
+    private static final String[] NAMES = new String[]
+        {
+            "net.java.sip.communicator.impl.protocol.jabber.acc1",
+            "net.java.sip.communicator.impl.protocol.jabber.acc1.USER_ID",
+            "net.java.sip.communicator.impl.protocol.jabber.acc1.SERVER",
+            "net.java.sip.communicator.impl.protocol.jabber.acc12",
+            "net.java.sip.communicator.impl.protocol.jabber.acc12.USER_ID",
+            "net.java.sip.communicator.impl.protocol.sip.acc3",
+            "net.java.sip.communicator.impl.protocol.sip.acc3.USER_ID",
+            "net.java.sip.communicator.impl.gui.USER_ID",
+            "plain",
+            "trailing.",
+            "a..b",
+        };
+
+    private static final String[] PREFIXES = new String[]
+        {
+            "", "net", "net.", "net.java.sip.communicator.impl.protocol",
+            "net.java.sip.communicator.impl.protocol.jabber",
+            "net.java.sip.communicator.impl.protocol.jabber.acc1",
+            "net.java.sip.communicator.impl.protocol.jabber.ac",
+            "net.java.sip.communicator.impl.protocol.jabber.",
+            "plain", "pl", "trailing", "a.", "a", "missing.prefix",
+        };
+
+    private static final String[] SUFFIXES = new String[]
+        {
+            "USER_ID", "SERVER", "", "b", "plain", "acc1", "jabber.acc1"
+        };
+
+    private static List<String> sorted(Collection<String> names)
+    {
+        List<String> result = new ArrayList<String>(names);
+        Collections.sort(result);
+        return result;
+    }
+
+    private static void assertQueries(PropertyNameIndex index,
+        Collection<String> names)
+    {
+        for (String prefix : PREFIXES)
+        {
+            List<String> children = new ArrayList<String>();
+            List<String> descendants = new ArrayList<String>();
+
+            for (String name : names)
+            {
+                int ix = name.lastIndexOf('.');
+                if (ix != -1 && prefix.equals(name.substring(0, ix)))
+                    children.add(name);
+                if (name.startsWith(prefix))
+                    descendants.add(name);
+            }
+
+            assertEquals(prefix, sorted(children), index.getChildren(prefix));
+            assertEquals(
+                prefix, sorted(descendants), index.getByPrefix(prefix));
+        }
+
+        for (String suffix : SUFFIXES)
+        {
+            List<String> expected = new ArrayList<String>();
+
+            for (String name : names)
+            {
+                int ix = name.lastIndexOf('.');
+                if (ix != -1 && suffix.equals(name.substring(ix + 1)))
+                    expected.add(name);
+            }
+
+            assertEquals(
+                suffix, sorted(expected), sorted(index.getBySuffix(suffix)));
+        }
+    }
+
+    public void testQueriesMatchStringComparisons()
+    {
+        PropertyNameIndex index = new PropertyNameIndex();
+        Set<String> names = new HashSet<String>(Arrays.asList(NAMES));
+
+        for (String name : names)
+            index.add(name);
+        assertQueries(index, names);
+
+        for (String name : NAMES)
+        {
+            index.remove(name);
+            names.remove(name);
+            assertQueries(index, names);
+        }
+
+        for (String name : NAMES)
+            index.add(name);
+        index.clear();
+        assertQueries(index, Collections.<String>emptySet());
+    }
+
+    public void testRemovingParentKeepsChildren()
+    {
+        PropertyNameIndex index = new PropertyNameIndex();
+
+        index.add("a.b");
+        index.add("a.b.c");
+        index.remove("a.b");
+
+        assertEquals(Arrays.asList("a.b.c"), index.getByPrefix("a"));
+        assertEquals(
+            Collections.<String>emptyList(), index.getChildren("a"));
+
+        index.remove("a.b.c");
+        index.remove("a.b.c");
+        assertEquals(Collections.<String>emptyList(), index.getByPrefix(""));
+    }
+}
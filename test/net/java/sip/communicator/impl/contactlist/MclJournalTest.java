@@ -0,0 +1,128 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that <tt>MclJournal</tt> reads back the records appended to it and
+ * ignores a record which was not completely written.
+ */
+public class MclJournalTest
+    extends TestCase
+{
+    private File file;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        file = File.createTempFile("contactlist", ".xml.journal");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    private static List<MclJournal.Record> records(int from, int count)
+    {
+        List<MclJournal.Record> records = new ArrayList<MclJournal.Record>();
+        StringBuilder name = new StringBuilder();
+
+        // a group node longer than writeUTF allows
+        for (int i = 0; i < 70000; i++)
+            name.append('\u00e9');
+
+        for (int i = from; i < from + count; i++)
+        {
+            if (i % 3 == 2)
+            {
+                records.add(new MclJournal.Record(
+                    MclJournal.REMOVE_META_CONTACT, "mc" + i, null, null));
+            }
+            else
+            {
+                records.add(new MclJournal.Record(
+                    MclJournal.PUT_GROUP, "g" + i, "RootMetaContactGroup",
+                    "<group name=\"" + (i == 0 ? name : "g" + i) + "\"/>"));
+            }
+        }
+        return records;
+    }
+
+    private static void assertRecords(
+        List<MclJournal.Record> expected, List<MclJournal.Record> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            MclJournal.Record e = expected.get(i);
+            MclJournal.Record a = actual.get(i);
+
+            assertEquals(e.type, a.type);
+            assertEquals(e.uid, a.uid);
+            assertEquals(e.parentUID, a.parentUID);
+            assertEquals(e.xml, a.xml);
+        }
+    }
+
+    public void testAppendedRecordsAreRead()
+        throws IOException
+    {
+        MclJournal journal = new MclJournal(file);
+
+        assertTrue(journal.read().isEmpty());
+        journal.append(records(0, 4));
+        journal.append(records(4, 3));
+
+        assertRecords(records(0, 7), new MclJournal(file).read());
+
+        journal.delete();
+        assertEquals(0, journal.length());
+        assertTrue(journal.read().isEmpty());
+    }
+
+    public void testIncompleteRecordIsIgnored()
+        throws IOException
+    {
+        MclJournal journal = new MclJournal(file);
+
+        journal.append(records(0, 2));
+        long length = journal.length();
+        journal.append(records(2, 2));
+
+        // cut the last record in the middle
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 5);
+        raf.close();
+        assertRecords(records(0, 3), journal.read());
+
+        // corrupt the first record of the second append
+        raf = new RandomAccessFile(file, "rw");
+        raf.seek(length + 6);
+        raf.write('x');
+        raf.close();
+        assertRecords(records(0, 2), journal.read());
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.contactlist.event.*;
+
+/**
+ * Tests that <tt>MetaContactListEventBatcher</tt> delivers the events of a
+ * batch when the outermost batch of the thread ends, coalesces the events
+ * superseding each other and does not hold back the events of other threads.
+ */
+public class MetaContactListEventBatcherTest
+    extends TestCase
+{
+    /**
+     * Records the events and the batches it receives.
+     */
+    private static class RecordingListener
+        extends MetaContactListAdapter
+        implements MetaContactListBatchListener
+    {
+        final List<Object> received
+            = Collections.synchronizedList(new ArrayList<Object>());
+
+        @Override
+        public void metaContactAdded(MetaContactEvent evt)
+        {
+            received.add(evt);
+        }
+
+        @Override
+        public void metaContactRenamed(MetaContactRenamedEvent evt)
+        {
+            received.add(evt);
+        }
+
+        public void metaContactListChanged(MetaContactListBatchEvent evt)
+        {
+            received.add(evt.getEvents());
+        }
+    }
+
+    private MetaContactListEventBatcher batcher;
+
+    private RecordingListener listener;
+
+    private MetaContactListListener[] listeners;
+
+    @Override
+    protected void setUp()
+    {
+        batcher = new MetaContactListEventBatcher(
+            proxy(MetaContactListService.class));
+        listener = new RecordingListener();
+        listeners = new MetaContactListListener[] { listener };
+    }
+
+    /**
+     * Creates a proxy implementing <tt>type</tt> which compares by identity.
+     */
+    private static <T> T proxy(Class<T> type)
+    {
+        return type.cast(Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] { type },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+
+                    if (name.equals("equals"))
+                        return proxy == args[0];
+                    if (name.equals("hashCode"))
+                        return System.identityHashCode(proxy);
+                    return null;
+                }
+            }));
+    }
+
+    private static MetaContactEvent added()
+    {
+        return new MetaContactEvent(
+            proxy(MetaContact.class),
+            null,
+            MetaContactEvent.META_CONTACT_ADDED);
+    }
+
+    public void testNestedBatchesAreDeliveredAtTheEnd()
+    {
+        MetaContactEvent first = added();
+        MetaContactEvent second = added();
+
+        batcher.beginBatch();
+        batcher.fireEvent(first, listeners);
+        batcher.beginBatch();
+        batcher.fireEvent(second, listeners);
+        batcher.endBatch();
+        assertTrue(listener.received.isEmpty());
+
+        batcher.endBatch();
+        assertEquals(
+            Arrays.<Object>asList(Arrays.<EventObject>asList(first, second)),
+            listener.received);
+
+        // once the batch ended the events are delivered right away and an
+        // unmatched end does nothing
+        MetaContactEvent third = added();
+
+        batcher.endBatch();
+        batcher.fireEvent(third, listeners);
+        assertEquals(2, listener.received.size());
+        assertSame(third, listener.received.get(1));
+    }
+
+    public void testSupersededEventsAreCoalesced()
+    {
+        MetaContact metaContact = proxy(MetaContact.class);
+        MetaContactEvent added = new MetaContactEvent(
+            metaContact, null, MetaContactEvent.META_CONTACT_ADDED);
+        MetaContactRenamedEvent renamed
+            = new MetaContactRenamedEvent(metaContact, "a", "b");
+        MetaContactRenamedEvent renamedAgain
+            = new MetaContactRenamedEvent(metaContact, "b", "c");
+
+        batcher.beginBatch();
+        batcher.fireEvent(added, listeners);
+        batcher.fireEvent(renamed, listeners);
+        batcher.fireEvent(renamedAgain, listeners);
+        batcher.endBatch();
+
+        assertEquals(
+            Arrays.<Object>asList(
+                Arrays.<EventObject>asList(added, renamedAgain)),
+            listener.received);
+    }
+
+    public void testInterleavedBatchesOfTwoThreads()
+        throws Exception
+    {
+        final MetaContactEvent first = added();
+        final MetaContactEvent other = added();
+        final MetaContactEvent otherBatched = added();
+        final CountDownLatch batchOpened = new CountDownLatch(1);
+        final CountDownLatch otherDone = new CountDownLatch(1);
+        final List<Object> receivedByOther = new ArrayList<Object>();
+
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    batchOpened.await();
+
+                    // the batch of the other thread does not hold this back
+                    batcher.fireEvent(other, listeners);
+                    receivedByOther.addAll(listener.received);
+
+                    batcher.beginBatch();
+                    batcher.fireEvent(otherBatched, listeners);
+                    batcher.endBatch();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                finally
+                {
+                    otherDone.countDown();
+                }
+            }
+        };
+
+        thread.start();
+
+        batcher.beginBatch();
+        batcher.fireEvent(first, listeners);
+        batchOpened.countDown();
+        assertTrue(otherDone.await(10, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.<Object>asList(other), receivedByOther);
+        assertEquals(
+            Arrays.<Object>asList(
+                other, Arrays.<EventObject>asList(otherBatched)),
+            listener.received);
+
+        batcher.endBatch();
+        assertEquals(
+            Arrays.<Object>asList(
+                other,
+                Arrays.<EventObject>asList(otherBatched),
+                Arrays.<EventObject>asList(first)),
+            listener.received);
+        thread.join();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.contactlist;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Tests that <tt>MetaContactListIndex</tt> finds the meta contacts by their
+ * protocol contacts and UID, the groups by their protocol groups and UID, and
+ * that it does not return stale entries.
+ */
+public class MetaContactListIndexTest
+    extends TestCase
+{
+    private static final PresenceStatus OFFLINE
+        = new PresenceStatus(0, "Offline")
+        {
+        };
+
+    private ProtocolProviderService alice;
+
+    private ProtocolProviderService bob;
+
+    @Override
+    protected void setUp()
+    {
+        alice = provider("alice");
+        bob = provider("bob");
+    }
+
+    /**
+     * Creates a proxy implementing <tt>type</tt> which returns the given
+     * values, by method name, and compares by identity.
+     */
+    private static <T> T proxy(
+        Class<T> type, final Map<String, Object> values)
+    {
+        return type.cast(Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] { type },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+
+                    if (name.equals("equals"))
+                        return proxy == args[0];
+                    if (name.equals("hashCode"))
+                        return System.identityHashCode(proxy);
+
+                    Object value = values.get(name);
+                    Class<?> returnType = method.getReturnType();
+
+                    if (value == null && returnType == boolean.class)
+                        return Boolean.FALSE;
+                    if (value == null && returnType == int.class)
+                        return 0;
+                    return value;
+                }
+            }));
+    }
+
+    private static ProtocolProviderService provider(String user)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+
+        values.put(
+            "getAccountID",
+            new AccountID(
+                user, new HashMap<String, String>(), "Jabber", "example.com")
+            {
+            });
+        values.put("getProtocolName", "Jabber");
+        return proxy(ProtocolProviderService.class, values);
+    }
+
+    private static Contact contact(
+        ProtocolProviderService provider, String address)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+
+        values.put("getAddress", address);
+        values.put("getDisplayName", address);
+        values.put("getProtocolProvider", provider);
+        values.put("getPresenceStatus", OFFLINE);
+        values.put("toString", address);
+        return proxy(Contact.class, values);
+    }
+
+    private static String accountUID(ProtocolProviderService provider)
+    {
+        return provider.getAccountID().getAccountUniqueID();
+    }
+
+    public void testFindsMetaContactsByContactAndUID()
+    {
+        MetaContactListIndex index = new MetaContactListIndex();
+        MetaContactImpl metaContact = new MetaContactImpl("mc1", null);
+        Contact carol = contact(alice, "carol@example.com");
+
+        metaContact.addProtoContact(carol);
+        index.addMetaContact(metaContact);
+
+        assertSame(metaContact, index.findMetaContactByContact(carol));
+        assertSame(
+            metaContact,
+            index.findMetaContactByContact(
+                "carol@example.com", accountUID(alice)));
+        assertSame(metaContact, index.findMetaContactByMetaUID("mc1"));
+
+        // the same address in another account is another contact
+        assertNull(
+            index.findMetaContactByContact(contact(bob, "carol@example.com")));
+        assertNull(
+            index.findMetaContactByContact(
+                "carol@example.com", accountUID(bob)));
+
+        // a contact added later is indexed with the meta contact
+        Contact dave = contact(bob, "dave@example.com");
+
+        metaContact.addProtoContact(dave);
+        index.addContact(metaContact, dave);
+        assertSame(metaContact, index.findMetaContactByContact(dave));
+
+        index.removeMetaContact(metaContact);
+        assertNull(index.findMetaContactByContact(carol));
+        assertNull(index.findMetaContactByContact(dave));
+        assertNull(index.findMetaContactByMetaUID("mc1"));
+    }
+
+    public void testMovedContactKeepsItsNewEntry()
+    {
+        MetaContactListIndex index = new MetaContactListIndex();
+        MetaContactImpl oldMetaContact = new MetaContactImpl("mc1", null);
+        MetaContactImpl newMetaContact = new MetaContactImpl("mc2", null);
+        Contact carol = contact(alice, "carol@example.com");
+
+        oldMetaContact.addProtoContact(carol);
+        index.addMetaContact(oldMetaContact);
+
+        // the contact is added to its new meta contact before it is removed
+        // from the old one
+        newMetaContact.addProtoContact(carol);
+        index.addContact(newMetaContact, carol);
+        oldMetaContact.removeProtoContact(carol);
+        index.removeContact(oldMetaContact, carol);
+
+        assertSame(newMetaContact, index.findMetaContactByContact(carol));
+        assertSame(
+            newMetaContact,
+            index.findMetaContactByContact(
+                "carol@example.com", accountUID(alice)));
+    }
+
+    public void testStaleEntryIsNotReturned()
+    {
+        MetaContactListIndex index = new MetaContactListIndex();
+        MetaContactImpl metaContact = new MetaContactImpl("mc1", null);
+        Contact carol = contact(alice, "carol@example.com");
+
+        metaContact.addProtoContact(carol);
+        index.addMetaContact(metaContact);
+
+        // the meta contact no longer holds the contact but the index was not
+        // told yet
+        metaContact.removeProtoContact(carol);
+
+        assertNull(index.findMetaContactByContact(carol));
+        assertNull(
+            index.findMetaContactByContact(
+                "carol@example.com", accountUID(alice)));
+    }
+
+    public void testFindsGroupsByProtocolGroupIdentity()
+    {
+        MetaContactListIndex index = new MetaContactListIndex();
+        MetaContactGroupImpl group
+            = new MetaContactGroupImpl(null, "Friends", "g1");
+        Map<String, Object> values = new HashMap<String, Object>();
+
+        values.put("getGroupName", "Friends");
+
+        ContactGroup protoGroup = proxy(ContactGroup.class, values);
+        ContactGroup sameName = proxy(ContactGroup.class, values);
+
+        index.addGroup(group);
+        index.addProtoGroup(group, protoGroup);
+
+        assertSame(group, index.findMetaContactGroupByMetaUID("g1"));
+        assertSame(group, index.findMetaContactGroupByContactGroup(protoGroup));
+        assertNull(index.findMetaContactGroupByContactGroup(sameName));
+
+        // another group does not remove the entry of this one
+        index.removeProtoGroup(
+            new MetaContactGroupImpl(null, "Friends", "g2"), protoGroup);
+        assertSame(group, index.findMetaContactGroupByContactGroup(protoGroup));
+
+        index.removeGroup(group);
+        index.removeProtoGroup(group, protoGroup);
+        assertNull(index.findMetaContactGroupByMetaUID("g1"));
+        assertNull(index.findMetaContactGroupByContactGroup(protoGroup));
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.chat.conference;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.swing.*;
+import javax.swing.event.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.gui.main.chat.*;
+import net.java.sip.communicator.plugin.desktoputil.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Tests that <tt>ChatContactListModel</tt> keeps the members sorted by role
+ * and name, applies the changes made together as one change of the list and
+ * notifies a lone change at the position of the member.
+ */
+public class ChatContactListModelTest
+    extends TestCase
+{
+    /**
+     * A <tt>ChatContact</tt> without a role.
+     */
+    private static class TestChatContact
+        extends ChatContact<String>
+    {
+        TestChatContact(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        protected byte[] getAvatarBytes()
+        {
+            return null;
+        }
+
+        @Override
+        public String getName()
+        {
+            return getDescriptor();
+        }
+
+        @Override
+        public String getUID()
+        {
+            return getDescriptor();
+        }
+    }
+
+    /**
+     * A <tt>ChatSession</tt> whose descriptor is not a chat room.
+     */
+    private static class TestChatSession
+        extends ChatSession
+    {
+        @Override
+        public Object getDescriptor()
+        {
+            return "session";
+        }
+
+        @Override
+        public boolean isDescriptorPersistent()
+        {
+            return false;
+        }
+
+        @Override
+        public ChatTransport getCurrentChatTransport()
+        {
+            return null;
+        }
+
+        @Override
+        public ChatSessionRenderer getChatSessionRenderer()
+        {
+            return null;
+        }
+
+        @Override
+        public void setCurrentChatTransport(ChatTransport chatTransport)
+        {
+        }
+
+        @Override
+        public String getChatName()
+        {
+            return "session";
+        }
+
+        @Override
+        public Collection<Object> getHistory(int count)
+        {
+            return null;
+        }
+
+        @Override
+        public Collection<Object> getHistoryBeforeDate(Date date, int count)
+        {
+            return null;
+        }
+
+        @Override
+        public Collection<Object> getHistoryAfterDate(Date date, int count)
+        {
+            return null;
+        }
+
+        @Override
+        public Date getHistoryStartDate()
+        {
+            return null;
+        }
+
+        @Override
+        public Date getHistoryEndDate()
+        {
+            return null;
+        }
+
+        @Override
+        public String getDefaultSmsNumber()
+        {
+            return null;
+        }
+
+        @Override
+        public void setDefaultSmsNumber(String smsPhoneNumber)
+        {
+        }
+
+        @Override
+        public void dispose()
+        {
+        }
+
+        @Override
+        public ImageIcon getChatStatusIcon()
+        {
+            return null;
+        }
+
+        @Override
+        public byte[] getChatAvatar()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean isContactListSupported()
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Records the changes of the list as strings.
+     */
+    private static class RecordingListener
+        implements ListDataListener
+    {
+        final List<String> events = new ArrayList<String>();
+
+        public void intervalAdded(ListDataEvent e)
+        {
+            events.add("added " + e.getIndex0() + "-" + e.getIndex1());
+        }
+
+        public void intervalRemoved(ListDataEvent e)
+        {
+            events.add("removed " + e.getIndex0() + "-" + e.getIndex1());
+        }
+
+        public void contentsChanged(ListDataEvent e)
+        {
+            events.add("changed " + e.getIndex0() + "-" + e.getIndex1());
+        }
+    }
+
+    private ChatContactListModel model;
+
+    private RecordingListener listener;
+
+    @Override
+    protected void setUp()
+    {
+        model = new ChatContactListModel(new TestChatSession());
+        listener = new RecordingListener();
+        model.addListDataListener(listener);
+    }
+
+    private static ConferenceChatContact member(
+        final String name, final ChatRoomMemberRole role)
+    {
+        ChatRoomMember member = (ChatRoomMember) Proxy.newProxyInstance(
+            ChatRoomMember.class.getClassLoader(),
+            new Class<?>[] { ChatRoomMember.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String methodName = method.getName();
+
+                    if (methodName.equals("equals"))
+                        return proxy == args[0];
+                    if (methodName.equals("hashCode"))
+                        return System.identityHashCode(proxy);
+                    if (methodName.equals("getName")
+                        || methodName.equals("getContactAddress"))
+                        return name;
+                    if (methodName.equals("getRole"))
+                        return role;
+                    return null;
+                }
+            });
+
+        return new ConferenceChatContact(member);
+    }
+
+    /**
+     * Runs <tt>runnable</tt> in the event dispatch thread, then waits for the
+     * changes it made to the model to be applied.
+     */
+    private static void runAndApply(Runnable runnable)
+        throws Exception
+    {
+        final CountDownLatch applied = new CountDownLatch(1);
+
+        SwingUtilities.invokeAndWait(runnable);
+
+        // the changes are applied by a low priority event posted before this
+        LowPriorityEventQueue.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                applied.countDown();
+            }
+        });
+        assertTrue(applied.await(10, TimeUnit.SECONDS));
+    }
+
+    private List<String> names()
+    {
+        List<String> names = new ArrayList<String>();
+
+        for (int i = 0; i < model.getSize(); i++)
+            names.add(model.getElementAt(i).getName());
+        return names;
+    }
+
+    public void testChangesAreSortedAndNotifiedTogether()
+        throws Exception
+    {
+        final ChatContact<?> bob = member("bob", ChatRoomMemberRole.MEMBER);
+        final ChatContact<?> frank
+            = member("frank", ChatRoomMemberRole.MEMBER);
+
+        runAndApply(new Runnable()
+        {
+            public void run()
+            {
+                model.addElement(new TestChatContact("zed"));
+                model.addElement(member("Carol", ChatRoomMemberRole.MEMBER));
+                model.addElement(bob);
+                model.addElement(member("dave", ChatRoomMemberRole.OWNER));
+                model.addElement(member("alice", ChatRoomMemberRole.GUEST));
+                model.addElement(new TestChatContact("Eve"));
+
+                // a duplicate and a member which left in the meantime
+                model.addElement(new TestChatContact("zed"));
+                model.addElement(frank);
+                model.removeElement(frank);
+            }
+        });
+
+        assertEquals(
+            Arrays.asList("dave", "bob", "Carol", "alice", "Eve", "zed"),
+            names());
+        assertEquals(Arrays.asList("added 0-5"), listener.events);
+
+        // another batch keeps the order and is notified as one change
+        listener.events.clear();
+        runAndApply(new Runnable()
+        {
+            public void run()
+            {
+                model.removeElement(bob);
+                model.addElement(member("Bill", ChatRoomMemberRole.MEMBER));
+                model.addElement(member("alan", ChatRoomMemberRole.MEMBER));
+            }
+        });
+
+        assertEquals(
+            Arrays.asList(
+                "dave", "alan", "Bill", "Carol", "alice", "Eve", "zed"),
+            names());
+        assertEquals(
+            Arrays.asList("added 6-6", "changed 0-5"),
+            listener.events);
+    }
+
+    public void testLoneChangeIsNotifiedAtItsPosition()
+        throws Exception
+    {
+        final ChatContact<?> carol = member("carol", ChatRoomMemberRole.MEMBER);
+
+        runAndApply(new Runnable()
+        {
+            public void run()
+            {
+                model.addElement(member("alice", ChatRoomMemberRole.OWNER));
+                model.addElement(carol);
+                model.addElement(member("erin", ChatRoomMemberRole.MEMBER));
+            }
+        });
+        listener.events.clear();
+
+        runAndApply(new Runnable()
+        {
+            public void run()
+            {
+                model.addElement(member("dave", ChatRoomMemberRole.MEMBER));
+            }
+        });
+        assertEquals(Arrays.asList("added 2-2"), listener.events);
+
+        runAndApply(new Runnable()
+        {
+            public void run()
+            {
+                model.removeElement(carol);
+            }
+        });
+        assertEquals(
+            Arrays.asList("added 2-2", "removed 1-1"),
+            listener.events);
+        assertEquals(Arrays.asList("alice", "dave", "erin"), names());
+
+        // removing a member which is not in the list changes nothing
+        runAndApply(new Runnable()
+        {
+            public void run()
+            {
+                model.removeElement(carol);
+            }
+        });
+        assertEquals(2, listener.events.size());
+    }
+
+    public void testRemoveAllElementsBeforeTheNextChanges()
+        throws Exception
+    {
+        runAndApply(new Runnable()
+        {
+            public void run()
+            {
+                model.addElement(new TestChatContact("alice"));
+                model.addElement(new TestChatContact("bob"));
+            }
+        });
+        listener.events.clear();
+
+        runAndApply(new Runnable()
+        {
+            public void run()
+            {
+                model.addElement(new TestChatContact("carol"));
+                model.removeAllElements();
+                model.addElement(new TestChatContact("dave"));
+            }
+        });
+
+        assertEquals(Arrays.asList("dave"), names());
+        assertEquals(
+            Arrays.asList("removed 1-1", "changed 0-0"),
+            listener.events);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.contactlist;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.gui.main.contactlist.contactsource.*;
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.contactsource.*;
+import net.java.sip.communicator.service.gui.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Tests that refining the meta contacts found for a search string, when the
+ * user types more of it, keeps the meta contacts a new search for the longer
+ * string finds.
+ */
+public class SearchFilterTest
+    extends TestCase
+{
+    /**
+     * The search index of the meta contacts, as the meta contact list
+     * source builds it.
+     */
+    private ContactSearchIndex<MetaContact> index;
+
+    @Override
+    protected void setUp()
+    {
+        index = new ContactSearchIndex<MetaContact>();
+        add(metaContact("Alice Smith",
+            contact("Alice", "alice@example.com"),
+            contact("Alice (work)", "sip:+44 20 7946 0123@pbx.example.org")));
+        add(metaContact("Alicia", contact("Alicia", "alicia@example.net")));
+        add(metaContact("Bob", contact("Bobby", "bob.smith@example.com")));
+        add(metaContact("\u00c9ve",
+            contact("\u00c9ve", "dupont@example.com")));
+        // the Kelvin sign, which is folded as a k
+        add(metaContact("\u212aelvin",
+            contact("\u212aelvin", "lord@example.com")));
+    }
+
+    /**
+     * Creates a proxy implementing <tt>type</tt> which returns the given
+     * values, by method name, and compares by identity.
+     */
+    private static <T> T proxy(
+        Class<T> type, final Map<String, Object> values)
+    {
+        return type.cast(Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] { type },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+
+                    if (name.equals("equals"))
+                        return proxy == args[0];
+                    if (name.equals("hashCode"))
+                        return System.identityHashCode(proxy);
+                    if (name.equals("getContacts"))
+                    {
+                        return ((List<?>) values.get("getContacts"))
+                            .iterator();
+                    }
+                    return values.get(name);
+                }
+            }));
+    }
+
+    private static Contact contact(String displayName, String address)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+
+        values.put("getDisplayName", displayName);
+        values.put("getAddress", address);
+        values.put("toString", address);
+        return proxy(Contact.class, values);
+    }
+
+    private static MetaContact metaContact(
+        String displayName, Contact... contacts)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+
+        values.put("getDisplayName", displayName);
+        values.put("getContacts", Arrays.asList(contacts));
+        values.put("toString", displayName);
+        return proxy(MetaContact.class, values);
+    }
+
+    /**
+     * Indexes a meta contact by its display name and the display names and
+     * the addresses of its contacts.
+     */
+    private void add(MetaContact metaContact)
+    {
+        List<String> searchStrings = new ArrayList<String>();
+
+        searchStrings.add(metaContact.getDisplayName());
+
+        Iterator<Contact> contacts = metaContact.getContacts();
+        while (contacts.hasNext())
+        {
+            Contact contact = contacts.next();
+
+            searchStrings.add(contact.getDisplayName());
+            searchStrings.add(contact.getAddress());
+        }
+        index.put(metaContact, searchStrings);
+    }
+
+    /**
+     * Searches for each string in turn, refining the results of the
+     * previous search, and checks that the refined results are those of a
+     * new search for the same string.
+     */
+    private void assertRefinedAsSearched(String... searchStrings)
+    {
+        Set<MetaContact> shown
+            = new HashSet<MetaContact>(index.find(searchStrings[0]));
+
+        for (int i = 1; i < searchStrings.length; i++)
+        {
+            String searchString = searchStrings[i];
+            SearchFilter filter = new SearchFilter((ContactList) null);
+
+            assertTrue(searchString, SearchFilter.isRefinement(
+                searchStrings[i - 1], searchString));
+
+            filter.setFilterString(searchString);
+
+            Set<MetaContact> refined = new HashSet<MetaContact>();
+
+            for (MetaContact metaContact : shown)
+            {
+                if (filter.isMatchingSearchString(
+                        new MetaUIContact(metaContact)))
+                    refined.add(metaContact);
+            }
+
+            assertEquals(searchString,
+                new HashSet<MetaContact>(index.find(searchString)), refined);
+            shown = refined;
+        }
+    }
+
+    public void testRefinedAsSearched()
+    {
+        assertRefinedAsSearched("a", "al", "ali", "alic", "alice");
+        assertRefinedAsSearched("s", "Sm", "SMI", "smith", "smith@");
+        assertRefinedAsSearched("b", "bo", "bob", "bob.", "bob.s");
+        assertRefinedAsSearched("ex", "exa", "example.", "example.co");
+    }
+
+    public void testRefinedAsSearchedIgnoringCase()
+    {
+        assertRefinedAsSearched("\u00e9", "\u00c9v", "\u00e9VE");
+        assertRefinedAsSearched("k", "KE", "\u212ael", "kelvin");
+    }
+
+    public void testRefinementRequiresLongerSearchString()
+    {
+        assertTrue(SearchFilter.isRefinement("al", "alice"));
+        assertTrue(SearchFilter.isRefinement("Al", "aLi"));
+        assertTrue(SearchFilter.isRefinement("al", "al"));
+        assertFalse(SearchFilter.isRefinement("alice", "al"));
+        assertFalse(SearchFilter.isRefinement("bo", "al"));
+        assertFalse(SearchFilter.isRefinement("", "al"));
+        assertFalse(SearchFilter.isRefinement(null, "al"));
+        assertFalse(SearchFilter.isRefinement("al", null));
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.records.*;
+
+/**
+ * Tests that <tt>AsyncHistoryWriter</tt> writes the records of every history
+ * in order, writes the queued records when it is stopped, reports the
+ * failures to write them and waits only for the records of one history.
+ */
+public class AsyncHistoryWriterTest
+    extends TestCase
+{
+    private static class TestWriter
+        implements AsyncHistoryWriter.RecordsWriter
+    {
+        final List<String> written
+            = Collections.synchronizedList(new ArrayList<String>());
+
+        CountDownLatch release;
+
+        boolean fail;
+
+        public void writeRecords(
+                List<HistoryRecord> records, int maxNumberOfRecords)
+            throws IOException
+        {
+            if (release != null)
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new IOException(e);
+                }
+            }
+            if (fail)
+                throw new IOException("disk full");
+
+            for (HistoryRecord record : records)
+                written.add(record.getPropertyValues()[0]);
+        }
+    }
+
+    private static HistoryRecord record(String msg)
+    {
+        return new HistoryRecord(
+            new String[] { "msg" }, new String[] { msg }, new Date());
+    }
+
+    public void testOrderPerHistory()
+        throws Exception
+    {
+        AsyncHistoryWriter asyncWriter = new AsyncHistoryWriter(50);
+        TestWriter a = new TestWriter();
+        TestWriter b = new TestWriter();
+
+        try
+        {
+            for (int i = 0; i < 200; i++)
+            {
+                assertTrue(asyncWriter.enqueue(a, record("a" + i), -1));
+                assertTrue(asyncWriter.enqueue(b, record("b" + i), -1));
+            }
+            asyncWriter.awaitFlush(a);
+            asyncWriter.awaitFlush(b);
+
+            assertEquals(200, a.written.size());
+            assertEquals(200, b.written.size());
+            for (int i = 0; i < 200; i++)
+            {
+                assertEquals("a" + i, a.written.get(i));
+                assertEquals("b" + i, b.written.get(i));
+            }
+        }
+        finally
+        {
+            asyncWriter.stop();
+        }
+    }
+
+    public void testStopWritesQueuedRecords()
+        throws Exception
+    {
+        // records would wait for a minute if nobody flushed them
+        AsyncHistoryWriter asyncWriter = new AsyncHistoryWriter(60000);
+        TestWriter writer = new TestWriter();
+
+        for (int i = 0; i < 5; i++)
+            assertTrue(asyncWriter.enqueue(writer, record("m" + i), -1));
+        asyncWriter.stop();
+
+        assertEquals(
+            Arrays.asList("m0", "m1", "m2", "m3", "m4"),
+            writer.written);
+
+        // the caller writes the records once the writer is stopped
+        assertFalse(asyncWriter.enqueue(writer, record("late"), -1));
+    }
+
+    public void testFailureIsReportedToTheHistory()
+        throws Exception
+    {
+        AsyncHistoryWriter asyncWriter = new AsyncHistoryWriter(10);
+        TestWriter failing = new TestWriter();
+        TestWriter other = new TestWriter();
+
+        failing.fail = true;
+        try
+        {
+            asyncWriter.enqueue(failing, record("lost"), -1);
+            asyncWriter.enqueue(other, record("kept"), -1);
+
+            try
+            {
+                asyncWriter.awaitFlush(failing);
+                fail("The failure to write the record was not reported");
+            }
+            catch (IOException e)
+            {
+                assertEquals("disk full", e.getMessage());
+            }
+
+            // the failure is reported once and does not affect the others
+            asyncWriter.awaitFlush(failing);
+            asyncWriter.awaitFlush(other);
+            assertEquals(Arrays.asList("kept"), other.written);
+        }
+        finally
+        {
+            asyncWriter.stop();
+        }
+    }
+
+    public void testFlushWaitsOnlyForItsHistory()
+        throws Exception
+    {
+        AsyncHistoryWriter asyncWriter = new AsyncHistoryWriter(10);
+        TestWriter fast = new TestWriter();
+        TestWriter slow = new TestWriter();
+
+        slow.release = new CountDownLatch(1);
+        try
+        {
+            asyncWriter.enqueue(fast, record("fast"), -1);
+            asyncWriter.enqueue(slow, record("slow"), -1);
+
+            // returns while the records of the other history are written
+            asyncWriter.awaitFlush(fast);
+            assertEquals(Arrays.asList("fast"), fast.written);
+            assertTrue(slow.written.isEmpty());
+
+            slow.release.countDown();
+            asyncWriter.awaitFlush(slow);
+            assertEquals(Arrays.asList("slow"), slow.written);
+        }
+        finally
+        {
+            slow.release.countDown();
+            asyncWriter.stop();
+        }
+    }
+}
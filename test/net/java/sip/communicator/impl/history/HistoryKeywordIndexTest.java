@@ -0,0 +1,257 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.records.*;
+
+/**
+ * Tests that <tt>HistoryKeywordIndex</tt> finds all the records a full scan
+ * of the history would find.
+ */
+public class HistoryKeywordIndexTest
+    extends TestCase
+{
+    private static final String[] NAMES = new String[] { "dir", "msg_CDATA" };
+
+    private static final String[] MESSAGES = new String[]
+        {
+            "Hello World", "hello, world!", "say HELLO", "nothing here",
+            "helloworld", "wor ld", "Lorem ipsum dolor", "-- :) --"
+        };
+
+    private File directory;
+
+    private SegmentHistoryStore store;
+
+    private HistoryKeywordIndex index;
+
+    private HistorySegmentCache cache;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("history", "");
+        directory.delete();
+        directory.mkdirs();
+
+        cache = new HistorySegmentCache(Long.MAX_VALUE);
+        store = new SegmentHistoryStore(directory, cache);
+        index = new HistoryKeywordIndex(store, directory, true, cache);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    private void append(int count)
+        throws IOException
+    {
+        String[] messages = new String[count];
+
+        for (int i = 0; i < count; i++)
+            messages[i] = MESSAGES[i % MESSAGES.length];
+        append(messages);
+    }
+
+    private void append(String... messages)
+        throws IOException
+    {
+        for (int i = 0; i < messages.length; i++)
+        {
+            HistoryRecord record = new HistoryRecord(
+                NAMES,
+                new String[] { "in", messages[i] },
+                new Date(1000L + i));
+            HistorySegment segment = store.appendRecord(record, -1);
+
+            index.recordAppended(
+                segment, SegmentHistoryStore.normalize(record));
+        }
+    }
+
+    /**
+     * Searches all segments with the index and checks the result against a
+     * full scan.
+     */
+    private void assertSameAsScan(String[] keywords, boolean caseSensitive)
+    {
+        int expected = 0;
+        int found = 0;
+
+        for (HistorySegment segment : store.getSegments(null, null))
+        {
+            for (HistoryRecord r : store.readRecords(segment, null, null))
+            {
+                if (HistoryReaderImpl.matchRecord(
+                        r, keywords, "msg", caseSensitive))
+                    expected++;
+            }
+
+            List<HistoryRecord> candidates = HistoryReaderImpl.readRecords(
+                store, index, segment, null, null, keywords, "msg");
+            for (HistoryRecord r : candidates)
+            {
+                if (HistoryReaderImpl.matchRecord(
+                        r, keywords, "msg", caseSensitive))
+                    found++;
+            }
+        }
+
+        assertEquals(Arrays.toString(keywords), expected, found);
+    }
+
+    public void testSubstringAndMultiKeywordQueries()
+        throws IOException
+    {
+        append(SegmentHistoryStore.MAX_RECORDS_PER_SEGMENT + 50);
+
+        assertSameAsScan(new String[] { "hello" }, false);
+        assertSameAsScan(new String[] { "hello" }, true);
+        assertSameAsScan(new String[] { "ello", "orld" }, false);
+        assertSameAsScan(new String[] { "o w" }, false);
+        assertSameAsScan(new String[] { "lo, wo" }, false);
+        assertSameAsScan(new String[] { ":)" }, false);
+        assertSameAsScan(new String[] { "missing" }, false);
+        assertSameAsScan(new String[] { "l" }, false);
+        assertSameAsScan(new String[] { "rl" }, false);
+        assertSameAsScan(new String[] { "llow" }, false);
+        assertSameAsScan(new String[] { "owor" }, false);
+        assertSameAsScan(new String[] { "HeLLo wOR" }, false);
+        assertSameAsScan(new String[] { "HeLLo wOR" }, true);
+    }
+
+    public void testCaseIsFoldedLikeTheScan()
+        throws IOException
+    {
+        // the Kelvin sign, the long s and the final sigma only match their
+        // letters when their upper cases are compared
+        append(
+            "\u212Aelvin", "\u017Ftring", "\u039F\u0394\u03A5\u03A3",
+            "kelvin", "string");
+
+        assertSameAsScan(new String[] { "kelvin" }, false);
+        assertSameAsScan(new String[] { "\u212Aelvin" }, false);
+        assertSameAsScan(new String[] { "STRING" }, false);
+        assertSameAsScan(new String[] { "\u03BF\u03B4\u03C5\u03C2" }, false);
+        assertSameAsScan(new String[] { "\u03BF\u03B4\u03C5\u03C3" }, false);
+        assertSameAsScan(new String[] { "kelvin" }, true);
+
+        HistorySegment segment = store.getSegments(null, null).get(0);
+
+        assertEquals(
+            2,
+            index.findCandidates(segment, "msg", new String[] { "KELVIN" })
+                .cardinality());
+    }
+
+    public void testCandidatesAreRestricted()
+        throws IOException
+    {
+        append(MESSAGES.length);
+
+        HistorySegment segment = store.getSegments(null, null).get(0);
+        BitSet candidates = index.findCandidates(
+            segment, "msg", new String[] { "ipsum" });
+
+        assertEquals(1, candidates.cardinality());
+        assertTrue(candidates.get(6));
+        assertNull(index.findCandidates(
+            segment, "msg", new String[] { "--" }));
+    }
+
+    public void testWordsAreFoundByTheirGrams()
+        throws IOException
+    {
+        append(MESSAGES.length);
+
+        HistorySegment segment = store.getSegments(null, null).get(0);
+
+        // five messages have a word containing "lo", only "helloworld"
+        // contains all the grams of "lowor"
+        assertEquals(
+            5,
+            index.findCandidates(segment, "msg", new String[] { "lo" })
+                .cardinality());
+        BitSet candidates = index.findCandidates(
+            segment, "msg", new String[] { "lowor" });
+        assertEquals(1, candidates.cardinality());
+        assertTrue(candidates.get(4));
+        assertTrue(
+            index.findCandidates(segment, "msg", new String[] { "rowol" })
+                .isEmpty());
+    }
+
+    public void testMatchKeywordIgnoresCase()
+    {
+        String[] keywords = new String[] { "WORLD", "hel" };
+
+        assertTrue(
+            HistoryReaderImpl.matchKeyword("Hello World", keywords, false));
+        assertFalse(
+            HistoryReaderImpl.matchKeyword("Hello World", keywords, true));
+        assertTrue(
+            HistoryReaderImpl.matchKeyword(
+                "hello WORLD", keywords, true));
+        assertFalse(
+            HistoryReaderImpl.matchKeyword("World", keywords, false));
+        assertTrue(
+            HistoryReaderImpl.matchKeyword(
+                "a.*b", new String[] { ".*" }, true));
+    }
+
+    public void testSavedPostingsAreDroppedWhenSegmentChanges()
+        throws IOException
+    {
+        append(SegmentHistoryStore.MAX_RECORDS_PER_SEGMENT + 1);
+
+        HistorySegment first = store.getSegments(null, null).get(0);
+        String[] keywords = new String[] { "ipsum" };
+        int expected = index.findCandidates(first, "msg", keywords)
+            .cardinality();
+
+        // a new index reads the saved postings of the sealed segment
+        cache.clear();
+        index = new HistoryKeywordIndex(store, directory, true, cache);
+        assertEquals(
+            expected,
+            index.findCandidates(first, "msg", keywords).cardinality());
+
+        List<HistoryRecord> records = store.readRecords(first, null, null);
+        records.set(0, new HistoryRecord(
+            new String[] { "dir", "msg" },
+            new String[] { "in", "ipsum" },
+            records.get(0).getTimestamp()));
+        store.rewriteSegment(first, records);
+        index.segmentChanged(first);
+
+        cache.clear();
+        index = new HistoryKeywordIndex(store, directory, true, cache);
+        assertEquals(
+            expected + 1,
+            index.findCandidates(first, "msg", keywords).cardinality());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+
+import junit.framework.*;
+
+/**
+ * Tests the eviction and the accounting of <tt>HistorySegmentCache</tt>.
+ */
+public class HistorySegmentCacheTest
+    extends TestCase
+{
+    private final File dir = new File("history");
+
+    public void testLeastRecentlyUsedIsEvicted()
+    {
+        HistorySegmentCache cache = new HistorySegmentCache(300);
+        File a = new File(dir, "a");
+        File b = new File(dir, "b");
+        File c = new File(dir, "c");
+
+        cache.put(a, "a", 100);
+        cache.put(b, "b", 100);
+        cache.put(c, "c", 100);
+        assertEquals("a", cache.get(a));
+
+        cache.put(new File(dir, "d"), "d", 100);
+
+        assertNull(cache.get(b));
+        assertEquals("c", cache.get(c));
+        assertEquals(300, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testSizeIsAccountedOnReplaceAndRemove()
+    {
+        HistorySegmentCache cache = new HistorySegmentCache(1000);
+        File a = new File(dir, "a");
+
+        cache.put(a, "a", 100);
+        cache.put(a, "a", 250);
+        assertEquals(250, cache.getSize());
+
+        // values larger than the budget are not cached
+        cache.put(new File(dir, "big"), "big", 2000);
+        assertEquals(250, cache.getSize());
+
+        cache.put(new File(new File(dir, "sub"), "b"), "b", 100);
+        cache.put(new File("other", "c"), "c", 100);
+        cache.removeAll(dir);
+        assertEquals(100, cache.getSize());
+        assertNull(cache.get(a));
+    }
+}
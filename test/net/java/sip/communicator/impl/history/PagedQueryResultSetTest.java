@@ -0,0 +1,98 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that <tt>PagedQueryResultSet</tt> loads its parts on demand and
+ * iterates like an <tt>OrderedQueryResultSet</tt>.
+ */
+public class PagedQueryResultSetTest
+    extends TestCase
+{
+    /**
+     * The parts of the results, some of them empty.
+     */
+    private static final int[] PART_SIZES = new int[] { 3, 0, 4, 1, 0, 5, 2 };
+
+    private final List<Integer> loadedParts = new ArrayList<Integer>();
+
+    private PagedQueryResultSet<Integer> create(int pageSize)
+    {
+        return new PagedQueryResultSet<Integer>(PART_SIZES.length, pageSize)
+        {
+            @Override
+            protected List<Integer> loadPart(int part)
+            {
+                loadedParts.add(part);
+
+                int first = 0;
+                for (int i = 0; i < part; i++)
+                    first += PART_SIZES[i];
+
+                List<Integer> result = new ArrayList<Integer>();
+                for (int i = 0; i < PART_SIZES[part]; i++)
+                    result.add(first + i);
+                return result;
+            }
+        };
+    }
+
+    public void testPartsAreLoadedOnDemand()
+    {
+        PagedQueryResultSet<Integer> results = create(4);
+
+        assertTrue(loadedParts.isEmpty());
+        assertEquals(Integer.valueOf(0), results.next());
+        assertEquals(Arrays.asList(0, 1, 2), loadedParts);
+    }
+
+    public void testIteratesForwardAndBackward()
+    {
+        PagedQueryResultSet<Integer> results = create(2);
+        Set<Integer> expected = new TreeSet<Integer>();
+        OrderedQueryResultSet<Integer> ordered;
+        int total = 0;
+
+        for (int size : PART_SIZES)
+            total += size;
+        for (int i = 0; i < total; i++)
+            expected.add(i);
+        ordered = new OrderedQueryResultSet<Integer>(expected);
+
+        while (ordered.hasNext())
+        {
+            assertTrue(results.hasNext());
+            assertEquals(ordered.next(), results.next());
+        }
+        assertFalse(results.hasNext());
+
+        // going back reloads the pages which were dropped
+        loadedParts.clear();
+        while (ordered.hasPrev())
+        {
+            assertTrue(results.hasPrev());
+            assertEquals(ordered.prev(), results.prev());
+        }
+        assertFalse(results.hasPrev());
+        assertFalse(loadedParts.isEmpty());
+    }
+}
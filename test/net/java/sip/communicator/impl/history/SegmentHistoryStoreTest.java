@@ -0,0 +1,309 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.history;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.records.*;
+
+/**
+ * Tests the binary segment log of <tt>SegmentHistoryStore</tt>.
+ */
+public class SegmentHistoryStoreTest
+    extends TestCase
+{
+    private static final String[] NAMES
+        = new String[] { "dir", "msg_CDATA", "subject" };
+
+    private File directory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("history", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    private static HistoryRecord record(long timestamp, String msg)
+    {
+        return new HistoryRecord(
+            NAMES, new String[] { "in", msg, null }, new Date(timestamp));
+    }
+
+    private void append(SegmentHistoryStore store, int from, int to)
+        throws IOException
+    {
+        for (int i = from; i < to; i++)
+            store.appendRecord(record(1000L + i, "message " + i), -1);
+    }
+
+    public void testRecordsAreNormalized()
+        throws IOException
+    {
+        SegmentHistoryStore store = new SegmentHistoryStore(directory);
+        store.appendRecord(record(1000, "a\0b"), -1);
+
+        List<HistoryRecord> records = store.readRecords(
+            store.getSegments(null, null).get(0), null, null);
+
+        assertEquals(1, records.size());
+        assertEquals(
+            Arrays.asList("dir", "msg"),
+            Arrays.asList(records.get(0).getPropertyNames()));
+        assertEquals("a b", records.get(0).getPropertyValues()[1]);
+        assertEquals(1000, records.get(0).getTimestamp().getTime());
+    }
+
+    public void testSegmentsRollOverAndAreReloaded()
+        throws IOException
+    {
+        SegmentHistoryStore store = new SegmentHistoryStore(directory);
+        int total = SegmentHistoryStore.MAX_RECORDS_PER_SEGMENT * 2 + 10;
+        append(store, 0, total);
+
+        store = new SegmentHistoryStore(directory);
+        List<HistorySegment> segments = store.getSegments(null, null);
+
+        assertEquals(3, segments.size());
+        assertEquals(total, store.countRecords());
+
+        List<HistoryRecord> last
+            = store.readLastRecords(segments.get(2), 5);
+        assertEquals(5, last.size());
+        assertEquals("message " + (total - 1),
+            last.get(4).getPropertyValues()[1]);
+    }
+
+    public void testDateRangeTouchesOnlyNeededSegments()
+        throws IOException
+    {
+        SegmentHistoryStore store = new SegmentHistoryStore(directory);
+        int total = SegmentHistoryStore.MAX_RECORDS_PER_SEGMENT * 3;
+        append(store, 0, total);
+
+        Date start = new Date(1000L + total - 20);
+        Date end = new Date(1000L + total - 10);
+        List<HistorySegment> segments = store.getSegments(start, end);
+
+        assertEquals(1, segments.size());
+
+        List<HistoryRecord> records
+            = store.readRecords(segments.get(0), start, end);
+        assertEquals(10, records.size());
+        assertEquals(start, records.get(0).getTimestamp());
+    }
+
+    public void testTornRecordIsDropped()
+        throws IOException
+    {
+        SegmentHistoryStore store = new SegmentHistoryStore(directory);
+        append(store, 0, 10);
+
+        HistorySegment segment = store.getSegments(null, null).get(0);
+        File data = new File(directory, segment.getName());
+        RandomAccessFile raf = new RandomAccessFile(data, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        store = new SegmentHistoryStore(directory);
+        segment = store.getSegments(null, null).get(0);
+
+        assertEquals(9, store.readRecords(segment, null, null).size());
+
+        store.appendRecord(record(5000, "after crash"), -1);
+        store = new SegmentHistoryStore(directory);
+        List<HistoryRecord> records = store.readRecords(
+            store.getSegments(null, null).get(0), null, null);
+        assertEquals(10, records.size());
+        assertEquals("after crash", records.get(9).getPropertyValues()[1]);
+    }
+
+    public void testStaleIndexIsRebuiltAfterRewrite()
+        throws IOException
+    {
+        SegmentHistoryStore store = new SegmentHistoryStore(directory);
+        append(store, 0, 10);
+
+        HistorySegment segment = store.getSegments(null, null).get(0);
+        File index = new File(
+            directory,
+            segment.getName().replace(
+                SegmentHistoryStore.SEGMENT_FILETYPE,
+                SegmentHistoryStore.INDEX_FILETYPE));
+        byte[] oldIndex = readFile(index);
+
+        // the new records have the same sizes, so the old index has the
+        // offsets of the new segment file
+        List<HistoryRecord> records = new ArrayList<HistoryRecord>();
+        for (int i = 0; i < 10; i++)
+            records.add(
+                SegmentHistoryStore.normalize(
+                    record(2000L + i, "message " + i)));
+        store.rewriteSegment(segment, records);
+
+        // the segment file was replaced but not its index
+        FileOutputStream out = new FileOutputStream(index);
+        out.write(oldIndex);
+        out.close();
+
+        store = new SegmentHistoryStore(directory);
+        segment = store.getSegments(null, null).get(0);
+        // the period is checked against the timestamps of the index
+        records = store.readRecords(segment, new Date(2000L), null);
+
+        assertEquals(10, records.size());
+        assertEquals(2000L, records.get(0).getTimestamp().getTime());
+        assertEquals(2009L, records.get(9).getTimestamp().getTime());
+    }
+
+    private static byte[] readFile(File file)
+        throws IOException
+    {
+        byte[] result = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+        try
+        {
+            in.readFully(result);
+        }
+        finally
+        {
+            in.close();
+        }
+        return result;
+    }
+
+    public void testMaxNumberOfRecords()
+        throws IOException
+    {
+        SegmentHistoryStore store = new SegmentHistoryStore(directory);
+
+        for (int i = 0; i < 10; i++)
+            store.appendRecord(record(1000 + i, "message " + i), 3);
+
+        List<HistoryRecord> records = store.readRecords(
+            store.getSegments(null, null).get(0), null, null);
+
+        assertEquals(3, records.size());
+        assertEquals("message 7", records.get(0).getPropertyValues()[1]);
+    }
+
+    public void testConcurrentAppendAndUpdate()
+        throws Exception
+    {
+        final SegmentHistoryStore store = new SegmentHistoryStore(directory);
+        final int total = 300;
+        final Exception[] failure = new Exception[1];
+
+        store.appendRecord(record(1000, "first"), -1);
+
+        Thread appender = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    append(store, 1, total);
+                }
+                catch (IOException e)
+                {
+                    failure[0] = e;
+                }
+            }
+        };
+
+        appender.start();
+        for (int i = 0; appender.isAlive() || i < 10; i++)
+        {
+            final String msg = "updated " + i;
+
+            store.updateRecords(null, new HistoryStore.RecordUpdater()
+            {
+                public boolean update(List<HistoryRecord> records)
+                {
+                    HistoryRecord first = records.get(0);
+
+                    records.set(0, new HistoryRecord(
+                        first.getPropertyNames(),
+                        new String[] { "in", msg },
+                        first.getTimestamp()));
+                    return true;
+                }
+            });
+        }
+        appender.join();
+
+        assertNull(failure[0]);
+
+        // no record appended while the segment was rewritten is lost
+        SegmentHistoryStore reloaded = new SegmentHistoryStore(directory);
+        List<HistoryRecord> records = reloaded.readRecords(
+            reloaded.getSegments(null, null).get(0), null, null);
+
+        assertEquals(total, records.size());
+        assertTrue(records.get(0).getPropertyValues()[1].startsWith("updated"));
+        for (int i = 1; i < total; i++)
+        {
+            assertEquals(
+                "message " + i, records.get(i).getPropertyValues()[1]);
+        }
+    }
+
+    public void testOverlappingSegmentsAreSearchedTogether()
+        throws IOException
+    {
+        SegmentHistoryStore store = new SegmentHistoryStore(directory);
+        int max = SegmentHistoryStore.MAX_RECORDS_PER_SEGMENT;
+
+        append(store, 0, max);
+        // a record appended late with an old timestamp
+        store.appendRecord(record(1500, "late"), -1);
+        for (int i = 1; i < max; i++)
+            store.appendRecord(record(10000L + i, "message " + i), -1);
+        for (int i = 0; i < max; i++)
+            store.appendRecord(record(20000L + i, "message " + i), -1);
+
+        List<HistorySegment> segments = store.getSegments(null, null);
+
+        assertEquals(3, segments.size());
+        assertTrue(
+            Arrays.equals(
+                new long[] { 1500, 10000L + max - 1 },
+                store.getTimeRange(segments.get(1))));
+
+        List<List<HistorySegment>> groups
+            = HistoryReaderImpl.groupOverlappingSegments(store, segments);
+
+        assertEquals(2, groups.size());
+        assertEquals(segments.subList(0, 2), groups.get(0));
+        assertEquals(segments.subList(2, 3), groups.get(1));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.msghistory;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.history.records.*;
+
+/**
+ * Tests that <tt>RecentMessagesIndex</tt> saves its changes together, keeps
+ * the most recent messages and discards a saved index with another tag.
+ */
+public class RecentMessagesIndexTest
+    extends TestCase
+{
+    private static final String ACCOUNT = "Jabber:alice@example.com";
+
+    private File file;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        file = File.createTempFile("recent_messages", ".idx");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    private static RecentMessagesIndex.Entry entry(
+        String address, long timestamp)
+    {
+        String[] names = MessageHistoryServiceImpl.STRUCTURE_NAMES;
+        String[] values = new String[names.length];
+
+        values[0] = "in";
+        values[1] = "hello from " + address;
+
+        return new RecentMessagesIndex.Entry(
+            ACCOUNT, address, false,
+            new HistoryRecord(names, values, new Date(timestamp)));
+    }
+
+    private static List<String> addresses(
+        List<RecentMessagesIndex.Entry> entries)
+    {
+        List<String> result = new ArrayList<String>();
+
+        for (RecentMessagesIndex.Entry e : entries)
+            result.add(e.address);
+        return result;
+    }
+
+    public void testChangesAreSavedTogether()
+    {
+        // nothing would be saved for a minute without the flush
+        RecentMessagesIndex index
+            = new RecentMessagesIndex(file, 100, "2", 60000);
+
+        for (int i = 0; i < 20; i++)
+            index.put(entry("contact" + i + "@example.com", 1000L + i));
+        assertFalse(file.exists());
+
+        index.flush();
+        assertTrue(file.exists());
+
+        List<RecentMessagesIndex.Entry> entries
+            = new RecentMessagesIndex(file, 100, "2")
+                .getEntries(ACCOUNT, null);
+
+        assertEquals(20, entries.size());
+        assertEquals("contact19@example.com", entries.get(0).address);
+        assertEquals(
+            "hello from contact19@example.com",
+            entries.get(0).record.getPropertyValues()[1]);
+        index.close();
+    }
+
+    public void testChangesAreSavedAfterTheDelay()
+        throws Exception
+    {
+        RecentMessagesIndex index = new RecentMessagesIndex(file, 100, "2", 50);
+
+        index.put(entry("bob@example.com", 1000));
+        for (int i = 0; i < 100 && !file.exists(); i++)
+            Thread.sleep(50);
+
+        assertEquals(
+            Arrays.asList("bob@example.com"),
+            addresses(
+                new RecentMessagesIndex(file, 100, "2")
+                    .getEntries(ACCOUNT, null)));
+        index.close();
+    }
+
+    public void testCloseSavesTheMostRecentMessages()
+    {
+        RecentMessagesIndex index
+            = new RecentMessagesIndex(file, 3, "2", 60000);
+
+        for (int i = 1; i <= 5; i++)
+            index.put(entry("contact" + i + "@example.com", 1000L * i));
+        index.remove(ACCOUNT, "contact5@example.com");
+        index.close();
+
+        RecentMessagesIndex reloaded = new RecentMessagesIndex(file, 3, "2");
+
+        assertEquals(
+            Arrays.asList("contact4@example.com", "contact3@example.com"),
+            addresses(reloaded.getEntries(ACCOUNT, null)));
+        assertEquals(
+            Arrays.asList("contact4@example.com"),
+            addresses(reloaded.getEntries(ACCOUNT, new Date(3500))));
+
+        // the saved messages were selected for another version
+        assertTrue(
+            new RecentMessagesIndex(file, 3, "2-sms")
+                .getEntries(ACCOUNT, null).isEmpty());
+    }
+}
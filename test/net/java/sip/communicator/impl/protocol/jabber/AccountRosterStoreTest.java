@@ -0,0 +1,135 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.io.*;
+
+import junit.framework.*;
+
+import org.jivesoftware.smack.roster.packet.*;
+import org.jivesoftware.smack.roster.rosterstore.*;
+import org.jxmpp.jid.*;
+import org.jxmpp.jid.impl.*;
+
+/**
+ * Tests that <tt>AccountRosterStore</tt> keeps the roster and its version
+ * between logins, replaces a store it cannot read and gives every account
+ * its own directory.
+ */
+public class AccountRosterStoreTest
+    extends TestCase
+{
+    private File directory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("xmpp-roster", "");
+        directory.delete();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        delete(directory);
+    }
+
+    private static void delete(File file)
+    {
+        File[] files = file.listFiles();
+
+        if (files != null)
+        {
+            for (File child : files)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    public void testRosterIsKeptBetweenLogins()
+        throws Exception
+    {
+        File rosterDir = new File(directory, "alice@example.com");
+        RosterStore rosterStore = AccountRosterStore.open(rosterDir);
+
+        assertNotNull(rosterStore);
+        assertEquals("", rosterStore.getRosterVersion());
+        assertTrue(rosterStore.getEntries().isEmpty());
+
+        BareJid bob = JidCreate.bareFrom("bob@example.com");
+
+        assertTrue(
+            rosterStore.addEntry(new RosterPacket.Item(bob, "Bob"), "1"));
+
+        // the next login sends the version and finds the entries
+        RosterStore reopened = AccountRosterStore.open(rosterDir);
+
+        assertEquals("1", reopened.getRosterVersion());
+        assertEquals(1, reopened.getEntries().size());
+        assertEquals("Bob", reopened.getEntry(bob).getName());
+    }
+
+    public void testUnreadableStoreIsReplaced()
+        throws Exception
+    {
+        File rosterDir = new File(directory, "alice@example.com");
+
+        rosterDir.mkdirs();
+
+        Writer writer = new FileWriter(new File(rosterDir, "__version__"));
+
+        try
+        {
+            writer.write("ANOTHER_ROSTER_STORE\n42\n");
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        RosterStore rosterStore = AccountRosterStore.open(rosterDir);
+
+        // the server is asked for the whole roster
+        assertNotNull(rosterStore);
+        assertEquals("", rosterStore.getRosterVersion());
+    }
+
+    public void testStoreIsNotOpenedInAFile()
+        throws Exception
+    {
+        directory.mkdirs();
+
+        File file = new File(directory, "alice@example.com");
+
+        assertTrue(file.createNewFile());
+        assertNull(AccountRosterStore.open(file));
+    }
+
+    public void testAccountsHaveTheirOwnDirectory()
+    {
+        String alice = AccountRosterStore.getDirectoryName(
+            "Jabber:alice@example.com/jitsi");
+        String bob = AccountRosterStore.getDirectoryName(
+            "Jabber:bob@example.com/jitsi");
+        String name = alice.substring(alice.lastIndexOf(File.separator) + 1);
+
+        assertFalse(alice.equals(bob));
+        assertEquals("Jabber_alice@example.com_jitsi", name);
+    }
+}
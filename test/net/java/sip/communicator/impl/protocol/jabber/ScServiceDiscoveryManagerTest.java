@@ -0,0 +1,232 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.protocol.*;
+
+import org.jitsi.service.configuration.*;
+import org.jivesoftware.smack.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smackx.disco.packet.*;
+import org.jxmpp.jid.*;
+import org.jxmpp.jid.impl.*;
+
+/**
+ * Tests that <tt>ScServiceDiscoveryManager</tt> keeps a bounded number of
+ * disco#info requests in flight and sends the queued ones as the responses
+ * arrive.
+ */
+public class ScServiceDiscoveryManagerTest
+    extends TestCase
+{
+    /**
+     * The maximum number of requests in flight by default.
+     */
+    private static final int MAX_REQUESTS = 8;
+
+    /**
+     * The disco#info requests sent through the connection, in order.
+     */
+    private final List<DiscoverInfo> sent = new ArrayList<DiscoverInfo>();
+
+    /**
+     * The callbacks of the sent requests, in order.
+     */
+    private final List<StanzaListener> callbacks
+        = new ArrayList<StanzaListener>();
+
+    private ScServiceDiscoveryManager discoveryManager;
+
+    @Override
+    protected void setUp()
+    {
+        XMPPConnection connection = proxy(
+            XMPPConnection.class,
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+
+                    if (name.equals("sendIqWithResponseCallback")
+                        && args.length == 4)
+                    {
+                        sent.add((DiscoverInfo) args[0]);
+                        callbacks.add((StanzaListener) args[1]);
+                        return null;
+                    }
+                    if (name.equals("getReplyTimeout"))
+                        return 5000L;
+                    return defaultValue(proxy, method, args);
+                }
+            });
+        ConfigurationService configService = proxy(
+            ConfigurationService.class,
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    // the defaults of the properties
+                    if (method.getName().startsWith("get")
+                        && args != null
+                        && args.length == 2)
+                        return args[1];
+                    return defaultValue(proxy, method, args);
+                }
+            });
+
+        discoveryManager = new ScServiceDiscoveryManager(
+            proxy(ProtocolProviderService.class, null),
+            configService,
+            connection,
+            null,
+            null,
+            true);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        discoveryManager.stop();
+    }
+
+    /**
+     * Creates a proxy implementing <tt>type</tt> with <tt>handler</tt>, or
+     * returning the default values if <tt>handler</tt> is <tt>null</tt>.
+     */
+    private static <T> T proxy(Class<T> type, InvocationHandler handler)
+    {
+        if (handler == null)
+        {
+            handler = new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    return defaultValue(proxy, method, args);
+                }
+            };
+        }
+        return type.cast(Proxy.newProxyInstance(
+            type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    private static Object defaultValue(
+        Object proxy, Method method, Object[] args)
+    {
+        String name = method.getName();
+        Class<?> returnType = method.getReturnType();
+
+        if (name.equals("equals"))
+            return proxy == args[0];
+        if (name.equals("hashCode"))
+            return System.identityHashCode(proxy);
+        if (returnType == boolean.class)
+            return false;
+        if (returnType == int.class)
+            return 0;
+        if (returnType == long.class)
+            return 0L;
+        return null;
+    }
+
+    private static Jid entity(int i)
+        throws Exception
+    {
+        return JidCreate.from("contact" + i + "@example.com/resource");
+    }
+
+    /**
+     * Answers the <tt>i</tt>th sent request.
+     */
+    private void respond(int i)
+    {
+        DiscoverInfo request = sent.get(i);
+        DiscoverInfo response = new DiscoverInfo();
+
+        response.setType(IQ.Type.result);
+        response.setFrom(request.getTo());
+        response.addFeature("urn:xmpp:jingle:1");
+        try
+        {
+            callbacks.get(i).processStanza(response);
+        }
+        catch (Exception e)
+        {
+            throw new AssertionFailedError(e.toString());
+        }
+    }
+
+    public void testQueuedRequestsAreSentAsResponsesArrive()
+        throws Exception
+    {
+        int count = 2 * MAX_REQUESTS + 3;
+
+        for (int i = 0; i < count; i++)
+            assertNull(discoveryManager.discoverInfoNonBlocking(entity(i)));
+
+        assertEquals(MAX_REQUESTS, sent.size());
+
+        // each response makes room for a queued request
+        respond(0);
+        assertEquals(MAX_REQUESTS + 1, sent.size());
+        assertEquals(entity(MAX_REQUESTS), sent.get(MAX_REQUESTS).getTo());
+
+        for (int i = 1; i < count; i++)
+        {
+            respond(i);
+            assertEquals(Math.min(count, MAX_REQUESTS + i + 1), sent.size());
+        }
+
+        Set<Jid> requested = new HashSet<Jid>();
+
+        for (DiscoverInfo request : sent)
+            requested.add(request.getTo());
+        assertEquals(count, requested.size());
+
+        // the responses are cached
+        for (int i = 0; i < count; i++)
+            assertNotNull(discoveryManager.discoverInfoNonBlocking(entity(i)));
+        assertEquals(count, sent.size());
+    }
+
+    public void testVisibleContactsAreSentFirst()
+        throws Exception
+    {
+        int count = 2 * MAX_REQUESTS;
+
+        for (int i = 0; i < count; i++)
+            discoveryManager.discoverInfoNonBlocking(entity(i));
+
+        discoveryManager.setPriorityContacts(
+            Collections.singleton(entity(count - 1).asBareJid()));
+        respond(0);
+        assertEquals(entity(count - 1), sent.get(MAX_REQUESTS).getTo());
+
+        // the contact is no longer visible, the queue is in order again
+        discoveryManager.setPriorityContacts(
+            Arrays.asList(entity(count - 2).asBareJid()));
+        discoveryManager.setPriorityContacts(
+            Collections.<BareJid>emptySet());
+        respond(1);
+        assertEquals(entity(MAX_REQUESTS), sent.get(MAX_REQUESTS + 1).getTo());
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.util.*;
+
+import javax.sip.*;
+import javax.sip.address.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that <tt>EventPackageSupport</tt> finds its subscriptions through
+ * the index by address key, whatever the case of the user part, and expires
+ * together the subscriptions which expire within the same second.
+ */
+public class EventPackageSupportTest
+    extends TestCase
+{
+    /**
+     * A provider which does not dispatch the SIP messages.
+     */
+    private static class TestProvider
+        extends ProtocolProviderServiceSipImpl
+    {
+        @Override
+        public void registerEvent(String event)
+        {
+        }
+
+        @Override
+        public void registerMethodProcessor(
+            String method,
+            MethodProcessor methodProcessor)
+        {
+        }
+    }
+
+    /**
+     * Records the scheduled tasks instead of running them.
+     */
+    private static class RecordingTimer
+        extends TimerScheduler
+    {
+        final List<SipScheduler.Task> tasks
+            = new ArrayList<SipScheduler.Task>();
+
+        final List<Long> delays = new ArrayList<Long>();
+
+        @Override
+        public void schedule(SipScheduler.Task task, long delay)
+        {
+            tasks.add(task);
+            delays.add(delay);
+        }
+
+        SipScheduler.Task last()
+        {
+            return tasks.get(tasks.size() - 1);
+        }
+    }
+
+    /**
+     * Records the batches of expired subscriptions.
+     */
+    private static class TestSupport
+        extends EventPackageSupport
+    {
+        final List<List<Subscription>> expired
+            = new ArrayList<List<Subscription>>();
+
+        TestSupport(TimerScheduler timer)
+        {
+            super(new TestProvider(), "presence", 3600, "pidf+xml", timer);
+        }
+
+        @Override
+        protected void processExpiredSubscriptions(
+            List<Subscription> subscriptions)
+        {
+            expired.add(new ArrayList<Subscription>(subscriptions));
+        }
+    }
+
+    /**
+     * A subscription which identifies its resource by the user part of its
+     * address, whatever its case, like the subscriptions of the watchers of
+     * our presence.
+     */
+    private static class UserSubscription
+        extends EventPackageSupport.Subscription
+    {
+        UserSubscription(Address address)
+        {
+            super(address, null);
+        }
+
+        @Override
+        protected boolean addressEquals(Address address)
+        {
+            return ((SipURI) getAddress().getURI()).getUser()
+                .equalsIgnoreCase(((SipURI) address.getURI()).getUser());
+        }
+    }
+
+    private AddressFactory addressFactory;
+
+    private RecordingTimer timer;
+
+    private TestSupport support;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        SipFactory sipFactory = SipFactory.getInstance();
+
+        sipFactory.setPathName("gov.nist");
+        addressFactory = sipFactory.createAddressFactory();
+        timer = new RecordingTimer();
+        support = new TestSupport(timer);
+    }
+
+    private Address address(String uri)
+        throws Exception
+    {
+        return addressFactory.createAddress(uri);
+    }
+
+    private EventPackageSupport.Subscription subscription(String uri)
+        throws Exception
+    {
+        return new EventPackageSupport.Subscription(address(uri), null);
+    }
+
+    public void testAddressKeyIgnoresTheCaseOfTheUser()
+        throws Exception
+    {
+        assertEquals(
+            EventPackageSupport.getAddressKey(
+                address("sip:Alice@Example.com")),
+            EventPackageSupport.getAddressKey(
+                address("sip:alice@example.org")));
+        assertEquals(
+            "example.com",
+            EventPackageSupport.getAddressKey(address("sip:Example.com")));
+
+        EventPackageSupport.Subscription alice
+            = new UserSubscription(address("sip:Alice@example.com"));
+
+        support.addSubscription("call-1", alice);
+
+        assertSame(
+            alice,
+            support.getSubscription(address("sip:ALICE@example.com"), null));
+        assertSame(alice, support.getSubscription("call-1"));
+        assertNull(
+            support.getSubscription(address("sip:bob@example.com"), null));
+
+        assertTrue(
+            support.removeSubscription(
+                address("sip:alice@example.com"), null));
+        assertNull(
+            support.getSubscription(address("sip:Alice@example.com"), null));
+        assertNull(support.getSubscription("call-1"));
+    }
+
+    public void testSubscriptionsWithTheSameKey()
+        throws Exception
+    {
+        EventPackageSupport.Subscription com
+            = subscription("sip:alice@example.com");
+        EventPackageSupport.Subscription org
+            = subscription("sip:alice@example.org");
+        EventPackageSupport.Subscription withId
+            = new EventPackageSupport.Subscription(
+                address("sip:alice@example.com"), "line1");
+
+        support.addSubscription("call-1", com);
+        support.addSubscription("call-2", org);
+        support.addSubscription("call-3", withId);
+
+        assertSame(
+            com,
+            support.getSubscription(address("sip:alice@example.com"), null));
+        assertSame(
+            org,
+            support.getSubscription(address("sip:alice@example.org"), null));
+        assertSame(
+            withId,
+            support.getSubscription(
+                address("sip:alice@example.com"), "line1"));
+
+        // removing one of them leaves the others in the index
+        assertTrue(
+            support.removeSubscription(
+                address("sip:alice@example.com"), null));
+        assertNull(
+            support.getSubscription(address("sip:alice@example.com"), null));
+        assertSame(
+            org,
+            support.getSubscription(address("sip:alice@example.org"), null));
+        assertSame(
+            withId,
+            support.getSubscription(
+                address("sip:alice@example.com"), "line1"));
+
+        // a new subscription with the CallId of another replaces it
+        EventPackageSupport.Subscription bob
+            = subscription("sip:bob@example.com");
+
+        support.addSubscription("call-2", bob);
+        assertNull(
+            support.getSubscription(address("sip:alice@example.org"), null));
+        assertSame(
+            bob,
+            support.getSubscription(address("sip:bob@example.com"), null));
+        assertEquals(2, support.getSubscriptions().length);
+    }
+
+    public void testExpiriesWithinASecondAreProcessedTogether()
+        throws Exception
+    {
+        EventPackageSupport.Subscription first
+            = subscription("sip:alice@example.com");
+        EventPackageSupport.Subscription second
+            = subscription("sip:bob@example.com");
+        EventPackageSupport.Subscription refreshed
+            = subscription("sip:carol@example.com");
+        EventPackageSupport.Subscription removed
+            = subscription("sip:dave@example.com");
+        EventPackageSupport.Subscription later
+            = subscription("sip:erin@example.com");
+
+        support.addSubscription("call-1", first);
+        support.addSubscription("call-2", second);
+        support.addSubscription("call-3", refreshed);
+        support.addSubscription("call-4", removed);
+        support.addSubscription("call-5", later);
+
+        support.scheduleExpiry(later, 60000);
+        support.scheduleExpiry(second, 500);
+        support.scheduleExpiry(first, 0);
+        support.scheduleExpiry(refreshed, 200);
+        support.scheduleExpiry(removed, 300);
+
+        // a single task is scheduled for the earliest expiry
+        assertEquals(3, timer.tasks.size());
+        assertEquals(0L, (long) timer.delays.get(2));
+
+        // a refresh and a removal supersede the scheduled expiries
+        support.scheduleExpiry(refreshed, 60000);
+        support.removeSubscription("call-4", removed);
+        assertEquals(3, timer.tasks.size());
+
+        timer.last().run();
+
+        assertEquals(1, support.expired.size());
+        assertEquals(
+            Arrays.asList(first, second),
+            support.expired.get(0));
+
+        // the next task is scheduled for the next pending expiry
+        assertEquals(4, timer.tasks.size());
+        assertTrue(timer.delays.get(3) > 1000);
+
+        timer.last().run();
+        assertEquals(1, support.expired.size());
+    }
+}
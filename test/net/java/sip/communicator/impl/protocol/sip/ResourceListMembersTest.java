@@ -0,0 +1,80 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that <tt>ResourceListMembers</tt> leaves to the subscriptions to
+ * each contact the contacts which are not notified through the resource
+ * list, i.e. all of them when there is no resource list server or when the
+ * subscription to the list fails.
+ */
+public class ResourceListMembersTest
+    extends TestCase
+{
+    private static final List<String> CONTACTS
+        = Arrays.asList(
+            "sip:bob@example.com",
+            "sip:carol@example.com",
+            "sip:dave@example.com");
+
+    private final ResourceListMembers<String> members
+        = new ResourceListMembers<String>();
+
+    public void testWithoutResourceListEachContactIsSubscribed()
+    {
+        assertEquals(CONTACTS, members.getUnlisted(CONTACTS));
+        for (String contact : CONTACTS)
+            assertFalse(members.contains(contact));
+    }
+
+    public void testListedContactsAreNotSubscribed()
+    {
+        assertEquals(
+            Arrays.asList("sip:bob@example.com", "sip:dave@example.com"),
+            members.update(
+                Arrays.asList("sip:bob@example.com", "sip:dave@example.com")));
+        assertTrue(members.contains("sip:bob@example.com"));
+        assertEquals(
+            Arrays.asList("sip:carol@example.com"),
+            members.getUnlisted(CONTACTS));
+
+        // a contact removed from the list is subscribed to again, only the
+        // newly listed ones are to be unsubscribed from
+        assertEquals(
+            Arrays.asList("sip:carol@example.com"),
+            members.update(
+                Arrays.asList(
+                    "sip:carol@example.com", "sip:dave@example.com")));
+        assertEquals(
+            Arrays.asList("sip:bob@example.com"),
+            members.getUnlisted(CONTACTS));
+    }
+
+    public void testFailedListFallsBackToEachContact()
+    {
+        members.update(CONTACTS);
+        assertTrue(members.getUnlisted(CONTACTS).isEmpty());
+
+        members.clear();
+        assertEquals(CONTACTS, members.getUnlisted(CONTACTS));
+    }
+}
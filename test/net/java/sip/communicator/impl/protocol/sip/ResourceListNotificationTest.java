@@ -0,0 +1,230 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that <tt>ResourceListNotification</tt> parses the multipart bodies
+ * of the NOTIFY requests of a resource list server, as in the examples of
+ * RFC 4662.
+ */
+public class ResourceListNotificationTest
+    extends TestCase
+{
+    private static final String CRLF = "\r\n";
+
+    private static String pidf(String entity, String basic)
+    {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + CRLF
+            + "<presence xmlns=\"urn:ietf:params:xml:ns:pidf\" entity=\""
+            + entity + "\">" + CRLF
+            + "<tuple id=\"t1\"><status><basic>" + basic
+            + "</basic></status></tuple>" + CRLF
+            + "</presence>";
+    }
+
+    private static String part(String contentType, String cid, String content)
+    {
+        return "Content-Transfer-Encoding: binary" + CRLF
+            + "Content-ID: <" + cid + ">" + CRLF
+            + "Content-Type: " + contentType + CRLF
+            + CRLF
+            + content;
+    }
+
+    private static String multipart(String boundary, String... parts)
+    {
+        StringBuilder body = new StringBuilder();
+
+        for (String part : parts)
+        {
+            body.append("--").append(boundary).append(CRLF)
+                .append(part).append(CRLF);
+        }
+        body.append("--").append(boundary).append("--").append(CRLF);
+        return body.toString();
+    }
+
+    public void testFullState()
+        throws Exception
+    {
+        String rlmi
+            = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + CRLF
+                + "<list xmlns=\"urn:ietf:params:xml:ns:rlmi\""
+                + " uri=\"sip:buddies@example.com\" version=\"1\""
+                + " fullState=\"true\">" + CRLF
+                + "<name>Buddy List</name>" + CRLF
+                + "<resource uri=\"sip:bob@example.com\">" + CRLF
+                + "<name>Bob</name>" + CRLF
+                + "<instance id=\"juwigmtboe\" state=\"active\""
+                + " cid=\"bZr1@example.com\"/>" + CRLF
+                + "</resource>" + CRLF
+                + "<resource uri=\"sip:dave@example.com\">" + CRLF
+                + "<instance id=\"hqzsuxtfyq\" state=\"active\""
+                + " cid=\"ZvSv@example.com\"/>" + CRLF
+                + "</resource>" + CRLF
+                + "<resource uri=\"sip:ed@example.net\">" + CRLF
+                + "<instance id=\"ptjfrbbqmi\" state=\"pending\"/>" + CRLF
+                + "</resource>" + CRLF
+                + "<resource uri=\"sip:fred@example.net\">" + CRLF
+                + "<instance id=\"bmzkgavbxo\" state=\"terminated\""
+                + " reason=\"rejected\"/>" + CRLF
+                + "</resource>" + CRLF
+                + "</list>";
+        String body
+            = multipart(
+                "50UBfW7LSCVLtggUPjxvaw",
+                part(
+                    "application/rlmi+xml;charset=\"UTF-8\"",
+                    "nXYxAE@example.com",
+                    rlmi),
+                part(
+                    "application/pidf+xml;charset=\"UTF-8\"",
+                    "bZr1@example.com",
+                    pidf("sip:bob@example.com", "open")),
+                part(
+                    "application/pidf+xml;charset=\"UTF-8\"",
+                    "ZvSv@example.com",
+                    pidf("sip:dave@example.com", "closed")));
+
+        ResourceListNotification notification
+            = ResourceListNotification.parse(
+                    "50UBfW7LSCVLtggUPjxvaw",
+                    body.getBytes("UTF-8"));
+
+        assertNotNull(notification);
+        assertEquals("sip:buddies@example.com", notification.getUri());
+        assertEquals(1, notification.getVersion());
+        assertTrue(notification.isFullState());
+
+        List<ResourceListNotification.Resource> resources
+            = notification.getResources();
+
+        assertEquals(4, resources.size());
+
+        ResourceListNotification.Resource bob = resources.get(0);
+
+        assertEquals("sip:bob@example.com", bob.getUri());
+        assertEquals("Bob", bob.getName());
+        assertEquals(1, bob.getInstances().size());
+
+        ResourceListNotification.Instance instance = bob.getInstances().get(0);
+
+        assertEquals("juwigmtboe", instance.getId());
+        assertEquals(ResourceListNotification.ACTIVE, instance.getState());
+        assertEquals("application/pidf+xml", instance.getContentType());
+        assertEquals(
+            pidf("sip:bob@example.com", "open"),
+            new String(instance.getContent(), "UTF-8"));
+
+        assertEquals(
+            pidf("sip:dave@example.com", "closed"),
+            new String(
+                resources.get(1).getInstances().get(0).getContent(),
+                "UTF-8"));
+
+        instance = resources.get(2).getInstances().get(0);
+        assertEquals(ResourceListNotification.PENDING, instance.getState());
+        assertNull(instance.getContent());
+
+        instance = resources.get(3).getInstances().get(0);
+        assertEquals(ResourceListNotification.TERMINATED, instance.getState());
+        assertEquals("rejected", instance.getReason());
+        assertNull(instance.getContent());
+    }
+
+    public void testNestedList()
+        throws Exception
+    {
+        String nestedRlmi
+            = "<list xmlns=\"urn:ietf:params:xml:ns:rlmi\""
+                + " uri=\"sip:colleagues@example.com\" version=\"3\""
+                + " fullState=\"false\">" + CRLF
+                + "<resource uri=\"sip:carol@example.com\">" + CRLF
+                + "<instance id=\"1\" state=\"active\" cid=\"c1@example.com\"/>"
+                + CRLF
+                + "</resource>" + CRLF
+                + "</list>";
+        String nested
+            = multipart(
+                "nested",
+                part("application/rlmi+xml", "n1@example.com", nestedRlmi),
+                part(
+                    "application/pidf+xml",
+                    "c1@example.com",
+                    pidf("sip:carol@example.com", "open")));
+        String rlmi
+            = "<list xmlns=\"urn:ietf:params:xml:ns:rlmi\""
+                + " uri=\"sip:buddies@example.com\" version=\"7\""
+                + " fullState=\"false\">" + CRLF
+                + "<resource uri=\"sip:colleagues@example.com\">" + CRLF
+                + "<instance id=\"2\" state=\"active\" cid=\"l1@example.com\"/>"
+                + CRLF
+                + "</resource>" + CRLF
+                + "</list>";
+        String body
+            = multipart(
+                "outer",
+                part("application/rlmi+xml", "r1@example.com", rlmi),
+                part(
+                    "multipart/related;type=\"application/rlmi+xml\";"
+                        + "boundary=\"nested\"",
+                    "l1@example.com",
+                    nested));
+
+        ResourceListNotification notification
+            = ResourceListNotification.parse("outer", body.getBytes("UTF-8"));
+
+        assertNotNull(notification);
+        assertEquals(7, notification.getVersion());
+        assertFalse(notification.isFullState());
+
+        // the resources of the nested list follow the list itself
+        List<ResourceListNotification.Resource> resources
+            = notification.getResources();
+
+        assertEquals(2, resources.size());
+        assertEquals("sip:colleagues@example.com", resources.get(0).getUri());
+        assertEquals("sip:carol@example.com", resources.get(1).getUri());
+        assertEquals(
+            pidf("sip:carol@example.com", "open"),
+            new String(
+                resources.get(1).getInstances().get(0).getContent(),
+                "UTF-8"));
+    }
+
+    public void testInvalidBody()
+        throws Exception
+    {
+        assertNull(ResourceListNotification.parse("b", null));
+        assertNull(ResourceListNotification.parse(null, new byte[0]));
+        assertNull(
+            ResourceListNotification.parse(
+                "b",
+                multipart(
+                    "b",
+                    part(
+                        "application/pidf+xml",
+                        "x@example.com",
+                        pidf("sip:bob@example.com", "open")))
+                    .getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import javax.sip.*;
+import javax.sip.address.*;
+import javax.sip.header.*;
+import javax.sip.message.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that <tt>EventPackageSubscriber.ResourceListSubscription</tt> hands
+ * each resource of a notification of the list to
+ * <tt>processResource()</tt>, ignores stale notifications and requests the
+ * full state of the list when partial notifications were missed, as
+ * required by RFC 4662.
+ */
+public class ResourceListSubscriptionTest
+    extends TestCase
+{
+    private static final String CRLF = "\r\n";
+
+    private static final String BOUNDARY = "50UBfW7LSCVLtggUPjxvaw";
+
+    /**
+     * Records the URIs of the processed resources.
+     */
+    private static class RecordingSubscription
+        extends EventPackageSubscriber.ResourceListSubscription
+    {
+        final List<String> processed = new ArrayList<String>();
+
+        RecordingSubscription(Address toAddress)
+        {
+            super(toAddress);
+        }
+
+        @Override
+        protected void processResource(
+            RequestEvent requestEvent,
+            ResourceListNotification.Resource resource)
+        {
+            processed.add(resource.getUri());
+        }
+
+        @Override
+        protected void processFailureResponse(
+            ResponseEvent responseEvent,
+            int statusCode)
+        {
+        }
+
+        @Override
+        protected void processSuccessResponse(
+            ResponseEvent responseEvent,
+            int statusCode)
+        {
+        }
+
+        @Override
+        protected void processTerminatedRequest(
+            RequestEvent requestEvent,
+            String reasonCode)
+        {
+        }
+    }
+
+    private AddressFactory addressFactory;
+
+    private HeaderFactory headerFactory;
+
+    private MessageFactory messageFactory;
+
+    private RecordingSubscription subscription;
+
+    private Dialog dialog;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        SipFactory sipFactory = SipFactory.getInstance();
+
+        sipFactory.setPathName("gov.nist");
+        addressFactory = sipFactory.createAddressFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        messageFactory = sipFactory.createMessageFactory();
+
+        subscription = new RecordingSubscription(
+            addressFactory.createAddress("sip:buddies@example.com"));
+        dialog = dialog();
+    }
+
+    private static Dialog dialog()
+    {
+        return (Dialog) Proxy.newProxyInstance(
+            Dialog.class.getClassLoader(),
+            new Class<?>[] { Dialog.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+
+                    if (name.equals("equals"))
+                        return proxy == args[0];
+                    if (name.equals("hashCode"))
+                        return System.identityHashCode(proxy);
+                    return null;
+                }
+            });
+    }
+
+    /**
+     * Notifies the subscription of a version of the list, carrying the
+     * pending states of some resources.
+     */
+    private void notify(
+            Dialog dialog, int version, boolean fullState, String... uris)
+        throws Exception
+    {
+        StringBuilder rlmi = new StringBuilder();
+
+        rlmi.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>").append(CRLF)
+            .append("<list xmlns=\"urn:ietf:params:xml:ns:rlmi\"")
+            .append(" uri=\"sip:buddies@example.com\" version=\"")
+            .append(version).append("\" fullState=\"")
+            .append(fullState).append("\">").append(CRLF);
+        for (int i = 0; i < uris.length; i++)
+        {
+            rlmi.append("<resource uri=\"").append(uris[i]).append("\">")
+                .append("<instance id=\"").append(i)
+                .append("\" state=\"pending\"/></resource>").append(CRLF);
+        }
+        rlmi.append("</list>");
+
+        String body
+            = "--" + BOUNDARY + CRLF
+                + "Content-Transfer-Encoding: binary" + CRLF
+                + "Content-ID: <nXYxAE@example.com>" + CRLF
+                + "Content-Type: application/rlmi+xml;charset=\"UTF-8\""
+                + CRLF + CRLF
+                + rlmi + CRLF
+                + "--" + BOUNDARY + "--" + CRLF;
+        byte[] content = body.getBytes("UTF-8");
+
+        Address from = addressFactory.createAddress("sip:rls@example.com");
+        Address to = addressFactory.createAddress("sip:alice@example.com");
+        ContentTypeHeader contentType
+            = headerFactory.createContentTypeHeader("multipart", "related");
+
+        contentType.setParameter("type", "\"application/rlmi+xml\"");
+        contentType.setParameter("boundary", BOUNDARY);
+
+        Request request = messageFactory.createRequest(
+            to.getURI(),
+            Request.NOTIFY,
+            headerFactory.createCallIdHeader("callid@example.com"),
+            headerFactory.createCSeqHeader((long) version, Request.NOTIFY),
+            headerFactory.createFromHeader(from, "rls"),
+            headerFactory.createToHeader(to, "alice"),
+            Arrays.asList(
+                headerFactory.createViaHeader(
+                    "example.com", 5060, "udp", "z9hG4bK" + version)),
+            headerFactory.createMaxForwardsHeader(70),
+            contentType,
+            content);
+
+        subscription.processActiveRequest(
+            new RequestEvent(this, null, dialog, request),
+            content);
+    }
+
+    public void testEachResourceIsProcessed()
+        throws Exception
+    {
+        notify(
+            dialog, 1, true,
+            "sip:bob@example.com", "sip:dave@example.com",
+            "sip:ed@example.net");
+
+        assertEquals(
+            Arrays.asList(
+                "sip:bob@example.com", "sip:dave@example.com",
+                "sip:ed@example.net"),
+            subscription.processed);
+        assertFalse(subscription.takeFullStateRequest());
+
+        // a partial notification carries the changed resources only
+        subscription.processed.clear();
+        notify(dialog, 2, false, "sip:dave@example.com");
+        assertEquals(
+            Arrays.asList("sip:dave@example.com"), subscription.processed);
+        assertFalse(subscription.takeFullStateRequest());
+    }
+
+    public void testMissedNotificationsRequestTheFullState()
+        throws Exception
+    {
+        notify(dialog, 1, true, "sip:bob@example.com");
+        notify(dialog, 2, false, "sip:bob@example.com");
+        assertFalse(subscription.takeFullStateRequest());
+
+        // version 3 was missed
+        notify(dialog, 4, false, "sip:dave@example.com");
+        assertTrue(subscription.takeFullStateRequest());
+        assertFalse(subscription.takeFullStateRequest());
+
+        // the full state is requested once until it is received
+        notify(dialog, 6, false, "sip:ed@example.net");
+        assertFalse(subscription.takeFullStateRequest());
+
+        // a late notification is ignored
+        subscription.processed.clear();
+        notify(dialog, 3, false, "sip:fred@example.net");
+        assertTrue(subscription.processed.isEmpty());
+
+        notify(dialog, 7, true, "sip:bob@example.com", "sip:dave@example.com");
+        assertEquals(
+            Arrays.asList("sip:bob@example.com", "sip:dave@example.com"),
+            subscription.processed);
+        assertFalse(subscription.takeFullStateRequest());
+
+        // once the full state was received, a new gap is detected again
+        notify(dialog, 9, false, "sip:bob@example.com");
+        assertTrue(subscription.takeFullStateRequest());
+    }
+
+    public void testVersionsAreNumberedPerDialog()
+        throws Exception
+    {
+        notify(dialog, 5, true, "sip:bob@example.com");
+
+        // a new subscription to the list starts again from its first version
+        subscription.processed.clear();
+        notify(dialog(), 1, true, "sip:dave@example.com");
+        assertEquals(
+            Arrays.asList("sip:dave@example.com"), subscription.processed);
+        assertFalse(subscription.takeFullStateRequest());
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.util.*;
+
+/**
+ * Compares the lookup of the candidates for an incoming request in
+ * <tt>SipRoutingTable</tt> with the copy and linear passes over all the
+ * accounts <tt>SipStackSharing.findTargetFor()</tt> did before, for a
+ * growing number of accounts sharing the stack. Not a unit test, run it
+ * with <tt>java SipRoutingTableBenchmark [iterations]</tt>.
+ */
+public class SipRoutingTableBenchmark
+{
+    private static final int[] ACCOUNTS = new int[] { 1, 10, 50, 200, 1000 };
+
+    public static void main(String[] args)
+    {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        System.out.println(iterations + " iterations");
+
+        for (int round = 0; round < 2; round++)
+        {
+            // the first round warms up
+            boolean print = (round == 1);
+
+            for (int accounts : ACCOUNTS)
+            {
+                Set<Account> listeners = new HashSet<Account>();
+                SipRoutingTable<Account> table = new SipRoutingTable<Account>()
+                {
+                    @Override
+                    String getParamValue(Account account)
+                    {
+                        return account.paramValue;
+                    }
+                };
+
+                for (int i = 0; i < accounts; i++)
+                {
+                    // every other account shares its user with another one,
+                    // on another registrar
+                    Account account
+                        = new Account("user" + (i / 2), "registrar" + i);
+
+                    listeners.add(account);
+                    table.add(account, account.userID);
+                }
+
+                String user = "user" + (accounts / 4);
+                String paramValue = "registrar" + (accounts / 2);
+                long start = System.nanoTime();
+                int found = 0;
+
+                for (int i = 0; i < iterations; i++)
+                {
+                    if (linear(listeners, user, paramValue) != null)
+                        found++;
+                }
+                report(print, "linear", accounts, start, iterations, found);
+
+                start = System.nanoTime();
+                found = 0;
+                for (int i = 0; i < iterations; i++)
+                {
+                    if (indexed(table, user, paramValue) != null)
+                        found++;
+                }
+                report(print, "indexed", accounts, start, iterations, found);
+            }
+        }
+    }
+
+    private static void report(boolean print, String name, int accounts,
+        long start, int iterations, int found)
+    {
+        if (print)
+        {
+            System.out.println(String.format(
+                "%-8s %5d accounts %10.3f us/op %8d found",
+                name,
+                accounts,
+                (System.nanoTime() - start) / 1000.0 / iterations,
+                found));
+        }
+    }
+
+    /**
+     * The candidate lookup of <tt>SipStackSharing.findTargetFor()</tt>
+     * before the routing table.
+     */
+    private static Account linear(Set<Account> listeners, String user,
+        String paramValue)
+    {
+        List<Account> currentListenersCopy
+            = new ArrayList<Account>(new HashSet<Account>(listeners));
+        Iterator<Account> iter = currentListenersCopy.iterator();
+
+        // filterByAddress(), which lets all accounts through here
+        while (iter.hasNext())
+        {
+            if (!iter.next().matchesAddress())
+                iter.remove();
+        }
+
+        List<Account> candidates = new ArrayList<Account>();
+
+        for (Account listener : currentListenersCopy)
+        {
+            if (listener.userID.equals(user))
+                candidates.add(listener);
+        }
+        if (candidates.size() == 1)
+            return candidates.get(0);
+        for (Account candidate : candidates)
+        {
+            if (paramValue.equals(candidate.paramValue))
+                return candidate;
+        }
+        return candidates.isEmpty() ? null : candidates.get(0);
+    }
+
+    /**
+     * The candidate lookup of <tt>SipStackSharing.findTargetFor()</tt> with
+     * the routing table.
+     */
+    private static Account indexed(SipRoutingTable<Account> table,
+        String user, String paramValue)
+    {
+        List<Account> candidates = table.getTargets(user);
+        Account firstMatch = null;
+        int matchCount = 0;
+
+        for (int i = 0, count = candidates.size(); i < count; i++)
+        {
+            Account candidate = candidates.get(i);
+
+            if (candidate.matchesAddress())
+            {
+                if (firstMatch == null)
+                    firstMatch = candidate;
+                matchCount++;
+            }
+        }
+        if (matchCount <= 1)
+            return firstMatch;
+
+        List<Account> withParam = table.getTargets(user, paramValue);
+
+        for (int i = 0, count = withParam.size(); i < count; i++)
+        {
+            Account candidate = withParam.get(i);
+
+            if (candidate.matchesAddress())
+                return candidate;
+        }
+        return firstMatch;
+    }
+
+    private static class Account
+    {
+        final String userID;
+
+        final String paramValue;
+
+        Account(String userID, String paramValue)
+        {
+            this.userID = userID;
+            this.paramValue = paramValue;
+        }
+
+        boolean matchesAddress()
+        {
+            return paramValue != null;
+        }
+    }
+}
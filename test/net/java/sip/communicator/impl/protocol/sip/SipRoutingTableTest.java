@@ -0,0 +1,86 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that <tt>SipRoutingTable</tt> finds the targets by user ID and tells
+ * apart two accounts with the same user ID by the custom parameter of their
+ * contact address, even when it is only known after they were added.
+ */
+public class SipRoutingTableTest
+    extends TestCase
+{
+    /**
+     * The custom parameter of the contact address of the accounts, which
+     * they know once their registrar connection is initialised.
+     */
+    private final Map<String, String> paramValues
+        = new HashMap<String, String>();
+
+    private final SipRoutingTable<String> table
+        = new SipRoutingTable<String>()
+        {
+            @Override
+            String getParamValue(String account)
+            {
+                return paramValues.get(account);
+            }
+        };
+
+    public void testTargetsByUserID()
+    {
+        table.add("alice@registrar1", "alice");
+        table.add("bob@registrar1", "bob");
+
+        assertEquals(
+            Arrays.asList("alice@registrar1"), table.getTargets("alice"));
+        assertTrue(table.getTargets("carol").isEmpty());
+        assertTrue(table.getTargets(null).isEmpty());
+        assertEquals(
+            Arrays.asList("alice@registrar1", "bob@registrar1"),
+            table.getTargets());
+    }
+
+    public void testTwoAccountsWithTheSameUserID()
+    {
+        // the accounts are added before they connect to their registrar
+        table.add("alice@registrar1", "alice");
+        table.add("alice@registrar2", "alice");
+        assertTrue(table.getTargets("alice", "registrar2").isEmpty());
+
+        paramValues.put("alice@registrar1", "registrar1");
+        paramValues.put("alice@registrar2", "registrar2");
+
+        assertEquals(
+            Arrays.asList("alice@registrar1", "alice@registrar2"),
+            table.getTargets("alice"));
+        assertEquals(
+            Arrays.asList("alice@registrar2"),
+            table.getTargets("alice", "registrar2"));
+        assertEquals(
+            Arrays.asList("alice@registrar1"),
+            table.getTargets("alice", "registrar1"));
+        assertTrue(table.getTargets("alice", "registrar3").isEmpty());
+        assertTrue(table.getTargets("alice", null).isEmpty());
+        assertTrue(table.getTargets("bob", "registrar1").isEmpty());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that the tasks of <tt>SipScheduler</tt> run, repeat, can be canceled
+ * and rescheduled, and are accounted for in its statistics.
+ */
+public class SipSchedulerTest
+    extends TestCase
+{
+    private static class CountingTask
+        extends SipScheduler.Task
+    {
+        final CountDownLatch latch;
+
+        CountingTask(String name, int count)
+        {
+            super(name);
+            latch = new CountDownLatch(count);
+        }
+
+        public void run()
+        {
+            latch.countDown();
+        }
+    }
+
+    public void testScheduleAndCancel()
+        throws Exception
+    {
+        SipScheduler scheduler = SipScheduler.getInstance();
+        CountingTask task = new CountingTask("testScheduleAndCancel", 1);
+
+        scheduler.schedule(task, 10);
+        assertTrue(task.latch.await(5, TimeUnit.SECONDS));
+
+        // a task may be scheduled again once it has run
+        CountingTask canceled = new CountingTask("testCanceled", 1);
+
+        scheduler.schedule(canceled, 200);
+        assertTrue(canceled.cancel());
+        assertTrue(canceled.isCancelled());
+        assertFalse(canceled.latch.await(400, TimeUnit.MILLISECONDS));
+
+        scheduler.schedule(canceled, 10);
+        assertFalse(canceled.isCancelled());
+        assertTrue(canceled.latch.await(5, TimeUnit.SECONDS));
+
+        assertEquals(
+            1,
+            scheduler.getStatistics().get("testScheduleAndCancel")
+                .getExecutions());
+    }
+
+    public void testPeriodic()
+        throws Exception
+    {
+        CountingTask task = new CountingTask("testPeriodic", 3);
+
+        SipScheduler.getInstance().schedule(task, 10, 20);
+        assertTrue(task.latch.await(5, TimeUnit.SECONDS));
+        task.cancel();
+        // the statistics are recorded once run() has returned
+        Thread.sleep(50);
+
+        long executions
+            = SipScheduler.getInstance().getStatistics().get("testPeriodic")
+                .getExecutions();
+
+        Thread.sleep(100);
+        assertEquals(
+            executions,
+            SipScheduler.getInstance().getStatistics().get("testPeriodic")
+                .getExecutions());
+    }
+
+    public void testTimerSchedulerCancel()
+        throws Exception
+    {
+        TimerScheduler timer = new TimerScheduler();
+        CountingTask first = new CountingTask("testTimerScheduler", 1);
+        CountingTask second = new CountingTask("testTimerScheduler", 1);
+
+        timer.schedule(first, 200);
+        timer.scheduleRefresh(second, 200);
+        timer.cancel();
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+        assertFalse(first.latch.await(400, TimeUnit.MILLISECONDS));
+        assertEquals(1, second.latch.getCount());
+
+        // the timer is still usable once canceled
+        timer.schedule(first, 10);
+        assertTrue(first.latch.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip.xcap;
+
+import java.io.*;
+import java.net.*;
+import java.net.URI;
+import java.util.*;
+
+import javax.sip.*;
+
+import net.java.sip.communicator.impl.protocol.sip.xcap.model.resourcelists.*;
+import net.java.sip.communicator.impl.protocol.sip.xcap.utils.*;
+
+import org.apache.http.impl.client.*;
+
+import com.sun.net.httpserver.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that <tt>XCapClientImpl</tt> revalidates its local copy of the
+ * resource-lists, puts or deletes just the entries which have changed and
+ * reads the document again when it has been changed by someone else.
+ */
+public class XCapClientImplTest
+    extends TestCase
+{
+    private static final String LIST_NODE
+        = "/resource-lists/list[@name=\"buddies\"]";
+
+    /**
+     * A client which does not need the certificate service.
+     */
+    private static class TestClient
+        extends XCapClientImpl
+    {
+        @Override
+        protected DefaultHttpClient createHttpClient()
+        {
+            return new DefaultHttpClient();
+        }
+    }
+
+    /**
+     * An XCAP server storing the resource-lists document, and recording the
+     * requests made on it, without applying the changes of its entries.
+     */
+    private static class TestServer
+        implements HttpHandler
+    {
+        final List<String> requests = new ArrayList<String>();
+
+        String document;
+
+        int version = 1;
+
+        int preconditionFailures;
+
+        String getETag()
+        {
+            return "\"" + version + "\"";
+        }
+
+        public void handle(HttpExchange exchange)
+            throws IOException
+        {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            Headers headers = exchange.getRequestHeaders();
+            byte[] body = StreamUtils.read(exchange.getRequestBody());
+
+            if (path.contains("/xcap-caps/"))
+            {
+                respond(exchange, 200,
+                    XCapCapsClient.CONTENT_TYPE,
+                    "<xcap-caps xmlns=\"urn:ietf:params:xml:ns:xcap-caps\">"
+                        + "<auids><auid>resource-lists</auid></auids>"
+                        + "<namespaces><namespace>"
+                        + ResourceListsClient.NAMESPACE
+                        + "</namespace></namespaces></xcap-caps>");
+                return;
+            }
+
+            int node = path.indexOf("/~~");
+            String selector = (node == -1) ? "" : path.substring(node + 3);
+            String ifMatch = headers.getFirst("If-Match");
+            String ifNoneMatch = headers.getFirst("If-None-Match");
+
+            requests.add(method + " " + selector + " "
+                + (ifMatch != null
+                    ? ifMatch : (ifNoneMatch != null ? ifNoneMatch : "-")));
+
+            if (method.equals("GET"))
+            {
+                if (document == null)
+                    respond(exchange, 404, null, null);
+                else if (getETag().equals(ifNoneMatch))
+                    respond(exchange, 304, null, null);
+                else
+                    respond(exchange, 200,
+                        ResourceListsClient.RESOURCE_LISTS_CONTENT_TYPE,
+                        document);
+                return;
+            }
+            if (preconditionFailures > 0)
+            {
+                // someone else has changed the document in the meantime
+                preconditionFailures--;
+                version++;
+            }
+            if (ifMatch != null && !ifMatch.equals(getETag()))
+            {
+                respond(exchange, 412, null, null);
+                return;
+            }
+            if (method.equals("PUT") && selector.length() == 0)
+                document = new String(body, "UTF-8");
+            version++;
+            respond(exchange, 200, null, "");
+        }
+
+        private void respond(
+                HttpExchange exchange,
+                int code,
+                String contentType,
+                String content)
+            throws IOException
+        {
+            if (contentType != null)
+                exchange.getResponseHeaders().set("Content-Type", contentType);
+            if (document != null)
+                exchange.getResponseHeaders().set("ETag", getETag());
+            if (content == null)
+            {
+                exchange.sendResponseHeaders(code, -1);
+            }
+            else
+            {
+                byte[] bytes = content.getBytes("UTF-8");
+
+                exchange.sendResponseHeaders(code, bytes.length);
+                exchange.getResponseBody().write(bytes);
+            }
+            exchange.close();
+        }
+    }
+
+    private HttpServer httpServer;
+
+    private TestServer server;
+
+    private XCapClientImpl client;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        server = new TestServer();
+        httpServer = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        httpServer.createContext("/", server);
+        httpServer.start();
+
+        SipFactory sipFactory = SipFactory.getInstance();
+
+        sipFactory.setPathName("gov.nist");
+        client = new TestClient();
+        client.connect(
+            new URI("http://127.0.0.1:" + httpServer.getAddress().getPort()
+                + "/xcap-root"),
+            sipFactory.createAddressFactory().createAddress(
+                "sip:alice@example.com"),
+            "alice",
+            "secret");
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        client.disconnect();
+        httpServer.stop(0);
+    }
+
+    private static ResourceListsType lists(String... uris)
+    {
+        ResourceListsType resourceLists = new ResourceListsType();
+        ListType list = new ListType();
+
+        list.setName("buddies");
+        for (String uri : uris)
+            list.getEntries().add(new EntryType(uri));
+        resourceLists.getList().add(list);
+        return resourceLists;
+    }
+
+    private static String entryNode(String uri)
+    {
+        return LIST_NODE + "/entry[@uri=\"" + uri + "\"]";
+    }
+
+    public void testQuote()
+    {
+        assertEquals("\"sip:bob@example.com\"",
+            XCapClientImpl.quote("sip:bob@example.com"));
+        assertEquals("'say \"hi\"'", XCapClientImpl.quote("say \"hi\""));
+        assertNull(XCapClientImpl.quote("it's \"quoted\""));
+        assertNull(XCapClientImpl.quote(null));
+    }
+
+    public void testEntryNode()
+    {
+        assertEquals(
+            entryNode("sip:bob@example.com"),
+            XCapClientImpl.getEntryNode(LIST_NODE, "sip:bob@example.com"));
+        assertNull(
+            XCapClientImpl.getEntryNode(LIST_NODE, "sip:'\"@example.com"));
+    }
+
+    public void testDiffEntries()
+        throws Exception
+    {
+        ResourceListsType oldLists
+            = lists("sip:bob@example.com", "sip:carol@example.com");
+        ResourceListsType newLists
+            = lists("sip:bob@example.com", "sip:dave@example.com");
+        Map<String, String> puts = new LinkedHashMap<String, String>();
+        List<String> deletes = new ArrayList<String>();
+
+        assertTrue(XCapClientImpl.diffEntries("/resource-lists",
+            oldLists.getList(), newLists.getList(), puts, deletes));
+        assertEquals(
+            Arrays.asList(entryNode("sip:carol@example.com")), deletes);
+        assertEquals(
+            Collections.singletonMap(
+                entryNode("sip:dave@example.com"),
+                ResourceListsParser.toXml(
+                    new EntryType("sip:dave@example.com"))),
+            puts);
+
+        // entries with the same uri cannot be selected one by one
+        puts.clear();
+        deletes.clear();
+        assertFalse(XCapClientImpl.diffEntries("/resource-lists",
+            oldLists.getList(),
+            lists("sip:bob@example.com", "sip:bob@example.com").getList(),
+            puts, deletes));
+    }
+
+    public void testNotModifiedDocumentIsReadFromTheCache()
+        throws Exception
+    {
+        server.document = ResourceListsParser.toXml(
+            lists("sip:bob@example.com"));
+
+        client.getResourceLists();
+
+        ResourceListsType resourceLists = client.getResourceLists();
+
+        assertEquals(Arrays.asList("GET  -", "GET  \"1\""), server.requests);
+        assertEquals(
+            "sip:bob@example.com",
+            resourceLists.getList().get(0).getEntries().get(0).getUri());
+    }
+
+    public void testUpToDateDocumentIsRevalidatedAndNotPut()
+        throws Exception
+    {
+        ResourceListsType resourceLists = lists("sip:bob@example.com");
+
+        server.document = ResourceListsParser.toXml(resourceLists);
+        client.getResourceLists();
+        client.putResourceLists(resourceLists);
+
+        assertEquals(Arrays.asList("GET  -", "GET  \"1\""), server.requests);
+    }
+
+    public void testChangedEntriesArePutOneByOne()
+        throws Exception
+    {
+        server.document = ResourceListsParser.toXml(
+            lists("sip:bob@example.com", "sip:carol@example.com"));
+        client.putResourceLists(
+            lists("sip:bob@example.com", "sip:dave@example.com"));
+
+        assertEquals(
+            Arrays.asList(
+                "GET  -",
+                "DELETE " + entryNode("sip:carol@example.com") + " \"1\"",
+                "PUT " + entryNode("sip:dave@example.com") + " \"2\""),
+            server.requests);
+    }
+
+    public void testManyChangesPutTheWholeDocument()
+        throws Exception
+    {
+        server.document = ResourceListsParser.toXml(
+            lists("sip:bob@example.com"));
+
+        String[] uris = new String[XCapClientImpl.MAX_PATCH_OPERATIONS + 2];
+
+        for (int i = 0; i < uris.length; i++)
+            uris[i] = "sip:user" + i + "@example.com";
+
+        ResourceListsType resourceLists = lists(uris);
+
+        client.putResourceLists(resourceLists);
+        assertEquals(Arrays.asList("GET  -", "PUT  \"1\""), server.requests);
+        assertEquals(
+            ResourceListsParser.toXml(resourceLists), server.document);
+
+        // the document is read again as the server has stored it
+        server.requests.clear();
+        client.getResourceLists();
+        assertEquals(Arrays.asList("GET  -"), server.requests);
+    }
+
+    public void testDocumentChangedInTheMeantimeIsReadAgain()
+        throws Exception
+    {
+        server.document = ResourceListsParser.toXml(
+            lists("sip:bob@example.com", "sip:carol@example.com"));
+        server.preconditionFailures = 1;
+        client.putResourceLists(
+            lists("sip:bob@example.com", "sip:dave@example.com"));
+
+        assertEquals(
+            Arrays.asList(
+                "GET  -",
+                "DELETE " + entryNode("sip:carol@example.com") + " \"1\"",
+                "GET  \"1\"",
+                "DELETE " + entryNode("sip:carol@example.com") + " \"2\"",
+                "PUT " + entryNode("sip:dave@example.com") + " \"3\""),
+            server.requests);
+    }
+}
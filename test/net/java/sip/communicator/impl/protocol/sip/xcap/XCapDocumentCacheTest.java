@@ -0,0 +1,101 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip.xcap;
+
+import java.io.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that <tt>XCapDocumentCache</tt> keeps the documents with their entity
+ * tags in memory and on disk.
+ */
+public class XCapDocumentCacheTest
+    extends TestCase
+{
+    private static final String URI
+        = "https://xcap.example.com/xcap-root/resource-lists/users/"
+            + "sip:alice@example.com/index";
+
+    private File directory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        directory = File.createTempFile("xcap", "");
+        directory.delete();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        File[] files = directory.listFiles();
+
+        if (files != null)
+        {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+    }
+
+    public void testMemory()
+        throws Exception
+    {
+        XCapDocumentCache cache = new XCapDocumentCache(null);
+
+        assertNull(cache.get(URI));
+
+        cache.put(URI, "\"1\"", "application/resource-lists+xml",
+            "<resource-lists/>".getBytes("UTF-8"));
+
+        XCapDocumentCache.Document document = cache.get(URI);
+
+        assertEquals("\"1\"", document.getETag());
+        assertEquals(
+            "application/resource-lists+xml",
+            document.getContentType());
+        assertEquals(
+            "<resource-lists/>",
+            new String(document.getContent(), "UTF-8"));
+
+        // a document without an entity tag cannot be revalidated
+        cache.put(URI, null, "application/resource-lists+xml",
+            "<resource-lists/>".getBytes("UTF-8"));
+        assertNull(cache.get(URI));
+    }
+
+    public void testDisk()
+        throws Exception
+    {
+        new XCapDocumentCache(directory).put(
+            URI, "\"2\"", null, "<ruleset/>".getBytes("UTF-8"));
+
+        XCapDocumentCache cache = new XCapDocumentCache(directory);
+        XCapDocumentCache.Document document = cache.get(URI);
+
+        assertNotNull(document);
+        assertEquals("\"2\"", document.getETag());
+        assertNull(document.getContentType());
+        assertEquals("<ruleset/>", new String(document.getContent(), "UTF-8"));
+
+        cache.remove(URI);
+        assertNull(new XCapDocumentCache(directory).get(URI));
+    }
+}
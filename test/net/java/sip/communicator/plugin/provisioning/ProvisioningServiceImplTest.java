@@ -0,0 +1,127 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.plugin.provisioning;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jitsi.service.configuration.*;
+
+/**
+ * Tests that the removals collected by <tt>ProvisioningServiceImpl</tt> also
+ * cover the properties set earlier in the same provisioning profile, which
+ * are not in the configuration yet.
+ */
+public class ProvisioningServiceImplTest
+    extends TestCase
+{
+    private static final String ACCOUNT
+        = "net.java.sip.communicator.impl.protocol.sip.acc1";
+
+    /**
+     * Creates a configuration service holding the given property names.
+     */
+    private static ConfigurationService config(String... names)
+    {
+        final List<String> properties = Arrays.asList(names);
+
+        return (ConfigurationService) Proxy.newProxyInstance(
+            ConfigurationService.class.getClassLoader(),
+            new Class<?>[] { ConfigurationService.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+
+                    if (name.equals("getAllPropertyNames"))
+                        return new ArrayList<String>(properties);
+                    if (name.equals("getPropertyNamesByPrefix"))
+                    {
+                        List<String> result = new ArrayList<String>();
+
+                        for (String property : properties)
+                        {
+                            if (property.startsWith((String) args[0]))
+                                result.add(property);
+                        }
+                        return result;
+                    }
+                    throw new UnsupportedOperationException(name);
+                }
+            });
+    }
+
+    public void testNullRemovesPropertiesSetEarlierInProfile()
+    {
+        Map<String, Object> changes = new LinkedHashMap<String, Object>();
+
+        changes.put(ACCOUNT + ".USER_ID", "alice");
+        changes.put(ACCOUNT + ".SERVER_ADDRESS", "example.org");
+        changes.put("net.java.sip.communicator.impl.gui.KEY", "value");
+
+        ProvisioningServiceImpl.removeProperty(
+            config(ACCOUNT + ".PROXY_ADDRESS"), ACCOUNT, changes);
+
+        assertEquals(5, changes.size());
+        assertTrue(changes.containsKey(ACCOUNT));
+        assertNull(changes.get(ACCOUNT));
+        assertTrue(changes.containsKey(ACCOUNT + ".PROXY_ADDRESS"));
+        assertNull(changes.get(ACCOUNT + ".PROXY_ADDRESS"));
+        assertNull(changes.get(ACCOUNT + ".USER_ID"));
+        assertNull(changes.get(ACCOUNT + ".SERVER_ADDRESS"));
+        assertEquals(
+            "value", changes.get("net.java.sip.communicator.impl.gui.KEY"));
+    }
+
+    public void testEnforcePrefixRemovesPropertiesSetEarlierInProfile()
+    {
+        Map<String, Object> changes = new LinkedHashMap<String, Object>();
+
+        changes.put("org.example.PENDING", "value");
+        changes.put(ACCOUNT + ".USER_ID", "alice");
+
+        ProvisioningServiceImpl.checkEnforcePrefix(
+            config("org.example.STORED", ACCOUNT + ".SERVER_ADDRESS"),
+            "net.java.sip.communicator|org.jitsi",
+            changes);
+
+        assertTrue(changes.containsKey("org.example.STORED"));
+        assertNull(changes.get("org.example.STORED"));
+        assertTrue(changes.containsKey("org.example.PENDING"));
+        assertNull(changes.get("org.example.PENDING"));
+        assertEquals("alice", changes.get(ACCOUNT + ".USER_ID"));
+        assertFalse(changes.containsKey(ACCOUNT + ".SERVER_ADDRESS"));
+        assertEquals(3, changes.size());
+    }
+
+    public void testRemovedPropertiesAreNotRemovedAgainByEnforcePrefix()
+    {
+        Map<String, Object> changes = new LinkedHashMap<String, Object>();
+
+        changes.put("org.example.PENDING", null);
+
+        ProvisioningServiceImpl.checkEnforcePrefix(
+            config(), "net.java.sip.communicator", changes);
+
+        assertEquals(1, changes.size());
+        assertNull(changes.get("org.example.PENDING"));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.contactsource;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that <tt>ContactSearchIndex</tt> finds the same contacts as a quoted
+ * case insensitive pattern and keeps track of the changes of the contacts.
+ */
+public class ContactSearchIndexTest
+    extends TestCase
+{
+    private ContactSearchIndex<String> index;
+
+    @Override
+    protected void setUp()
+    {
+        index = new ContactSearchIndex<String>();
+        index.put("alice", Arrays.asList(
+            "Alice Smith", "alice@example.com", "sip:+44 20 7946 0123@pbx"));
+        index.put("bob", Arrays.asList("Bob", "bob@example.org"));
+        index.put("eve", Arrays.asList("\u00c9ve", "eve@example.com", "112"));
+    }
+
+    private static void assertFound(List<String> found, String... expected)
+    {
+        assertEquals(new HashSet<String>(Arrays.asList(expected)),
+            new HashSet<String>(found));
+    }
+
+    public void testFind()
+    {
+        assertFound(index.find("SMITH"), "alice");
+        assertFound(index.find("example.com"), "alice", "eve");
+        assertFound(index.find("ob"), "bob");
+        assertFound(index.find("\u00e9v"), "eve");
+        assertFound(index.find(""), "alice", "bob", "eve");
+        assertFound(index.find("example.net"));
+        // every trigram is there but not the string
+        assertFound(index.find("smith@example"));
+    }
+
+    public void testPutAndRemove()
+    {
+        index.put("bob", Arrays.asList("Robert", "bob@example.org"));
+        assertFound(index.find("bob"), "bob");
+        assertFound(index.find("robert"), "bob");
+        assertFound(index.find("ob"), "bob");
+
+        index.put("bob", Arrays.asList("Robert"));
+        assertFound(index.find("bob"));
+
+        index.remove("alice");
+        assertFalse(index.contains("alice"));
+        assertEquals(2, index.size());
+        assertFound(index.find("example.com"), "eve");
+        assertFound(index.findPhoneNumber("02079460123"), "eve");
+    }
+
+    public void testFindPhoneNumber()
+    {
+        // the short number may match any number
+        assertFound(index.findPhoneNumber("020 7946 0123"), "alice", "eve");
+        assertFound(index.findPhoneNumber("+1 555 0100"), "eve");
+        // too short to be looked up
+        assertFound(index.findPhoneNumber("0123"), "alice", "bob", "eve");
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.history;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that <tt>HistoryQueryExecutor</tt> merges the results of its
+ * sources like a sequential query would.
+ */
+public class HistoryQueryExecutorTest
+    extends TestCase
+{
+    private static final Comparator<Integer> ORDER
+        = new Comparator<Integer>()
+        {
+            public int compare(Integer i1, Integer i2)
+            {
+                return i1.compareTo(i2);
+            }
+        };
+
+    /**
+     * Each source returns the numbers below 100 equal to it modulo the
+     * number of sources, in order.
+     */
+    private static final HistoryQueryExecutor.Query<Integer, Integer> QUERY
+        = new HistoryQueryExecutor.Query<Integer, Integer>()
+        {
+            public Collection<Integer> execute(Integer source)
+            {
+                List<Integer> result = new ArrayList<Integer>();
+
+                for (int i = source; i < 100; i += 7)
+                    result.add(i);
+                return result;
+            }
+        };
+
+    private static List<Integer> sources()
+    {
+        List<Integer> sources = new ArrayList<Integer>();
+
+        for (int i = 0; i < 7; i++)
+            sources.add(i);
+        return sources;
+    }
+
+    private static List<Integer> range(int from, int to)
+    {
+        List<Integer> result = new ArrayList<Integer>();
+
+        for (int i = from; i < to; i++)
+            result.add(i);
+        return result;
+    }
+
+    public void testMergesInOrder()
+    {
+        assertEquals(
+            range(0, 100),
+            HistoryQueryExecutor.findAll(sources(), QUERY, ORDER));
+        assertEquals(
+            range(0, 10),
+            HistoryQueryExecutor.findFirst(sources(), QUERY, ORDER, 10));
+        assertEquals(
+            range(90, 100),
+            HistoryQueryExecutor.findLast(sources(), QUERY, ORDER, 10));
+        assertEquals(
+            range(0, 100),
+            HistoryQueryExecutor.findLast(sources(), QUERY, ORDER, 1000));
+    }
+
+    public void testFindAnyKeepsSourceOrder()
+    {
+        final AtomicInteger queried = new AtomicInteger();
+        List<Integer> sources = range(0, 1000);
+
+        List<Integer> result = HistoryQueryExecutor.findAny(
+            sources,
+            new HistoryQueryExecutor.Query<Integer, Integer>()
+            {
+                public Collection<Integer> execute(Integer source)
+                {
+                    queried.incrementAndGet();
+                    if(source % 3 == 0)
+                        return Collections.emptyList();
+                    return Collections.singletonList(source);
+                }
+            },
+            4);
+
+        assertEquals(Arrays.asList(1, 2, 4, 5), result);
+        // the sources are submitted in batches, most of them are never
+        // queried
+        assertTrue(queried.get() < 100);
+    }
+
+    public void testFindFirstStopsReadingSources()
+    {
+        final AtomicInteger read = new AtomicInteger();
+        HistoryQueryExecutor.Query<Integer, Integer> query
+            = new HistoryQueryExecutor.Query<Integer, Integer>()
+            {
+                public Iterable<Integer> execute(final Integer source)
+                {
+                    return new Iterable<Integer>()
+                    {
+                        public Iterator<Integer> iterator()
+                        {
+                            return new Iterator<Integer>()
+                            {
+                                private int next = source;
+
+                                public boolean hasNext()
+                                {
+                                    return true;
+                                }
+
+                                public Integer next()
+                                {
+                                    read.incrementAndGet();
+                                    int result = next;
+
+                                    next += 7;
+                                    return result;
+                                }
+
+                                public void remove()
+                                {
+                                    throw new UnsupportedOperationException();
+                                }
+                            };
+                        }
+                    };
+                }
+            };
+
+        assertEquals(
+            range(0, 10),
+            HistoryQueryExecutor.findFirst(sources(), query, ORDER, 10));
+        assertEquals(7 * 10, read.get());
+    }
+
+    public void testEqualResultsKeepSourceOrder()
+    {
+        // the results of all the sources compare equal by their last three
+        // digits, the first source is done last
+        HistoryQueryExecutor.Query<Integer, Integer> query
+            = new HistoryQueryExecutor.Query<Integer, Integer>()
+            {
+                public Collection<Integer> execute(Integer source)
+                {
+                    if(source == 0)
+                    {
+                        try
+                        {
+                            Thread.sleep(50);
+                        }
+                        catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+
+                    List<Integer> result = new ArrayList<Integer>();
+
+                    for (int i = 0; i < 10; i++)
+                        result.add(source * 1000 + i);
+                    return result;
+                }
+            };
+        Comparator<Integer> order = new Comparator<Integer>()
+        {
+            public int compare(Integer i1, Integer i2)
+            {
+                return (i1 % 1000) - (i2 % 1000);
+            }
+        };
+
+        assertEquals(
+            Arrays.asList(0, 1000, 2000, 3000, 4000, 5000, 6000, 1, 1001, 2001),
+            HistoryQueryExecutor.findFirst(sources(), query, order, 10));
+        assertEquals(
+            Arrays.asList(4008, 5008, 6008, 9, 1009, 2009, 3009, 4009, 5009,
+                6009),
+            HistoryQueryExecutor.findLast(sources(), query, order, 10));
+    }
+
+    public void testReadKeepsRequestedCount()
+    {
+        List<Integer> values = range(0, 1000);
+
+        assertEquals(
+            range(0, 10),
+            HistoryQueryExecutor.read(values, ORDER, 10, false));
+        assertEquals(
+            range(990, 1000),
+            HistoryQueryExecutor.read(values, ORDER, 10, true));
+        assertEquals(
+            range(0, 1000),
+            HistoryQueryExecutor.read(
+                values, ORDER, Integer.MAX_VALUE, false));
+
+        // nearly ordered results are sorted once read
+        assertEquals(
+            Arrays.asList(0, 1, 2),
+            HistoryQueryExecutor.read(
+                Arrays.asList(1, 0, 2, 3), ORDER, 3, false));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Tests that <tt>ChatRoomMemberRegistry</tt> keeps its indexes consistent
+ * with its members and shares the list of members until they change.
+ */
+public class ChatRoomMemberRegistryTest
+    extends TestCase
+{
+    private static Member member(String name, ChatRoomMemberRole role)
+    {
+        Member member = new Member();
+
+        member.name = name;
+        member.role = role;
+        return member;
+    }
+
+    public void testIndexes()
+    {
+        ChatRoomMemberRegistry<String, Member> registry
+            = new ChatRoomMemberRegistry<String, Member>()
+            {
+                @Override
+                protected String normalize(String name)
+                {
+                    return (name == null) ? null : name.toLowerCase();
+                }
+            };
+        Member alice
+            = member("Alice", ChatRoomMemberRole.MODERATOR);
+        Member bob = member("Bob", ChatRoomMemberRole.MEMBER);
+        Member carol = member("Carol", ChatRoomMemberRole.MEMBER);
+
+        registry.put("Alice", alice);
+        registry.put("Bob", bob);
+        registry.put("Carol", carol);
+
+        assertSame(bob, registry.get("Bob"));
+        assertSame(bob, registry.getByName("BOB"));
+        assertEquals(
+            new HashSet<ChatRoomMember>(Arrays.asList(alice, bob, carol)),
+            new HashSet<ChatRoomMember>(registry.getMembers()));
+
+        assertSame(bob, registry.rename("Bob", "Robert"));
+        assertNull(registry.get("Bob"));
+        assertSame(bob, registry.get("Robert"));
+        assertSame(bob, registry.getByName("bob"));
+
+        assertSame(carol, registry.remove("Carol"));
+        assertNull(registry.getByName("carol"));
+        assertEquals(
+            new HashSet<ChatRoomMember>(Arrays.asList(alice, bob)),
+            new HashSet<ChatRoomMember>(registry.getMembers()));
+
+        registry.clear();
+        assertEquals(0, registry.size());
+        assertTrue(registry.getMembers().isEmpty());
+        assertNull(registry.getByName("alice"));
+    }
+
+    public void testMembersAreShared()
+    {
+        ChatRoomMemberRegistry<String, Member> registry
+            = new ChatRoomMemberRegistry<String, Member>();
+        Member alice
+            = member("alice", ChatRoomMemberRole.MEMBER);
+
+        registry.put("alice", alice);
+
+        List<ChatRoomMember> members = registry.getMembers();
+
+        assertSame(members, registry.getMembers());
+        try
+        {
+            members.clear();
+            fail("The members can be modified");
+        }
+        catch (UnsupportedOperationException e)
+        {
+        }
+
+        alice.setRole(ChatRoomMemberRole.MODERATOR);
+        assertSame(members, registry.getMembers());
+
+        registry.put("bob", member("bob", ChatRoomMemberRole.GUEST));
+        assertNotSame(members, registry.getMembers());
+        assertEquals(1, members.size());
+        assertEquals(2, registry.getMembers().size());
+    }
+
+    private static class Member
+        implements ChatRoomMember
+    {
+        String name;
+
+        ChatRoomMemberRole role;
+
+        public ChatRoom getChatRoom()
+        {
+            return null;
+        }
+
+        public ProtocolProviderService getProtocolProvider()
+        {
+            return null;
+        }
+
+        public String getContactAddress()
+        {
+            return name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public byte[] getAvatar()
+        {
+            return null;
+        }
+
+        public Contact getContact()
+        {
+            return null;
+        }
+
+        public ChatRoomMemberRole getRole()
+        {
+            return role;
+        }
+
+        public void setRole(ChatRoomMemberRole role)
+        {
+            this.role = role;
+        }
+
+        public PresenceStatus getPresenceStatus()
+        {
+            return null;
+        }
+
+        public String getDisplayName()
+        {
+            return name;
+        }
+    }
+}